@@ -5,11 +5,15 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.os.Environment;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.arksine.autointegrate.interfaces.MCUControlInterface;
 import com.arksine.autointegrate.interfaces.ServiceControlInterface;
+import com.arksine.autointegrate.microcontroller.McuFlightRecorder;
+import com.arksine.autointegrate.microcontroller.McuLog;
 import com.arksine.autointegrate.utilities.AppItem;
+import com.arksine.autointegrate.utilities.BootTrace;
 import com.arksine.autointegrate.utilities.LogManager;
 import com.arksine.autointegrate.utilities.RootManager;
 import com.orhanobut.logger.AndroidLogAdapter;
@@ -17,8 +21,14 @@ import com.orhanobut.logger.DiskLogAdapter;
 import com.orhanobut.logger.Logger;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.atomic.AtomicReference;
 
 import timber.log.Timber;
@@ -30,6 +40,12 @@ import timber.log.Timber;
 public class AutoIntegrate extends Application {
     private static final boolean LOG_VERBOSE_RELEASE = true;  // TODO: Change to false to limit release logs
 
+    private static final String FLIGHT_RECORDER_FILE = "mcu_flight.bin";
+    private static final int FLIGHT_RECORDER_SIZE = 256 * 1024;
+    // Dumps kept in the log directory, the oldest are deleted after each new one
+    private static final String FLIGHT_DUMP_PREFIX = "mcu_flight_";
+    private static final int MAX_FLIGHT_DUMPS = 10;
+
     private static volatile List<AppItem> mAppItems = null;
     private static final Object APP_LIST_LOCK = new Object();
 
@@ -37,6 +53,9 @@ public class AutoIntegrate extends Application {
     private static AtomicReference<MCUControlInterface> mMcuControlInterface
             = new AtomicReference<>(null);
 
+    private static volatile McuFlightRecorder mFlightRecorder = null;
+    private static String mLogDirectory = null;
+
     // TODO: add reference for radio interface
 
     @Override
@@ -46,6 +65,18 @@ public class AutoIntegrate extends Application {
         String logDirectory = Environment.getExternalStorageDirectory().getAbsolutePath() +
                 File.separatorChar + "AutoIntegrate";
         LogManager.initializeLogs(getApplicationContext(), logDirectory, "autointegrate");
+        BootTrace.init(getFilesDir());
+
+        McuLog.setTracing(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean("main_pref_key_mcu_trace", false));
+
+        mLogDirectory = logDirectory;
+        try {
+            mFlightRecorder = new McuFlightRecorder(new File(getFilesDir(), FLIGHT_RECORDER_FILE),
+                    FLIGHT_RECORDER_SIZE);
+        } catch (IOException e) {
+            Timber.w(e, "Unable to open MCU flight recorder");
+        }
 
         // TODO: might not should do this here
         RootManager.initSuperUser();
@@ -104,4 +135,66 @@ public class AutoIntegrate extends Application {
         return mMcuControlInterface;
     }
 
+    /**
+     * Returns the recorder for traffic to and from the Micro Controller, or null if its file
+     * could not be opened
+     */
+    public static McuFlightRecorder getFlightRecorder() {
+        return mFlightRecorder;
+    }
+
+    /**
+     * Saves the flight recorder's contents to the log directory.  Only the newest
+     * MAX_FLIGHT_DUMPS dumps are kept.  Does file I/O, do not call on the UI thread.
+     *
+     * @param reason    Added to the file name, ie "device_error"
+     * @return The file written, or null if it could not be written
+     */
+    public static synchronized File dumpFlightRecorder(String reason) {
+        McuFlightRecorder recorder = mFlightRecorder;
+        if (recorder == null || mLogDirectory == null) {
+            return null;
+        }
+
+        File folder = new File(mLogDirectory);
+        if (!folder.exists() && !folder.mkdirs()) {
+            Timber.w("Unable to create %s", mLogDirectory);
+            return null;
+        }
+
+        String time = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File dump = new File(folder, FLIGHT_DUMP_PREFIX + time + "_" + reason + ".bin");
+        try {
+            recorder.dump(dump);
+            Timber.i("MCU flight recording saved to %s", dump);
+        } catch (IOException e) {
+            Timber.w(e, "Unable to save MCU flight recording");
+            dump = null;
+        }
+
+        deleteOldFlightDumps(folder);
+        return dump;
+    }
+
+    // A cable that keeps dropping dumps on every error, only the newest dumps are kept
+    private static void deleteOldFlightDumps(File folder) {
+        File[] dumps = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FLIGHT_DUMP_PREFIX) && name.endsWith(".bin");
+            }
+        });
+        if (dumps == null || dumps.length <= MAX_FLIGHT_DUMPS) {
+            return;
+        }
+
+        // The names start with the time, so they sort oldest first
+        Arrays.sort(dumps);
+        for (int i = 0; i < dumps.length - MAX_FLIGHT_DUMPS; i++) {
+            if (!dumps[i].delete()) {
+                Timber.w("Unable to delete %s", dumps[i]);
+            }
+        }
+    }
+
 }
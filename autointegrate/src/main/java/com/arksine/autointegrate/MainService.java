@@ -18,9 +18,20 @@ import android.provider.Settings;
 import android.widget.Toast;
 
 import com.arksine.autointegrate.activities.MainActivity;
+import com.arksine.autointegrate.microcontroller.LatencyStats;
+import com.arksine.autointegrate.radio.BandScanner;
+import com.arksine.autointegrate.radio.RadioCom;
+import com.arksine.autointegrate.radio.RadioState;
 import com.arksine.autointegrate.radio.RemoteRadioEvents;
+import com.arksine.autointegrate.radio.StationCache;
 import com.arksine.autointegrate.utilities.UtilityFunctions;
 import com.arksine.hdradiolib.RadioController;
+import com.arksine.hdradiolib.enums.RadioBand;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -146,6 +157,15 @@ public class MainService extends Service {
         unregisterReceiver(mStopReceiver);
     }
 
+    // Prints the MCU input latencies, see with "adb shell dumpsys activity service MainService"
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("MCU latency:");
+        for (LatencyStats stats : mServiceThread.getMcuLatencyStats()) {
+            writer.println("  " + stats);
+        }
+    }
+
     private Bitmap getLargeNotificationIcon() {
         Bitmap icon = BitmapFactory.decodeResource(getResources(),
                 R.drawable.notification_large);
@@ -169,8 +189,66 @@ public class MainService extends Service {
             return mServiceThread.getRadioInterface();
         }
 
+        /**
+         * Returns a snapshot of the radio's current state, which can be painted right away.
+         * RadioState.EMPTY if the radio isn't connected.
+         */
+        public RadioState getRadioState() {
+            return mServiceThread.getRadioState();
+        }
 
+        /**
+         * Starts sweeping a band for strong stations in the background.  Returns false if the
+         * radio isn't on or a scan is already running.
+         */
+        public boolean startBandScan(RadioBand band) {
+            RadioCom radio = mServiceThread.getConnectedRadio();
+            return radio != null && radio.startBandScan(band);
+        }
 
+        public void cancelBandScan() {
+            RadioCom radio = mServiceThread.getConnectedRadio();
+            if (radio != null) {
+                radio.cancelBandScan();
+            }
+        }
+
+        /**
+         * Returns the strong stations from the last scan of a band here, strongest first.
+         * Empty if there is none.
+         */
+        public List<BandScanner.Reading> getStrongStations(RadioBand band) {
+            RadioCom radio = mServiceThread.getConnectedRadio();
+            if (radio == null) {
+                return Collections.emptyList();
+            }
+            return radio.getStrongStations(band);
+        }
+
+        /**
+         * Returns what each station last reported and the presets, or null if the radio has
+         * not connected yet
+         */
+        public StationCache getStationCache() {
+            return RadioCom.getStationCache();
+        }
+
+        /**
+         * Stores a station in a preset slot (or clears the slot if station is null) and saves
+         * the presets in the background
+         */
+        public void setRadioPreset(int slot, StationCache.Station station) {
+            StationCache cache = RadioCom.getStationCache();
+            if (cache != null) {
+                cache.setPreset(slot, station);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        RadioCom.saveStationCache();
+                    }
+                }).start();
+            }
+        }
 
         public void registerRadioCallback(RemoteRadioEvents cb) {
             if (cb != null) {
@@ -178,6 +256,17 @@ public class MainService extends Service {
             }
         }
 
+        /**
+         * Registers a callback that already has the state up to sinceVersion, ie from
+         * getRadioState().  Only fields that changed after it are sent.
+         */
+        public void registerRadioCallback(RemoteRadioEvents cb, long sinceVersion) {
+            if (cb != null) {
+                mRadioCallbacks.register(cb);
+                mServiceThread.syncRadioCallback(cb, sinceVersion);
+            }
+        }
+
         public void unregisterRadioCallback(RemoteRadioEvents cb) {
             if (cb != null) {
                 mRadioCallbacks.unregister(cb);
@@ -1,23 +1,33 @@
 package com.arksine.autointegrate;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
 import android.widget.Toast;
 
 import com.arksine.autointegrate.interfaces.McuLearnCallbacks;
 import com.arksine.autointegrate.interfaces.ServiceControlInterface;
+import com.arksine.autointegrate.microcontroller.LatencyStats;
 import com.arksine.autointegrate.microcontroller.MicroControllerCom;
 import com.arksine.autointegrate.power.IntegratedPowerManager;
 import com.arksine.autointegrate.preferences.MainSettings;
 import com.arksine.autointegrate.radio.RadioCom;
+import com.arksine.autointegrate.radio.RadioState;
+import com.arksine.autointegrate.radio.RemoteRadioEvents;
 import com.arksine.autointegrate.utilities.BackgroundThreadFactory;
+import com.arksine.autointegrate.utilities.BootTrace;
+import com.arksine.autointegrate.utilities.CompletionFuture;
+import com.arksine.autointegrate.utilities.ConnectionScheduler;
+import com.arksine.autointegrate.utilities.ModuleStartup;
 import com.arksine.autointegrate.utilities.RootManager;
 import com.arksine.autointegrate.utilities.UtilityFunctions;
 import com.arksine.hdradiolib.*;
 import com.arksine.hdradiolib.BuildConfig;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -33,18 +43,26 @@ import timber.log.Timber;
 
 public class ServiceThread implements Runnable {
 
-    private static final int MAXIMUM_CONNECTION_ATTEMPTS = 10;
-    private static final int CONNECTION_ATTEMPT_DELAY = 1000;
+    private static final String MCU_MODULE = "MCU";
+    private static final String RADIO_MODULE = "HD Radio";
+    private static final String ROOT_MODULE = "Root Check";
+    private static final String POWER_MODULE = "Power Manager";
+    private static final int ROOT_CHECK_TIMEOUT = 15000;
 
     private MainService mService;
     private ExecutorService EXECUTOR = Executors.newCachedThreadPool(new BackgroundThreadFactory());
 
     private Future mMainThreadFuture = null;
 
-    private IntegratedPowerManager mPowerManager = null;
+    private volatile IntegratedPowerManager mPowerManager = null;
     private AtomicReference<MicroControllerCom> mMicroController = new AtomicReference<>(null);
+    // Held while the MCU connects, disconnects or is destroyed.  The instance is reused, so a
+    // disconnect from a refresh waits for a scheduler attempt that is still connecting.
+    private final Object mMcuLock = new Object();
     private AtomicReference<McuLearnCallbacks> mMcuLearnCallbacks = new AtomicReference<>(null);
     private AtomicReference<RadioCom> mHdRadio = new AtomicReference<>(null);
+    private AtomicReference<RadioCom> mOpeningRadio = new AtomicReference<>(null);
+    private AtomicReference<ConnectionScheduler> mScheduler = new AtomicReference<>(null);
 
     private AtomicBoolean mLearningMode = new AtomicBoolean(false);
     private AtomicBoolean mServiceSuspended = new AtomicBoolean(false);
@@ -82,7 +100,15 @@ public class ServiceThread implements Runnable {
         @Override
         public void refreshRadioConnection() {
             Timber.v("Refresh Radio Thread");
-            EXECUTOR.execute(stopHdRadioConnection);
+            disconnectHdRadio(true);
+        }
+
+        @Override
+        public void onHardwareAttached() {
+            ConnectionScheduler scheduler = mScheduler.get();
+            if (scheduler != null) {
+                scheduler.wake();
+            }
         }
     };
 
@@ -90,190 +116,251 @@ public class ServiceThread implements Runnable {
         mService = svc;
         AutoIntegrate.setServiceControlInterface(this.mServiceInterface);
         mLocalBM = LocalBroadcastManager.getInstance(mService);
-
-        if (RootManager.isInitialized()) {
-            boolean rootStatus = RootManager.isRootAvailable();
-            mPowerManager = new IntegratedPowerManager(mService, rootStatus);
-        } else {
-            RootManager.RootCallback callback = new RootManager.RootCallback() {
-                @Override
-                public void OnRootInitialized(boolean rootStatus) {
-                    mPowerManager = new IntegratedPowerManager(mService, rootStatus);
-                    notifyServiceThread();
-                }
-            };
-            RootManager.checkRootWithCallback(callback);
-        }
     }
 
 
     @Override
     public void run() {
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(mService);
-        int mcuConnectionAttempts = 0;
-        int radioConnectionAttempts = 0;
-        boolean mcuEnabled;
-        boolean radioEnabled;
 
-        // Check to see if root is initialized.  If not, we will wait until notified by the RootCallback
-        synchronized (this) {
-            if (!RootManager.isInitialized()) {
-                Timber.v("Root not initialized, waiting");
+        // The MCU and the radio are connected by the scheduler, each with its own retries.
+        // Their first attempts, along with the root check and the power manager, are made by
+        // the startup graph as soon as the modules they depend on are up.  This thread only
+        // waits until it is told to stop.
+        final ConnectionScheduler scheduler = new ConnectionScheduler(EXECUTOR,
+                new BackgroundThreadFactory(), mSchedulerListener);
+        scheduler.addModule(mMcuModule);
+        scheduler.addModule(mRadioModule);
+        mScheduler.set(scheduler);
+        scheduler.start(false);
+
+        ModuleStartup.Task connectMcu = new ModuleStartup.Task() {
+            @Override
+            public boolean start() {
+                return scheduler.connectNow(MCU_MODULE);
+            }
+        };
+        ModuleStartup.Task connectRadio = new ModuleStartup.Task() {
+            @Override
+            public boolean start() {
+                return scheduler.connectNow(RADIO_MODULE);
+            }
+        };
+
+        ModuleStartup startup = new ModuleStartup();
+        startup.add(ROOT_MODULE, mRootCheck);
+        startup.add(POWER_MODULE, mPowerManagerStartup, ROOT_MODULE);
+        startup.add(MCU_MODULE, connectMcu);
+        if (isRadioUsingMcuDriver()) {
+            startup.add(RADIO_MODULE, connectRadio, MCU_MODULE);
+        } else {
+            startup.add(RADIO_MODULE, connectRadio);
+        }
+        startup.start(EXECUTOR);
 
+        synchronized (this) {
+            while (mServiceThreadRunning.get()) {
                 try {
                     mIsWaiting.set(true);
-                    wait(10000);
-                } catch (InterruptedException err) {
-                    Timber.w(err);
+                    wait();
+                } catch (InterruptedException e) {
+                    Timber.w(e);
+                    break;
                 } finally {
-                    if (mIsWaiting.compareAndSet(true, false)) {
-                        Timber.v("Wait for root access interrupted / timed out");
-                    }
+                    mIsWaiting.set(false);
                 }
             }
         }
 
-        while (mServiceThreadRunning.get()) {
+        scheduler.stop();
+        mScheduler.set(null);
 
-            mcuEnabled = sharedPrefs.getBoolean("main_pref_key_toggle_controller", false);
-            radioEnabled = sharedPrefs.getBoolean("main_pref_key_toggle_radio", false);
+        // Clean up all spawned threads.  Stop the HD Radio first in the event that it uses
+        // the MCU for comms.  The radio gives up on closing after its own timeout.  A radio
+        // that is still opening is closed too, disconnecting it cancels the attempt.
+        RadioCom openingRadio = mOpeningRadio.getAndSet(null);
+        try {
+            if (openingRadio != null) {
+                openingRadio.disconnectAsync().get();
+            }
+            disconnectHdRadio(false).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Timber.w(e);
+        }
+        destroyMicroController.run();
 
-            Timber.v("MCU Integration Enabled Status: %b", mcuEnabled);
-            Timber.v("Radio Integration Enabled Status: %b", radioEnabled);
+        mServiceThreadRunning.set(false);
+        Timber.v("Service Thread finished executing");
 
-            // Check to see if MicroController Integration is enabled
-            if (mcuEnabled && mcuConnectionAttempts < MAXIMUM_CONNECTION_ATTEMPTS) {
+    }
 
-                // If the MicroController connection hasn't been established, do so.
-                if (mMicroController.get() == null || !mMicroController.get().isConnected()) {
-                    // TODO: instead of creating a new instance every time, can I just try reconnecting?
-                    mMicroController.set(new MicroControllerCom(mService, mLearningMode.get(),
-                            mMcuLearnCallbacks.get()));
-                    if (mMicroController.get().connect()) {
-                        Timber.v("Micro Controller connection established");
+    private boolean isRadioUsingMcuDriver() {
+        // Driver 2 is the integrated MCU driver, see RadioCom
+        String driver = PreferenceManager.getDefaultSharedPreferences(mService)
+                .getString("radio_pref_key_select_driver", "0");
+        return driver.equals("2");
+    }
 
-                        // update Radio Driver if Radio is Connected
-                        if (mHdRadio.get() != null && mHdRadio.get().isConnected()) {
-                            mHdRadio.get().updateDriver();
-                        }
-                    } else {
-                        Timber.v("Error connecting to Micro Controller: Connection Attempt " + mcuConnectionAttempts);
-                        AutoIntegrate.setMcuControlInterface(null);
-                        mMicroController.set(null);
-                    }
-                    mcuConnectionAttempts++;
-                }
+    // Always succeeds, the power manager is started with whatever root status was found
+    private final ModuleStartup.Task mRootCheck = new ModuleStartup.Task() {
+        @Override
+        public boolean start() {
+            if (RootManager.isInitialized()) {
+                BootTrace.mark(BootTrace.Phase.ROOT_CHECKED);
+                return true;
             }
 
+            Timber.v("Root not initialized, waiting");
+            final CountDownLatch rootLatch = new CountDownLatch(1);
+            RootManager.checkRootWithCallback(new RootManager.RootCallback() {
+                @Override
+                public void OnRootInitialized(boolean rootStatus) {
+                    rootLatch.countDown();
+                }
+            });
 
-            // Check for HD Radio Integration, we do this second because it is possible that
-            // the driver relies on the MCU
-            if (radioEnabled && radioConnectionAttempts < MAXIMUM_CONNECTION_ATTEMPTS) {
-
-                // If the HD Radio Object is either not set or not connected to its driver,
-                // attempt connection
-                if (mHdRadio.get() == null || !mHdRadio.get().isConnected()) {
-
-                    mHdRadio.set(new RadioCom(mService));
-                    if (mHdRadio.get().connect()) {
-                        Timber.v("HD Radio Connection Set Up");
-                    } else {
-                        Timber.v("Error Setting up HD Radio: Attempt " + radioConnectionAttempts);
-                        mHdRadio.set(null);
-                    }
-                    radioConnectionAttempts++;
+            try {
+                if (!rootLatch.await(ROOT_CHECK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    Timber.v("Wait for root access timed out");
                 }
+            } catch (InterruptedException e) {
+                Timber.w(e);
+            }
+            return true;
+        }
+    };
+
+    // The power manager lives as long as this object, it is only created on the first run
+    private final ModuleStartup.Task mPowerManagerStartup = new ModuleStartup.Task() {
+        @Override
+        public boolean start() {
+            if (mPowerManager == null) {
+                mPowerManager = new IntegratedPowerManager(mService,
+                        RootManager.isRootAvailable());
             }
+            return true;
+        }
+    };
 
+    private final ConnectionScheduler.Module mMcuModule = new ConnectionScheduler.Module() {
+        @Override
+        public String getName() {
+            return MCU_MODULE;
+        }
 
-            if (threadWaitCheck(mcuEnabled, radioEnabled,
-                    mcuConnectionAttempts, radioConnectionAttempts)) {
+        @Override
+        public boolean isEnabled() {
+            boolean enabled = PreferenceManager.getDefaultSharedPreferences(mService)
+                    .getBoolean("main_pref_key_toggle_controller", false);
+            Timber.v("MCU Integration Enabled Status: %b", enabled);
+            return enabled;
+        }
 
-                if (mcuConnectionAttempts >= MAXIMUM_CONNECTION_ATTEMPTS) {
-                    // TODO: Toast needs to be done on UI thread
-                    //Toast.makeText(mService, "Maximum MCU connection attempts reached",
-                     //       Toast.LENGTH_SHORT).show();
-                    Timber.i("Maximum MCU connection attempts reached");
+        @Override
+        public boolean connect() {
+            synchronized (mMcuLock) {
+                // Reuse the existing instance so its threads and action tables survive
+                // the reconnect, only the transport is rebuilt
+                MicroControllerCom microController = mMicroController.get();
+                if (microController == null) {
+                    microController = new MicroControllerCom(mService, mLearningMode.get(),
+                            mMcuLearnCallbacks.get());
+                    mMicroController.set(microController);
+                } else {
+                    microController.setMode(mLearningMode.get(), mMcuLearnCallbacks.get());
                 }
 
-                if (radioConnectionAttempts >= MAXIMUM_CONNECTION_ATTEMPTS) {
-                    //Toast.makeText(mService, "Maximum Radio connection attempts reached",
-                    //        Toast.LENGTH_SHORT).show();
-                    Timber.i("Maximum Radio connection attempts reached");
-                }
+                if (microController.connect()) {
+                    Timber.v("Micro Controller connection established");
 
-                // The thread will now sleep, so reset connection attempts for when
-                // it is refreshed.
-                mcuConnectionAttempts = 0;
-                radioConnectionAttempts = 0;
-
-                // Pause execution of this thread until some event requires it to wake up (ie:
-                // someone changed a setting or the device has had power applied
-                synchronized (this) {
-                    try {
-                        mIsWaiting.set(true);
-                        wait();
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    } finally {
-                        if (mIsWaiting.compareAndSet(true, false)) {
-                            Timber.i("Wait for service thread interrupted");
-                        }
+                    // update Radio Driver if Radio is Connected
+                    if (mHdRadio.get() != null && mHdRadio.get().isConnected()) {
+                        mHdRadio.get().updateDriver();
                     }
+                    return true;
+                } else {
+                    Timber.v("Error connecting to Micro Controller");
+                    AutoIntegrate.setMcuControlInterface(null);
+                    return false;
                 }
             }
-
-            // sleep for 1 second between connection attempts.  This gives the service
-            // time to apply new settings between attempts
-            try {
-                Thread.sleep(CONNECTION_ATTEMPT_DELAY);
-            } catch (InterruptedException e) {
-                Timber.w(e);
-            }
         }
 
-        // Clean up all spawned threads.  Stop the HD Radio first in the event that it uses
-        // the MCU for comms.
-        stopHdRadioConnection.run();
-        stopMicroControllerConnection.run();
-
+        @Override
+        public boolean isConnected() {
+            return mMicroController.get() != null && mMicroController.get().isConnected();
+        }
+    };
 
+    // The radio opens in a callback, so its attempts don't hold a thread while they wait
+    private final ConnectionScheduler.AsyncModule mRadioModule =
+            new ConnectionScheduler.AsyncModule() {
+        @Override
+        public String getName() {
+            return RADIO_MODULE;
+        }
 
-        mServiceThreadRunning.set(false);
-        Timber.v("Service Thread finished executing");
+        @Override
+        public boolean isEnabled() {
+            boolean enabled = PreferenceManager.getDefaultSharedPreferences(mService)
+                    .getBoolean("main_pref_key_toggle_radio", false);
+            Timber.v("Radio Integration Enabled Status: %b", enabled);
+            return enabled;
+        }
 
-    }
+        @Override
+        public CompletionFuture<Boolean> connectAsync() {
+            final RadioCom radio = new RadioCom(mService);
+            mOpeningRadio.set(radio);
+            return radio.connectAsync().addCallback(new CompletionFuture.Callback<Boolean>() {
+                @Override
+                public void onComplete(CompletionFuture<Boolean> future) {
+                    mOpeningRadio.compareAndSet(radio, null);
+                    if (!future.getNow(false)) {
+                        Timber.v("Error Setting up HD Radio");
+                        return;
+                    }
 
-    /**
-     * Checks to see if the service thread should enter wait mode.  The thread should enter wait mode
-     * if all enabled modules have either successfully connected or have reached their maximum
-     * connection attempts. If all modules are disabled the thread should wait by default.
-     *
-     * @param mcuEnabled    Status of the MCU module
-     * @param radioEnabled  Status of the Radio module
-     * @param mcuAttempts   Number of attempts the MCU has tried to connect during this cycle
-     * @param radioAttempts Number of attempts the Radio has tried to connect during this cycle
-     *
-     * @return true if the thread should enter wait mode, false if it should continue
-     */
-    private boolean threadWaitCheck(boolean mcuEnabled, boolean radioEnabled,
-                                 int mcuAttempts, int radioAttempts) {
+                    mHdRadio.set(radio);
 
-        boolean shouldWait = true;
-        if (mcuEnabled) {
-            shouldWait = ((mMicroController.get() != null && mMicroController.get().isConnected()) ||
-                        mcuAttempts >= MAXIMUM_CONNECTION_ATTEMPTS);
+                    // The service thread stopped while the radio was opening.  Checked after
+                    // setting the radio, so either this or the shutdown path closes it.
+                    ConnectionScheduler scheduler = mScheduler.get();
+                    if (scheduler == null || !scheduler.isRunning()) {
+                        if (mHdRadio.compareAndSet(radio, null)) {
+                            Timber.v("HD Radio opened after the service stopped, closing it");
+                            radio.disconnectAsync();
+                        }
+                        return;
+                    }
+                    Timber.v("HD Radio Connection Set Up");
+                }
+            });
         }
 
-        if (radioEnabled) {
-            shouldWait = ((shouldWait && (mHdRadio.get() != null && mHdRadio.get().isConnected())) ||
-                        radioAttempts >= MAXIMUM_CONNECTION_ATTEMPTS);
+        @Override
+        public boolean isConnected() {
+            return mHdRadio.get() != null && mHdRadio.get().isConnected();
         }
+    };
 
-        Timber.v("Thead Wait Status: " + shouldWait);
+    private final ConnectionScheduler.Listener mSchedulerListener = new ConnectionScheduler.Listener() {
+        @Override
+        public void onModuleConnected(ConnectionScheduler.Module module, long msSinceStart) {
+            // The radio may use the MCU as its driver, give it another try right away
+            if (module == mMcuModule) {
+                ConnectionScheduler scheduler = mScheduler.get();
+                if (scheduler != null) {
+                    scheduler.wake();
+                }
+            }
+        }
 
-        return shouldWait;
-    }
+        @Override
+        public void onModuleFailed(ConnectionScheduler.Module module) {
+            // TODO: Toast needs to be done on UI thread
+            Timber.i("Waiting for hardware before retrying %s", module.getName());
+        }
+    };
 
     boolean isServiceThreadRunning() {
         return mServiceThreadRunning.get();
@@ -281,6 +368,11 @@ public class ServiceThread implements Runnable {
 
 
     void startServiceThread() {
+        // A wake up has already started the trace
+        if (!BootTrace.isActive()) {
+            BootTrace.begin();
+        }
+        BootTrace.mark(BootTrace.Phase.SERVICE_START);
 
         // Just in case, make sure the executor is active
         if (EXECUTOR == null || EXECUTOR.isShutdown()) {
@@ -312,6 +404,7 @@ public class ServiceThread implements Runnable {
 
     // DO NOT call on the UI thread, as it is blocking.
     void destroyServiceThread() {
+        BootTrace.end();
         mServiceThreadRunning.set(false);
         notifyServiceThread();
         EXECUTOR.shutdown();
@@ -331,7 +424,9 @@ public class ServiceThread implements Runnable {
         mMainThreadFuture = null;
 
         // stop the power manager
-        mPowerManager.destroy();
+        if (mPowerManager != null) {
+            mPowerManager.destroy();
+        }
 
         // Remove the service control interface
         AutoIntegrate.setServiceControlInterface(null);
@@ -359,6 +454,29 @@ public class ServiceThread implements Runnable {
         }
     }
 
+    RadioCom getConnectedRadio() {
+        RadioCom radio = mHdRadio.get();
+        return (radio != null && radio.isConnected()) ? radio : null;
+    }
+
+    RadioState getRadioState() {
+        RadioCom radio = mHdRadio.get();
+        return (radio != null) ? radio.getRadioState() : RadioState.EMPTY;
+    }
+
+    List<LatencyStats> getMcuLatencyStats() {
+        MicroControllerCom microController = mMicroController.get();
+        return (microController != null) ? microController.getLatencyStats()
+                : Collections.<LatencyStats>emptyList();
+    }
+
+    void syncRadioCallback(RemoteRadioEvents callback, long version) {
+        RadioCom radio = mHdRadio.get();
+        if (radio != null) {
+            radio.syncRadioCallback(callback, version);
+        }
+    }
+
     // *** The code below to stop threads are blocking, so they are implemented as runnables
     //     rather than as functions.  This makes it harder to accidentally call one on the UI thread
 
@@ -395,36 +513,67 @@ public class ServiceThread implements Runnable {
     private Runnable stopMicroControllerConnection = new Runnable() {
         @Override
         public void run() {
-            // Disconnect from Micro Controller if connected
-            if (mMicroController.get() != null ) {
-                mMicroController.get().disconnect();
-                mMicroController.set(null);
-                AutoIntegrate.setMcuControlInterface(null);
+            // Disconnect from Micro Controller if connected, after any attempt that is still
+            // connecting.  The instance is kept so the next connection attempt can reuse it
+            synchronized (mMcuLock) {
+                MicroControllerCom microController = mMicroController.get();
+                if (microController != null) {
+                    microController.disconnect();
+                    AutoIntegrate.setMcuControlInterface(null);
+                }
             }
-            // make sure the service thread isn't waiting
-            notifyServiceThread();
             Timber.v("Micro Controller Disconnected");
+
+            // Connect again, with the current settings
+            ConnectionScheduler scheduler = mScheduler.get();
+            if (scheduler != null) {
+                scheduler.restart(MCU_MODULE);
+            }
         }
     };
 
-    private Runnable stopHdRadioConnection = new Runnable() {
+    private Runnable destroyMicroController = new Runnable() {
         @Override
         public void run() {
-            if (mHdRadio.get() != null) {
-                mHdRadio.get().disconnect();
-                mHdRadio.set(null);
+            synchronized (mMcuLock) {
+                MicroControllerCom microController = mMicroController.getAndSet(null);
+                if (microController != null) {
+                    microController.destroy();
+                    AutoIntegrate.setMcuControlInterface(null);
+                }
             }
-
-            notifyServiceThread();
-
-            Timber.v("Hd Radio Disconnected");
+            Timber.v("Micro Controller Destroyed");
         }
     };
 
+    /**
+     * Starts disconnecting the HD Radio.  Does not block, the returned future completes once
+     * the radio has closed.  If reconnect is set the radio is connected again afterwards.
+     */
+    private CompletionFuture<Void> disconnectHdRadio(final boolean reconnect) {
+        RadioCom radio = mHdRadio.getAndSet(null);
+        CompletionFuture<Void> closed = (radio != null) ? radio.disconnectAsync() :
+                CompletionFuture.<Void>completed(null);
+        return closed.addCallback(new CompletionFuture.Callback<Void>() {
+            @Override
+            public void onComplete(CompletionFuture<Void> future) {
+                Timber.v("Hd Radio Disconnected");
+
+                ConnectionScheduler scheduler = mScheduler.get();
+                if (reconnect && scheduler != null) {
+                    scheduler.restart(RADIO_MODULE);
+                }
+            }
+        });
+    }
+
     private Runnable wakeUpDevice = new Runnable() {
         @Override
         public void run() {
-            mPowerManager.wakeUp();
+            BootTrace.begin();
+            if (mPowerManager != null) {
+                mPowerManager.wakeUp();
+            }
 
             // since the device is waking up, sleep for 2 seconds before attempting to start
             try {
@@ -441,6 +590,7 @@ public class ServiceThread implements Runnable {
         @Override
         public void run() {
             mServiceSuspended.set(true);
+            BootTrace.end();
             stopMainThread.run();
 
             // Broadcast Intent to Status Fragment notifying that service status has changed
@@ -451,7 +601,9 @@ public class ServiceThread implements Runnable {
             statusChangedIntent.putExtra("service_status", "Suspended");
             mLocalBM.sendBroadcast(statusChangedIntent);
 
-            mPowerManager.goToSleep();
+            if (mPowerManager != null) {
+                mPowerManager.goToSleep();
+            }
         }
     };
 
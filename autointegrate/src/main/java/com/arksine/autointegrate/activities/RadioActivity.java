@@ -25,6 +25,7 @@ import android.widget.ToggleButton;
 import com.arksine.autointegrate.MainService;
 import com.arksine.autointegrate.R;
 import com.arksine.autointegrate.dialogs.RadioSettingsDialog;
+import com.arksine.autointegrate.radio.RadioState;
 import com.arksine.autointegrate.radio.RemoteRadioEvents;
 import com.arksine.autointegrate.radio.TextStreamAnimator;
 import com.arksine.autointegrate.utilities.BackgroundThreadFactory;
@@ -391,7 +392,10 @@ public class RadioActivity extends AppCompatActivity {
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
             final MainService.LocalBinder binder = (MainService.LocalBinder) iBinder;
 
-            binder.registerRadioCallback(mRadioEvents);
+            // Paint the service's snapshot right away, then only take changes made after it
+            RadioState state = binder.getRadioState();
+            paintRadioState(state);
+            binder.registerRadioCallback(mRadioEvents, state.getVersion());
             mRadioController = binder.getRadioInterface();
 
             if (mRadioController == null) {
@@ -419,87 +423,103 @@ public class RadioActivity extends AppCompatActivity {
     };
 
     /**
-     * Check to see if the radio was powered on prior to binding to the service.
+     * Get settings kept by the radio interface rather than reported by the radio
      */
     private Runnable getInitialSettings = new Runnable() {
         @Override
         public void run() {
             if (mRadioController != null) {
-
-                // get power status from the interface, because we are unable to receive the
-                // power command from the radio prior to binding to the service
-                mIsPoweredOn.set(mRadioController.isPoweredOn());
-
                 // get persistent seekall value
                 final boolean seekAll = mRadioController.getSeekAll();
 
                 mUiHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        // set views here
-                        mPowerButton.setChecked(mIsPoweredOn.get());
                         mSeekAllButton.setChecked(seekAll);
-
                     }
                 });
+            }
+        }
+    };
 
-                // Request the status of a important radio values if the radio is already powered on
-                if (mIsPoweredOn.get()) {
-                    mHdActive.set(mRadioController.getHdActive());
-                    mRdsEnabled.set(mRadioController.getRdsEnabled());
-                    final int subch = mRadioController.getHdSubchannel();
-                    final TuneInfo info = mRadioController.getTune();
-                    mCurrentFrequency = info.getFrequency();
-                    mCurrentBand = info.getBand();
-
-                    // Update UI based on current settings
-                    mUiHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mMuteButton.setChecked(mRadioController.getMute());
-                            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.VOLUME,
-                                    mRadioController.getVolume());
-                            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.BASS,
-                                    mRadioController.getBass());
-                            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.TREBLE,
-                                    mRadioController.getTreble());
-
-                            if (subch > 0) {
-                                // Format the HD string
-                                final String hdStr = (mCurrentBand == RadioBand.FM) ?
-                                        String.format(Locale.US, "%1$.1f FM HD%2$d",
-                                                (float)mCurrentFrequency/10, subch) :
-                                        String.format(Locale.US, "%1$d AM HD%2$d",
-                                                mCurrentFrequency, subch);
-
-                                mRadioFreqText.setText(hdStr);
-                                mTextSwapAnimator.setTextItem(RadioCommand.TUNE, hdStr);
-
-                                // Update info text with artist and title from current subchannel
-                                mTextSwapAnimator.setTextItem(RadioCommand.HD_TITLE,
-                                        mRadioController.getHdTitle());
-                                mTextSwapAnimator.setTextItem(RadioCommand.HD_ARTIST,
-                                        mRadioController.getHdArtist());
-
-                            } else {
+    /**
+     * Sets the views from a radio state snapshot.  Must be called on the UI thread.
+     */
+    private void paintRadioState(RadioState state) {
+        mIsPoweredOn.set(state.isPoweredOn());
+        mPowerButton.setChecked(state.isPoweredOn());
+        if (!state.isPoweredOn()) {
+            mClearViewsRunnable.run();
+            return;
+        }
 
-                                // Format standard string
-                                final String stdStr = (mCurrentBand == RadioBand.FM) ?
-                                        String.format(Locale.US, "%1$.1f FM", (float) mCurrentFrequency / 10) :
-                                        String.format(Locale.US, "%1$d AM", mCurrentFrequency);
+        mHdActive.set(state.getBoolean(RadioState.Field.HD_ACTIVE, false));
+        mRdsEnabled.set(state.getBoolean(RadioState.Field.RDS_ENABLED, false));
 
-                                mRadioFreqText.setText(stdStr);
-                                mTextSwapAnimator.setTextItem(RadioCommand.TUNE, stdStr);
-                            }
-                        }
-                    });
+        mMuteButton.setChecked(state.getBoolean(RadioState.Field.MUTE, false));
+        if (state.hasValue(RadioState.Field.VOLUME)) {
+            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.VOLUME,
+                    state.getInt(RadioState.Field.VOLUME, 0));
+        }
+        if (state.hasValue(RadioState.Field.BASS)) {
+            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.BASS,
+                    state.getInt(RadioState.Field.BASS, 0));
+        }
+        if (state.hasValue(RadioState.Field.TREBLE)) {
+            mRadioSettingsDialog.setSeekBarProgress(RadioCommand.TREBLE,
+                    state.getInt(RadioState.Field.TREBLE, 0));
+        }
 
-                } else {
-                    runOnUiThread(mClearViewsRunnable);
-                }
+        TuneInfo info = (TuneInfo) state.getValue(RadioState.Field.TUNE);
+        if (info == null) {
+            return;
+        }
+        mCurrentFrequency = info.getFrequency();
+        mCurrentBand = info.getBand();
+        mBandButton.setChecked(mCurrentBand == RadioBand.FM);
+
+        int subch = state.getInt(RadioState.Field.HD_SUBCHANNEL, 0);
+        String tuneStr;
+        if (mHdActive.get() && subch > 0) {
+            // Format the HD string
+            tuneStr = (mCurrentBand == RadioBand.FM) ?
+                    String.format(Locale.US, "%1$.1f FM HD%2$d",
+                            (float)mCurrentFrequency/10, subch) :
+                    String.format(Locale.US, "%1$d AM HD%2$d",
+                            mCurrentFrequency, subch);
+
+            HDSongInfo title = (HDSongInfo) state.getValue(RadioState.Field.HD_TITLE);
+            HDSongInfo artist = (HDSongInfo) state.getValue(RadioState.Field.HD_ARTIST);
+            if (title != null) {
+                mTextSwapAnimator.setTextItem(RadioCommand.HD_TITLE, title.getInfo());
             }
+            if (artist != null) {
+                mTextSwapAnimator.setTextItem(RadioCommand.HD_ARTIST, artist.getInfo());
+            }
+            mRadioStatusText.setText("HD");
+        } else {
+            // Format standard string
+            tuneStr = (mCurrentBand == RadioBand.FM) ?
+                    String.format(Locale.US, "%1$.1f FM", (float) mCurrentFrequency / 10) :
+                    String.format(Locale.US, "%1$d AM", mCurrentFrequency);
+            mRadioStatusText.setText(mRdsEnabled.get() ? "RDS" : "");
         }
-    };
+        mRadioFreqText.setText(tuneStr);
+        mTextSwapAnimator.setTextItem(RadioCommand.TUNE, tuneStr);
+
+        String callsign = state.getString(RadioState.Field.HD_CALLSIGN);
+        if (callsign != null) {
+            mTextSwapAnimator.setTextItem(RadioCommand.HD_CALLSIGN, callsign);
+        }
+        String genre = state.getString(RadioState.Field.RDS_GENRE);
+        if (genre != null) {
+            mTextSwapAnimator.setTextItem(RadioCommand.RDS_GENRE, genre);
+        }
+        String radioText = state.getString(RadioState.Field.RDS_RADIO_TEXT);
+        if (radioText != null) {
+            mTextSwapAnimator.setTextItem(RadioCommand.RDS_RADIO_TEXT, radioText);
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
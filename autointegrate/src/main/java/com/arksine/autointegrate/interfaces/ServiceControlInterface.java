@@ -9,4 +9,8 @@ public interface ServiceControlInterface {
     void suspendDevice();
     void refreshMcuConnection(boolean learningMode, McuLearnCallbacks cbs);
     void refreshRadioConnection();
+
+    // Called when a USB device is attached or a Bluetooth device connects, so modules waiting
+    // for hardware can retry right away
+    void onHardwareAttached();
 }
@@ -0,0 +1,193 @@
+package com.arksine.autointegrate.microcontroller;
+
+import android.os.Process;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Executes actions requested by the Micro Controller.  Actions are grouped into lanes, each lane
+ * is served by a single background thread, so actions in the same lane run one at a time and
+ * in the order they were received while actions in different lanes (ie: a volume change and
+ * the reverse camera) do not hold each other up.  The number of threads is fixed at one per
+ * lane, and each lane only accepts a limited number of pending actions so a flood of events
+ * cannot queue up work without bound.
+ *
+ * Each lane's thread runs at the lane's priority.  The reverse camera runs at display priority
+ * so it comes up as soon as possible, lanes the driver notices right away run at the default
+ * priority, and only the general lane runs in the background.
+ *
+ * Lane threads are created when first needed and released by {@link #shutdown()}.
+ *
+ * For actions queued with {@link #execute(Lane, Runnable)} the time from queueing the action
+ * to the end of its run is recorded for each lane, see {@link #getLatencyStats()}.
+ */
+public class ActionExecutor {
+
+    public enum Lane {
+        VOLUME(Process.THREAD_PRIORITY_DEFAULT),
+        MEDIA(Process.THREAD_PRIORITY_DEFAULT),
+        DIMMER(Process.THREAD_PRIORITY_DEFAULT),
+        REVERSE(Process.THREAD_PRIORITY_URGENT_DISPLAY),
+        GENERAL(Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final int mThreadPriority;
+
+        Lane(int threadPriority) {
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    // Maximum number of actions waiting to run in a single lane.  Scheduled and repeating
+    // tasks do not count against this limit
+    private static final int MAX_PENDING_ACTIONS = 32;
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final ScheduledExecutorService[] mLaneExecutors =
+            new ScheduledExecutorService[LANES.length];
+    private final AtomicInteger[] mPendingCounts = new AtomicInteger[LANES.length];
+    private final LatencyStats[] mActionStats = new LatencyStats[LANES.length];
+
+    public ActionExecutor() {
+        for (int i = 0; i < LANES.length; i++) {
+            mPendingCounts[i] = new AtomicInteger(0);
+            mActionStats[i] = new LatencyStats(LANES[i].toString() + " Actions");
+        }
+    }
+
+    /**
+     * Queues an action to run on a lane
+     *
+     * @return false if the lane is full and the action was dropped
+     */
+    public boolean execute(Lane lane, final Runnable action) {
+        final AtomicInteger pending = mPendingCounts[lane.ordinal()];
+        final LatencyStats stats = mActionStats[lane.ordinal()];
+        final long queuedAt = System.nanoTime();
+        if (pending.incrementAndGet() > MAX_PENDING_ACTIONS) {
+            pending.decrementAndGet();
+            Timber.w("%s action lane is full, dropping action", lane.toString());
+            return false;
+        }
+
+        try {
+            getLaneExecutor(lane).execute(new Runnable() {
+                @Override
+                public void run() {
+                    pending.decrementAndGet();
+                    runSafely(action);
+                    stats.record(System.nanoTime() - queuedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            Timber.w(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs an action on a lane after a delay
+     */
+    public ScheduledFuture<?> schedule(Lane lane, final Runnable action, long delayMs) {
+        try {
+            return getLaneExecutor(lane).schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runSafely(action);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Timber.w(e);
+            return null;
+        }
+    }
+
+    /**
+     * Runs an action on a lane immediately, then repeatedly with the given delay between the
+     * end of one run and the start of the next, until the returned future is cancelled.  This
+     * is used for held buttons.
+     */
+    public ScheduledFuture<?> scheduleRepeating(Lane lane, final Runnable action, long delayMs) {
+        try {
+            return getLaneExecutor(lane).scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    runSafely(action);
+                }
+            }, 0, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Timber.w(e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the time from queueing an action to the end of its run for each lane, in lane
+     * order.  Scheduled and repeating actions are not included.
+     */
+    public LatencyStats[] getLatencyStats() {
+        return mActionStats.clone();
+    }
+
+    /**
+     * Stops all lanes.  Actions that are already queued or scheduled (such as a key up event)
+     * still run, repeating tasks are cancelled and new actions go to new lane threads.
+     */
+    public synchronized void shutdown() {
+        for (int i = 0; i < mLaneExecutors.length; i++) {
+            if (mLaneExecutors[i] != null) {
+                mLaneExecutors[i].shutdown();
+                mLaneExecutors[i] = null;
+            }
+        }
+    }
+
+    private synchronized ScheduledExecutorService getLaneExecutor(Lane lane) {
+        ScheduledExecutorService executor = mLaneExecutors[lane.ordinal()];
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new LaneThreadFactory(lane));
+            mLaneExecutors[lane.ordinal()] = executor;
+        }
+        return executor;
+    }
+
+    private static void runSafely(Runnable action) {
+        // An exception thrown by an action must not kill the lane or cancel a repeating task
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            Timber.e(e);
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+
+        LaneThreadFactory(Lane lane) {
+            mName = "Action Lane " + lane.toString();
+            mPriority = lane.mThreadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    r.run();
+                }
+            }, mName);
+        }
+    }
+}
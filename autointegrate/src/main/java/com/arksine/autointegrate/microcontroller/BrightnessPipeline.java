@@ -0,0 +1,193 @@
+package com.arksine.autointegrate.microcontroller;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.PixelFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.view.Gravity;
+import android.view.View;
+import android.view.WindowManager;
+
+import com.arksine.autointegrate.activities.BrightnessChangeActivity;
+import com.arksine.autointegrate.utilities.UtilityFunctions;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Applies screen brightness changes requested by the dimmer.
+ *
+ * Requests are coalesced, only the latest brightness is applied and changes are applied at a
+ * limited rate.  Requests within the hysteresis of the last requested brightness are dropped
+ * unless forced, so a noisy analog dimmer does not cause a stream of small changes.
+ *
+ * When the app may draw overlays, brightness is applied through a single invisible overlay
+ * window, which takes effect immediately without starting an Activity.  The overlay overrides
+ * auto brightness and the system slider, so it is removed with release() as soon as the dimmer
+ * stops controlling the brightness.  Otherwise the setting is written and
+ * BrightnessChangeActivity is launched so the change is reflected, at a lower rate.
+ */
+public class BrightnessPipeline {
+
+    // Minimum time between applied changes (in ms)
+    private static final int OVERLAY_UPDATE_INTERVAL = 100;
+    private static final int ACTIVITY_UPDATE_INTERVAL = 1000;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mHysteresis;
+
+    // Set by the thread requesting changes, cleared by release() from whichever thread calls it
+    private volatile int mLastRequested = -1;
+
+    private final AtomicInteger mPendingBrightness = new AtomicInteger(-1);
+    private final AtomicBoolean mIsApplyScheduled = new AtomicBoolean(false);
+    private volatile long mLastApplyTime = 0;
+    private volatile boolean mUseOverlay;
+
+    // Only accessed from the main thread
+    private View mOverlayView = null;
+    private WindowManager.LayoutParams mOverlayParams = null;
+
+    private final Runnable mApplyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIsApplyScheduled.set(false);
+            int brightness = mPendingBrightness.getAndSet(-1);
+            if (brightness < 0) {
+                return;
+            }
+
+            mLastApplyTime = SystemClock.uptimeMillis();
+            applyBrightness(brightness);
+        }
+    };
+
+    /**
+     * @param hysteresis  Minimum change in brightness (0 - 255) that is applied when a request
+     *                    is not forced
+     */
+    public BrightnessPipeline(Context context, int hysteresis) {
+        mContext = context;
+        mHysteresis = Math.max(1, hysteresis);
+        mUseOverlay = UtilityFunctions.canDrawOverlays(context);
+    }
+
+    /**
+     * Requests a change in brightness.
+     *
+     * @param brightness  Brightness from 1 to 255
+     * @param force       If true the request is applied even if it is within the hysteresis of
+     *                    the last request (ie: when the dimmer is toggled)
+     */
+    public void setBrightness(int brightness, boolean force) {
+        if (brightness <= 0) {
+            brightness = 1;
+        } else if (brightness > 255) {
+            brightness = 255;
+        }
+
+        if (brightness == mLastRequested ||
+                (!force && mLastRequested > 0 && Math.abs(brightness - mLastRequested) < mHysteresis)) {
+            return;
+        }
+        mLastRequested = brightness;
+
+        mPendingBrightness.set(brightness);
+        if (mIsApplyScheduled.compareAndSet(false, true)) {
+            int interval = mUseOverlay ? OVERLAY_UPDATE_INTERVAL : ACTIVITY_UPDATE_INTERVAL;
+            long delay = mLastApplyTime + interval - SystemClock.uptimeMillis();
+            mMainHandler.postDelayed(mApplyRunnable, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Applies any pending change right away, then removes the overlay window so the system
+     * controls the brightness again.  The brightness setting keeps the last value applied.
+     * The next request adds the overlay back.
+     */
+    public void release() {
+        mLastRequested = -1;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMainHandler.removeCallbacks(mApplyRunnable);
+                mApplyRunnable.run();
+                removeOverlay();
+            }
+        });
+    }
+
+    /**
+     * Releases the overlay, pending changes are still applied
+     */
+    public void close() {
+        release();
+    }
+
+    private void applyBrightness(int brightness) {
+        Settings.System.putInt(mContext.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS, brightness);
+
+        if (mUseOverlay && updateOverlay(brightness)) {
+            return;
+        }
+
+        // Fall back to the activity, which changes the brightness of its own window
+        Intent brightActivityIntent = new Intent(mContext, BrightnessChangeActivity.class);
+        brightActivityIntent.putExtra("Brightness", brightness);
+        brightActivityIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        mContext.startActivity(brightActivityIntent);
+    }
+
+    private boolean updateOverlay(int brightness) {
+        WindowManager windowManager =
+                (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+
+        try {
+            if (mOverlayView == null) {
+                // A transparent 1x1 window that can't be touched or focused.  Its only purpose
+                // is to carry the screen brightness.  The window manager only takes the
+                // brightness from windows that have a surface and are drawn, which a zero
+                // sized window isn't guaranteed to be.
+                mOverlayParams = new WindowManager.LayoutParams(1, 1,
+                        WindowManager.LayoutParams.TYPE_SYSTEM_OVERLAY,
+                        WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                                | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE,
+                        PixelFormat.TRANSLUCENT);
+                mOverlayParams.gravity = Gravity.TOP | Gravity.START;
+                mOverlayParams.screenBrightness = (float) brightness / 255;
+                mOverlayView = new View(mContext);
+                windowManager.addView(mOverlayView, mOverlayParams);
+            } else {
+                mOverlayParams.screenBrightness = (float) brightness / 255;
+                windowManager.updateViewLayout(mOverlayView, mOverlayParams);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // Overlay permission revoked, use the activity from now on
+            Timber.w(e, "Unable to use brightness overlay");
+            mOverlayView = null;
+            mUseOverlay = false;
+            return false;
+        }
+    }
+
+    private void removeOverlay() {
+        if (mOverlayView != null) {
+            WindowManager windowManager =
+                    (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+            try {
+                windowManager.removeView(mOverlayView);
+            } catch (RuntimeException e) {
+                Timber.w(e);
+            }
+            mOverlayView = null;
+        }
+    }
+}
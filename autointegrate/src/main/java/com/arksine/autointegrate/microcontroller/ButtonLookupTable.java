@@ -0,0 +1,175 @@
+package com.arksine.autointegrate.microcontroller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Lookup table that maps a reading received from the Micro Controller to the resistive button
+ * whose tolerance window (id - tolerance to id + tolerance) contains it.
+ *
+ * The table is compiled from the list of mapped buttons into sorted, non-overlapping ranges
+ * stored in primitive arrays, so a lookup is a binary search that does not allocate.  The click
+ * and hold values for each button are resolved once when the table is built.
+ *
+ * When tolerance windows overlap, the button that comes first in the list wins the overlapping
+ * readings (this matches the linear search the table replaces).  Overlaps are logged when the
+ * table is built and can be queried with {@link #getOverlapCount()}.
+ *
+ * A table is immutable once built, so it may be shared between threads.
+ */
+public class ButtonLookupTable<T> {
+
+    /**
+     * Resolves the value stored for a button's click or hold action.  May return null if the
+     * action is not mapped.
+     */
+    public interface Resolver<T> {
+        T resolve(ResistiveButton button, boolean isClickAction);
+    }
+
+    // Inclusive range of readings for each entry, sorted and non-overlapping
+    private final int[] mRangeStarts;
+    private final int[] mRangeEnds;
+    private final Object[] mClickValues;
+    private final Object[] mHoldValues;
+    private final int mOverlapCount;
+
+    public ButtonLookupTable(List<ResistiveButton> buttons, Resolver<T> resolver) {
+        final int count = (buttons != null) ? buttons.size() : 0;
+        int[] lows = new int[count];
+        int[] highs = new int[count];
+        Object[] clickValues = new Object[count];
+        Object[] holdValues = new Object[count];
+
+        for (int i = 0; i < count; i++) {
+            ResistiveButton btn = buttons.get(i);
+            lows[i] = btn.getId() - btn.getTolerance();
+            highs[i] = btn.getId() + btn.getTolerance();
+            clickValues[i] = resolver.resolve(btn, true);
+            holdValues[i] = resolver.resolve(btn, false);
+        }
+
+        mOverlapCount = checkOverlaps(buttons, lows, highs);
+
+        // Split the number line at every window edge.  Each segment between two edges is
+        // covered by the same set of windows, and belongs to the first button in the list
+        int[] edges = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            edges[i * 2] = lows[i];
+            edges[i * 2 + 1] = highs[i] + 1;
+        }
+        Arrays.sort(edges);
+
+        List<int[]> ranges = new ArrayList<>();   // {start, end, button index}
+        for (int e = 0; e + 1 < edges.length; e++) {
+            final int start = edges[e];
+            final int end = edges[e + 1] - 1;
+            if (end < start) {
+                // duplicate edge
+                continue;
+            }
+
+            int owner = -1;
+            for (int i = 0; i < count; i++) {
+                if (lows[i] <= start && end <= highs[i]) {
+                    owner = i;
+                    break;
+                }
+            }
+            if (owner < 0) {
+                // gap between windows
+                continue;
+            }
+
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[2] == owner && last[1] + 1 == start) {
+                last[1] = end;
+            } else {
+                ranges.add(new int[] {start, end, owner});
+            }
+        }
+
+        final int rangeCount = ranges.size();
+        mRangeStarts = new int[rangeCount];
+        mRangeEnds = new int[rangeCount];
+        mClickValues = new Object[rangeCount];
+        mHoldValues = new Object[rangeCount];
+        for (int r = 0; r < rangeCount; r++) {
+            int[] range = ranges.get(r);
+            mRangeStarts[r] = range[0];
+            mRangeEnds[r] = range[1];
+            mClickValues[r] = clickValues[range[2]];
+            mHoldValues[r] = holdValues[range[2]];
+        }
+    }
+
+    /**
+     * Returns the click value of the button matching the reading, or null if no button matches
+     */
+    public T getClickValue(int reading) {
+        return getValue(mClickValues, reading);
+    }
+
+    /**
+     * Returns the hold value of the button matching the reading, or null if no button matches
+     */
+    public T getHoldValue(int reading) {
+        return getValue(mHoldValues, reading);
+    }
+
+    /**
+     * Returns the number of pairs of buttons whose tolerance windows overlap
+     */
+    public int getOverlapCount() {
+        return mOverlapCount;
+    }
+
+    public int getRangeCount() {
+        return mRangeStarts.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T getValue(Object[] values, int reading) {
+        int index = findRange(reading);
+        return (index >= 0) ? (T) values[index] : null;
+    }
+
+    private int findRange(int reading) {
+        // Find the last range that starts at or before the reading
+        int low = 0;
+        int high = mRangeStarts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mRangeStarts[mid] <= reading) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (high >= 0 && reading <= mRangeEnds[high]) {
+            return high;
+        }
+        return -1;
+    }
+
+    private static int checkOverlaps(List<ResistiveButton> buttons, int[] lows, int[] highs) {
+        int overlaps = 0;
+        for (int i = 0; i < lows.length; i++) {
+            for (int j = i + 1; j < lows.length; j++) {
+                if (lows[i] <= highs[j] && lows[j] <= highs[i]) {
+                    overlaps++;
+                    Timber.w("Button %s overlaps button %s, readings from %d to %d will " +
+                                    "trigger button %s",
+                            buttons.get(i).getIdAsString(), buttons.get(j).getIdAsString(),
+                            Math.max(lows[i], lows[j]), Math.min(highs[i], highs[j]),
+                            buttons.get(i).getIdAsString());
+                }
+            }
+        }
+        return overlaps;
+    }
+}
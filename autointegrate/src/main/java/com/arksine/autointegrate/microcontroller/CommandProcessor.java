@@ -13,7 +13,6 @@ import android.view.KeyEvent;
 
 import com.arksine.autointegrate.AutoIntegrate;
 import com.arksine.autointegrate.R;
-import com.arksine.autointegrate.activities.BrightnessChangeActivity;
 import com.arksine.autointegrate.interfaces.MCUControlInterface;
 import com.arksine.autointegrate.utilities.RootManager;
 import com.arksine.autointegrate.utilities.TaskerIntent;
@@ -25,6 +24,7 @@ import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
@@ -58,20 +58,48 @@ public class CommandProcessor {
         void OnReverseOff();
     }
 
-    // The class below extends runnable so we can pass data to our command runnables
-    private abstract class ActionRunnable implements Runnable {
-        protected Object data;
+    /**
+     * Base class for actions.  The data for each dispatch is passed to run, so an action may be
+     * dispatched again while a previous dispatch is still pending.  Each action belongs to a
+     * lane of the ActionExecutor, state kept by an action is only touched from its lane.
+     */
+    private abstract class ActionRunnable {
+        private final ActionExecutor.Lane mLane;
 
-        ActionRunnable() {
-            this.data = "";
+        ActionRunnable(ActionExecutor.Lane lane) {
+            this.mLane = lane;
         }
 
-        public void setData(Object _data){
-            this.data = _data;
+        ActionExecutor.Lane getLane() {
+            return mLane;
+        }
+
+        abstract void run(Object data);
+
+        // Delay between repeats while the button that started the action is held (in ms).
+        // Actions that return 0 run once when held.
+        long getRepeatDelay() {
+            return 0;
+        }
+
+        // Called when the button that started the action is released
+        void onRelease() {}
+    }
+
+    // An action along with the data it was dispatched with
+    private static class ActionTask implements Runnable {
+        private final ActionRunnable mAction;
+        private final Object mData;
+
+        ActionTask(ActionRunnable action, Object data) {
+            this.mAction = action;
+            this.mData = data;
         }
 
         @Override
-        abstract public void run();
+        public void run() {
+            mAction.run(mData);
+        }
     }
 
     public enum AudioSource {HD_RADIO, AUX}
@@ -85,14 +113,21 @@ public class CommandProcessor {
     private final static int MEDIA_KEY_DELAY = 2000;
     // Delay between volume adjustments when holding (in ms)
     private final static int VOLUME_KEY_DELAY = 200;
+    // Time a media key is held down for a single press (in ms)
+    private final static int MEDIA_KEY_PRESS_TIME = 500;
+    // Time a seek key is held down when the button is clicked rather than held (in ms)
+    private final static int SEEK_KEY_PRESS_TIME = 200;
 
     private Context mContext;
     private MicroControllerCom.McuEvents mMcuEvents;
     private MCUControlInterface mMcuControlInterface;
-    private List<ResistiveButton> mMappedButtons;
+    private volatile ButtonLookupTable<ActionTask> mButtonTable;
     private boolean mBroadcastCustomCommands = false;
     private ArrayMap<String, ActionRunnable> mActions;
     private AtomicBoolean mIsHoldingBtn = new AtomicBoolean(false);
+    private final ActionExecutor mActionExecutor = new ActionExecutor();
+    private ActionRunnable mHeldAction = null;
+    private ScheduledFuture<?> mHoldRepeat = null;
     private boolean mCameraIsOn = false;
     private Intent mCameraIntent = null;
     private AudioManager mAudioManger;
@@ -101,6 +136,7 @@ public class CommandProcessor {
     private int mDimmerMode;
     private boolean mDimmerOn = false;
     private BrightnessControl mBrightnessControl;
+    private BrightnessPipeline mBrightnessPipeline;
     private ReverseExitListener mReverseExitListener = null;
 
     CommandProcessor(Context context, MicroControllerCom.McuEvents mcuEvents) {
@@ -116,14 +152,19 @@ public class CommandProcessor {
                 .getDefaultSharedPreferences(mContext)
                 .getString("audio_pref_key_current_source", "HD_RADIO"));
 
+        mBrightnessPipeline = new BrightnessPipeline(mContext, PreferenceManager
+                .getDefaultSharedPreferences(mContext)
+                .getInt("dimmer_pref_key_hysteresis", 3));
+
+        // Actions must be populated before the button table is built
+        mActions = new ArrayMap<>();
+        populateBuiltInActions();
+
         updateButtons();
 
         updateDimmer(); // initialize the dimmer interface
 
         updateReverseCommand();  // initialize reverse command
-
-        mActions = new ArrayMap<>();
-        populateBuiltInActions();
     }
 
     public void updateButtons() {
@@ -134,13 +175,41 @@ public class CommandProcessor {
                 Context.MODE_PRIVATE);
         String json = gsonFile.getString("ButtonList", "[]");
         Type collectionType = new TypeToken<List<ResistiveButton>>(){}.getType();
-        mMappedButtons = gson.fromJson(json, collectionType);
+        List<ResistiveButton> buttonList = gson.fromJson(json, collectionType);
+        updateButtons(buttonList);
     }
 
     public void updateButtons(List<ResistiveButton> buttonList) {
-        mMappedButtons = buttonList;
+        mButtonTable = new ButtonLookupTable<>(buttonList, mButtonResolver);
     }
 
+    // Resolves each button's actions when the button table is built, so no lookups by name
+    // are done when a button is pressed
+    private final ButtonLookupTable.Resolver<ActionTask> mButtonResolver =
+            new ButtonLookupTable.Resolver<ActionTask>() {
+        @Override
+        public ActionTask resolve(ResistiveButton button, boolean isClickAction) {
+            String action, type;
+            if (isClickAction) {
+                action = button.getClickAction();
+                type = button.getClickType();
+            } else {
+                action = button.getHoldAction();
+                type = button.getHoldType();
+            }
+
+            ActionRunnable actionRunnable;
+            if (type.equals("Application") || type.equals("Tasker")
+                    || type.equals("Set Audio Source")) {
+                actionRunnable = mActions.get(type);
+            } else {
+                actionRunnable = mActions.get(action);
+            }
+
+            return (actionRunnable != null) ? new ActionTask(actionRunnable, action) : null;
+        }
+    };
+
     public void updateDimmer() {
         final SharedPreferences defaultPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
         mInitialBrightness = defaultPrefs.getInt("dimmer_pref_key_initial_brightness", 200);
@@ -158,6 +227,9 @@ public class CommandProcessor {
                              final int highBrightness, final int lowBrightness) {
         mDimmerMode = mode;
 
+        // Stop overriding the system brightness until the new mode asks for a change
+        mBrightnessPipeline.release();
+
         BrightnessControl emptyBC = new BrightnessControl() {
             @Override
             public void DimmerOff() {}
@@ -223,7 +295,8 @@ public class CommandProcessor {
                     public void DimmerOff() {
                         if (mDimmerOn) {
                             mDimmerOn = false;
-                            launchBrightnessChangeActivity(mInitialBrightness);
+                            mBrightnessPipeline.setBrightness(mInitialBrightness, true);
+                            mBrightnessPipeline.release();
                         }
                     }
 
@@ -234,7 +307,7 @@ public class CommandProcessor {
                         if (!mDimmerOn) {
                             mDimmerOn = true;
                             setInitialBrightness();
-                            launchBrightnessChangeActivity(highBrightness);
+                            mBrightnessPipeline.setBrightness(highBrightness, true);
                         }
                     }
 
@@ -261,12 +334,20 @@ public class CommandProcessor {
                 final int readingDiff = highReading - lowReading;
                 final int brightDiff = highBrightness - lowBrightness;
 
+                // Readings are smoothed before they are converted to a brightness
+                final SharedPreferences filterPrefs =
+                        PreferenceManager.getDefaultSharedPreferences(mContext);
+                final DimmerFilter filter = new DimmerFilter(
+                        filterPrefs.getInt("dimmer_pref_key_median_window", 5),
+                        filterPrefs.getInt("dimmer_pref_key_smoothing", 60) / 100f);
+
                 mBrightnessControl = new BrightnessControl() {
                     @Override
                     public void DimmerOff() {
                         if (mDimmerOn) {
                             mDimmerOn = false;
-                            launchBrightnessChangeActivity(mInitialBrightness);
+                            mBrightnessPipeline.setBrightness(mInitialBrightness, true);
+                            mBrightnessPipeline.release();
                         }
                     }
 
@@ -277,12 +358,13 @@ public class CommandProcessor {
                         if (!mDimmerOn) {
                             mDimmerOn = true;
                             setInitialBrightness();
+                            filter.reset();
                         }
                     }
 
                     @Override
                     public void DimmerChange(int reading) {
-                        int offsetReading = reading - lowReading;
+                        int offsetReading = filter.filter(reading) - lowReading;
 
                         // Make sure our reading falls in the correct range
                         if (offsetReading <= 0) {
@@ -292,9 +374,9 @@ public class CommandProcessor {
                         }
                         float readingCoef = (float) offsetReading / readingDiff;
                         int brightness = Math.round(readingCoef * brightDiff) + lowBrightness;
-                        Timber.d("Analog Calculated Brightness: %d", brightness);
+                        McuLog.d("Analog Calculated Brightness: %d", brightness);
 
-                        launchBrightnessChangeActivity(brightness);
+                        mBrightnessPipeline.setBrightness(brightness, false);
                     }
                 };
                 break;
@@ -406,14 +488,6 @@ public class CommandProcessor {
         }
     }
 
-    private void launchBrightnessChangeActivity(int brightness) {
-        Intent brightActivityIntent = new Intent(mContext,
-                BrightnessChangeActivity.class);
-        brightActivityIntent.putExtra("Brightness", brightness);
-        brightActivityIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        mContext.startActivity(brightActivityIntent);
-    }
-
 
     private void populateBuiltInActions() {
 
@@ -424,41 +498,36 @@ public class CommandProcessor {
         final int volumeUiFlag = showVolumeUi ? AudioManager.FLAG_SHOW_UI : 0;
 
         // Volume Keys
-        mActions.put("Volume Up", new ActionRunnable() {
+        mActions.put("Volume Up", new ActionRunnable(ActionExecutor.Lane.VOLUME) {
             @Override
-            public void run() {
-                Timber.v("Volume Up Command recd");
-                do {
-                    mAudioManger.adjustStreamVolume(AudioManager.STREAM_MUSIC,
-                            AudioManager.ADJUST_RAISE, volumeUiFlag);
-                    try {
-                        Thread.sleep(VOLUME_KEY_DELAY);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    }
+            public void run(Object data) {
+                McuLog.v("Volume Up Command recd");
+                mAudioManger.adjustStreamVolume(AudioManager.STREAM_MUSIC,
+                        AudioManager.ADJUST_RAISE, volumeUiFlag);
+            }
 
-                } while (mIsHoldingBtn.get());
+            @Override
+            long getRepeatDelay() {
+                return VOLUME_KEY_DELAY;
             }
         });
-        mActions.put("Volume Down", new ActionRunnable() {
+        mActions.put("Volume Down", new ActionRunnable(ActionExecutor.Lane.VOLUME) {
             @Override
-            public void run() {
-                Timber.v("Volume Down Command recd");
-                do {
-                    mAudioManger.adjustStreamVolume(AudioManager.STREAM_MUSIC,
-                            AudioManager.ADJUST_LOWER, volumeUiFlag);
-                    try {
-                        Thread.sleep(VOLUME_KEY_DELAY);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    }
-                } while (mIsHoldingBtn.get());
+            public void run(Object data) {
+                McuLog.v("Volume Down Command recd");
+                mAudioManger.adjustStreamVolume(AudioManager.STREAM_MUSIC,
+                        AudioManager.ADJUST_LOWER, volumeUiFlag);
+            }
+
+            @Override
+            long getRepeatDelay() {
+                return VOLUME_KEY_DELAY;
             }
         });
-        mActions.put("Mute", new ActionRunnable() {
+        mActions.put("Mute", new ActionRunnable(ActionExecutor.Lane.VOLUME) {
             @Override
-            public void run() {
-                Timber.v("Send Mute Command recd");
+            public void run(Object data) {
+                McuLog.v("Send Mute Command recd");
 
                 int vol = mAudioManger.getStreamVolume(AudioManager.STREAM_MUSIC);
                 if (vol > 0) {
@@ -473,28 +542,12 @@ public class CommandProcessor {
         });
 
         // Media Keys
-        mActions.put("Play/Pause", new ActionRunnable() {
-            public void run() {
-                Timber.v( "Media, Play/Pause Command recd");
-
-                Intent mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                        new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE));
-                mContext.sendBroadcast(mediaIntent);
-
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    Timber.w(e);
-                }
-
-                mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                        new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE));
-                mContext.sendBroadcast(mediaIntent);
-
+        mActions.put("Play/Pause", new ActionRunnable(ActionExecutor.Lane.MEDIA) {
+            @Override
+            public void run(Object data) {
+                McuLog.v("Media, Play/Pause Command recd");
+                pressMediaKey(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
             }
-
         });
 
         mActions.put("Next",buildSkipMediaRunnable(KeyEvent.KEYCODE_MEDIA_NEXT));
@@ -503,15 +556,15 @@ public class CommandProcessor {
         mActions.put("Rewind", buildSeekMediaRunnable(KeyEvent.KEYCODE_MEDIA_REWIND));
 
         // Custom events
-        mActions.put("Reverse", new ActionRunnable() {
+        mActions.put("Reverse", new ActionRunnable(ActionExecutor.Lane.REVERSE) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 // launch user set camera activity.
                 if ((boolean)data) {
                     if (mCameraIntent != null) {
                         mCameraIsOn = true;
                         mContext.startActivity(mCameraIntent);
-                        Timber.v("Launch Camera Command recd");
+                        McuLog.v("Launch Camera Command recd");
                     } else {
                         Timber.i("Camera app not set");
                     }
@@ -519,14 +572,14 @@ public class CommandProcessor {
                     if (mReverseExitListener != null) {
                         mCameraIsOn = false;
                         mReverseExitListener.OnReverseOff();
-                        Timber.v("Close Camera Command recd");
+                        McuLog.v("Close Camera Command recd");
                     }
                 }
             }
         });
-        mActions.put("Toggle Camera", new ActionRunnable() {
+        mActions.put("Toggle Camera", new ActionRunnable(ActionExecutor.Lane.REVERSE) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 if (mCameraIntent == null) {
                     // TODO: Show Invisible toast
                     Timber.i("Camera app not set");
@@ -540,12 +593,12 @@ public class CommandProcessor {
                     mCameraIsOn = false;
                     mReverseExitListener.OnReverseOff();
                 }
-                Timber.v("Toggle Camera Command recd");
+                McuLog.v("Toggle Camera Command recd");
             }
         });
-        mActions.put("Dimmer", new ActionRunnable() {
+        mActions.put("Dimmer", new ActionRunnable(ActionExecutor.Lane.DIMMER) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 if ((boolean) data) {
                     mBrightnessControl.DimmerOn();
                 } else {
@@ -554,9 +607,9 @@ public class CommandProcessor {
             }
         });
 
-        mActions.put("Dimmer Level", new ActionRunnable() {
+        mActions.put("Dimmer Level", new ActionRunnable(ActionExecutor.Lane.DIMMER) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 if (mDimmerMode == DimmerMode.ANALOG) {
                     mBrightnessControl.DimmerChange((int) data);
                 } else {
@@ -565,9 +618,9 @@ public class CommandProcessor {
             }
         });
 
-        mActions.put("Toggle Auto-Brightness", new ActionRunnable() {
+        mActions.put("Toggle Auto-Brightness", new ActionRunnable(ActionExecutor.Lane.DIMMER) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 if (isAutoBrightnessOn()) {
                     Settings.System.putInt(mContext.getContentResolver(),
                             Settings.System.SCREEN_BRIGHTNESS_MODE,
@@ -580,11 +633,11 @@ public class CommandProcessor {
             }
         });
 
-        mActions.put("Application", new ActionRunnable() {
+        mActions.put("Application", new ActionRunnable(ActionExecutor.Lane.GENERAL) {
             @Override
-            public void run() {
-                Timber.v("Sending Application Intent");
-                Intent appIntent = mContext.getPackageManager().getLaunchIntentForPackage((String)this.data);
+            public void run(Object data) {
+                McuLog.v("Sending Application Intent");
+                Intent appIntent = mContext.getPackageManager().getLaunchIntentForPackage((String)data);
                 if (appIntent != null) {
                     appIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                     mContext.startActivity(appIntent);
@@ -594,23 +647,23 @@ public class CommandProcessor {
             }
         });
 
-        mActions.put("Tasker", new ActionRunnable() {
+        mActions.put("Tasker", new ActionRunnable(ActionExecutor.Lane.GENERAL) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 // TODO: currently using tasker's external access api to execute.  Can create
                 //       Locale/Tasker plugin that should also work with macrodroid.
-                Timber.v("Execute Tasker Task");
+                McuLog.v("Execute Tasker Task");
                 if ( TaskerIntent.testStatus(mContext).equals(TaskerIntent.Status.OK) ) {
-                    TaskerIntent i = new TaskerIntent((String)this.data);
+                    TaskerIntent i = new TaskerIntent((String)data);
                     mContext.sendBroadcast( i );
                 }
 
             }
         });
 
-        mActions.put("Toggle Audio Source", new ActionRunnable() {
+        mActions.put("Toggle Audio Source", new ActionRunnable(ActionExecutor.Lane.GENERAL) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 switch (mCurrentSource) {
                     case HD_RADIO:
                         mCurrentSource = AudioSource.AUX;
@@ -626,9 +679,9 @@ public class CommandProcessor {
             }
         });
 
-        mActions.put("Set Audio Source", new ActionRunnable() {
+        mActions.put("Set Audio Source", new ActionRunnable(ActionExecutor.Lane.GENERAL) {
             @Override
-            public void run() {
+            public void run(Object data) {
                 if (!data.equals(mCurrentSource.toString())) {
                     switch ((String)data) {
                         case "HD_RADIO":
@@ -652,114 +705,135 @@ public class CommandProcessor {
 
 
     private ActionRunnable buildSkipMediaRunnable(final int keycode) {
-        return new ActionRunnable() {
+        return new ActionRunnable(ActionExecutor.Lane.MEDIA) {
             @Override
-            public void run() {
-                Intent mediaIntent;
-
-                do {
-                    // send key down event
-                    mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                    mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                            new KeyEvent(KeyEvent.ACTION_DOWN, keycode));
-                    mContext.sendBroadcast(mediaIntent);
-
-                    try {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    }
+            public void run(Object data) {
+                pressMediaKey(keycode);
+            }
+
+            @Override
+            long getRepeatDelay() {
+                return MEDIA_KEY_PRESS_TIME + MEDIA_KEY_DELAY;
+            }
+        };
+    }
 
-                    // send key up event
-                    mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                    mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                            new KeyEvent(KeyEvent.ACTION_UP, keycode));
-                    mContext.sendBroadcast(mediaIntent);
+    private ActionRunnable buildSeekMediaRunnable(final int keycode) {
+        return new ActionRunnable(ActionExecutor.Lane.MEDIA) {
+            // Only accessed from the media lane
+            private boolean mIsKeyDown = false;
 
-                    if (mIsHoldingBtn.get()) {
-                        try {
-                            Thread.sleep(MEDIA_KEY_DELAY);
+            @Override
+            public void run(Object data) {
+                if (!mIsKeyDown) {
+                    mIsKeyDown = true;
+                    sendMediaKeyEvent(KeyEvent.ACTION_DOWN, keycode);
+                }
 
-                        } catch (InterruptedException e) {
-                            Timber.w(e);
+                // When clicked, or when the button was released before we got here, the
+                // key up event is sent after a short delay.  Otherwise it is sent on release
+                if (!mIsHoldingBtn.get()) {
+                    mActionExecutor.schedule(getLane(), new Runnable() {
+                        @Override
+                        public void run() {
+                            onRelease();
                         }
-                    }
+                    }, SEEK_KEY_PRESS_TIME);
+                }
+            }
 
-                } while (mIsHoldingBtn.get());
+            @Override
+            void onRelease() {
+                if (mIsKeyDown) {
+                    mIsKeyDown = false;
+                    sendMediaKeyEvent(KeyEvent.ACTION_UP, keycode);
+                }
             }
         };
     }
 
-    private ActionRunnable buildSeekMediaRunnable(final int keycode) {
-        return new ActionRunnable() {
+    // Sends a key down event, followed by a key up event after MEDIA_KEY_PRESS_TIME.  Must be
+    // called from the media lane.
+    private void pressMediaKey(final int keycode) {
+        sendMediaKeyEvent(KeyEvent.ACTION_DOWN, keycode);
+        mActionExecutor.schedule(ActionExecutor.Lane.MEDIA, new Runnable() {
             @Override
             public void run() {
-                Intent mediaIntent;
-
-                // send key down event
-                mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                        new KeyEvent(KeyEvent.ACTION_DOWN, keycode));
-                mContext.sendBroadcast(mediaIntent);
-
-
-                do {
-                    try {
-                        Thread.sleep(200);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    }
-
-                } while (mIsHoldingBtn.get());
-
-                // send key up event
-                mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
-                mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT,
-                        new KeyEvent(KeyEvent.ACTION_UP, keycode));
-                mContext.sendBroadcast(mediaIntent);
-
+                sendMediaKeyEvent(KeyEvent.ACTION_UP, keycode);
             }
-        };
+        }, MEDIA_KEY_PRESS_TIME);
     }
 
-    private ActionRunnable getButtonAction(Object data, boolean isClickAction) {
-        int id = (int) data;
+    private void sendMediaKeyEvent(int keyAction, int keycode) {
+        Intent mediaIntent = new Intent(Intent.ACTION_MEDIA_BUTTON);
+        mediaIntent.putExtra(Intent.EXTRA_KEY_EVENT, new KeyEvent(keyAction, keycode));
+        mContext.sendBroadcast(mediaIntent);
+    }
 
-        for (ResistiveButton btn : mMappedButtons) {
+    private ActionTask getButtonAction(int id, boolean isClickAction) {
+        ButtonLookupTable<ActionTask> table = mButtonTable;
+        ActionTask task = isClickAction ? table.getClickValue(id) : table.getHoldValue(id);
 
-            int mappedId = btn.getId();
-            int debounce = btn.getTolerance();
+        if (task == null) {
+            Timber.i("Button is not mapped for value: %d", id);
+        }
+        return task;
+    }
 
-            if ((id >= (mappedId - debounce)) && (id <= (mappedId + debounce))) {
-                // id is within tolerance, get command
-                String action, type;
-                if (isClickAction) {
-                    action = btn.getClickAction();
-                    type = btn.getClickType();
-                } else {
-                    action = btn.getHoldAction();
-                    type = btn.getHoldType();
-                }
+    /**
+     * Executes commands that carry a short or integer payload (CLICK, HOLD, RELEASE, DIMMER_LEVEL)
+     */
+    public void executeAction(McuInputCommand command, int value) {
 
-                if (type.equals("Application") || type.equals("Tasker")
-                        || type.equals("Set Audio Source")) {
-                    ActionRunnable actionRunnable = mActions.get(type);
-                    actionRunnable.setData(action);
-                    return actionRunnable;
-                } else {
-                    return mActions.get(action);
-                }
-            }
+        switch (command) {
+            case CLICK:
+                releaseHeldAction();
+                startAction(getButtonAction(value, true));
+                break;
+            case HOLD:
+                releaseHeldAction();
+                startHeldAction(getButtonAction(value, false));
+                break;
+            case RELEASE:
+                releaseHeldAction();
+                break;
+            case DIMMER_LEVEL:
+                startAction(new ActionTask(mActions.get("Dimmer Level"), value));
+                break;
+            default:
+                Timber.i("Unknown command Received: %s", command.toString());
         }
-
-        Timber.i("Button is not mapped for value: %d", id);
-        return null;
     }
 
-    public void executeAction(ControllerMessage message) {
+    /**
+     * Executes commands that carry a boolean payload (DIMMER, REVERSE, RADIO_STATUS)
+     */
+    public void executeAction(McuInputCommand command, boolean value) {
+
+        switch (command) {
+            case DIMMER:
+                startAction(new ActionTask(mActions.get("Dimmer"), value));
+                break;
+            case REVERSE:
+                startAction(new ActionTask(mActions.get("Reverse"), value));
+                break;
+            case RADIO_STATUS:
+                mMcuEvents.OnRadioStatusReceived(value);
+                break;
+            default:
+                Timber.i("Unknown command Received: %s", command.toString());
+        }
+    }
 
-        ActionRunnable action = null;
-        switch (message.command) {
+    /**
+     * Executes commands that carry a string or byte array payload (STARTED, IDENT, CUSTOM).
+     * RADIO_DATA does not come through here, it is handed straight to the radio driver.
+     *
+     * The buffer is the McuEventBus slot the event arrived in.  The slot is reused as soon as
+     * this call returns, so the data must be copied if it is needed after that.
+     */
+    public void executeAction(McuInputCommand command, byte[] buffer, int offset, int length) {
+        switch (command) {
             case STARTED:
                 // connection established, initialize
                 Timber.v("MCU Started successfully");
@@ -782,76 +856,90 @@ public class CommandProcessor {
                 }
 
                 // invoke Mcu OnStarted Callback with Id
-                mMcuEvents.OnStarted((String)message.data);
+                mMcuEvents.OnStarted(new String(buffer, offset, length));
                 break;
             case IDENT:
-                mMcuEvents.OnIdReceived((String)message.data);
-                break;
-            case CLICK:
-                action = getButtonAction(message.data, true);
-                if (action != null) {
-                    mIsHoldingBtn.set(false);
-                }
-                break;
-            case HOLD:
-                action = getButtonAction(message.data, false);
-                if (action != null) {
-                    mIsHoldingBtn.set(true);
-                }
-                break;
-            case RELEASE:
-                mIsHoldingBtn.set(false);
-                break;
-            case DIMMER:
-                action = mActions.get("Dimmer");
-                action.setData(message.data);
-                break;
-            case DIMMER_LEVEL:
-                action = mActions.get("Dimmer Level");
-                action.setData(message.data);
-                break;
-            case REVERSE:
-                action = mActions.get("Reverse");
-                action.setData(message.data);
-                break;
-            case RADIO_STATUS:
-                mMcuEvents.OnRadioStatusReceived((boolean)message.data);
-                break;
-            case RADIO_DATA:
-                mMcuEvents.OnRadioDataReceived((byte[])message.data);
+                mMcuEvents.OnIdReceived(new String(buffer, offset, length));
                 break;
             case CUSTOM:
                 if (mBroadcastCustomCommands) {
-                    byte[] custom = (byte[]) message.data;
-
                     // invalid command received
-                    if (custom == null || custom.length == 0) {
+                    if (length == 0) {
                         return;
                     }
 
-                    Timber.d("Broacasting custom command: %s", message.command.toString());
+                    McuLog.d("Broacasting custom command: %s", command);
 
                     // First byte is the command
                     Intent customIntent = new Intent(mContext.getString(R.string.ACTION_CUSTOM_DATA_RECIEVED));
-                    customIntent.putExtra(mContext.getString(R.string.EXTRA_COMMAND), custom[0]);
+                    customIntent.putExtra(mContext.getString(R.string.EXTRA_COMMAND), buffer[offset]);
 
                     // If there is extra data add that extra as well
-                    if (custom.length > 1) {
+                    if (length > 1) {
                         customIntent.putExtra(mContext.getString(R.string.EXTRA_DATA),
-                                Arrays.copyOfRange(custom, 1, (custom.length -1)));
+                                Arrays.copyOfRange(buffer, offset + 1, offset + length));
                     }
 
                     mContext.sendBroadcast(customIntent);
                 }
                 break;
             default:
-                Timber.i("Unknown command Received: %s", message.command.toString());
+                Timber.i("Unknown command Received: %s", command.toString());
+        }
+    }
+
+    private void startAction(ActionTask task) {
+        if (task != null) {
+            mActionExecutor.execute(task.mAction.getLane(), task);
+        }
+    }
+
+    /**
+     * Starts the action for a held button.  Actions with a repeat delay are run on a schedule
+     * until the button is released, other actions run once.
+     */
+    private void startHeldAction(ActionTask task) {
+        if (task == null) {
+            return;
+        }
+
+        mIsHoldingBtn.set(true);
+        mHeldAction = task.mAction;
+
+        long repeatDelay = task.mAction.getRepeatDelay();
+        if (repeatDelay > 0) {
+            mHoldRepeat = mActionExecutor.scheduleRepeating(task.mAction.getLane(), task,
+                    repeatDelay);
+        } else {
+            startAction(task);
         }
+    }
+
+    private void releaseHeldAction() {
+        mIsHoldingBtn.set(false);
 
-        if (action != null) {
-            Thread actionThread = new Thread(action);
-            actionThread.start();
+        if (mHoldRepeat != null) {
+            mHoldRepeat.cancel(false);
+            mHoldRepeat = null;
         }
+
+        if (mHeldAction != null) {
+            final ActionRunnable action = mHeldAction;
+            mHeldAction = null;
+            mActionExecutor.execute(action.getLane(), new Runnable() {
+                @Override
+                public void run() {
+                    action.onRelease();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the time from queueing an action to the end of its run for each action lane
+     */
+    public LatencyStats[] getActionStats() {
+        return mActionExecutor.getLatencyStats();
     }
 
     public void close() {
@@ -862,6 +950,10 @@ public class CommandProcessor {
                 .putString("audio_pref_key_current_source", mCurrentSource.toString())
                 .apply();
 
+        releaseHeldAction();
+        mActionExecutor.shutdown();
+        mBrightnessPipeline.close();
+
     }
 
 }
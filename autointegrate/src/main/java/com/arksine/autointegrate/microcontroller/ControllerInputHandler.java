@@ -1,249 +1,292 @@
 package com.arksine.autointegrate.microcontroller;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
 
 import com.arksine.autointegrate.interfaces.McuLearnCallbacks;
 import com.arksine.autointegrate.microcontroller.MCUDefs.*;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import timber.log.Timber;
 
 /**
- * Handler to parse incoming packets from the Micro Controller and process its events
+ * Parses incoming packets from the Micro Controller and processes its events.
+ *
+ * Packets are decoded on the thread that receives them from the device and published to one
+ * of two event buses.  Button, dimmer and reverse events go to the high priority bus, radio
+ * status, log and custom events go to the bulk bus.  The buses do not share slots or threads,
+ * so a burst of bulk traffic can neither fill the ring that a reverse or release event needs
+ * nor compete with its consumer.  Events within a bus are processed by separate consumers for
+ * buttons, the dimmer and reverse signals, the radio status and the MCU log.
+ *
+ * Radio data skips the buses altogether.  It is handed to the radio driver as it is decoded,
+ * and the driver is told to pass it on once the whole read has been decoded.
+ *
+ * The time from reading the data off the device until its event has been handed off is
+ * recorded for each bus.  In execution mode most events are handed off by queueing an action,
+ * the command processor's action lanes record the rest, from queueing to the end of the
+ * action.  Both are returned by {@link #getLatencyStats()}.
  */
 
-public class ControllerInputHandler extends Handler {
+public class ControllerInputHandler {
+
+    // Number of event slots, each slot holds up to 255 bytes of payload
+    private static final int PRIORITY_BUS_SIZE = 64;
+    private static final int BULK_BUS_SIZE = 512;
+
+    // Commands that are dispatched on the high priority bus.  All button events share a
+    // consumer so a release is never handled before the hold it ends.
+    private static final McuInputCommand[] BUTTON_COMMANDS = {McuInputCommand.CLICK,
+            McuInputCommand.HOLD, McuInputCommand.RELEASE, McuInputCommand.STARTED,
+            McuInputCommand.IDENT};
+    private static final McuInputCommand[] DIMMER_COMMANDS = {McuInputCommand.DIMMER,
+            McuInputCommand.DIMMER_LEVEL, McuInputCommand.REVERSE};
 
     private Context mContext = null;
     private CommandProcessor mCommandProcessor;
     private MicroControllerCom.McuEvents mMcuEvents = null;
     private McuLearnCallbacks mMcuLearnCallbacks = null;
 
-    private interface InputMode {
-        void ProcessInput(ControllerMessage ctrlMsg);
-    }
-    private final InputMode mLearningMode = new InputMode() {
+    private final McuPacketDecoder.PacketListener mLearningMode = new McuPacketDecoder.PacketListener() {
         @Override
-        public void ProcessInput(ControllerMessage ctrlMsg) {
-            if (mMcuLearnCallbacks != null) {
-                switch (ctrlMsg.command) {
-                    case STARTED:
-                        // invoke Mcu OnStarted Callback with Id
-                        Timber.i("MCU Restarted in Learning mode");
-                        mMcuEvents.OnStarted((String)ctrlMsg.data);
-                        break;
-                    case CLICK:
-                        mMcuLearnCallbacks.onButtonClicked((int)ctrlMsg.data);
-                        break;
-                    case DIMMER:
-                        mMcuLearnCallbacks.onDimmerToggled((boolean)ctrlMsg.data);
-                        break;
-                    case DIMMER_LEVEL:
-                        mMcuLearnCallbacks.onDimmerLevelChanged((int)ctrlMsg.data);
-                        break;
-                    default:
-                        Timber.v("Incorrect command type for calibration received: %s",
-                                ctrlMsg.command.toString());
-                }
-            } else {
+        public void onShort(McuInputCommand command, int value) {
+            if (mMcuLearnCallbacks == null) {
                 Timber.w("Error, device in learning mode but no callbacks are set");
+                return;
             }
 
+            switch (command) {
+                case CLICK:
+                    mMcuLearnCallbacks.onButtonClicked(value);
+                    break;
+                case DIMMER_LEVEL:
+                    mMcuLearnCallbacks.onDimmerLevelChanged(value);
+                    break;
+                default:
+                    McuLog.v("Incorrect command type for calibration received: %s", command);
+            }
         }
-    };
 
-    private final InputMode mExecutionMode = new InputMode() {
         @Override
-        public void ProcessInput(ControllerMessage ctrlMsg) {
-            mCommandProcessor.executeAction(ctrlMsg);
+        public void onInt(McuInputCommand command, int value) {
+            McuLog.v("Incorrect command type for calibration received: %s", command);
         }
-    };
 
-    private InputMode mInputMode;
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            if (mMcuLearnCallbacks == null) {
+                Timber.w("Error, device in learning mode but no callbacks are set");
+                return;
+            }
 
-    private ByteBuffer mReceivedBuffer = ByteBuffer.allocate(512);
-    private boolean mIsLengthByte = false;
-    private boolean mIsEscapedByte = false;
-    private boolean mIsValidPacket = false;
-    private int mPacketLength = 0;
-    private int mChecksum = 0;
+            if (command == McuInputCommand.DIMMER) {
+                mMcuLearnCallbacks.onDimmerToggled(value);
+            } else {
+                McuLog.v("Incorrect command type for calibration received: %s", command);
+            }
+        }
 
-    ControllerInputHandler(Looper looper, Context context, MicroControllerCom.McuEvents mcuEvents,
-                           boolean isLearningMode, McuLearnCallbacks cbs) {
-        super(looper);
-        mContext = context;
-        mMcuEvents = mcuEvents;
-        mReceivedBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        mCommandProcessor = new CommandProcessor(mContext, mcuEvents);
-        this.mMcuLearnCallbacks = cbs;
-        this.setMode(isLearningMode, cbs);
-    }
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            switch (command) {
+                case STARTED:
+                    // invoke Mcu OnStarted Callback with Id
+                    Timber.i("MCU Restarted in Learning mode");
+                    mMcuEvents.OnStarted(new String(buffer, offset, length));
+                    break;
+                case LOG:
+                    Timber.tag("MCU Log").i(new String(buffer, offset, length));
+                    break;
+                default:
+                    McuLog.v("Incorrect command type for calibration received: %s", command);
+            }
+        }
+    };
 
-    @Override
-    public void handleMessage(Message msg) {
-        parseBytes((byte[])msg.obj);
-    }
+    private final McuPacketDecoder.PacketListener mExecutionMode = new McuPacketDecoder.PacketListener() {
+        @Override
+        public void onShort(McuInputCommand command, int value) {
+            mCommandProcessor.executeAction(command, value);
+        }
 
-    private void parseBytes(byte[] data) {
-        for (byte b : data) {
-            if (b == (byte) 0xF1) {
-                mIsValidPacket = true;
-                mIsEscapedByte = false;
-                mIsLengthByte = true;
-
-                mReceivedBuffer.clear();
-                mPacketLength = 0;
-                mChecksum = 0xF1;
-            } else if (!mIsValidPacket) {
-                Timber.d("Invalid byte received: %#x", b);
-            } else if (b == (byte) 0x1A && !mIsEscapedByte) {
-                mIsEscapedByte = true;
+        @Override
+        public void onInt(McuInputCommand command, int value) {
+            mCommandProcessor.executeAction(command, value);
+        }
+
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            mCommandProcessor.executeAction(command, value);
+        }
+
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            if (command == McuInputCommand.LOG) {
+                Timber.tag("MCU Log").i(new String(buffer, offset, length));
             } else {
-                if (mIsEscapedByte) {
-                    mIsEscapedByte = false;
-                    if (b == (byte) 0x20) {
-                        // 0xF1 is escaped as 0x20
-                        b = (byte) 0xF1;
-                    }
-                    // Note: 0x1A is escaped as 0x1A, so we don't need to reset the current byte
-                }
-
-                if (mIsLengthByte) {
-                    mIsLengthByte = false;
-                    mPacketLength = b & (0xFF);
-                    mChecksum += mPacketLength;
-                } else if (mReceivedBuffer.position() == mPacketLength) {
-                    // This is the checksum byte
-
-                    // Checksum is all bytes added up (not counting header and escape bytes) mod 256
-                    if ((mChecksum % 256) == (b & 0xFF)) {
-                        mReceivedBuffer.flip();
-                        parsePacket();
-
-                    } else {
-                        Timber.d("Invalid checksum, discarding packet");
-                    }
-
-                    // The next byte received must be 0xF1, regardless of what happened here
-                    mIsValidPacket = false;
-                } else {
-                    // Add byte to packet buffer
-                    mReceivedBuffer.put(b);
-                    mChecksum += (b & 0xFF);
-                }
+                mCommandProcessor.executeAction(command, buffer, offset, length);
             }
         }
-    }
+    };
 
-    // Reads a message from the Micro Controller and parses it
-    private boolean parsePacket() {
+    private volatile McuPacketDecoder.PacketListener mModeListener = mExecutionMode;
 
-        Timber.d("MCU Packet Length: %d", mReceivedBuffer.limit());
+    // Time the data currently being decoded was read, only accessed by the reader thread
+    private long mReadTime = 0;
+    // Set when the data currently being decoded contained radio data
+    private boolean mHasRadioData = false;
+
+    // Publishes decoded packets to the bus for the command's lane
+    private final McuPacketDecoder.PacketListener mPublisher = new McuPacketDecoder.PacketListener() {
+        @Override
+        public void onShort(McuInputCommand command, int value) {
+            McuLog.trace("%s %d", command, value);
+            getBus(command).publishShort(command, value, mReadTime);
+        }
 
-        if(mReceivedBuffer.limit() < 2) {
-            Timber.w("Invalid data packet, must at least be 2 bytes long");
-            return false;
+        @Override
+        public void onInt(McuInputCommand command, int value) {
+            McuLog.trace("%s %d", command, value);
+            getBus(command).publishShort(command, value, mReadTime);
         }
 
-        ControllerMessage ctrlMsg = new ControllerMessage();
-
-        ctrlMsg.command = McuInputCommand.getCommandFromByte(mReceivedBuffer.get());
-        Timber.d("MCU Command Recd: %s", ctrlMsg.command.toString());
-        if (ctrlMsg.command == McuInputCommand.NONE) {
-            Timber.w("Invalid Command Received");
-            return false;
-        } else if (ctrlMsg.command == McuInputCommand.RADIO_DATA) {
-            byte[] radioBytes = new byte[mReceivedBuffer.remaining()];
-            mReceivedBuffer.get(radioBytes);
-            mMcuEvents.OnRadioDataReceived(radioBytes);
-            return true;
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            McuLog.trace("%s %d", command, value ? 1 : 0);
+            getBus(command).publishBool(command, value, mReadTime);
         }
 
-        if (!mReceivedBuffer.hasRemaining()) {
-            Timber.w("Invalid Packet, end of buffer reached before data received");
-            //  TODO: In the future it may be possible to receive a command that has no payload.
-            //  In that case, we would need to send it here and not return false
-            return false;
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            McuLog.trace("%s, %d bytes", command, length);
+            if (command == McuInputCommand.RADIO_DATA) {
+                mMcuEvents.OnRadioDataReceived(buffer, offset, length);
+                mHasRadioData = true;
+            } else {
+                getBus(command).publishBytes(command, buffer, offset, length, mReadTime);
+            }
         }
+    };
 
-        switch (ctrlMsg.command.getDataType()) {
-            case SHORT:
-                if (mReceivedBuffer.remaining() < 2) {
-                    Timber.d("Invalid Short data size: %d", mReceivedBuffer.remaining());
-                    return false;
-                }
-
-                // since we are dealing with ints throughout we will cast it to int
-                ctrlMsg.data = (int) mReceivedBuffer.getShort();
-
-                break;
-            case INT:
-                if (mReceivedBuffer.remaining() == 2) {
-                    // 8-bit MCU integer is two bytes
-                    ctrlMsg.data = mReceivedBuffer.getShort();
-                    Timber.v("8-bit MCU Integer received");
-                } else if (mReceivedBuffer.remaining() >= 4) {
-                    // 32-bit AVR integer is 4 bytes
-                    ctrlMsg.data = mReceivedBuffer.getInt();
-                    Timber.v("32-bit MCU Integer received");
-                } else {
-                    Timber.d("Invalid Integer data size: %d", mReceivedBuffer.remaining());
-                    return false;
-                }
-
-                break;
-            case STRING:
-                byte[] strBytes = new byte[mReceivedBuffer.remaining()];
-                mReceivedBuffer.get(strBytes);
-                ctrlMsg.data = new String(strBytes);
-                break;
-
-            case BOOLEAN:
-                ctrlMsg.data = mReceivedBuffer.get()!= 0;
-                break;
-            case BYTE_ARRAY:
-                byte[] arrayBytes = new byte[mReceivedBuffer.remaining()];
-                mReceivedBuffer.get(arrayBytes);
-                ctrlMsg.data = arrayBytes;
-                break;
-            default:
-                Timber.w("Invalid Data Type Received: %s", ctrlMsg.command.getDataType().toString());
-                return false;
+    // Hands events to the listener for the current mode, runs on the event bus consumer threads
+    private final McuEventBus.EventHandler mEventHandler = new McuEventBus.EventHandler() {
+        @Override
+        public void onEvent(McuEventBus.Event event) {
+            McuPacketDecoder.PacketListener listener = mModeListener;
+            McuInputCommand command = event.getCommand();
+
+            switch (command.getDataType()) {
+                case SHORT:
+                    listener.onShort(command, event.getValue());
+                    break;
+                case INT:
+                    listener.onInt(command, event.getValue());
+                    break;
+                case BOOLEAN:
+                    listener.onBool(command, event.getBool());
+                    break;
+                case STRING:
+                case BYTE_ARRAY:
+                    listener.onBytes(command, event.getData(), 0, event.getLength());
+                    break;
+                default:
+                    break;
+            }
         }
+    };
 
-        if (mReceivedBuffer.hasRemaining()) {
-            Timber.d("Bytes remaining in the buffer after parsing: %d",
-                    mReceivedBuffer.hasRemaining());
+    /**
+     * Dispatches an event and records the time from reading its data until it was handed off.
+     * Actions queued by the event are not included, they are recorded by the action lanes.
+     */
+    private class LaneHandler implements McuEventBus.EventHandler {
+        private final LatencyStats mStats;
 
+        LaneHandler(LatencyStats stats) {
+            mStats = stats;
         }
 
+        @Override
+        public void onEvent(McuEventBus.Event event) {
+            mEventHandler.onEvent(event);
+            mStats.record(System.nanoTime() - event.getTimestamp());
+        }
+    }
 
-        // send the parsed message for processing
-        if (ctrlMsg.command == McuInputCommand.LOG) {
-            Timber.tag("MCU Log").i((String) ctrlMsg.data);
+    private final McuEventBus mPriorityBus = new McuEventBus(PRIORITY_BUS_SIZE,
+            Thread.MAX_PRIORITY);
+    private final McuEventBus mBulkBus = new McuEventBus(BULK_BUS_SIZE, Thread.NORM_PRIORITY);
+    private final boolean[] mIsPriorityCommand = new boolean[McuInputCommand.values().length];
+    private final LatencyStats mPriorityStats = new LatencyStats("Priority Bus Hand-off");
+    private final LatencyStats mBulkStats = new LatencyStats("Bulk Bus Hand-off");
+    private final McuPacketDecoder mDecoder = new McuPacketDecoder(mPublisher);
 
-        } else {
-            Timber.d("%s %s", ctrlMsg.command, ctrlMsg.data);
-            mInputMode.ProcessInput(ctrlMsg);
+    ControllerInputHandler(Context context, MicroControllerCom.McuEvents mcuEvents,
+                           boolean isLearningMode, McuLearnCallbacks cbs) {
+        mContext = context;
+        mMcuEvents = mcuEvents;
+        mCommandProcessor = new CommandProcessor(mContext, mcuEvents);
+        this.mMcuLearnCallbacks = cbs;
+        this.setMode(isLearningMode, cbs);
+
+        for (McuInputCommand command : BUTTON_COMMANDS) {
+            mIsPriorityCommand[command.ordinal()] = true;
+        }
+        for (McuInputCommand command : DIMMER_COMMANDS) {
+            mIsPriorityCommand[command.ordinal()] = true;
         }
 
-        return true;
+        LaneHandler priorityHandler = new LaneHandler(mPriorityStats);
+        LaneHandler bulkHandler = new LaneHandler(mBulkStats);
+        mPriorityBus.addConsumer("MCU Button Events", priorityHandler, BUTTON_COMMANDS);
+        mPriorityBus.addConsumer("MCU Dimmer Events", priorityHandler, DIMMER_COMMANDS);
+        mBulkBus.addConsumer("MCU Radio Events", bulkHandler, McuInputCommand.RADIO_STATUS);
+        mBulkBus.addConsumer("MCU Log Events", bulkHandler,
+                McuInputCommand.LOG, McuInputCommand.CUSTOM);
+    }
+
+    private McuEventBus getBus(McuInputCommand command) {
+        return mIsPriorityCommand[command.ordinal()] ? mPriorityBus : mBulkBus;
+    }
+
+    /**
+     * Starts the event consumers, must be called before data is received
+     */
+    public void start() {
+        mDecoder.reset();
+        mPriorityStats.reset();
+        mBulkStats.reset();
+        mPriorityBus.start();
+        mBulkBus.start();
+    }
+
+    /**
+     * Decodes data received from the device.  Must always be called from the same thread.
+     */
+    public void onDataReceived(byte[] data) {
+        onDataReceived(data, 0, data.length);
+    }
+
+    public void onDataReceived(byte[] data, int offset, int length) {
+        mReadTime = System.nanoTime();
+        mDecoder.decode(data, offset, length);
+
+        if (mHasRadioData) {
+            mHasRadioData = false;
+            mMcuEvents.OnRadioDataComplete();
+        }
     }
 
     void setMode(boolean isLearningMode, McuLearnCallbacks cbs) {
         if (isLearningMode) {
             Timber.v("Controller is in Learning Mode.");
-            mInputMode = mLearningMode;
             mMcuLearnCallbacks = cbs;
+            mModeListener = mLearningMode;
         } else {
             Timber.v("Controller is in Execution Mode.");
-            mInputMode = mExecutionMode;
+            mModeListener = mExecutionMode;
         }
     }
 
@@ -261,7 +304,33 @@ public class ControllerInputHandler extends Handler {
     }
 
 
+    /**
+     * Returns the read to hand-off latency of the priority and bulk buses, followed by the
+     * queue to completion latency of each action lane
+     */
+    public List<LatencyStats> getLatencyStats() {
+        List<LatencyStats> stats = new ArrayList<>();
+        stats.add(mPriorityStats);
+        stats.add(mBulkStats);
+        Collections.addAll(stats, mCommandProcessor.getActionStats());
+        return stats;
+    }
+
+    /**
+     * Stops the event consumers.  The command processor and its action tables are kept, so
+     * the handler can be started again when the device reconnects.
+     */
+    public void stop() {
+        mPriorityBus.stop();
+        mBulkBus.stop();
+        for (LatencyStats stats : getLatencyStats()) {
+            Timber.i("%s", stats);
+        }
+    }
+
     public void close() {
+        stop();
+
         // if we are in execution mode we need to clean up the command processor
         if (mCommandProcessor != null) {
             mCommandProcessor.close();
@@ -0,0 +1,78 @@
+package com.arksine.autointegrate.microcontroller;
+
+/**
+ * Smooths analog dimmer readings received from the Micro Controller.  Each reading first goes
+ * through a median filter, which drops single spikes from a noisy rheostat, then through an
+ * exponential moving average, which evens out slow drift.
+ *
+ * This class is not thread safe, it should only be fed from one thread.
+ */
+public class DimmerFilter {
+
+    public static final int MAX_MEDIAN_WINDOW = 9;
+
+    private final int[] mWindow;
+    private final int[] mSorted;
+    private final float mSmoothing;
+
+    private int mCount = 0;
+    private int mNext = 0;
+    private float mAverage = 0f;
+
+    /**
+     * @param medianWindow  Number of readings the median is taken over, between 1 (no median
+     *                      filter) and MAX_MEDIAN_WINDOW
+     * @param smoothing     Weight of the previous average, between 0 (no smoothing) and 1.
+     *                      Values close to 1 react slowly to a change.
+     */
+    public DimmerFilter(int medianWindow, float smoothing) {
+        medianWindow = Math.max(1, Math.min(medianWindow, MAX_MEDIAN_WINDOW));
+        mWindow = new int[medianWindow];
+        mSorted = new int[medianWindow];
+        mSmoothing = Math.max(0f, Math.min(smoothing, 0.99f));
+    }
+
+    /**
+     * Adds a reading and returns the filtered value
+     */
+    public int filter(int reading) {
+        mWindow[mNext] = reading;
+        mNext = (mNext + 1) % mWindow.length;
+
+        final boolean isFirst = (mCount == 0);
+        if (mCount < mWindow.length) {
+            mCount++;
+        }
+
+        final int median = median();
+        if (isFirst) {
+            mAverage = median;
+        } else {
+            mAverage = mSmoothing * mAverage + (1f - mSmoothing) * median;
+        }
+        return Math.round(mAverage);
+    }
+
+    /**
+     * Clears all previous readings, the next reading is passed through unchanged
+     */
+    public void reset() {
+        mCount = 0;
+        mNext = 0;
+        mAverage = 0f;
+    }
+
+    private int median() {
+        // insertion sort, the window is small
+        for (int i = 0; i < mCount; i++) {
+            int value = mWindow[i];
+            int j = i - 1;
+            while (j >= 0 && mSorted[j] > value) {
+                mSorted[j + 1] = mSorted[j];
+                j--;
+            }
+            mSorted[j + 1] = value;
+        }
+        return mSorted[mCount / 2];
+    }
+}
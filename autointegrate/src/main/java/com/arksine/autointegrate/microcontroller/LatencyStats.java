@@ -0,0 +1,98 @@
+package com.arksine.autointegrate.microcontroller;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects latency samples into a log2 histogram.  Recording does not allocate or lock, so it
+ * is safe to call from several threads on a hot path.  Percentiles are approximate, they
+ * report the upper bound of the histogram bucket the percentile falls into.
+ */
+public class LatencyStats {
+
+    // Bucket i holds samples from 2^i to 2^(i+1) - 1 microseconds, the last bucket holds
+    // everything above
+    private static final int BUCKET_COUNT = 32;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong(0);
+    private final AtomicLong mTotalNanos = new AtomicLong(0);
+    private final AtomicLong mMaxNanos = new AtomicLong(0);
+
+    public LatencyStats(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void record(long latencyNanos) {
+        if (latencyNanos < 0) {
+            latencyNanos = 0;
+        }
+
+        long micros = latencyNanos / 1000;
+        int bucket = (micros == 0) ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+        mBuckets.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(latencyNanos);
+
+        long max = mMaxNanos.get();
+        while (latencyNanos > max && !mMaxNanos.compareAndSet(max, latencyNanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMeanMicros() {
+        long count = mCount.get();
+        return (count > 0) ? mTotalNanos.get() / count / 1000 : 0;
+    }
+
+    public long getMaxMicros() {
+        return mMaxNanos.get() / 1000;
+    }
+
+    /**
+     * Returns the approximate latency, in microseconds, that the given fraction of samples
+     * (ie: 0.99) fall under
+     */
+    public long getPercentileMicros(double fraction) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return Math.min((1L << (i + 1)) - 1, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d events, mean %d us, p50 %d us, p99 %d us, max %d us",
+                mName, getCount(), getMeanMicros(), getPercentileMicros(0.5),
+                getPercentileMicros(0.99), getMaxMicros());
+    }
+}
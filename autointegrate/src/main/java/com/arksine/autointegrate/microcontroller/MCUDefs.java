@@ -35,6 +35,10 @@ public class MCUDefs {
             this.dType = type;
         }
 
+        public byte getByte() {
+            return id;
+        }
+
         private static final McuInputCommand[] COMMAND_ARRAY = McuInputCommand.values();
 
         public static McuInputCommand getCommandFromByte(byte id) {
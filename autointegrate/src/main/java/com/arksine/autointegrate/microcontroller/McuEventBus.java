@@ -0,0 +1,329 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import timber.log.Timber;
+
+/**
+ * Single producer, multiple consumer ring buffer that carries decoded Micro Controller events
+ * from the serial reader to the threads that process them.
+ *
+ * The ring is made of event slots that are allocated once, when the bus is created.  The
+ * producer claims the next slot, fills it in and publishes it by advancing the cursor.  Each
+ * consumer runs on its own thread, follows the cursor with its own sequence and only handles
+ * the commands it subscribed to.  Consumers never wait on each other, so a burst of radio data
+ * does not hold up a button or reverse event.  The producer only waits when the ring is full,
+ * that is when the slowest consumer is a full ring behind.
+ *
+ * Publishing and consuming are lock free.  Consumers that run out of events park until the
+ * producer wakes them, an idle consumer does not wake up on its own.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class McuEventBus {
+
+    private static final long PRODUCER_PARK_NANOS = 50000L;     // 50 us
+    // Times a consumer yields before parking, so the rest of a burst that is still being
+    // decoded is picked up without parking and waking the thread
+    private static final int CONSUMER_YIELD_TRIES = 4;
+
+    private static final McuInputCommand[] INPUT_COMMANDS = McuInputCommand.values();
+
+    /**
+     * A slot in the ring.  Slots are reused, a handler must copy anything it needs to keep
+     * before returning.
+     */
+    public static final class Event {
+        private McuInputCommand mCommand = McuInputCommand.NONE;
+        private int mValue;
+        private boolean mBool;
+        private final byte[] mData = new byte[255];
+        private int mLength;
+        private long mTimestamp;
+
+        public McuInputCommand getCommand() {
+            return mCommand;
+        }
+
+        // Value of SHORT and INT commands
+        public int getValue() {
+            return mValue;
+        }
+
+        // Value of BOOLEAN commands
+        public boolean getBool() {
+            return mBool;
+        }
+
+        // Payload of STRING and BYTE_ARRAY commands, valid from 0 to getLength()
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        // System.nanoTime() when the data the event was decoded from was read, or when the
+        // event was published if the producer did not supply a time
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+    }
+
+    public interface EventHandler {
+        void onEvent(Event event);
+    }
+
+    private final Event[] mRing;
+    private final int mMask;
+    private final int mThreadPriority;
+
+    // Sequence of the last published event
+    private final AtomicLong mCursor = new AtomicLong(-1);
+    // Producer only
+    private long mNextSequence = 0;
+
+    private final List<Consumer> mConsumers = new ArrayList<>();
+    private volatile Consumer[] mConsumerArray = new Consumer[0];
+    private final AtomicBoolean mIsRunning = new AtomicBoolean(false);
+
+    /**
+     * @param size  Number of event slots, must be a power of two
+     */
+    public McuEventBus(int size) {
+        this(size, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * @param size            Number of event slots, must be a power of two
+     * @param threadPriority  Java priority of the consumer threads
+     */
+    public McuEventBus(int size, int threadPriority) {
+        if (size <= 0 || (size & (size - 1)) != 0) {
+            throw new IllegalArgumentException("Event bus size must be a power of two");
+        }
+
+        mRing = new Event[size];
+        for (int i = 0; i < size; i++) {
+            mRing[i] = new Event();
+        }
+        mMask = size - 1;
+        mThreadPriority = threadPriority;
+    }
+
+    /**
+     * Adds a consumer that handles the given commands on its own thread.  Consumers must be
+     * added before the bus is started.
+     */
+    public synchronized void addConsumer(String name, EventHandler handler,
+                                         McuInputCommand... commands) {
+        if (mIsRunning.get()) {
+            throw new IllegalStateException("Cannot add a consumer to a running event bus");
+        }
+
+        boolean[] subscribed = new boolean[INPUT_COMMANDS.length];
+        for (McuInputCommand command : commands) {
+            subscribed[command.ordinal()] = true;
+        }
+        mConsumers.add(new Consumer(name, handler, subscribed));
+    }
+
+    /**
+     * Starts the consumer threads.  Consumers start with the next event published, events
+     * published while the bus was stopped are skipped.
+     */
+    public synchronized void start() {
+        if (mIsRunning.compareAndSet(false, true)) {
+            // Consumers must be visible to the producer before they start reading
+            Consumer[] consumers = mConsumers.toArray(new Consumer[mConsumers.size()]);
+            for (Consumer consumer : consumers) {
+                consumer.mSequence.set(mCursor.get());
+            }
+            mConsumerArray = consumers;
+
+            for (Consumer consumer : consumers) {
+                consumer.start();
+            }
+        }
+    }
+
+    /**
+     * Stops the consumer threads and waits for them to exit.  Events that have not been
+     * handled yet are dropped.
+     */
+    public synchronized void stop() {
+        if (mIsRunning.compareAndSet(true, false)) {
+            for (Consumer consumer : mConsumerArray) {
+                consumer.stop();
+            }
+            mConsumerArray = new Consumer[0];
+        }
+    }
+
+    public boolean isRunning() {
+        return mIsRunning.get();
+    }
+
+    public void publishShort(McuInputCommand command, int value) {
+        publishShort(command, value, System.nanoTime());
+    }
+
+    public void publishShort(McuInputCommand command, int value, long timestamp) {
+        Event event = claim();
+        event.mCommand = command;
+        event.mValue = value;
+        publish(event, timestamp);
+    }
+
+    public void publishBool(McuInputCommand command, boolean value) {
+        publishBool(command, value, System.nanoTime());
+    }
+
+    public void publishBool(McuInputCommand command, boolean value, long timestamp) {
+        Event event = claim();
+        event.mCommand = command;
+        event.mBool = value;
+        publish(event, timestamp);
+    }
+
+    public void publishBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+        publishBytes(command, buffer, offset, length, System.nanoTime());
+    }
+
+    public void publishBytes(McuInputCommand command, byte[] buffer, int offset, int length,
+                             long timestamp) {
+        Event event = claim();
+        event.mCommand = command;
+        System.arraycopy(buffer, offset, event.mData, 0, length);
+        event.mLength = length;
+        publish(event, timestamp);
+    }
+
+    /**
+     * Returns the number of events published since the bus was created
+     */
+    public long getPublishedCount() {
+        return mCursor.get() + 1;
+    }
+
+    // Waits until the next slot is free, must only be called by the producer
+    private Event claim() {
+        final long wrapPoint = mNextSequence - mRing.length;
+        while (wrapPoint > getMinimumSequence()) {
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+        }
+        return mRing[(int) (mNextSequence & mMask)];
+    }
+
+    private void publish(Event event, long timestamp) {
+        event.mTimestamp = timestamp;
+        mCursor.set(mNextSequence++);
+
+        for (Consumer consumer : mConsumerArray) {
+            if (consumer.mIsParked.get()) {
+                LockSupport.unpark(consumer.mThread);
+            }
+        }
+    }
+
+    private long getMinimumSequence() {
+        long minimum = mCursor.get();
+        for (Consumer consumer : mConsumerArray) {
+            long sequence = consumer.mSequence.get();
+            if (sequence < minimum) {
+                minimum = sequence;
+            }
+        }
+        return minimum;
+    }
+
+    private final class Consumer implements Runnable {
+        private final String mName;
+        private final EventHandler mHandler;
+        private final boolean[] mSubscribed;
+
+        // Sequence of the last event this consumer is done with
+        private final AtomicLong mSequence = new AtomicLong(-1);
+        private final AtomicBoolean mIsParked = new AtomicBoolean(false);
+        private volatile boolean mIsRunning = false;
+        private volatile Thread mThread = null;
+
+        Consumer(String name, EventHandler handler, boolean[] subscribed) {
+            mName = name;
+            mHandler = handler;
+            mSubscribed = subscribed;
+        }
+
+        void start() {
+            mIsRunning = true;
+            mThread = new Thread(this, mName);
+            mThread.setPriority(mThreadPriority);
+            mThread.start();
+        }
+
+        void stop() {
+            mIsRunning = false;
+            Thread thread = mThread;
+            if (thread != null && thread != Thread.currentThread()) {
+                LockSupport.unpark(thread);
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mThread = null;
+        }
+
+        @Override
+        public void run() {
+            long next = mSequence.get() + 1;
+            int idleTries = 0;
+
+            while (mIsRunning) {
+                final long available = mCursor.get();
+                if (available < next) {
+                    if (idleTries < CONSUMER_YIELD_TRIES) {
+                        idleTries++;
+                        Thread.yield();
+                        continue;
+                    }
+
+                    // Flag that we are about to park, then check again so an event published
+                    // in between is not missed.  The producer unparks us after publishing if
+                    // the flag is set, and stop() always does.
+                    mIsParked.set(true);
+                    if (mCursor.get() < next && mIsRunning) {
+                        LockSupport.park(this);
+                    }
+                    mIsParked.set(false);
+                    continue;
+                }
+                idleTries = 0;
+
+                while (next <= available) {
+                    Event event = mRing[(int) (next & mMask)];
+                    if (mSubscribed[event.mCommand.ordinal()]) {
+                        try {
+                            mHandler.onEvent(event);
+                        } catch (RuntimeException e) {
+                            // A handler must not take down the consumer
+                            Timber.e(e);
+                        }
+                    }
+
+                    // Release the slot to the producer
+                    mSequence.lazySet(next);
+                    next++;
+                }
+            }
+        }
+    }
+}
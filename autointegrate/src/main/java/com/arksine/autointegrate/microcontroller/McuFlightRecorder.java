@@ -0,0 +1,379 @@
+package com.arksine.autointegrate.microcontroller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Always-on recorder for the raw bytes exchanged with the Micro Controller.
+ *
+ * Frames are written to a fixed size ring in a memory mapped file, each with the direction
+ * and a System.nanoTime() timestamp.  Because the data lives in the page cache, the recording
+ * survives the process being killed and is picked up again the next time the file is opened.
+ *
+ * Writers do not lock.  Each frame reserves its space by advancing the head with an atomic
+ * add, then writes through its own view of the mapping.  The first int of a frame is a stamp
+ * (the low 32 bits of its position in the stream), written last.  A reader only accepts a
+ * frame whose stamp matches its position, which rejects frames that are still being written
+ * and frames that have been partly overwritten.
+ *
+ * File layout, big-endian:
+ *
+ *  Header (40 bytes):  int magic, short version, short reserved, int capacity, int reserved,
+ *                      long head, long anchor wall time (ms), long anchor nanoTime
+ *  Ring (capacity bytes), holding frames:
+ *                      int stamp, byte direction, byte reserved, short length, long time (ns),
+ *                      data
+ *
+ * The anchors are written when the file is opened, so frame times can be converted to the
+ * wall clock.  Frames recorded before a reboot will be off, nanoTime restarts with the device.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class McuFlightRecorder {
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    private static final int MAGIC = 0x4D464C54;    // "MFLT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int HEAD_OFFSET = 16;
+    private static final int ANCHOR_WALL_OFFSET = 24;
+    private static final int ANCHOR_NANOS_OFFSET = 32;
+    private static final int FRAME_HEADER_SIZE = 16;
+    private static final int MIN_CAPACITY = 1024;
+
+    public static final class Frame {
+        private final long mPosition;
+        private final int mDirection;
+        private final long mTime;
+        private final byte[] mData;
+
+        Frame(long position, int direction, long time, byte[] data) {
+            mPosition = position;
+            mDirection = direction;
+            mTime = time;
+            mData = data;
+        }
+
+        /**
+         * Returns DIRECTION_IN for bytes received from the MCU, DIRECTION_OUT for bytes sent
+         */
+        public int getDirection() {
+            return mDirection;
+        }
+
+        /**
+         * Returns the System.nanoTime() the frame was recorded at
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+    }
+
+    /**
+     * The frames read from a recording, oldest first
+     */
+    public static final class Recording {
+        private final List<Frame> mFrames;
+        private final long mAnchorWallTime;
+        private final long mAnchorNanos;
+
+        Recording(List<Frame> frames, long anchorWallTime, long anchorNanos) {
+            mFrames = frames;
+            mAnchorWallTime = anchorWallTime;
+            mAnchorNanos = anchorNanos;
+        }
+
+        public List<Frame> getFrames() {
+            return mFrames;
+        }
+
+        /**
+         * Converts a frame time to milliseconds since the epoch
+         */
+        public long toWallTime(long frameTime) {
+            return mAnchorWallTime + (frameTime - mAnchorNanos) / 1000000;
+        }
+    }
+
+    // Views share the mapping but keep their own position, one per writing thread
+    private static final class View {
+        final ByteBuffer ring;
+        final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+
+        View(ByteBuffer ring) {
+            this.ring = ring;
+        }
+    }
+
+    private final int mCapacity;
+    private final int mMaxFrameData;
+    private final MappedByteBuffer mMap;
+    private final ByteBuffer mRing;
+    private final AtomicLong mHead;
+    private final ThreadLocal<View> mViews = new ThreadLocal<View>() {
+        @Override
+        protected View initialValue() {
+            return new View(mRing.duplicate());
+        }
+    };
+
+    /**
+     * Opens the recorder file, continuing the recording in it if it has the same capacity.
+     *
+     * @param file      File to map, created if needed
+     * @param capacity  Size of the ring in bytes
+     */
+    public McuFlightRecorder(File file, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be at least " + MIN_CAPACITY);
+        }
+        mCapacity = capacity;
+        mMaxFrameData = getMaxFrameData(capacity);
+
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            access.setLength(HEADER_SIZE + (long) capacity);
+            mMap = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + capacity);
+        } finally {
+            // The mapping stays valid after the file is closed
+            access.close();
+        }
+
+        mMap.position(HEADER_SIZE);
+        mRing = mMap.slice();
+        mMap.position(0);
+
+        long head = 0;
+        if (mMap.getInt(0) == MAGIC && mMap.getShort(4) == VERSION
+                && mMap.getInt(8) == capacity && mMap.getLong(HEAD_OFFSET) >= 0) {
+            // Frames committed after the head was last stored are kept as well
+            head = findEnd(mRing, capacity, mMap.getLong(HEAD_OFFSET));
+        } else {
+            mMap.putInt(0, MAGIC);
+            mMap.putShort(4, (short) VERSION);
+            mMap.putShort(6, (short) 0);
+            mMap.putInt(8, capacity);
+            mMap.putInt(12, 0);
+        }
+        mMap.putLong(HEAD_OFFSET, head);
+        mMap.putLong(ANCHOR_WALL_OFFSET, System.currentTimeMillis());
+        mMap.putLong(ANCHOR_NANOS_OFFSET, System.nanoTime());
+        mHead = new AtomicLong(head);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public void record(int direction, byte[] data, int offset, int length) {
+        record(direction, System.nanoTime(), data, offset, length);
+    }
+
+    /**
+     * Records a frame.  Data larger than a quarter of the ring is split into several frames
+     * with the same time.  Safe to call from any thread.
+     */
+    public void record(int direction, long time, byte[] data, int offset, int length) {
+        View view = mViews.get();
+        do {
+            int chunk = Math.min(length, mMaxFrameData);
+            writeFrame(view, direction, time, data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        } while (length > 0);
+    }
+
+    private void writeFrame(View view, int direction, long time, byte[] data, int offset,
+                            int length) {
+        int size = FRAME_HEADER_SIZE + length;
+        long start = mHead.getAndAdd(size);
+
+        ByteBuffer header = view.frameHeader;
+        header.clear();
+        header.putInt(0);
+        header.put((byte) direction);
+        header.put((byte) 0);
+        header.putShort((short) length);
+        header.putLong(time);
+
+        put(view.ring, start + 4, header.array(), 4, FRAME_HEADER_SIZE - 4);
+        put(view.ring, start + FRAME_HEADER_SIZE, data, offset, length);
+
+        // The stamp commits the frame
+        header.putInt(0, (int) start);
+        put(view.ring, start, header.array(), 0, 4);
+
+        // Another thread may store a lower head after this, readers look past it
+        mMap.putLong(HEAD_OFFSET, start + size);
+    }
+
+    private void put(ByteBuffer ring, long position, byte[] src, int offset, int length) {
+        int index = (int) (position % mCapacity);
+        int first = Math.min(length, mCapacity - index);
+        ring.position(index);
+        ring.put(src, offset, first);
+        if (first < length) {
+            ring.position(0);
+            ring.put(src, offset + first, length - first);
+        }
+    }
+
+    /**
+     * Returns the frames currently in the ring, oldest first
+     */
+    public Recording read() {
+        ByteBuffer ring = mRing.duplicate();
+        List<Frame> frames = readFrames(ring, mCapacity, mHead.get());
+
+        // Frames that started before this point may have been overwritten while reading
+        long overwritten = mHead.get() - mCapacity;
+        int firstValid = 0;
+        while (firstValid < frames.size() && frames.get(firstValid).mPosition < overwritten) {
+            firstValid++;
+        }
+        return new Recording(new ArrayList<>(frames.subList(firstValid, frames.size())),
+                mMap.getLong(ANCHOR_WALL_OFFSET), mMap.getLong(ANCHOR_NANOS_OFFSET));
+    }
+
+    /**
+     * Copies the frames currently in the ring to a new recording file, which can be read with
+     * readFile().  An existing file at the destination is replaced.
+     */
+    public void dump(File destination) throws IOException {
+        Recording recording = read();
+        if (destination.exists() && !destination.delete()) {
+            throw new IOException("Unable to replace " + destination);
+        }
+
+        McuFlightRecorder copy = new McuFlightRecorder(destination, mCapacity);
+        copy.mMap.putLong(ANCHOR_WALL_OFFSET, mMap.getLong(ANCHOR_WALL_OFFSET));
+        copy.mMap.putLong(ANCHOR_NANOS_OFFSET, mMap.getLong(ANCHOR_NANOS_OFFSET));
+        for (Frame frame : recording.getFrames()) {
+            copy.record(frame.getDirection(), frame.getTime(), frame.getData(), 0,
+                    frame.getData().length);
+        }
+        copy.mMap.force();
+    }
+
+    /**
+     * Reads a recording file, either a dump or the recorder's own file after a crash
+     */
+    public static Recording readFile(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            if (access.length() < HEADER_SIZE) {
+                throw new IOException("Not a flight recording");
+            }
+            byte[] header = new byte[HEADER_SIZE];
+            access.readFully(header);
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            int capacity = headerBuffer.getInt(8);
+            if (headerBuffer.getInt(0) != MAGIC || headerBuffer.getShort(4) != VERSION
+                    || capacity < MIN_CAPACITY
+                    || access.length() < HEADER_SIZE + (long) capacity) {
+                throw new IOException("Not a flight recording");
+            }
+
+            byte[] ring = new byte[capacity];
+            access.readFully(ring);
+            ByteBuffer ringBuffer = ByteBuffer.wrap(ring);
+            long head = findEnd(ringBuffer, capacity,
+                    Math.max(0, headerBuffer.getLong(HEAD_OFFSET)));
+            return new Recording(readFrames(ringBuffer, capacity, head),
+                    headerBuffer.getLong(ANCHOR_WALL_OFFSET),
+                    headerBuffer.getLong(ANCHOR_NANOS_OFFSET));
+        } finally {
+            access.close();
+        }
+    }
+
+    // Walks forward from the stored head over frames that were committed after it was stored
+    private static long findEnd(ByteBuffer ring, int capacity, long head) {
+        while (true) {
+            int length = getFrameLength(ring, capacity, head);
+            if (length < 0) {
+                return head;
+            }
+            head += FRAME_HEADER_SIZE + length;
+        }
+    }
+
+    // Returns the data length of the frame at a position, or -1 if there is no valid frame
+    private static int getFrameLength(ByteBuffer ring, int capacity, long position) {
+        if (getInt(ring, capacity, position) != (int) position) {
+            return -1;
+        }
+        int length = ((get(ring, capacity, position + 6) & 0xFF) << 8)
+                | (get(ring, capacity, position + 7) & 0xFF);
+        return (length <= getMaxFrameData(capacity)) ? length : -1;
+    }
+
+    // Returns the position of the first valid frame at or after position, or -1
+    private static long findFrame(ByteBuffer ring, int capacity, long position, long head) {
+        for (; position + FRAME_HEADER_SIZE <= head; position++) {
+            int length = getFrameLength(ring, capacity, position);
+            if (length >= 0 && position + FRAME_HEADER_SIZE + length <= head) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Frame> readFrames(ByteBuffer ring, int capacity, long head) {
+        long position = findFrame(ring, capacity, Math.max(0, head - capacity), head);
+        if (position < 0) {
+            return Collections.emptyList();
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        while (position >= 0 && position < head) {
+            int length = getFrameLength(ring, capacity, position);
+            if (length < 0 || position + FRAME_HEADER_SIZE + length > head) {
+                // Torn frame, look for the next good one
+                position = findFrame(ring, capacity, position + 1, head);
+                continue;
+            }
+
+            int direction = get(ring, capacity, position + 4);
+            long time = ((long) getInt(ring, capacity, position + 8) << 32)
+                    | (getInt(ring, capacity, position + 12) & 0xFFFFFFFFL);
+            byte[] data = new byte[length];
+            for (int i = 0; i < length; i++) {
+                data[i] = get(ring, capacity, position + FRAME_HEADER_SIZE + i);
+            }
+            frames.add(new Frame(position, direction, time, data));
+            position += FRAME_HEADER_SIZE + length;
+        }
+        return frames;
+    }
+
+    private static int getMaxFrameData(int capacity) {
+        return Math.min(0xFFFF, capacity / 4);
+    }
+
+    private static byte get(ByteBuffer ring, int capacity, long position) {
+        return ring.get((int) (position % capacity));
+    }
+
+    private static int getInt(ByteBuffer ring, int capacity, long position) {
+        return ((get(ring, capacity, position) & 0xFF) << 24)
+                | ((get(ring, capacity, position + 1) & 0xFF) << 16)
+                | ((get(ring, capacity, position + 2) & 0xFF) << 8)
+                | (get(ring, capacity, position + 3) & 0xFF);
+    }
+}
@@ -0,0 +1,242 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.*;
+
+import timber.log.Timber;
+
+/**
+ * Encodes packets sent to the Micro Controller, using the same framing that the
+ * MCU sends to us (see {@link McuPacketDecoder}).
+ *
+ * Commands without a payload, as well as the DTR/RTS toggles, always encode to the same bytes,
+ * so they are encoded once when the class is loaded and shared.  The shared frames must never
+ * be modified.
+ *
+ * An encoder instance owns an output buffer that frames are appended to, so several frames can
+ * be collected and written to the device in one transfer.  Call {@link #reset()} once the
+ * contents of the buffer have been written.  Before appending, callers should check
+ * {@link #getRemaining()} against {@link #getMaxFrameLength(int)}, which is the worst case
+ * where every byte in the packet must be escaped.
+ *
+ * An encoder instance is not thread safe, it should only be used by the write thread.
+ */
+public class McuFrameEncoder {
+
+    private static final byte HEADER_BYTE = (byte) 0xF1;
+    private static final byte ESCAPE_BYTE = (byte) 0x1A;
+    private static final byte ESCAPED_HEADER = (byte) 0x20;
+
+    // The length byte covers the command byte and the payload, so the payload can be
+    // at most 254 bytes
+    public static final int MAX_PAYLOAD_LENGTH = 254;
+
+    private static final McuOutputCommand[] OUTPUT_COMMANDS = McuOutputCommand.values();
+    private static final byte[][] FIXED_FRAMES = new byte[OUTPUT_COMMANDS.length][];
+    private static final byte[][] FRAMES_TRUE = new byte[OUTPUT_COMMANDS.length][];
+    private static final byte[][] FRAMES_FALSE = new byte[OUTPUT_COMMANDS.length][];
+
+    static {
+        for (McuOutputCommand command : OUTPUT_COMMANDS) {
+            switch (command) {
+                case START:
+                case STOP:
+                case SET_DIMMER_ANALOG:
+                case SET_DIMMER_DIGITAL:
+                case AUDIO_SOURCE_HD:
+                case AUDIO_SOURCE_AUX:
+                case REQUEST_ID:
+                case RADIO_REQUEST_STATUS:
+                    FIXED_FRAMES[command.ordinal()] = buildFrame(command, null);
+                    break;
+                case RADIO_SET_DTR:
+                case RADIO_SET_RTS:
+                    FRAMES_TRUE[command.ordinal()] = buildFrame(command, new byte[] {0x01});
+                    FRAMES_FALSE[command.ordinal()] = buildFrame(command, new byte[] {0x00});
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private final byte[] mFrameBuffer;
+    private int mLength = 0;
+
+    /**
+     * Creates an encoder with room for a single frame of any size
+     */
+    public McuFrameEncoder() {
+        this(0);
+    }
+
+    /**
+     * Creates an encoder that can hold batchCapacity bytes of frames plus one more frame
+     * of any size.
+     */
+    public McuFrameEncoder(int batchCapacity) {
+        mFrameBuffer = new byte[batchCapacity + getMaxFrameLength(MAX_PAYLOAD_LENGTH)];
+    }
+
+    /**
+     * Returns the largest number of bytes a frame with the given payload length can encode
+     * to.  That is the header plus the length, command, payload and checksum bytes, with
+     * every one of them escaped.
+     */
+    public static int getMaxFrameLength(int payloadLength) {
+        return 1 + 2 * (payloadLength + 3);
+    }
+
+    /**
+     * Returns the shared, pre-encoded frame for a command that has no payload, or null if the
+     * command requires a payload.
+     */
+    public static byte[] getFixedFrame(McuOutputCommand command) {
+        return FIXED_FRAMES[command.ordinal()];
+    }
+
+    /**
+     * Returns the shared, pre-encoded frame for a command with a single boolean payload
+     * (RADIO_SET_DTR, RADIO_SET_RTS), or null if the command does not take a boolean.
+     */
+    public static byte[] getBooleanFrame(McuOutputCommand command, boolean state) {
+        return state ? FRAMES_TRUE[command.ordinal()] : FRAMES_FALSE[command.ordinal()];
+    }
+
+    /**
+     * Encodes a command and its payload, appending the frame to the encoder's buffer.
+     *
+     * @return the length of the encoded frame, or -1 if the payload is too large or there
+     *         is not enough room left in the buffer
+     */
+    public int encode(McuOutputCommand command, byte[] payload, int offset, int length) {
+        return appendEncoded(command.getByte(), -1, payload, offset, length);
+    }
+
+    /**
+     * Encodes a CUSTOM command, appending the frame to the encoder's buffer.  The custom
+     * command byte is sent as the first byte of the payload.
+     *
+     * @return the length of the encoded frame, or -1 if the payload is too large or there
+     *         is not enough room left in the buffer
+     */
+    public int encodeCustom(byte customCommand, byte[] payload, int offset, int length) {
+        return appendEncoded(McuOutputCommand.CUSTOM.getByte(), customCommand & 0xFF, payload,
+                offset, length);
+    }
+
+    /**
+     * Appends an already encoded frame, such as one returned by {@link #getFixedFrame}.
+     *
+     * @return the length of the frame, or -1 if there is not enough room left in the buffer
+     */
+    public int append(byte[] frame) {
+        if (frame.length > getRemaining()) {
+            Timber.w("Cannot append frame, encoder buffer is full");
+            return -1;
+        }
+        System.arraycopy(frame, 0, mFrameBuffer, mLength, frame.length);
+        mLength += frame.length;
+        return frame.length;
+    }
+
+    /**
+     * Returns the buffer frames are appended to.  The encoded frames occupy the first
+     * {@link #getLength()} bytes.
+     */
+    public byte[] getBuffer() {
+        return mFrameBuffer;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getRemaining() {
+        return mFrameBuffer.length - mLength;
+    }
+
+    /**
+     * Discards all frames in the buffer
+     */
+    public void reset() {
+        mLength = 0;
+    }
+
+    private int appendEncoded(byte command, int leadByte, byte[] payload, int offset, int length) {
+        int payloadLength = length + (leadByte >= 0 ? 1 : 0);
+        if (payloadLength <= MAX_PAYLOAD_LENGTH
+                && getMaxFrameLength(payloadLength) > getRemaining()) {
+            Timber.w("Cannot encode frame, encoder buffer is full");
+            return -1;
+        }
+
+        int frameLength = encode(command, leadByte, payload, offset, length, mFrameBuffer, mLength);
+        if (frameLength > 0) {
+            mLength += frameLength;
+        }
+        return frameLength;
+    }
+
+    /**
+     * Encodes a frame into dest.  The caller must make sure that dest has room for
+     * {@link #getMaxFrameLength(int)} bytes past destOffset.
+     *
+     * @param command   The command byte
+     * @param leadByte  An optional byte sent before the payload (ie: the custom command), or -1
+     * @param payload   Payload to send, may be null if length is 0
+     *
+     * @return the number of bytes written, or -1 if the payload is too large to send
+     */
+    private static int encode(byte command, int leadByte, byte[] payload, int offset, int length,
+                              byte[] dest, int destOffset) {
+        final int payloadLength = length + (leadByte >= 0 ? 1 : 0);
+        if (payloadLength > MAX_PAYLOAD_LENGTH) {
+            Timber.w("Cannot send command, payload of %d bytes is too large", payloadLength);
+            return -1;
+        }
+
+        int pos = destOffset;
+        final int packetLength = payloadLength + 1;   // payload length plus command byte
+        int checksum = 0xF1 + packetLength + (command & 0xFF);
+
+        dest[pos++] = HEADER_BYTE;
+        pos = putEscaped(dest, pos, (byte) packetLength);
+        pos = putEscaped(dest, pos, command);
+
+        if (leadByte >= 0) {
+            pos = putEscaped(dest, pos, (byte) leadByte);
+            checksum += leadByte;
+        }
+
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            pos = putEscaped(dest, pos, payload[i]);
+            checksum += (payload[i] & 0xFF);
+        }
+
+        pos = putEscaped(dest, pos, (byte) checksum);
+        return pos - destOffset;
+    }
+
+    private static int putEscaped(byte[] dest, int pos, byte b) {
+        if (b == HEADER_BYTE) {
+            dest[pos++] = ESCAPE_BYTE;
+            dest[pos++] = ESCAPED_HEADER;
+        } else if (b == ESCAPE_BYTE) {
+            dest[pos++] = ESCAPE_BYTE;
+            dest[pos++] = ESCAPE_BYTE;
+        } else {
+            dest[pos++] = b;
+        }
+        return pos;
+    }
+
+    private static byte[] buildFrame(McuOutputCommand command, byte[] payload) {
+        int length = (payload != null) ? payload.length : 0;
+        byte[] buffer = new byte[getMaxFrameLength(length)];
+        int frameLength = encode(command.getByte(), -1, payload, 0, length, buffer, 0);
+        byte[] frame = new byte[frameLength];
+        System.arraycopy(buffer, 0, frame, 0, frameLength);
+        return frame;
+    }
+}
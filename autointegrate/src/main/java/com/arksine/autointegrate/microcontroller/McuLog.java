@@ -0,0 +1,155 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.BuildConfig;
+
+import timber.log.Timber;
+
+/**
+ * Logging for the per packet paths in this package.
+ *
+ * Timber.v() and Timber.d() build a varargs array and box their arguments before the tree
+ * decides whether to drop the message.  Here VERBOSE and DEBUG are constants fixed at build
+ * time, so in release builds these methods are empty and calls guarded with
+ * "if (McuLog.DEBUG)" are removed by the compiler.  The methods take primitives and single
+ * objects instead of varargs, so nothing is allocated unless the message is logged.  Messages
+ * that are costly to build can be passed as a Message, which is only built when logged.
+ *
+ * Protocol tracing (every frame sent and received, and every packet decoded) is a separate
+ * channel.  It is switched on at runtime from the Diagnostics settings and is off by default.
+ * When off, each trace call costs one volatile read.
+ */
+public final class McuLog {
+
+    public static final boolean VERBOSE = BuildConfig.DEBUG;
+    public static final boolean DEBUG = BuildConfig.DEBUG;
+
+    private static final String TRACE_TAG = "MCU Trace";
+    private static final int MAX_TRACE_BYTES = 64;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * A message that is only built if it will be logged
+     */
+    public interface Message {
+        String build();
+    }
+
+    private static volatile boolean sIsTracing = false;
+
+    private McuLog() {}
+
+    public static void v(String message) {
+        if (VERBOSE) {
+            Timber.v(message);
+        }
+    }
+
+    public static void v(String format, int arg) {
+        if (VERBOSE) {
+            Timber.v(format, arg);
+        }
+    }
+
+    public static void v(String format, Object arg) {
+        if (VERBOSE) {
+            Timber.v(format, arg);
+        }
+    }
+
+    public static void v(Message message) {
+        if (VERBOSE) {
+            Timber.v(message.build());
+        }
+    }
+
+    public static void d(String message) {
+        if (DEBUG) {
+            Timber.d(message);
+        }
+    }
+
+    public static void d(String format, int arg) {
+        if (DEBUG) {
+            Timber.d(format, arg);
+        }
+    }
+
+    public static void d(String format, Object arg) {
+        if (DEBUG) {
+            Timber.d(format, arg);
+        }
+    }
+
+    public static void d(Message message) {
+        if (DEBUG) {
+            Timber.d(message.build());
+        }
+    }
+
+    public static void setTracing(boolean enabled) {
+        if (sIsTracing != enabled) {
+            sIsTracing = enabled;
+            Timber.i("MCU protocol tracing %s", enabled ? "enabled" : "disabled");
+        }
+    }
+
+    public static boolean isTracing() {
+        return sIsTracing;
+    }
+
+    public static void trace(String message) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i(message);
+        }
+    }
+
+    public static void trace(String format, int arg) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i(format, arg);
+        }
+    }
+
+    public static void trace(String format, Object arg) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i(format, arg);
+        }
+    }
+
+    public static void trace(String format, Object arg1, int arg2) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i(format, arg1, arg2);
+        }
+    }
+
+    public static void trace(Message message) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i(message.build());
+        }
+    }
+
+    /**
+     * Traces raw bytes as hex, ie "<- 5 bytes: F1 03 ...".  Only the first 64 bytes are shown.
+     */
+    public static void traceBytes(String direction, byte[] data, int offset, int length) {
+        if (sIsTracing) {
+            Timber.tag(TRACE_TAG).i("%s %d bytes: %s", direction, length,
+                    toHex(data, offset, length));
+        }
+    }
+
+    static String toHex(byte[] data, int offset, int length) {
+        int count = Math.min(length, MAX_TRACE_BYTES);
+        StringBuilder hex = new StringBuilder(count * 3 + 4);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                hex.append(' ');
+            }
+            int b = data[offset + i] & 0xFF;
+            hex.append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
+        }
+        if (length > count) {
+            hex.append(" ...");
+        }
+        return hex.toString();
+    }
+}
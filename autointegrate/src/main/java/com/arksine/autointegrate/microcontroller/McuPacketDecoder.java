@@ -0,0 +1,210 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.*;
+
+import timber.log.Timber;
+
+/**
+ * Streaming decoder for packets received from the Micro Controller.  Packets are framed as
+ * follows:
+ *
+ *  [0xF1] [Length] [Command] [Payload ...] [Checksum]
+ *
+ * 0xF1 is escaped as 0x1A 0x20 and 0x1A is escaped as 0x1A 0x1A.  The checksum is the sum of
+ * the header, length, command and payload bytes mod 256.
+ *
+ * The decoder keeps its state between calls, so a packet may be split across any number of
+ * reads.  All buffers are allocated once when the decoder is created and reused for every
+ * packet, and decoded packets are delivered to a {@link PacketListener} as primitives, so
+ * the common commands (CLICK, HOLD, RELEASE, DIMMER, DIMMER_LEVEL, REVERSE, RADIO_DATA) are
+ * decoded without any allocation.
+ *
+ * This class is not thread safe, it should only be fed from one thread.
+ */
+public class McuPacketDecoder {
+
+    private static final byte HEADER_BYTE = (byte) 0xF1;
+    private static final byte ESCAPE_BYTE = (byte) 0x1A;
+    private static final byte ESCAPED_HEADER = (byte) 0x20;
+
+    // The length is a single byte, so the packet can never be larger than 255 bytes
+    private static final int MAX_PACKET_LENGTH = 255;
+
+    /**
+     * Receives decoded packets.  The payload buffer passed to onBytes is owned by the decoder
+     * and is overwritten by the next packet, so implementations that need to keep the data
+     * must copy it before returning.
+     */
+    public interface PacketListener {
+        void onShort(McuInputCommand command, int value);
+        void onInt(McuInputCommand command, int value);
+        void onBool(McuInputCommand command, boolean value);
+        void onBytes(McuInputCommand command, byte[] buffer, int offset, int length);
+    }
+
+    private final byte[] mPacketBuffer = new byte[MAX_PACKET_LENGTH];
+    private PacketListener mListener;
+
+    private boolean mIsLengthByte = false;
+    private boolean mIsEscapedByte = false;
+    private boolean mIsValidPacket = false;
+    private int mPacketLength = 0;
+    private int mPosition = 0;
+    private int mChecksum = 0;
+
+    private long mPacketCount = 0;
+    private long mErrorCount = 0;
+
+    public McuPacketDecoder(PacketListener listener) {
+        this.mListener = listener;
+    }
+
+    public void setListener(PacketListener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Resets the decoder so that it waits for a new header byte.  Any partially received
+     * packet is discarded.
+     */
+    public void reset() {
+        mIsValidPacket = false;
+        mIsLengthByte = false;
+        mIsEscapedByte = false;
+        mPacketLength = 0;
+        mPosition = 0;
+        mChecksum = 0;
+    }
+
+    public void decode(byte[] data) {
+        decode(data, 0, data.length);
+    }
+
+    public void decode(byte[] data, int offset, int length) {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (b == HEADER_BYTE) {
+                mIsValidPacket = true;
+                mIsEscapedByte = false;
+                mIsLengthByte = true;
+
+                mPosition = 0;
+                mPacketLength = 0;
+                mChecksum = 0xF1;
+            } else if (!mIsValidPacket) {
+                // Protocol errors for each byte/packet go to the trace channel
+                McuLog.trace("Invalid byte received: %#x", b & 0xFF);
+            } else if (b == ESCAPE_BYTE && !mIsEscapedByte) {
+                mIsEscapedByte = true;
+            } else {
+                if (mIsEscapedByte) {
+                    mIsEscapedByte = false;
+                    if (b == ESCAPED_HEADER) {
+                        // 0xF1 is escaped as 0x20
+                        b = HEADER_BYTE;
+                    }
+                    // Note: 0x1A is escaped as 0x1A, so we don't need to reset the current byte
+                }
+
+                if (mIsLengthByte) {
+                    mIsLengthByte = false;
+                    mPacketLength = b & 0xFF;
+                    mChecksum += mPacketLength;
+                } else if (mPosition == mPacketLength) {
+                    // This is the checksum byte
+
+                    // Checksum is all bytes added up (not counting header and escape bytes) mod 256
+                    if ((mChecksum & 0xFF) == (b & 0xFF)) {
+                        parsePacket();
+                    } else {
+                        mErrorCount++;
+                        McuLog.trace("Invalid checksum, discarding packet");
+                    }
+
+                    // The next byte received must be 0xF1, regardless of what happened here
+                    mIsValidPacket = false;
+                } else {
+                    // Add byte to packet buffer
+                    mPacketBuffer[mPosition++] = b;
+                    mChecksum += (b & 0xFF);
+                }
+            }
+        }
+    }
+
+    private void parsePacket() {
+        if (mPacketLength < 2) {
+            mErrorCount++;
+            Timber.w("Invalid data packet, must at least be 2 bytes long");
+            return;
+        }
+
+        McuInputCommand command = McuInputCommand.getCommandFromByte(mPacketBuffer[0]);
+        if (command == McuInputCommand.NONE) {
+            mErrorCount++;
+            Timber.w("Invalid Command Received");
+            return;
+        }
+
+        final int dataLength = mPacketLength - 1;
+        switch (command.getDataType()) {
+            case SHORT:
+                if (dataLength < 2) {
+                    mErrorCount++;
+                    McuLog.trace("Invalid Short data size: %d", dataLength);
+                    return;
+                }
+
+                // since we are dealing with ints throughout the short is widened to an int
+                mListener.onShort(command, readShort(1));
+                break;
+            case INT:
+                if (dataLength == 2) {
+                    // 8-bit MCU integer is two bytes
+                    mListener.onInt(command, readShort(1));
+                } else if (dataLength >= 4) {
+                    // 32-bit MCU integer is 4 bytes
+                    mListener.onInt(command, readInt(1));
+                } else {
+                    mErrorCount++;
+                    McuLog.trace("Invalid Integer data size: %d", dataLength);
+                    return;
+                }
+                break;
+            case BOOLEAN:
+                mListener.onBool(command, mPacketBuffer[1] != 0);
+                break;
+            case STRING:
+            case BYTE_ARRAY:
+                mListener.onBytes(command, mPacketBuffer, 1, dataLength);
+                break;
+            default:
+                mErrorCount++;
+                Timber.w("Invalid Data Type Received: %s", command.getDataType().toString());
+                return;
+        }
+
+        mPacketCount++;
+    }
+
+    // Payloads are little endian
+    private int readShort(int index) {
+        return (short) ((mPacketBuffer[index] & 0xFF) | (mPacketBuffer[index + 1] << 8));
+    }
+
+    private int readInt(int index) {
+        return (mPacketBuffer[index] & 0xFF)
+                | ((mPacketBuffer[index + 1] & 0xFF) << 8)
+                | ((mPacketBuffer[index + 2] & 0xFF) << 16)
+                | (mPacketBuffer[index + 3] << 24);
+    }
+
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+}
@@ -6,17 +6,32 @@ import com.arksine.hdradiolib.drivers.RadioDriver;
 import com.arksine.hdradiolib.enums.RadioError;
 
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicReference;
-
-import timber.log.Timber;
+import java.util.Arrays;
 
 /**
  *  Driver to control a Directed HD Radio, connected through the MCU responsible for
  *  all other automotive communication
+ *
+ *  Radio data does not go through the MCU event dispatch.  The packet decoder hands each
+ *  RADIO_DATA payload straight to this driver on the thread that reads from the MCU, and once
+ *  the serial read it came from has been decoded the data is passed to the radio library in
+ *  one array.  The library keeps the arrays it is handed, so that array can't be reused.  A
+ *  read usually carries a single payload, which is copied once into an array of its exact
+ *  size.  When more follow in the same read they are appended to a reused buffer instead, and
+ *  copied out once when the read is done.
  */
 
 public class McuRadioDriver extends RadioDriver {
 
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    // Data received during the current read, only accessed from the thread that reads from the
+    // MCU.  mPending holds the first payload as is, once a second one arrives everything is
+    // moved to mIncomingBuffer.
+    private byte[] mPending = null;
+    private byte[] mIncomingBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int mIncomingLength = 0;
+
     private MCUControlInterface mMcuControlInterface;
     private boolean mIsOpen;
 
@@ -84,7 +99,7 @@ public class McuRadioDriver extends RadioDriver {
 
     @Override
     public void raiseRts() {
-        Timber.v("Raise RTS");
+        McuLog.v("Raise RTS");
         if (mMcuControlInterface != null) {
             mMcuControlInterface.sendMcuCommand(MCUDefs.McuOutputCommand.RADIO_SET_RTS, true);
         }
@@ -92,7 +107,7 @@ public class McuRadioDriver extends RadioDriver {
 
     @Override
     public void clearRts() {
-        Timber.v("Clear RTS");
+        McuLog.v("Clear RTS");
         if (mMcuControlInterface != null) {
             mMcuControlInterface.sendMcuCommand(MCUDefs.McuOutputCommand.RADIO_SET_RTS, false);
         }
@@ -100,7 +115,7 @@ public class McuRadioDriver extends RadioDriver {
 
     @Override
     public void raiseDtr() {
-        Timber.v("Raise DTR");
+        McuLog.v("Raise DTR");
         if (mMcuControlInterface != null) {
             mMcuControlInterface.sendMcuCommand(MCUDefs.McuOutputCommand.RADIO_SET_DTR, true);
         }
@@ -108,7 +123,7 @@ public class McuRadioDriver extends RadioDriver {
 
     @Override
     public void clearDtr() {
-        Timber.v("Clear DTR");
+        McuLog.v("Clear DTR");
         if (mMcuControlInterface != null) {
             mMcuControlInterface.sendMcuCommand(MCUDefs.McuOutputCommand.RADIO_SET_DTR, false);
         }
@@ -116,22 +131,68 @@ public class McuRadioDriver extends RadioDriver {
 
     @Override
     public void writeData(byte[] bytes) {
-        Timber.v("Write Data to Radio");
         if (mMcuControlInterface != null) {
-            // write bytes to MCU using RADIO_SEND_PACKET command
+            // The library builds a new array for every packet and never touches it again, so
+            // it is handed to the write thread as is and encoded directly into the outbound
+            // batch with the RADIO_SEND_PACKET command
             mMcuControlInterface.sendMcuCommand(MCUDefs.McuOutputCommand.RADIO_SEND_PACKET, bytes);
         }
     }
 
-    public void readBytes(byte[] bytes) {
-        this.handleIncomingBytes(bytes);
+    /**
+     * Copies received radio data.  The data is passed to the radio library on the next call to
+     * flushIncoming().  Must be called from the thread that reads from the MCU.
+     */
+    public void writeIncoming(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+
+        if (mPending == null && mIncomingLength == 0) {
+            mPending = Arrays.copyOfRange(buffer, offset, offset + length);
+            return;
+        }
+
+        movePendingToBuffer();
+        ensureBufferCapacity(length);
+        System.arraycopy(buffer, offset, mIncomingBuffer, mIncomingLength, length);
+        mIncomingLength += length;
+    }
+
+    /**
+     * Passes all data received since the last flush to the radio library as a single array.
+     * Must be called from the thread that reads from the MCU.
+     */
+    public void flushIncoming() {
+        byte[] data;
+        if (mPending != null) {
+            data = mPending;
+            mPending = null;
+        } else if (mIncomingLength > 0) {
+            data = Arrays.copyOf(mIncomingBuffer, mIncomingLength);
+            mIncomingLength = 0;
+        } else {
+            return;
+        }
+        this.handleIncomingBytes(data);
     }
 
+    private void movePendingToBuffer() {
+        if (mPending != null) {
+            byte[] pending = mPending;
+            mPending = null;
+            ensureBufferCapacity(pending.length);
+            System.arraycopy(pending, 0, mIncomingBuffer, mIncomingLength, pending.length);
+            mIncomingLength += pending.length;
+        }
+    }
 
-    public void readByte(byte b) {
-        byte[] bArray = new byte[1];
-        bArray[0] = b;
-        this.handleIncomingBytes(bArray);
+    private void ensureBufferCapacity(int length) {
+        int needed = mIncomingLength + length;
+        if (needed > mIncomingBuffer.length) {
+            mIncomingBuffer = Arrays.copyOf(mIncomingBuffer,
+                    Math.max(needed, mIncomingBuffer.length * 2));
+        }
     }
 
 }
@@ -16,6 +16,8 @@ import com.arksine.autointegrate.MainService;
 import com.arksine.autointegrate.interfaces.MCUControlInterface;
 import com.arksine.autointegrate.interfaces.McuLearnCallbacks;
 import com.arksine.autointegrate.interfaces.ServiceControlInterface;
+import com.arksine.autointegrate.utilities.BootTrace;
+import com.arksine.autointegrate.utilities.ReadBufferPool;
 import com.arksine.autointegrate.utilities.SerialHelper;
 import com.arksine.autointegrate.R;
 import com.arksine.autointegrate.utilities.BluetoothHelper;
@@ -24,8 +26,6 @@ import com.arksine.autointegrate.utilities.UsbHelper;
 import com.arksine.autointegrate.utilities.UsbSerialSettings;
 import com.arksine.autointegrate.microcontroller.MCUDefs.*;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -51,12 +51,14 @@ public class MicroControllerCom extends SerialCom {
         void OnStarted(String idStarted);
         void OnIdReceived(String id);
         void OnRadioStatusReceived(boolean status);
-        void OnRadioDataReceived(byte[] radioData);
+        void OnRadioDataReceived(byte[] buffer, int offset, int length);
+        void OnRadioDataComplete();
     }
 
     private final McuEvents mMcuEvents = new McuEvents() {
         @Override
         public void OnStarted(String id) {
+            BootTrace.mark(BootTrace.Phase.MCU_STARTED);
             mMcuId = id;
             resumeThread();
         }
@@ -73,125 +75,168 @@ public class MicroControllerCom extends SerialCom {
         }
 
         @Override
-        public void OnRadioDataReceived(byte[] radioData) {
-            if (mMcuRadioDriver.get() != null) {
-                mMcuRadioDriver.get().readBytes(radioData);
+        public void OnRadioDataReceived(byte[] buffer, int offset, int length) {
+            McuRadioDriver radioDriver = mMcuRadioDriver.get();
+            if (radioDriver != null) {
+                radioDriver.writeIncoming(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void OnRadioDataComplete() {
+            McuRadioDriver radioDriver = mMcuRadioDriver.get();
+            if (radioDriver != null) {
+                radioDriver.flushIncoming();
             }
         }
     };
 
     private ControllerInputHandler mInputHandler;
+    private HandlerThread mWriteThread;
     private Handler mWriteHandler;
+
+    /**
+     * An instance is kept for the life of the service thread.  Disconnecting only drops the
+     * transport (the SerialHelper), the write thread, event consumers, decoder and the
+     * command processor's action tables are reused by the next connect().  Only destroy()
+     * releases them.
+     */
+    private final LatencyStats mConnectStats = new LatencyStats("MCU Connect");
+    private boolean mIsDestroyed = false;
+
+    // Raw inbound and outbound bytes are recorded, the recording is saved on a device error
+    private final McuFlightRecorder mFlightRecorder = AutoIntegrate.getFlightRecorder();
+    private final Runnable mDumpFlightRecorder = new Runnable() {
+        @Override
+        public void run() {
+            AutoIntegrate.dumpFlightRecorder("device_error");
+        }
+    };
+
+    /**
+     * Outbound commands are not written one at a time.  Each command's frame is appended to a
+     * batch, which is flushed to the device in a single write once every message already
+     * queued on the write thread has been handled (plus the linger time, if set), or as soon
+     * as the batch reaches its maximum size.  Bursts of commands, such as radio packets sent
+     * while tuning or the commands sent when the MCU starts, result in one transfer.  The size
+     * and linger time are read from the controller_pref_key_write_batch_size and
+     * controller_pref_key_write_linger preferences when connecting, they have no settings UI.
+     */
+    private static final int MSG_FLUSH_WRITE_BATCH = 0x100;
+    private static final int MAX_WRITE_BATCH_SIZE = 4096;
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 512;
+    private static final int DEFAULT_WRITE_LINGER = 0;    // milliseconds
+    private static final int MAX_WRITE_LINGER = 100;
+
+    private volatile int mWriteBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+    private volatile int mWriteLinger = DEFAULT_WRITE_LINGER;
+    private boolean mIsFlushPending = false;
+    private final McuFrameEncoder mFrameEncoder = new McuFrameEncoder(MAX_WRITE_BATCH_SIZE);
     private final Handler.Callback mWriteCallback = new Handler.Callback() {
         @Override
         public boolean handleMessage(Message msg) {
-            McuOutputCommand command = McuOutputCommand.getCommandFromOrdinal(msg.what);
+            if (msg.what == MSG_FLUSH_WRITE_BATCH) {
+                mIsFlushPending = false;
+                flushWriteBatch();
+                return true;
+            }
 
-            if (mSerialHelper != null) {
-                ByteBuffer outPacket = ByteBuffer.allocate(50);
-                outPacket.order(ByteOrder.LITTLE_ENDIAN);
-                outPacket.put((byte)0xF1);  // put header
-
-                int checksum = 0xF1;
-                byte length;
-
-                switch (command) {
-                    case START:
-                    case STOP:
-                    case SET_DIMMER_ANALOG:
-                    case SET_DIMMER_DIGITAL:
-                    case AUDIO_SOURCE_HD:
-                    case AUDIO_SOURCE_AUX:
-                    case REQUEST_ID:
-                    case RADIO_REQUEST_STATUS:
-                        length = 1;
-                        outPacket.put(length);
-                        outPacket.put(command.getByte());
-                        checksum += length + command.getByte();
-                        break;
-                    case RADIO_SET_DTR:
-                    case RADIO_SET_RTS:
-                        if (msg.obj != null && !(msg.obj instanceof Boolean)) {
-                            Timber.w("Cannot send command, data is not a byte array");
-                            return true;
-                        }
-                        byte boolByte = ((boolean)msg.obj) ? (byte)0x01 : (byte)0x00;
-
-                        length = 2;
-                        outPacket.put(length);
-                        outPacket.put(command.getByte());
-                        outPacket.put(boolByte);
-                        checksum += length + command.getByte() + boolByte;
-                        break;
-                    case  RADIO_SEND_PACKET:
-                        if (msg.obj == null || !(msg.obj instanceof byte[])) {
-                            Timber.w("Cannot send command, data is not a byte array");
-                            return true;
-                        }
-                        byte[] out = (byte[])msg.obj;
-                        length = (byte)(out.length + 1);   // packet length plus command byte
-                        checksum += length + command.getByte();
-                        checkEscapeByte(outPacket, length);
-                        outPacket.put(command.getByte());
-
-                        for (byte b : out) {
-                            checkEscapeByte(outPacket, b);
-                            checksum += b;
-                        }
+            McuOutputCommand command = McuOutputCommand.getCommandFromOrdinal(msg.what);
 
-                        break;
-                    case CUSTOM:
-                        // arg1 is the custom command
-                        byte custom = (byte)msg.arg1;
-                        length = 2;
-                        if (msg.obj != null && (msg.obj instanceof byte[])) {
-                            length += ((byte[])msg.obj).length;
-                            checksum += length + command.getByte() + custom;
-                            checkEscapeByte(outPacket, length);
-                            outPacket.put(command.getByte());
-                            checkEscapeByte(outPacket, custom);
-
-                            for (byte b : (byte[])msg.obj) {
-                                checkEscapeByte(outPacket, b);
-                                checksum += b;
-                            }
-                        } else {
-                            // no data, send only command
-                            checksum += length + command.getByte() + custom;
-                            checkEscapeByte(outPacket, length);
-                            outPacket.put(command.getByte());
-                            checkEscapeByte(outPacket, custom);
-                        }
+            if (mSerialHelper == null) {
+                // Nothing to write to, drop anything that was batched
+                mFrameEncoder.reset();
+                return true;
+            }
 
-                        break;
-                    default:
-                        Timber.i("Unknown Command, cannot send");
+            switch (command) {
+                case START:
+                case STOP:
+                case SET_DIMMER_ANALOG:
+                case SET_DIMMER_DIGITAL:
+                case AUDIO_SOURCE_HD:
+                case AUDIO_SOURCE_AUX:
+                case REQUEST_ID:
+                case RADIO_REQUEST_STATUS:
+                    // These commands always encode to the same frame
+                    appendFrame(McuFrameEncoder.getFixedFrame(command));
+                    break;
+                case RADIO_SET_DTR:
+                case RADIO_SET_RTS:
+                    if (msg.obj == null || !(msg.obj instanceof Boolean)) {
+                        Timber.w("Cannot send command, data is not a boolean");
                         return true;
-                }
+                    }
 
-                byte chk = (byte)(checksum % 256);
-                checkEscapeByte(outPacket, chk);
+                    appendFrame(McuFrameEncoder.getBooleanFrame(command, (boolean) msg.obj));
+                    break;
+                case  RADIO_SEND_PACKET:
+                    if (msg.obj == null || !(msg.obj instanceof byte[])) {
+                        Timber.w("Cannot send command, data is not a byte array");
+                        return true;
+                    }
+                    byte[] out = (byte[])msg.obj;
+                    makeRoom(out.length);
+                    mFrameEncoder.encode(command, out, 0, out.length);
+                    break;
+                case CUSTOM:
+                    // arg1 is the custom command
+                    byte custom = (byte)msg.arg1;
+                    if (msg.obj != null && (msg.obj instanceof byte[])) {
+                        byte[] data = (byte[]) msg.obj;
+                        makeRoom(data.length + 1);
+                        mFrameEncoder.encodeCustom(custom, data, 0, data.length);
+                    } else {
+                        // no data, send only command
+                        makeRoom(1);
+                        mFrameEncoder.encodeCustom(custom, null, 0, 0);
+                    }
+                    break;
+                default:
+                    Timber.i("Unknown Command, cannot send");
+                    return true;
+            }
 
-                outPacket.flip();
-                byte[] outBuf = new byte[outPacket.limit()];
-                outPacket.get(outBuf);
-                mSerialHelper.writeBytes(outBuf);
+            if (mFrameEncoder.getLength() >= mWriteBatchSize) {
+                flushWriteBatch();
+            } else if (!mIsFlushPending && mFrameEncoder.getLength() > 0) {
+                // Messages sent before the flush are handled first, so everything queued
+                // behind this command joins the batch
+                mIsFlushPending = true;
+                mWriteHandler.sendEmptyMessageDelayed(MSG_FLUSH_WRITE_BATCH, mWriteLinger);
             }
 
             return true;
         }
 
-        private void checkEscapeByte(ByteBuffer outPacket, byte b) {
-            if (b == (byte)0xF1) {
-                outPacket.put((byte)0x1A);
-                outPacket.put((byte)0x20);
-            } else if (b == (byte)0x1A) {
-                outPacket.put((byte)0x1A);
-                outPacket.put((byte)0x1A);
-            } else {
-                outPacket.put(b);
+        private void appendFrame(byte[] frame) {
+            if (frame.length > mFrameEncoder.getRemaining()) {
+                flushWriteBatch();
+            }
+            mFrameEncoder.append(frame);
+        }
+
+        // Flushes the current batch if a frame with the requested payload might not fit
+        private void makeRoom(int payloadLength) {
+            if (payloadLength <= McuFrameEncoder.MAX_PAYLOAD_LENGTH &&
+                    McuFrameEncoder.getMaxFrameLength(payloadLength) > mFrameEncoder.getRemaining()) {
+                flushWriteBatch();
             }
         }
+
+        private void flushWriteBatch() {
+            SerialHelper serialHelper = mSerialHelper;
+            if (serialHelper != null && mFrameEncoder.getLength() > 0) {
+                if (mFlightRecorder != null) {
+                    mFlightRecorder.record(McuFlightRecorder.DIRECTION_OUT,
+                            mFrameEncoder.getBuffer(), 0, mFrameEncoder.getLength());
+                }
+                McuLog.traceBytes("->", mFrameEncoder.getBuffer(), 0, mFrameEncoder.getLength());
+                // The batch buffer is reused, the serial helper copies it if necessary
+                serialHelper.writeBytes(mFrameEncoder.getBuffer(), 0, mFrameEncoder.getLength());
+            }
+            mFrameEncoder.reset();
+        }
     };
 
     private final MCUControlInterface mControlInterface = new MCUControlInterface() {
@@ -200,7 +245,7 @@ public class MicroControllerCom extends SerialCom {
         @Override
         public void sendMcuCommand(McuOutputCommand command, Object data) {
 
-            Message msg = mInputHandler.obtainMessage(command.ordinal(), data);
+            Message msg = mWriteHandler.obtainMessage(command.ordinal(), data);
             mWriteHandler.sendMessage(msg);
         }
 
@@ -292,7 +337,7 @@ public class MicroControllerCom extends SerialCom {
                 // Custom command received to be sent to the microcontroller
                 byte command = intent.getByteExtra(mService.getString(R.string.EXTRA_COMMAND), (byte)0x00);
 
-                Message msg = mInputHandler.obtainMessage();
+                Message msg = mWriteHandler.obtainMessage();
                 msg.what = McuOutputCommand.CUSTOM.ordinal();
                 msg.arg1 = command;
                 msg.obj = intent.getByteArrayExtra(mService.getString(R.string.EXTRA_DATA));
@@ -310,30 +355,50 @@ public class MicroControllerCom extends SerialCom {
 
         AutoIntegrate.setMcuControlInterface(this.mControlInterface);
 
-        HandlerThread inputThread = new HandlerThread("ControllerMessageHandler",
-                Process.THREAD_PRIORITY_BACKGROUND);
-        inputThread.start();
-        mInputHandler = new ControllerInputHandler(inputThread.getLooper(), mService,
-                mMcuEvents, learningMode, cbs);
+        mInputHandler = new ControllerInputHandler(mService, mMcuEvents, learningMode, cbs);
 
-        HandlerThread writeThread = new HandlerThread("Write Handler Thread",
+        mWriteThread = new HandlerThread("Write Handler Thread",
                 Process.THREAD_PRIORITY_BACKGROUND);
-        writeThread.start();
-        mWriteHandler = new Handler(writeThread.getLooper(), mWriteCallback);
+        mWriteThread.start();
+        mWriteHandler = new Handler(mWriteThread.getLooper(), mWriteCallback);
 
-        mCallbacks = new SerialHelper.Callbacks() {
+        mCallbacks = new SerialHelper.BufferedCallbacks() {
             @Override
             public void OnDeviceReady(boolean deviceReadyStatus) {
+                if (deviceReadyStatus) {
+                    BootTrace.mark(BootTrace.Phase.SERIAL_OPEN);
+                }
                 mConnected.set(deviceReadyStatus);
                 resumeThread();
             }
 
             @Override
             public void OnDataReceived(byte[] data) {
+                // Decoded on the reader thread, events are handed off through the event bus
                 if (data.length > 0) {
-                    Message msg = mInputHandler.obtainMessage();
-                    msg.obj = data;
-                    mInputHandler.sendMessage(msg);
+                    McuLog.traceBytes("<-", data, 0, data.length);
+                    if (mFlightRecorder != null) {
+                        mFlightRecorder.record(McuFlightRecorder.DIRECTION_IN, data, 0,
+                                data.length);
+                    }
+                    mInputHandler.onDataReceived(data);
+                }
+            }
+
+            @Override
+            public void OnDataReceived(ReadBufferPool.Buffer buffer) {
+                // The decoder copies everything it keeps, so the buffer can go straight back
+                try {
+                    McuLog.traceBytes("<-", buffer.getData(), buffer.getOffset(),
+                            buffer.getLength());
+                    if (mFlightRecorder != null) {
+                        mFlightRecorder.record(McuFlightRecorder.DIRECTION_IN, buffer.getData(),
+                                buffer.getOffset(), buffer.getLength());
+                    }
+                    mInputHandler.onDataReceived(buffer.getData(), buffer.getOffset(),
+                            buffer.getLength());
+                } finally {
+                    buffer.release();
                 }
             }
 
@@ -342,6 +407,11 @@ public class MicroControllerCom extends SerialCom {
                 Timber.i("Device Error, disconnecting");
                 mDeviceError.set(true);
 
+                // Saved on the write thread, which has nothing left to write
+                if (mFlightRecorder != null) {
+                    mWriteHandler.post(mDumpFlightRecorder);
+                }
+
                 if (mMcuRadioDriver.get() != null) {
                     mMcuRadioDriver.get().flagConnectionError();
                 }
@@ -358,12 +428,19 @@ public class MicroControllerCom extends SerialCom {
 
     @Override
     public boolean connect() {
+        if (mIsDestroyed) {
+            Timber.w("Cannot connect, Micro Controller has been destroyed");
+            return false;
+        }
 
         // If we are currently connected to a device, we need to disconnect.
         if (mSerialHelper != null && mSerialHelper.isDeviceConnected()) {
             disconnect();
         }
 
+        final long connectStart = System.nanoTime();
+        AutoIntegrate.setMcuControlInterface(this.mControlInterface);
+
         final SharedPreferences sharedPrefs =
                 PreferenceManager.getDefaultSharedPreferences(mService);
 
@@ -389,11 +466,16 @@ public class MicroControllerCom extends SerialCom {
 
         }
 
+        setWriteBatching(sharedPrefs.getInt("controller_pref_key_write_batch_size",
+                DEFAULT_WRITE_BATCH_SIZE),
+                sharedPrefs.getInt("controller_pref_key_write_linger", DEFAULT_WRITE_LINGER));
+
         /**
          * Attept to connect to the device.  If  the prerequisites are met to attempt connection,
          * we'll wait until the connection thread notifies it is done.
           */
         Timber.d("Attempting connection to device:\n%s", devId);
+        mInputHandler.start();
         synchronized (this) {
             if (mSerialHelper.connectDevice(devId, mCallbacks)) {
 
@@ -423,6 +505,7 @@ public class MicroControllerCom extends SerialCom {
             synchronized (this) {
                 // Tell the Arudino that it is time to start
                 mControlInterface.sendMcuCommand(McuOutputCommand.START, null);
+                BootTrace.mark(BootTrace.Phase.START_SENT);
 
                 // wait until the MCU returns its ID from the attempt to start
                 try {
@@ -449,11 +532,15 @@ public class MicroControllerCom extends SerialCom {
                 mService.registerReceiver(writeReceiver, sendDataFilter);
                 isWriteReceiverRegistered = true;
 
+                long elapsed = System.nanoTime() - connectStart;
+                mConnectStats.record(elapsed);
                 Timber.v("Sucessfully connected to Micro Controller");
+                Timber.i("Connect took %d ms (%s)", elapsed / 1000000, mConnectStats);
             }
 
 
         } else {
+            mInputHandler.stop();
             mSerialHelper = null;
         }
 
@@ -465,13 +552,16 @@ public class MicroControllerCom extends SerialCom {
     public void disconnect() {
         mConnected.set(false);
 
-        // if the Radio Driver is enabled, close it.
+        // if the Radio Driver is enabled, close it.  The radio must set it again after
+        // reconnecting
         if (mMcuRadioDriver.get() != null) {
             mMcuRadioDriver.get().close();
+            mMcuRadioDriver.set(null);
+            mRadioStatus.set(false);
         }
 
         if (mSerialHelper!= null) {
-            mInputHandler.close();
+            mInputHandler.stop();
             // If there was a device error then we cannot write to it
             if (!mDeviceError.get()) {
                 mControlInterface.sendMcuCommand(McuOutputCommand.STOP, null);
@@ -482,9 +572,11 @@ public class MicroControllerCom extends SerialCom {
                 } catch (InterruptedException e) {
                     Timber.w(e);
                 }
-
-                mSerialHelper.disconnect();
             }
+
+            // Always disconnect, even after a device error, so the helper's writer and reader
+            // threads stop and its socket is closed
+            mSerialHelper.disconnect();
             mSerialHelper = null;
         }
 
@@ -494,8 +586,63 @@ public class MicroControllerCom extends SerialCom {
         }
     }
 
+    /**
+     * Disconnects and releases the threads and the command processor.  The instance cannot
+     * be connected again.
+     */
+    public void destroy() {
+        if (mIsDestroyed) {
+            return;
+        }
+
+        disconnect();
+        mIsDestroyed = true;
+        mInputHandler.close();
+        mWriteThread.quitSafely();
+    }
+
+    /**
+     * Switches between learning and execution mode.  Takes effect immediately, whether
+     * connected or not.
+     */
+    public void setMode(boolean learningMode, McuLearnCallbacks cbs) {
+        mInputHandler.setMode(learningMode, cbs);
+    }
+
+    /**
+     * Returns the time taken by each successful connect(), from the start of the attempt until
+     * the MCU responded to START
+     */
+    public LatencyStats getConnectStats() {
+        return mConnectStats;
+    }
+
+    /**
+     * Returns the latency of each stage of input handling followed by the connect times.  See
+     * {@link ControllerInputHandler#getLatencyStats()}.
+     */
+    public List<LatencyStats> getLatencyStats() {
+        List<LatencyStats> stats = mInputHandler.getLatencyStats();
+        stats.add(mConnectStats);
+        return stats;
+    }
+
     public MCUControlInterface getControlInterface() {
         return mControlInterface;
     }
 
+    /**
+     * Sets how outbound commands are batched, read from preferences on each connect.
+     *
+     * @param maxBatchSize  The batch is written as soon as it holds at least this many bytes.
+     *                      Limited to 4096 bytes, a value of 1 disables batching.
+     * @param lingerMs      Time to wait for more commands before a partial batch is written.
+     *                      With 0, only commands that are already queued are batched.
+     *                      Limited to 100 ms.
+     */
+    private void setWriteBatching(int maxBatchSize, int lingerMs) {
+        mWriteBatchSize = Math.max(1, Math.min(maxBatchSize, MAX_WRITE_BATCH_SIZE));
+        mWriteLinger = Math.max(0, Math.min(lingerMs, MAX_WRITE_LINGER));
+    }
+
 }
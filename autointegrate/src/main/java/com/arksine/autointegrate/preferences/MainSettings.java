@@ -1,24 +1,35 @@
 package com.arksine.autointegrate.preferences;
 
+import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Bundle;
 import android.preference.Preference;
+import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
+import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import android.preference.SwitchPreference;
 import android.support.v4.content.LocalBroadcastManager;
+import android.widget.Toast;
 
 import com.arksine.autointegrate.AutoIntegrate;
 import com.arksine.autointegrate.MainService;
 import com.arksine.autointegrate.R;
 import com.arksine.autointegrate.interfaces.ServiceControlInterface;
+import com.arksine.autointegrate.microcontroller.McuLog;
 import com.arksine.autointegrate.utilities.AdbManager;
+import com.arksine.autointegrate.utilities.BootTrace;
+import com.arksine.autointegrate.utilities.BootTraceFile;
 import com.arksine.autointegrate.utilities.RootManager;
 import com.arksine.autointegrate.utilities.UtilityFunctions;
 
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
 import timber.log.Timber;
 
 /**
@@ -102,6 +113,33 @@ public class MainSettings extends PreferenceFragment {
             }
         });
 
+        root.findPreference("main_pref_key_boot_trace_count").setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object o) {
+                        updateBootTrace(Integer.parseInt((String) o));
+                        return true;
+                    }
+                });
+
+        root.findPreference("main_pref_key_mcu_trace").setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object o) {
+                        McuLog.setTracing((boolean) o);
+                        return true;
+                    }
+                });
+
+        root.findPreference("main_pref_key_flight_dump").setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+                    @Override
+                    public boolean onPreferenceClick(Preference preference) {
+                        dumpFlightRecorder();
+                        return true;
+                    }
+                });
+
         toggleRadio.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
             public boolean onPreferenceChange(Preference preference, Object o) {
@@ -156,6 +194,11 @@ public class MainSettings extends PreferenceFragment {
 
         IntentFilter filter = new IntentFilter(getActivity().getString(R.string.ACTION_SERVICE_STATUS_CHANGED));
         LocalBroadcastManager.getInstance(getActivity()).registerReceiver(serverStatusReceiver, filter);
+
+        String bootCount = PreferenceManager.getDefaultSharedPreferences(getActivity())
+                .getString("main_pref_key_boot_trace_count",
+                        getString(R.string.main_pref_boot_trace_count_default));
+        updateBootTrace(Integer.parseInt(bootCount));
     }
 
     @Override
@@ -198,6 +241,83 @@ public class MainSettings extends PreferenceFragment {
     }
 
 
+    // The trace file is read on a background thread, the phases are shown on the UI thread
+    private void updateBootTrace(final int bootCount) {
+        final Activity activity = getActivity();
+        Thread traceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<BootTraceFile.Record> records = BootTrace.getRecords();
+                final BootTrace.PhaseSummary[] summaries = BootTrace.summarize(records, bootCount);
+                final int boots = Math.min(records.size(), bootCount);
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showBootTrace(summaries, boots);
+                    }
+                });
+            }
+        });
+        traceThread.start();
+    }
+
+    // The recording is written on a background thread, the result is shown on the UI thread
+    private void dumpFlightRecorder() {
+        final Activity activity = getActivity();
+        Thread dumpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final File dump = AutoIntegrate.dumpFlightRecorder("manual");
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (dump != null) {
+                            Toast.makeText(activity, activity.getString(
+                                    R.string.main_pref_flight_dump_saved, dump.getPath()),
+                                    Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(activity, R.string.main_pref_flight_dump_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+            }
+        });
+        dumpThread.start();
+    }
+
+    private void showBootTrace(BootTrace.PhaseSummary[] summaries, int boots) {
+        if (!isAdded()) {
+            return;
+        }
+
+        PreferenceCategory phases = (PreferenceCategory) getPreferenceScreen()
+                .findPreference("main_pref_key_boot_trace_phases");
+        phases.removeAll();
+
+        if (boots == 0) {
+            Preference empty = new Preference(getActivity());
+            empty.setTitle(R.string.main_pref_boot_trace_empty);
+            empty.setSelectable(false);
+            phases.addPreference(empty);
+            return;
+        }
+
+        for (BootTrace.PhaseSummary summary : summaries) {
+            Preference phase = new Preference(getActivity());
+            phase.setTitle(summary.getPhase().getLabel());
+            if (summary.getCount() == 0) {
+                phase.setSummary(R.string.main_pref_boot_trace_not_reached);
+            } else {
+                phase.setSummary(String.format(Locale.US,
+                        "p50 %d ms, p90 %d ms, max %d ms (%d of %d boots)", summary.getMedian(),
+                        summary.getP90(), summary.getMax(), summary.getCount(), boots));
+            }
+            phase.setSelectable(false);
+            phases.addPreference(phase);
+        }
+    }
+
     private void updateServiceStatus(String status) {
         PreferenceScreen root = this.getPreferenceScreen();
         SwitchPreference toggleService = (SwitchPreference) root.findPreference("main_pref_key_toggle_service");
@@ -0,0 +1,157 @@
+package com.arksine.autointegrate.radio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the latest complete band scan for each band, so the strong stations are known as soon
+ * as the radio powers up.  Scans are not kept per location, a new scan of a band replaces the
+ * last one wherever it was made.
+ *
+ * The cache is saved to a small binary file:
+ *
+ *  int magic, byte version, byte result count, then for each result: byte band, long time,
+ *  short reading count, then for each reading: short frequency, int signal, byte HD active
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class BandScanCache {
+
+    private static final int MAGIC = 0x4253434E;    // "BSCN"
+    private static final int VERSION = 2;
+
+    // Indexed by StationCache.BAND_FM and StationCache.BAND_AM
+    private static final int BAND_COUNT = 2;
+
+    private final File mFile;
+    private final BandScanner.ScanResult[] mResults = new BandScanner.ScanResult[BAND_COUNT];
+
+    /**
+     * @param file  File the cache is loaded from and saved to
+     */
+    public BandScanCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the latest scan of a band, or null if there is none
+     */
+    public synchronized BandScanner.ScanResult get(int band) {
+        return (band >= 0 && band < BAND_COUNT) ? mResults[band] : null;
+    }
+
+    /**
+     * Stores a result, replacing the one for the same band.  Incomplete results are ignored.
+     */
+    public synchronized void put(BandScanner.ScanResult result) {
+        int band = result.getBand();
+        if (result.isComplete() && band >= 0 && band < BAND_COUNT) {
+            mResults[band] = result;
+        }
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (BandScanner.ScanResult result : mResults) {
+            if (result != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Replaces the contents with those of the file.  A missing file leaves the cache empty, a
+     * file that can't be read leaves it empty and throws.
+     */
+    public synchronized void load() throws IOException {
+        clear();
+
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a band scan cache: " + mFile);
+            }
+
+            int resultCount = in.readUnsignedByte();
+            for (int i = 0; i < resultCount; i++) {
+                int band = in.readUnsignedByte();
+                long time = in.readLong();
+                int readingCount = in.readUnsignedShort();
+                List<BandScanner.Reading> readings = new ArrayList<>(readingCount);
+                for (int j = 0; j < readingCount; j++) {
+                    int frequency = in.readUnsignedShort();
+                    int signal = in.readInt();
+                    boolean hdActive = in.readBoolean();
+                    readings.add(new BandScanner.Reading(frequency, signal, hdActive));
+                }
+                put(new BandScanner.ScanResult(band, time, readings, true));
+            }
+        } catch (EOFException e) {
+            clear();
+            throw new IOException("Band scan cache is truncated: " + mFile);
+        } catch (IOException e) {
+            clear();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the cache to its file.  The file is replaced in one step, so a failed save leaves
+     * the previous one intact.
+     */
+    public synchronized void save() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(size());
+            for (BandScanner.ScanResult result : mResults) {
+                if (result == null) {
+                    continue;
+                }
+                out.writeByte(result.getBand());
+                out.writeLong(result.getTime());
+                out.writeShort(result.getReadings().size());
+                for (BandScanner.Reading reading : result.getReadings()) {
+                    out.writeShort(reading.getFrequency());
+                    out.writeInt(reading.getSignal());
+                    out.writeBoolean(reading.isHdActive());
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    private void clear() {
+        for (int i = 0; i < BAND_COUNT; i++) {
+            mResults[i] = null;
+        }
+    }
+}
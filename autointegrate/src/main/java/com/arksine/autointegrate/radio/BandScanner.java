@@ -0,0 +1,324 @@
+package com.arksine.autointegrate.radio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps a band one channel at a time and records the signal on each, so the strong stations
+ * can be listed without seeking through them by hand.
+ *
+ * The sweep runs on its own thread.  For each channel it tunes through the Tuner, waits for the
+ * radio to confirm the tune, then collects the signal strength readings the radio reports.  As
+ * soon as the last few readings agree it moves on, so a channel only takes as long as the
+ * radio needs to settle.  A channel that doesn't settle is given up on after the max dwell.
+ *
+ * The radio's callbacks must be passed in through onTuned(), onSignalStrength() and
+ * onHdActive().
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class BandScanner {
+
+    // North American channel plans, frequencies are in the units the radio reports
+    // (FM in 100 kHz, AM in kHz)
+    private static final int FM_FIRST = 879;
+    private static final int FM_LAST = 1079;
+    private static final int FM_STEP = 2;
+    private static final int AM_FIRST = 530;
+    private static final int AM_LAST = 1700;
+    private static final int AM_STEP = 10;
+
+    private static final long DEFAULT_MAX_DWELL = 1500;     // milliseconds
+    private static final int DEFAULT_SETTLE_SAMPLES = 3;
+    private static final int MIN_SETTLE_SPREAD = 2;
+
+    // Channels at least this fraction of the strongest are listed as strong
+    private static final float STRONG_FRACTION = 0.5f;
+
+    public interface Tuner {
+        /**
+         * Tunes the radio.  Called on the scan thread.
+         */
+        void tune(int band, int frequency);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the scan thread when a sweep ends.  The result is incomplete if the scan
+         * was cancelled.
+         */
+        void onScanFinished(ScanResult result);
+    }
+
+    public static final class Reading {
+        private final int mFrequency;
+        private final int mSignal;
+        private final boolean mHdActive;
+
+        public Reading(int frequency, int signal, boolean hdActive) {
+            mFrequency = frequency;
+            mSignal = signal;
+            mHdActive = hdActive;
+        }
+
+        public int getFrequency() {
+            return mFrequency;
+        }
+
+        /**
+         * Returns the settled signal strength, or -1 if the radio reported none
+         */
+        public int getSignal() {
+            return mSignal;
+        }
+
+        public boolean isHdActive() {
+            return mHdActive;
+        }
+    }
+
+    public static final class ScanResult {
+        private final int mBand;
+        private final long mTime;
+        private final List<Reading> mReadings;
+        private final boolean mIsComplete;
+
+        public ScanResult(int band, long time, List<Reading> readings, boolean complete) {
+            mBand = band;
+            mTime = time;
+            mReadings = Collections.unmodifiableList(new ArrayList<>(readings));
+            mIsComplete = complete;
+        }
+
+        public int getBand() {
+            return mBand;
+        }
+
+        /**
+         * Returns the wall clock time the sweep finished
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         * Returns one reading per channel, in frequency order
+         */
+        public List<Reading> getReadings() {
+            return mReadings;
+        }
+
+        public boolean isComplete() {
+            return mIsComplete;
+        }
+
+        /**
+         * Returns the channels worth listening to, strongest first.  A channel is strong if it
+         * carries HD, or if it is at least half as strong as the strongest channel and stronger
+         * than both its neighbours (a strong station also raises the channels next to it).
+         */
+        public List<Reading> getStrongStations() {
+            int maxSignal = 0;
+            for (Reading reading : mReadings) {
+                maxSignal = Math.max(maxSignal, reading.getSignal());
+            }
+            int threshold = Math.max(1, (int) (maxSignal * STRONG_FRACTION));
+
+            List<Reading> strong = new ArrayList<>();
+            for (int i = 0; i < mReadings.size(); i++) {
+                Reading reading = mReadings.get(i);
+                int previous = (i > 0) ? mReadings.get(i - 1).getSignal() : -1;
+                int next = (i < mReadings.size() - 1) ? mReadings.get(i + 1).getSignal() : -1;
+                boolean isPeak = reading.getSignal() >= previous && reading.getSignal() >= next;
+                if (reading.isHdActive() || (isPeak && reading.getSignal() >= threshold)) {
+                    strong.add(reading);
+                }
+            }
+
+            Collections.sort(strong, new Comparator<Reading>() {
+                @Override
+                public int compare(Reading a, Reading b) {
+                    return b.getSignal() - a.getSignal();
+                }
+            });
+            return strong;
+        }
+    }
+
+    private final Tuner mTuner;
+    private final long mMaxDwell;
+    private final int mSettleSamples;
+
+    // Guarded by this
+    private Thread mScanThread = null;
+    private volatile boolean mIsCancelled = false;
+
+    // Current channel, guarded by mLock
+    private final Object mLock = new Object();
+    private int mExpectedBand = -1;
+    private int mExpectedFrequency = -1;
+    private boolean mIsTuned = false;
+    private boolean mIsHdActive = false;
+    private final List<Integer> mSamples = new ArrayList<>();
+
+    public BandScanner(Tuner tuner) {
+        this(tuner, DEFAULT_MAX_DWELL, DEFAULT_SETTLE_SAMPLES);
+    }
+
+    /**
+     * @param maxDwell          Longest time spent on a channel, in milliseconds
+     * @param settleSamples     Number of agreeing readings needed to move on
+     */
+    BandScanner(Tuner tuner, long maxDwell, int settleSamples) {
+        mTuner = tuner;
+        mMaxDwell = maxDwell;
+        mSettleSamples = settleSamples;
+    }
+
+    /**
+     * Starts sweeping a band.  Returns false if a scan is already running.
+     *
+     * @param band  StationCache.BAND_FM or StationCache.BAND_AM
+     */
+    public synchronized boolean start(final int band, final Listener listener) {
+        if (mScanThread != null) {
+            return false;
+        }
+
+        mIsCancelled = false;
+        mScanThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ScanResult result = sweep(band);
+                synchronized (BandScanner.this) {
+                    mScanThread = null;
+                }
+                listener.onScanFinished(result);
+            }
+        }, "Band Scan");
+        mScanThread.start();
+        return true;
+    }
+
+    /**
+     * Stops the sweep after the current channel.  The listener still gets the channels
+     * scanned so far.
+     */
+    public void cancel() {
+        mIsCancelled = true;
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    public synchronized boolean isScanning() {
+        return mScanThread != null;
+    }
+
+    public void onTuned(int band, int frequency) {
+        synchronized (mLock) {
+            if (band == mExpectedBand && frequency == mExpectedFrequency) {
+                mIsTuned = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    public void onSignalStrength(int signal) {
+        synchronized (mLock) {
+            // Readings before the tune is confirmed may be from the previous channel
+            if (mIsTuned) {
+                mSamples.add(signal);
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    public void onHdActive(boolean hdActive) {
+        synchronized (mLock) {
+            if (mIsTuned && hdActive) {
+                mIsHdActive = true;
+            }
+        }
+    }
+
+    private ScanResult sweep(int band) {
+        int first = (band == StationCache.BAND_FM) ? FM_FIRST : AM_FIRST;
+        int last = (band == StationCache.BAND_FM) ? FM_LAST : AM_LAST;
+        int step = (band == StationCache.BAND_FM) ? FM_STEP : AM_STEP;
+
+        List<Reading> readings = new ArrayList<>();
+        for (int frequency = first; frequency <= last && !mIsCancelled; frequency += step) {
+            readings.add(measure(band, frequency));
+        }
+
+        synchronized (mLock) {
+            mExpectedBand = -1;
+            mExpectedFrequency = -1;
+            mIsTuned = false;
+        }
+        return new ScanResult(band, System.currentTimeMillis(), readings, !mIsCancelled);
+    }
+
+    private Reading measure(int band, int frequency) {
+        synchronized (mLock) {
+            mExpectedBand = band;
+            mExpectedFrequency = frequency;
+            mIsTuned = false;
+            mIsHdActive = false;
+            mSamples.clear();
+        }
+
+        mTuner.tune(band, frequency);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mMaxDwell);
+        synchronized (mLock) {
+            while (!mIsCancelled && !isSettled()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    mLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    mIsCancelled = true;
+                }
+            }
+            return new Reading(frequency, getSettledSignal(), mIsHdActive);
+        }
+    }
+
+    private boolean isSettled() {
+        int count = mSamples.size();
+        if (count < mSettleSamples) {
+            return false;
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = count - mSettleSamples; i < count; i++) {
+            min = Math.min(min, mSamples.get(i));
+            max = Math.max(max, mSamples.get(i));
+        }
+        return max - min <= Math.max(MIN_SETTLE_SPREAD, max / 10);
+    }
+
+    /**
+     * Average of the last settle samples, or of all of them if there are fewer
+     */
+    private int getSettledSignal() {
+        int count = mSamples.size();
+        if (count == 0) {
+            return -1;
+        }
+        int first = Math.max(0, count - mSettleSamples);
+        long sum = 0;
+        for (int i = first; i < count; i++) {
+            sum += mSamples.get(i);
+        }
+        return (int) (sum / (count - first));
+    }
+}
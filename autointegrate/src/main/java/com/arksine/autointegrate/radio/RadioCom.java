@@ -14,6 +14,8 @@ import com.arksine.autointegrate.R;
 import com.arksine.autointegrate.interfaces.MCUControlInterface;
 import com.arksine.autointegrate.interfaces.ServiceControlInterface;
 import com.arksine.autointegrate.microcontroller.McuRadioDriver;
+import com.arksine.autointegrate.utilities.BootTrace;
+import com.arksine.autointegrate.utilities.CompletionFuture;
 import com.arksine.autointegrate.utilities.HardwareReceiver;
 import com.arksine.autointegrate.utilities.UtilityFunctions;
 import com.arksine.hdradiolib.HDRadio;
@@ -21,10 +23,15 @@ import com.arksine.hdradiolib.HDRadioEvents;
 import com.arksine.hdradiolib.HDSongInfo;
 import com.arksine.hdradiolib.RadioController;
 import com.arksine.hdradiolib.TuneInfo;
+import com.arksine.hdradiolib.enums.RadioBand;
 import com.arksine.hdradiolib.enums.RadioError;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import timber.log.Timber;
 
@@ -35,15 +42,52 @@ import timber.log.Timber;
  */
 public class RadioCom {
 
+    private enum State {
+        CLOSED,
+        OPENING,
+        OPEN,
+        CLOSING
+    }
+
+    // The radio library answers open() and close() in a callback, an answer that hasn't
+    // arrived by then is given up on
+    private static final long OPEN_TIMEOUT = 10000;     // milliseconds
+    private static final long CLOSE_TIMEOUT = 10000;
+
     private MainService mService;
-    private AtomicBoolean mConnected = new AtomicBoolean(false);
-    private AtomicBoolean mIsWaiting = new AtomicBoolean(false);
+
+    // Written while holding the lock on this, mOpenFuture is set while OPENING and
+    // mCloseFuture while CLOSING
+    private volatile State mState = State.CLOSED;
+    private CompletionFuture<Boolean> mOpenFuture = null;
+    private CompletionFuture<Void> mCloseFuture = null;
 
     private HDRadio mHdRadio;
     private HDRadioEvents mRadioEvents;
     private McuRadioDriver mMcuRadioDriver = null;
     private RadioController mRadioController;
 
+    // Radio callbacks are passed to bound clients through the dispatcher, so a burst of
+    // updates or a slow client doesn't hold up the radio library's thread.  Clients get at
+    // most ten state updates a second, which is as often as anything on screen changes.
+    private static final long DISPATCH_INTERVAL = 100;     // milliseconds
+    private final RadioEventDispatcher mDispatcher;
+
+    // Shared by every RadioCom, loaded the first time one connects
+    private static final String STATION_CACHE_FILE = "station_cache.bin";
+    private static final int STATION_CACHE_SIZE = 64;
+    private static StationCache sStationCache = null;
+
+    private volatile StationCache mStationCache = null;
+    private volatile StationCache.Station mCurrentStation = null;
+
+    // The last complete scan of each band
+    private static final String BAND_SCAN_FILE = "band_scan.bin";
+    private static BandScanCache sBandScanCache = null;
+
+    private final BandScanner mBandScanner;
+    private volatile TuneInfo mTuneBeforeScan = null;
+
     // Broadcast reciever to listen for write commands.
     public class RadioCommandReceiver extends BroadcastReceiver {
         @Override
@@ -74,6 +118,9 @@ public class RadioCom {
                         case "VOLUME DOWN":
                             mRadioController.setVolumeDown();
                             break;
+                        case "SCAN":
+                            startBandScan(mRadioController.getTune().getBand());
+                            break;
                         case "MUTE":
                             boolean mute = mRadioController.getMute();
                             if (mute) {
@@ -92,18 +139,164 @@ public class RadioCom {
     private final RadioCommandReceiver radioCommandReceiver = new RadioCommandReceiver();
     private volatile boolean isRadioCommandReceiverRegistered = false;
 
+    private final RadioEventDispatcher.Listeners mRadioListeners =
+            new RadioEventDispatcher.Listeners() {
+        @Override
+        public int beginBroadcast() {
+            return mService.mRadioCallbacks.beginBroadcast();
+        }
+
+        @Override
+        public Object getKey(int index) {
+            return mService.mRadioCallbacks.getBroadcastItem(index).asBinder();
+        }
+
+        @Override
+        public boolean deliver(int index, RadioState.Field field, Object value) {
+            RemoteRadioEvents callback = mService.mRadioCallbacks.getBroadcastItem(index);
+            try {
+                switch (field) {
+                    case MUTE:
+                        callback.onRadioMute((Boolean) value);
+                        break;
+                    case SIGNAL_STRENGTH:
+                        callback.onRadioSignalStrength((Integer) value);
+                        break;
+                    case TUNE:
+                        callback.onRadioTune((TuneInfo) value);
+                        break;
+                    case SEEK:
+                        callback.onRadioSeek((TuneInfo) value);
+                        break;
+                    case HD_ACTIVE:
+                        callback.onRadioHdActive((Boolean) value);
+                        break;
+                    case HD_STREAM_LOCK:
+                        callback.onRadioHdStreamLock((Boolean) value);
+                        break;
+                    case HD_SIGNAL_STRENGTH:
+                        callback.onRadioHdSignalStrength((Integer) value);
+                        break;
+                    case HD_SUBCHANNEL:
+                        callback.onRadioHdSubchannel((Integer) value);
+                        break;
+                    case HD_SUBCHANNEL_COUNT:
+                        callback.onRadioHdSubchannelCount((Integer) value);
+                        break;
+                    case HD_TITLE:
+                        callback.onRadioHdTitle((HDSongInfo) value);
+                        break;
+                    case HD_ARTIST:
+                        callback.onRadioHdArtist((HDSongInfo) value);
+                        break;
+                    case HD_CALLSIGN:
+                        callback.onRadioHdCallsign((String) value);
+                        break;
+                    case HD_STATION_NAME:
+                        callback.onRadioHdStationName((String) value);
+                        break;
+                    case RDS_ENABLED:
+                        callback.onRadioRdsEnabled((Boolean) value);
+                        break;
+                    case RDS_GENRE:
+                        callback.onRadioRdsGenre((String) value);
+                        break;
+                    case RDS_PROGRAM_SERVICE:
+                        callback.onRadioRdsProgramService((String) value);
+                        break;
+                    case RDS_RADIO_TEXT:
+                        callback.onRadioRdsRadioText((String) value);
+                        break;
+                    case VOLUME:
+                        callback.onRadioVolume((Integer) value);
+                        break;
+                    case BASS:
+                        callback.onRadioBass((Integer) value);
+                        break;
+                    case TREBLE:
+                        callback.onRadioTreble((Integer) value);
+                        break;
+                    case COMPRESSION:
+                        callback.onRadioCompression((Integer) value);
+                        break;
+                }
+                return true;
+            } catch (RemoteException e) {
+                Timber.e(e);
+                return false;
+            }
+        }
+
+        @Override
+        public boolean deliverEvent(int index, RadioEventDispatcher.Event event) {
+            RemoteRadioEvents callback = mService.mRadioCallbacks.getBroadcastItem(index);
+            try {
+                switch (event) {
+                    case POWER_ON:
+                        callback.onPowerOn();
+                        break;
+                    case POWER_OFF:
+                        callback.onPowerOff();
+                        break;
+                    case CLOSED:
+                        callback.onClosed();
+                        break;
+                    case ERROR:
+                        callback.onError();
+                        break;
+                }
+                return true;
+            } catch (RemoteException e) {
+                Timber.e(e);
+                return false;
+            }
+        }
+
+        @Override
+        public void finishBroadcast() {
+            mService.mRadioCallbacks.finishBroadcast();
+        }
+    };
+
     public RadioCom(MainService svc) {
         this.mService = svc;
+        this.mDispatcher = new RadioEventDispatcher(mRadioListeners, DISPATCH_INTERVAL);
+        this.mBandScanner = new BandScanner(new BandScanner.Tuner() {
+            @Override
+            public void tune(int band, int frequency) {
+                RadioController controller = mRadioController;
+                if (controller != null) {
+                    RadioBand radioBand = (band == StationCache.BAND_FM) ? RadioBand.FM :
+                            RadioBand.AM;
+                    controller.tune(new TuneInfo(radioBand, frequency, 0));
+                }
+            }
+        });
 
         mRadioEvents = new HDRadioEvents() {
             @Override
             public void onOpened(boolean b, RadioController radioController) {
                 Timber.v("Radio onOpened Callback triggered");
-                RadioCom.this.mConnected.set(b);
+                CompletionFuture<Boolean> openFuture;
+                synchronized (RadioCom.this) {
+                    if (mState != State.OPENING) {
+                        // The attempt timed out or was cancelled, the radio is being closed
+                        Timber.i("Radio opened after the connection attempt ended");
+                        return;
+                    }
+                    openFuture = mOpenFuture;
+                    mOpenFuture = null;
+                    if (b) {
+                        mRadioController = radioController;
+                        mState = State.OPEN;
+                    } else {
+                        mState = State.CLOSED;
+                    }
+                }
 
                 // Radio successfully connected
-                if (RadioCom.this.mConnected.get()) {
-                    mRadioController = radioController;
+                if (b) {
+                    BootTrace.mark(BootTrace.Phase.RADIO_OPENED);
 
                     // Register Receiver if not already registered
                     if (!isRadioCommandReceiverRegistered) {
@@ -117,43 +310,35 @@ public class RadioCom {
                     Timber.e("Error connecting to HD Radio device");
                 }
 
-
-
-                RadioCom.this.resumeThread();
+                openFuture.complete(b);
             }
 
             @Override
             public void onClosed() {
                 Timber.v("Radio onClosed Callback triggered");
-                RadioCom.this.mConnected.set(false);
-
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onClosed();
-                    } catch (RemoteException e) {
-                        Timber.e(e);
+                CompletionFuture<Void> closeFuture;
+                synchronized (RadioCom.this) {
+                    closeFuture = mCloseFuture;
+                    if (mState == State.OPEN) {
+                        // Closed by the radio library rather than by disconnect
+                        mState = State.CLOSED;
                     }
                 }
-                mService.mRadioCallbacks.finishBroadcast();
 
-                // Calling thread is waiting, resume
-                RadioCom.this.resumeThread();
+                mDispatcher.post(RadioEventDispatcher.Event.CLOSED);
+                mDispatcher.clear();
+                mCurrentStation = null;
+
+                if (closeFuture != null) {
+                    closeFuture.complete(null);
+                }
             }
 
             @Override
             public void onDeviceError(RadioError radioError) {
                 Timber.e("Device Error: %s", radioError.toString());
 
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onError();
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.post(RadioEventDispatcher.Event.ERROR);
 
                 // TODO: If using MCU, I need to set DTR/RTS off
 
@@ -167,302 +352,133 @@ public class RadioCom {
             @Override
             public void onRadioPowerOn() {
                 Timber.v("Radio onRadioPowerOn Callback triggered");
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onPowerOn();
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.post(RadioEventDispatcher.Event.POWER_ON);
             }
 
             @Override
             public void onRadioPowerOff() {
                 Timber.v("Radio onRadioPowerOff Callback triggered");
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onPowerOff();
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.post(RadioEventDispatcher.Event.POWER_OFF);
             }
 
             @Override
             public void onRadioMute(boolean b) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioMute(b);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.MUTE, b);
             }
 
             @Override
             public void onRadioSignalStrength(int signalStrength) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioSignalStrength(signalStrength);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.SIGNAL_STRENGTH, signalStrength);
+                mBandScanner.onSignalStrength(signalStrength);
             }
 
             @Override
             public void onRadioTune(TuneInfo tuneInfo) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioTune(tuneInfo);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.TUNE, tuneInfo);
+                int band = toCacheBand(tuneInfo.getBand());
+                mBandScanner.onTuned(band, tuneInfo.getFrequency());
+                setCurrentStation(new StationCache.Station(band, tuneInfo.getFrequency(),
+                        tuneInfo.getSubChannel()));
             }
 
             @Override
             public void onRadioSeek(TuneInfo tuneInfo) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioSeek(tuneInfo);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.SEEK, tuneInfo);
             }
 
             @Override
             public void onRadioHdActive(boolean b) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdActive(b);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_ACTIVE, b);
+                mBandScanner.onHdActive(b);
             }
 
             @Override
             public void onRadioHdStreamLock(boolean b) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdStreamLock(b);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_STREAM_LOCK, b);
             }
 
             @Override
             public void onRadioHdSignalStrength(int hdSignal) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdSignalStrength(hdSignal);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_SIGNAL_STRENGTH, hdSignal);
             }
 
             @Override
             public void onRadioHdSubchannel(int subchannel) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdSubchannel(subchannel);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
+                mDispatcher.update(RadioState.Field.HD_SUBCHANNEL, subchannel);
+                StationCache.Station station = mCurrentStation;
+                if (station != null && station.getSubchannel() != subchannel) {
+                    setCurrentStation(new StationCache.Station(station.getBand(),
+                            station.getFrequency(), subchannel));
                 }
-                mService.mRadioCallbacks.finishBroadcast();
             }
 
             @Override
             public void onRadioHdSubchannelCount(int count) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdSubchannelCount(count);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_SUBCHANNEL_COUNT, count);
+                cacheStationValue(RadioState.Field.HD_SUBCHANNEL_COUNT, count);
             }
 
             @Override
             public void onRadioHdTitle(HDSongInfo hdSongInfo) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdTitle(hdSongInfo);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_TITLE, hdSongInfo);
             }
 
             @Override
             public void onRadioHdArtist(HDSongInfo hdSongInfo) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdArtist(hdSongInfo);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_ARTIST, hdSongInfo);
             }
 
             @Override
             public void onRadioHdCallsign(String s) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdCallsign(s);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_CALLSIGN, s);
+                cacheStationValue(RadioState.Field.HD_CALLSIGN, s);
             }
 
             @Override
             public void onRadioHdStationName(String s) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioHdStationName(s);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.HD_STATION_NAME, s);
+                cacheStationValue(RadioState.Field.HD_STATION_NAME, s);
             }
 
             @Override
             public void onRadioRdsEnabled(boolean b) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioRdsEnabled(b);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.RDS_ENABLED, b);
             }
 
             @Override
             public void onRadioRdsGenre(String s) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioRdsGenre(s);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.RDS_GENRE, s);
+                cacheStationValue(RadioState.Field.RDS_GENRE, s);
             }
 
             @Override
             public void onRadioRdsProgramService(String s) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioRdsProgramService(s);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.RDS_PROGRAM_SERVICE, s);
             }
 
             @Override
             public void onRadioRdsRadioText(String s) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioRdsRadioText(s);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.RDS_RADIO_TEXT, s);
             }
 
             @Override
             public void onRadioVolume(int volume) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioVolume(volume);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.VOLUME, volume);
             }
 
             @Override
             public void onRadioBass(int bass) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioBass(bass);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.BASS, bass);
             }
 
             @Override
             public void onRadioTreble(int treble) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioTreble(treble);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.TREBLE, treble);
             }
 
             @Override
             public void onRadioCompression(int compression) {
-                int cbCount = mService.mRadioCallbacks.beginBroadcast();
-                for (int i = 0; i < cbCount; i++) {
-                    try {
-                        mService.mRadioCallbacks.getBroadcastItem(i).onRadioCompression(compression);
-                    } catch (RemoteException e) {
-                        Timber.e(e);
-                    }
-                }
-                mService.mRadioCallbacks.finishBroadcast();
+                mDispatcher.update(RadioState.Field.COMPRESSION, compression);
             }
         };
 
@@ -513,66 +529,133 @@ public class RadioCom {
     }
 
 
-    public boolean connect() {
-        // If already connected, attempt to disconnect
-        if (mConnected.get()) {
-            disconnect();
+    /**
+     * Starts opening the radio and returns right away.  The future completes with true once
+     * the radio is open, or with false if it couldn't be opened.  It fails with a
+     * TimeoutException if the radio doesn't answer within OPEN_TIMEOUT, and the radio is
+     * closed if the attempt times out or the future is cancelled.
+     *
+     * If the radio is open or closing, it is opened again once it has closed.  If it is
+     * already opening, the pending future is returned.
+     */
+    public CompletionFuture<Boolean> connectAsync() {
+        final CompletionFuture<Boolean> openFuture;
+        synchronized (this) {
+            switch (mState) {
+                case OPENING:
+                    return mOpenFuture;
+                case CLOSED:
+                    openFuture = new CompletionFuture<>();
+                    mOpenFuture = openFuture;
+                    mState = State.OPENING;
+                    break;
+                default:
+                    openFuture = null;
+            }
         }
 
-        if (!initRadioInstance())
-        {
-            return false;
+        if (openFuture == null) {
+            return disconnectAsync().thenCompose(
+                    new CompletionFuture.Continuation<Void, Boolean>() {
+                        @Override
+                        public CompletionFuture<Boolean> then(CompletionFuture<Void> closed) {
+                            return connectAsync();
+                        }
+                    });
         }
 
-        Timber.v("Attempting to open connection to Directed HD Radio");
-        mHdRadio.open();
+        if (!initRadioInstance()) {
+            synchronized (this) {
+                mOpenFuture = null;
+                mState = State.CLOSED;
+            }
+            openFuture.complete(false);
+            return openFuture;
+        }
 
-        // Wait with a 10 second timeout for the onConnected Callback
-        synchronized (this) {
-            try {
-                mIsWaiting.set(true);
-                wait(10000);
-            } catch (InterruptedException e) {
-                Timber.w(e);
-            } finally {
-                if (mIsWaiting.compareAndSet(true, false)) {
-                    Timber.i("Radio Connection attempt timed out");
+        mStationCache = loadStationCache(mService);
+        loadBandScanCache(mService);
+
+        openFuture.addCallback(new CompletionFuture.Callback<Boolean>() {
+            @Override
+            public void onComplete(CompletionFuture<Boolean> future) {
+                // Close the radio if the attempt timed out or was cancelled.  This also closes
+                // a radio that opened just as the attempt timed out.
+                if (future.getError() != null) {
+                    Timber.i("Radio connection attempt ended: %s", future.getError());
+                    disconnectAsync();
                 }
             }
-        }
+        });
+        openFuture.orTimeout(OPEN_TIMEOUT, TimeUnit.MILLISECONDS);
 
-        return mConnected.get();
+        Timber.v("Attempting to open connection to Directed HD Radio");
+        mHdRadio.open();
+        return openFuture;
     }
 
+    /**
+     * Starts closing the radio and returns right away.  The future completes once the radio
+     * is closed, or after CLOSE_TIMEOUT if the radio doesn't answer (it fails with a
+     * TimeoutException then, but the radio is treated as closed either way).  A pending
+     * connection attempt is cancelled.
+     */
+    public CompletionFuture<Void> disconnectAsync() {
+        final CompletionFuture<Void> closeFuture;
+        CompletionFuture<Boolean> openFuture;
+        HDRadio radio;
+        synchronized (this) {
+            switch (mState) {
+                case CLOSED:
+                    return CompletionFuture.completed(null);
+                case CLOSING:
+                    return mCloseFuture;
+                default:
+                    openFuture = mOpenFuture;
+                    mOpenFuture = null;
+                    closeFuture = new CompletionFuture<>();
+                    mCloseFuture = closeFuture;
+                    mState = State.CLOSING;
+                    radio = mHdRadio;
+            }
+        }
 
-    public void disconnect() {
-        if (mConnected.compareAndSet(true, false)) {
+        if (openFuture != null) {
+            openFuture.cancel(false);
+        }
 
-            if (isRadioCommandReceiverRegistered) {
-                mService.unregisterReceiver(radioCommandReceiver);
-                isRadioCommandReceiverRegistered = false;
-            }
+        mBandScanner.cancel();
 
-            if (mHdRadio != null) {
-                mHdRadio.close();
+        if (isRadioCommandReceiverRegistered) {
+            mService.unregisterReceiver(radioCommandReceiver);
+            isRadioCommandReceiverRegistered = false;
+        }
 
-                // Wait for onClose callback with a timeout of 10 seconds
-                synchronized (this) {
-                    try {
-                        mIsWaiting.set(true);
-                        wait(10000);
-                    } catch (InterruptedException e) {
-                        Timber.w(e);
-                    } finally {
-                        if (mIsWaiting.compareAndSet(true, false)) {
-                            Timber.i("Radio disconnect attempt timed out");
-                        }
+        closeFuture.addCallback(new CompletionFuture.Callback<Void>() {
+            @Override
+            public void onComplete(CompletionFuture<Void> future) {
+                if (future.getError() != null) {
+                    Timber.i("Radio disconnect attempt ended: %s", future.getError());
+                }
+                synchronized (RadioCom.this) {
+                    if (mCloseFuture == future) {
+                        mCloseFuture = null;
+                        mState = State.CLOSED;
+                        mHdRadio = null;
+                        mMcuRadioDriver = null;
                     }
                 }
-                mHdRadio = null;
-                mMcuRadioDriver = null;
+                saveStationCache();
             }
+        });
+        closeFuture.orTimeout(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        if (radio != null) {
+            radio.close();
+        } else {
+            closeFuture.complete(null);
         }
+        return closeFuture;
     }
 
     public void updateDriver() {
@@ -588,13 +671,179 @@ public class RadioCom {
         return mRadioController;
     }
 
+    /**
+     * Returns a snapshot of the radio's current state.  Does not block.
+     */
+    public RadioState getRadioState() {
+        return mDispatcher.getState();
+    }
+
+    /**
+     * Sends a registered callback only the state that changed after the given version, instead
+     * of the full state it would otherwise get first
+     */
+    public void syncRadioCallback(RemoteRadioEvents callback, long version) {
+        mDispatcher.sync(callback.asBinder(), version);
+    }
+
     public boolean isConnected() {
-        return mConnected.get();
+        return mState == State.OPEN;
+    }
+
+    /**
+     * Returns the station cache, or null if the radio has not connected since the service
+     * started
+     */
+    public static synchronized StationCache getStationCache() {
+        return sStationCache;
+    }
+
+    /**
+     * Saves the station cache if it has changed.  Does file I/O, do not call on the UI thread.
+     */
+    public static void saveStationCache() {
+        StationCache cache = getStationCache();
+        if (cache != null && cache.isDirty()) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                Timber.w(e, "Unable to save station cache");
+            }
+        }
+    }
+
+    /**
+     * Sweeps a band in the background to find its strong stations, then tunes back to the
+     * station that was playing.  Returns false if the radio is off or a scan is running.
+     */
+    public boolean startBandScan(RadioBand band) {
+        RadioController controller = mRadioController;
+        if (controller == null || !controller.isPoweredOn()) {
+            return false;
+        }
+
+        mTuneBeforeScan = controller.getTune();
+        boolean started = mBandScanner.start(toCacheBand(band),
+                new BandScanner.Listener() {
+                    @Override
+                    public void onScanFinished(BandScanner.ScanResult result) {
+                        Timber.i("Band scan %s, %d strong stations",
+                                result.isComplete() ? "complete" : "cancelled",
+                                result.getStrongStations().size());
+
+                        BandScanCache cache = getBandScanCache();
+                        if (cache != null && result.isComplete()) {
+                            cache.put(result);
+                            try {
+                                cache.save();
+                            } catch (IOException e) {
+                                Timber.w(e, "Unable to save band scan");
+                            }
+                        }
+
+                        RadioController controller = mRadioController;
+                        TuneInfo previous = mTuneBeforeScan;
+                        if (controller != null && previous != null) {
+                            controller.tune(previous);
+                        }
+                    }
+                });
+
+        if (started) {
+            Timber.i("Band scan of %s started", band);
+        }
+        return started;
+    }
+
+    public void cancelBandScan() {
+        mBandScanner.cancel();
+    }
+
+    public boolean isBandScanning() {
+        return mBandScanner.isScanning();
+    }
+
+    /**
+     * Returns the strong stations found by the last scan of a band, strongest first.  Empty
+     * if the band hasn't been scanned.
+     */
+    public List<BandScanner.Reading> getStrongStations(RadioBand band) {
+        BandScanCache cache = getBandScanCache();
+        BandScanner.ScanResult result = (cache != null) ?
+                cache.get(toCacheBand(band)) : null;
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result.getStrongStations();
+    }
+
+    private static int toCacheBand(RadioBand band) {
+        return (band == RadioBand.FM) ? StationCache.BAND_FM : StationCache.BAND_AM;
+    }
+
+    private static synchronized BandScanCache getBandScanCache() {
+        return sBandScanCache;
+    }
+
+    private static synchronized void loadBandScanCache(Context context) {
+        if (sBandScanCache == null) {
+            BandScanCache cache = new BandScanCache(new File(context.getFilesDir(),
+                    BAND_SCAN_FILE));
+            try {
+                cache.load();
+            } catch (IOException e) {
+                Timber.w(e, "Unable to load band scan cache");
+            }
+            sBandScanCache = cache;
+        }
+    }
+
+    private static synchronized StationCache loadStationCache(Context context) {
+        if (sStationCache == null) {
+            StationCache cache = new StationCache(new File(context.getFilesDir(),
+                    STATION_CACHE_FILE), STATION_CACHE_SIZE);
+            try {
+                cache.load();
+                Timber.v("Loaded %d cached stations", cache.size());
+            } catch (IOException e) {
+                Timber.w(e, "Unable to load station cache");
+            }
+            sStationCache = cache;
+        }
+        return sStationCache;
+    }
+
+    /**
+     * Makes a station current and passes on what it reported last time, so clients can show
+     * it before the radio sends it again
+     */
+    private void setCurrentStation(StationCache.Station station) {
+        if (mBandScanner.isScanning()) {
+            // Stations passed during a scan are not cached, otherwise a full scan would push
+            // the user's stations out of the cache.  Values received while scanning are
+            // dropped by cacheStationValue() since there is no current station.
+            mCurrentStation = null;
+            return;
+        }
+
+        mCurrentStation = station;
+        StationCache cache = mStationCache;
+        StationCache.Info info = (cache != null) ? cache.get(station) : null;
+        if (info != null) {
+            for (RadioState.Field field : StationCache.CACHED_FIELDS) {
+                Object value = info.getValue(field);
+                if (value != null) {
+                    mDispatcher.update(field, value);
+                }
+            }
+        }
     }
 
-    private synchronized void resumeThread() {
-        if (mIsWaiting.compareAndSet(true, false)) {
-            notify();
+    private void cacheStationValue(RadioState.Field field, Object value) {
+        StationCache cache = mStationCache;
+        StationCache.Station station = mCurrentStation;
+        if (cache != null && station != null) {
+            cache.update(station, field, value);
         }
     }
 
@@ -0,0 +1,262 @@
+package com.arksine.autointegrate.radio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers radio state to bound clients without holding up the radio library's thread.
+ *
+ * The latest value of each field is kept in a RadioState snapshot.  update() replaces the
+ * snapshot, marks the field dirty and schedules a dispatch, so a field that changes many times
+ * between dispatches (signal strength, RDS text) is delivered once with its newest value.
+ * Dispatches run on their own thread, at most once every min interval.
+ *
+ * Each listener has its own dirty mask.  A listener that joins gets every field that has a
+ * value on its first dispatch, unless sync() was called for it with the version of a snapshot
+ * it already has, in which case it gets only the fields changed since.  A listener that fails
+ * part way through keeps the fields it missed for the next one.
+ *
+ * Events (power, close, error) are not coalesced.  They are delivered in order, right away,
+ * after any pending state.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class RadioEventDispatcher {
+
+    private static final long THREAD_KEEP_ALIVE = 5000;     // milliseconds
+
+    public enum Event {
+        POWER_ON,
+        POWER_OFF,
+        CLOSED,
+        ERROR
+    }
+
+    public interface Listeners {
+        /**
+         * Starts a dispatch and returns the number of listeners
+         */
+        int beginBroadcast();
+
+        /**
+         * Returns an object identifying the listener at index across dispatches
+         */
+        Object getKey(int index);
+
+        /**
+         * Delivers a field to the listener at index.  Returns false if the listener could not
+         * be reached.
+         */
+        boolean deliver(int index, RadioState.Field field, Object value);
+
+        boolean deliverEvent(int index, Event event);
+
+        void finishBroadcast();
+    }
+
+    private static final RadioState.Field[] FIELDS = RadioState.Field.values();
+
+    private final Listeners mListeners;
+    private final ScheduledExecutorService mExecutor;
+    private final long mMinInterval;
+
+    // Written while holding this, read without it
+    private volatile RadioState mState = RadioState.EMPTY;
+
+    // Guarded by this
+    private long mDirty = 0;
+    private final Map<Object, Long> mSyncVersions = new HashMap<>();
+    private final List<Event> mEvents = new ArrayList<>();
+    private boolean mIsScheduled = false;
+    private long mLastDispatch = 0;
+
+    // Only used on the dispatch thread
+    private Map<Object, Long> mListenerMasks = new HashMap<>();
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /**
+     * @param listeners     Clients to deliver to
+     * @param minInterval   Shortest time between state dispatches, in milliseconds
+     */
+    public RadioEventDispatcher(Listeners listeners, long minInterval) {
+        this(listeners, createExecutor(), minInterval);
+    }
+
+    RadioEventDispatcher(Listeners listeners, ScheduledExecutorService executor,
+                         long minInterval) {
+        mListeners = listeners;
+        mExecutor = executor;
+        mMinInterval = minInterval;
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        // The thread exits when idle, so a dispatcher that is dropped needs no shutdown
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Radio Dispatch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.setKeepAliveTime(THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Stores the latest value for a field.  Values equal to the one stored are dropped.
+     */
+    public synchronized void update(RadioState.Field field, Object value) {
+        RadioState state = mState.with(field, value);
+        if (state == mState) {
+            return;
+        }
+        mState = state;
+        mDirty |= field.bit();
+
+        // A tune ends a seek (the state drops it), and a seek replaces a pending tune, so the
+        // two can't be delivered out of order
+        if (field == RadioState.Field.TUNE) {
+            mDirty &= ~RadioState.Field.SEEK.bit();
+        } else if (field == RadioState.Field.SEEK) {
+            mDirty &= ~RadioState.Field.TUNE.bit();
+        }
+
+        schedule(false);
+    }
+
+    public synchronized void post(Event event) {
+        if (event == Event.POWER_ON || event == Event.POWER_OFF) {
+            mState = mState.withPower(event == Event.POWER_ON);
+        }
+        mEvents.add(event);
+        schedule(true);
+    }
+
+    /**
+     * Forgets all stored values, ie after the radio is closed.  Pending events are still
+     * delivered.
+     */
+    public synchronized void clear() {
+        mState = mState.cleared();
+        mDirty = 0;
+    }
+
+    /**
+     * Returns the current snapshot.  Does not block.
+     */
+    public RadioState getState() {
+        return mState;
+    }
+
+    /**
+     * Limits the next dispatch to a listener to the fields changed after the given version.
+     * Call right after the listener is registered, with the version of the snapshot it was
+     * painted from.
+     *
+     * @param key       The listener's key, as returned by Listeners.getKey()
+     * @param version   Version of the last snapshot the listener has seen
+     */
+    public synchronized void sync(Object key, long version) {
+        mSyncVersions.put(key, version);
+        schedule(true);
+    }
+
+    private void schedule(boolean immediate) {
+        if (immediate) {
+            // An extra run is harmless, it finds nothing left to deliver
+            mExecutor.execute(mDispatch);
+            mIsScheduled = true;
+        } else if (!mIsScheduled) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mLastDispatch);
+            long delay = Math.max(0, Math.min(mMinInterval, mMinInterval - elapsed));
+            mExecutor.schedule(mDispatch, delay, TimeUnit.MILLISECONDS);
+            mIsScheduled = true;
+        }
+    }
+
+    private void dispatch() {
+        long dirty;
+        RadioState state;
+        Map<Object, Long> syncVersions;
+        List<Event> events;
+        synchronized (this) {
+            mIsScheduled = false;
+            mLastDispatch = System.nanoTime();
+            dirty = mDirty;
+            mDirty = 0;
+            state = mState;
+            if (mSyncVersions.isEmpty()) {
+                syncVersions = null;
+            } else {
+                syncVersions = new HashMap<>(mSyncVersions);
+                mSyncVersions.clear();
+            }
+            if (mEvents.isEmpty()) {
+                events = null;
+            } else {
+                events = new ArrayList<>(mEvents);
+                mEvents.clear();
+            }
+        }
+
+        long hasValue = state.getValueMask();
+        Map<Object, Long> masks = new HashMap<>();
+        int count = mListeners.beginBroadcast();
+        try {
+            for (int i = 0; i < count; i++) {
+                Object key = mListeners.getKey(i);
+                Long pending = mListenerMasks.get(key);
+                Long syncVersion = (syncVersions != null) ? syncVersions.get(key) : null;
+                long mask;
+                if (syncVersion != null) {
+                    mask = state.getChangedSince(syncVersion)
+                            | ((pending != null) ? pending : 0);
+                } else if (pending == null) {
+                    mask = hasValue;
+                } else {
+                    mask = pending | dirty;
+                }
+                mask &= hasValue;
+
+                for (RadioState.Field field : FIELDS) {
+                    long bit = field.bit();
+                    if ((mask & bit) != 0) {
+                        if (!mListeners.deliver(i, field, state.getValue(field))) {
+                            break;
+                        }
+                        mask &= ~bit;
+                    }
+                }
+
+                if (events != null && mask == 0) {
+                    for (Event event : events) {
+                        if (!mListeners.deliverEvent(i, event)) {
+                            break;
+                        }
+                    }
+                }
+                masks.put(key, mask);
+            }
+        } finally {
+            mListeners.finishBroadcast();
+        }
+
+        // Listeners that went away are dropped with the old map
+        mListenerMasks = masks;
+    }
+}
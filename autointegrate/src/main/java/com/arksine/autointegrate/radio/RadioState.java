@@ -0,0 +1,176 @@
+package com.arksine.autointegrate.radio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable snapshot of everything the radio has reported.
+ *
+ * Each change returns a new snapshot with a higher version, so a snapshot can be handed to
+ * any thread and read without locking.  Every field also remembers the version it was last
+ * set in, so getChangedSince() tells a client which fields it is missing given the version of
+ * the last snapshot it saw.  Versions come from a single counter for the process, so they keep
+ * increasing when the radio is reconnected.
+ *
+ * Values are stored as the radio library reports them: Integer, Boolean, String, TuneInfo or
+ * HDSongInfo.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public final class RadioState {
+
+    public enum Field {
+        MUTE,
+        SIGNAL_STRENGTH,
+        TUNE,
+        SEEK,
+        HD_ACTIVE,
+        HD_STREAM_LOCK,
+        HD_SIGNAL_STRENGTH,
+        HD_SUBCHANNEL,
+        HD_SUBCHANNEL_COUNT,
+        HD_TITLE,
+        HD_ARTIST,
+        HD_CALLSIGN,
+        HD_STATION_NAME,
+        RDS_ENABLED,
+        RDS_GENRE,
+        RDS_PROGRAM_SERVICE,
+        RDS_RADIO_TEXT,
+        VOLUME,
+        BASS,
+        TREBLE,
+        COMPRESSION;
+
+        long bit() {
+            return 1L << ordinal();
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    // Fields describing the station tuned, as opposed to the radio's audio settings
+    private static final long STATION_FIELDS = Field.SIGNAL_STRENGTH.bit() | Field.SEEK.bit()
+            | Field.HD_ACTIVE.bit() | Field.HD_STREAM_LOCK.bit() | Field.HD_SIGNAL_STRENGTH.bit()
+            | Field.HD_SUBCHANNEL.bit() | Field.HD_SUBCHANNEL_COUNT.bit() | Field.HD_TITLE.bit()
+            | Field.HD_ARTIST.bit() | Field.HD_CALLSIGN.bit() | Field.HD_STATION_NAME.bit()
+            | Field.RDS_ENABLED.bit() | Field.RDS_GENRE.bit() | Field.RDS_PROGRAM_SERVICE.bit()
+            | Field.RDS_RADIO_TEXT.bit();
+
+    private static final AtomicLong sVersions = new AtomicLong(0);
+
+    public static final RadioState EMPTY = new RadioState(0, false, new Object[FIELDS.length],
+            new long[FIELDS.length]);
+
+    private final long mVersion;
+    private final boolean mPoweredOn;
+    private final Object[] mValues;
+    private final long[] mFieldVersions;    // 0 if the field has no value
+
+    private RadioState(long version, boolean poweredOn, Object[] values, long[] fieldVersions) {
+        mVersion = version;
+        mPoweredOn = poweredOn;
+        mValues = values;
+        mFieldVersions = fieldVersions;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public boolean isPoweredOn() {
+        return mPoweredOn;
+    }
+
+    public boolean hasValue(Field field) {
+        return mFieldVersions[field.ordinal()] != 0;
+    }
+
+    /**
+     * Returns the value of a field, or null if the radio hasn't reported it
+     */
+    public Object getValue(Field field) {
+        return mValues[field.ordinal()];
+    }
+
+    public int getInt(Field field, int defaultValue) {
+        Object value = mValues[field.ordinal()];
+        return (value instanceof Integer) ? (Integer) value : defaultValue;
+    }
+
+    public boolean getBoolean(Field field, boolean defaultValue) {
+        Object value = mValues[field.ordinal()];
+        return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+    }
+
+    public String getString(Field field) {
+        Object value = mValues[field.ordinal()];
+        return (value instanceof String) ? (String) value : null;
+    }
+
+    /**
+     * Returns a mask of the fields that have a value, bit n set for the field with ordinal n
+     */
+    public long getValueMask() {
+        return getChangedSince(0);
+    }
+
+    /**
+     * Returns a mask of the fields that were set after the given version
+     */
+    public long getChangedSince(long version) {
+        long mask = 0;
+        for (int i = 0; i < mFieldVersions.length; i++) {
+            if (mFieldVersions[i] > version) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns a snapshot with the field set to value, or this snapshot if the field already
+     * holds an equal value.  Setting TUNE clears the fields that describe the previous station
+     * (seek, HD, RDS and signal), so the new station's values are seen as changes even if they
+     * match the old ones.
+     */
+    public RadioState with(Field field, Object value) {
+        int index = field.ordinal();
+        if (mFieldVersions[index] != 0 && equal(mValues[index], value)) {
+            return this;
+        }
+
+        long version = sVersions.incrementAndGet();
+        Object[] values = mValues.clone();
+        long[] fieldVersions = mFieldVersions.clone();
+        values[index] = value;
+        fieldVersions[index] = version;
+        if (field == Field.TUNE) {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((STATION_FIELDS & (1L << i)) != 0) {
+                    values[i] = null;
+                    fieldVersions[i] = 0;
+                }
+            }
+        }
+        return new RadioState(version, mPoweredOn, values, fieldVersions);
+    }
+
+    public RadioState withPower(boolean poweredOn) {
+        if (poweredOn == mPoweredOn) {
+            return this;
+        }
+        return new RadioState(sVersions.incrementAndGet(), poweredOn, mValues, mFieldVersions);
+    }
+
+    /**
+     * Returns a snapshot with no values and the power off, ie after the radio is closed
+     */
+    public RadioState cleared() {
+        return new RadioState(sVersions.incrementAndGet(), false, new Object[FIELDS.length],
+                new long[FIELDS.length]);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,385 @@
+package com.arksine.autointegrate.radio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what each station last reported (callsign, station name, HD subchannel count and
+ * genre) so it can be shown as soon as the station is tuned, and holds the preset list.
+ *
+ * Stations are keyed by band, frequency and HD subchannel.  The least recently used station is
+ * dropped once the cache is full.  Presets are stored by key only, in MAX_PRESETS slots.
+ *
+ * The cache is saved to a small binary file:
+ *
+ *  int magic, byte version
+ *  byte preset count, then for each preset: byte slot, station key
+ *  short entry count, then for each entry, least recently used first:
+ *      station key, byte subchannel count (-1 if unknown), byte flags, then a UTF string for
+ *      each of callsign, station name and genre that is flagged as present
+ *
+ * A station key is byte band, short frequency, byte subchannel.  A file that can't be read is
+ * replaced on the next save.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class StationCache {
+
+    public static final int BAND_FM = 0;
+    public static final int BAND_AM = 1;
+    public static final int MAX_PRESETS = 10;
+
+    private static final int MAGIC = 0x53544E43;    // "STNC"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_CALLSIGN = 1;
+    private static final int FLAG_STATION_NAME = 1 << 1;
+    private static final int FLAG_GENRE = 1 << 2;
+
+    /**
+     * The fields a station's Info holds
+     */
+    public static final RadioState.Field[] CACHED_FIELDS = {
+            RadioState.Field.HD_CALLSIGN,
+            RadioState.Field.HD_STATION_NAME,
+            RadioState.Field.HD_SUBCHANNEL_COUNT,
+            RadioState.Field.RDS_GENRE
+    };
+
+    public static final class Station {
+        private final int mBand;
+        private final int mFrequency;
+        private final int mSubchannel;
+
+        public Station(int band, int frequency, int subchannel) {
+            mBand = band;
+            mFrequency = frequency;
+            mSubchannel = subchannel;
+        }
+
+        public int getBand() {
+            return mBand;
+        }
+
+        public int getFrequency() {
+            return mFrequency;
+        }
+
+        public int getSubchannel() {
+            return mSubchannel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Station)) {
+                return false;
+            }
+            Station other = (Station) o;
+            return mBand == other.mBand && mFrequency == other.mFrequency
+                    && mSubchannel == other.mSubchannel;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mBand << 24) ^ (mFrequency << 8) ^ mSubchannel;
+        }
+
+        @Override
+        public String toString() {
+            return (mBand == BAND_FM ? "FM " : "AM ") + mFrequency
+                    + (mSubchannel > 0 ? " HD" + mSubchannel : "");
+        }
+    }
+
+    /**
+     * What a station last reported.  Immutable, values not yet reported are null (or -1 for
+     * the subchannel count).
+     */
+    public static final class Info {
+        private static final Info EMPTY = new Info(null, null, -1, null);
+
+        private final String mCallsign;
+        private final String mStationName;
+        private final int mSubchannelCount;
+        private final String mGenre;
+
+        Info(String callsign, String stationName, int subchannelCount, String genre) {
+            mCallsign = callsign;
+            mStationName = stationName;
+            mSubchannelCount = subchannelCount;
+            mGenre = genre;
+        }
+
+        public String getCallsign() {
+            return mCallsign;
+        }
+
+        public String getStationName() {
+            return mStationName;
+        }
+
+        public int getSubchannelCount() {
+            return mSubchannelCount;
+        }
+
+        public String getGenre() {
+            return mGenre;
+        }
+
+        /**
+         * Returns the value for one of CACHED_FIELDS in the form RadioState holds it, or null
+         * if it is not known
+         */
+        public Object getValue(RadioState.Field field) {
+            switch (field) {
+                case HD_CALLSIGN:
+                    return mCallsign;
+                case HD_STATION_NAME:
+                    return mStationName;
+                case HD_SUBCHANNEL_COUNT:
+                    return (mSubchannelCount >= 0) ? mSubchannelCount : null;
+                case RDS_GENRE:
+                    return mGenre;
+                default:
+                    return null;
+            }
+        }
+
+        Info with(RadioState.Field field, Object value) {
+            switch (field) {
+                case HD_CALLSIGN:
+                    return new Info((String) value, mStationName, mSubchannelCount, mGenre);
+                case HD_STATION_NAME:
+                    return new Info(mCallsign, (String) value, mSubchannelCount, mGenre);
+                case HD_SUBCHANNEL_COUNT:
+                    return new Info(mCallsign, mStationName, (Integer) value, mGenre);
+                case RDS_GENRE:
+                    return new Info(mCallsign, mStationName, mSubchannelCount, (String) value);
+                default:
+                    return this;
+            }
+        }
+    }
+
+    private final File mFile;
+    private final int mCapacity;
+    private final LinkedHashMap<Station, Info> mEntries;
+    private final Station[] mPresets = new Station[MAX_PRESETS];
+    private boolean mIsDirty = false;
+
+    /**
+     * @param file      File the cache is loaded from and saved to
+     * @param capacity  Number of stations kept, at most 65535
+     */
+    public StationCache(File file, final int capacity) {
+        mFile = file;
+        mCapacity = capacity;
+        mEntries = new LinkedHashMap<Station, Info>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Station, Info> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns what the station last reported, or null if it isn't cached.  Counts as a use.
+     */
+    public synchronized Info get(Station station) {
+        return mEntries.get(station);
+    }
+
+    /**
+     * Stores a value a station reported.  Fields other than CACHED_FIELDS and null values are
+     * ignored.  Returns true if the cache changed.
+     */
+    public synchronized boolean update(Station station, RadioState.Field field, Object value) {
+        if (value == null || !isCached(field)) {
+            return false;
+        }
+
+        Info info = mEntries.get(station);
+        if (info == null) {
+            info = Info.EMPTY;
+        } else if (value.equals(info.getValue(field))) {
+            return false;
+        }
+        mEntries.put(station, info.with(field, value));
+        mIsDirty = true;
+        return true;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the station in a preset slot, or null if the slot is empty
+     */
+    public synchronized Station getPreset(int slot) {
+        return mPresets[slot];
+    }
+
+    /**
+     * Stores a station in a preset slot, or empties the slot if station is null
+     */
+    public synchronized void setPreset(int slot, Station station) {
+        mPresets[slot] = station;
+        mIsDirty = true;
+    }
+
+    public synchronized List<Station> getPresets() {
+        return new ArrayList<>(Arrays.asList(mPresets));
+    }
+
+    /**
+     * Returns true if the cache changed since it was last loaded or saved
+     */
+    public synchronized boolean isDirty() {
+        return mIsDirty;
+    }
+
+    /**
+     * Replaces the contents with those of the file.  A missing file leaves the cache empty, a
+     * file that can't be read leaves it empty and throws.
+     */
+    public synchronized void load() throws IOException {
+        mEntries.clear();
+        Arrays.fill(mPresets, null);
+        mIsDirty = false;
+
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("Not a station cache: " + mFile);
+            }
+
+            int presetCount = in.readUnsignedByte();
+            for (int i = 0; i < presetCount; i++) {
+                int slot = in.readUnsignedByte();
+                Station station = readStation(in);
+                if (slot < MAX_PRESETS) {
+                    mPresets[slot] = station;
+                }
+            }
+
+            int entryCount = in.readUnsignedShort();
+            for (int i = 0; i < entryCount; i++) {
+                Station station = readStation(in);
+                int subchannelCount = in.readByte();
+                int flags = in.readUnsignedByte();
+                String callsign = ((flags & FLAG_CALLSIGN) != 0) ? in.readUTF() : null;
+                String stationName = ((flags & FLAG_STATION_NAME) != 0) ? in.readUTF() : null;
+                String genre = ((flags & FLAG_GENRE) != 0) ? in.readUTF() : null;
+                mEntries.put(station, new Info(callsign, stationName, subchannelCount, genre));
+            }
+        } catch (EOFException e) {
+            mEntries.clear();
+            Arrays.fill(mPresets, null);
+            throw new IOException("Station cache is truncated: " + mFile);
+        } catch (IOException e) {
+            mEntries.clear();
+            Arrays.fill(mPresets, null);
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the cache to its file.  The file is replaced in one step, so a failed save leaves
+     * the previous one intact.
+     */
+    public synchronized void save() throws IOException {
+        File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+
+            int presetCount = 0;
+            for (Station preset : mPresets) {
+                if (preset != null) {
+                    presetCount++;
+                }
+            }
+            out.writeByte(presetCount);
+            for (int slot = 0; slot < MAX_PRESETS; slot++) {
+                if (mPresets[slot] != null) {
+                    out.writeByte(slot);
+                    writeStation(out, mPresets[slot]);
+                }
+            }
+
+            out.writeShort(mEntries.size());
+            for (Map.Entry<Station, Info> entry : mEntries.entrySet()) {
+                Info info = entry.getValue();
+                writeStation(out, entry.getKey());
+                out.writeByte(info.mSubchannelCount);
+                int flags = (info.mCallsign != null ? FLAG_CALLSIGN : 0)
+                        | (info.mStationName != null ? FLAG_STATION_NAME : 0)
+                        | (info.mGenre != null ? FLAG_GENRE : 0);
+                out.writeByte(flags);
+                if (info.mCallsign != null) {
+                    out.writeUTF(info.mCallsign);
+                }
+                if (info.mStationName != null) {
+                    out.writeUTF(info.mStationName);
+                }
+                if (info.mGenre != null) {
+                    out.writeUTF(info.mGenre);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mIsDirty = false;
+    }
+
+    private static boolean isCached(RadioState.Field field) {
+        for (RadioState.Field cached : CACHED_FIELDS) {
+            if (cached == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Station readStation(DataInputStream in) throws IOException {
+        int band = in.readUnsignedByte();
+        int frequency = in.readUnsignedShort();
+        int subchannel = in.readUnsignedByte();
+        return new Station(band, frequency, subchannel);
+    }
+
+    private static void writeStation(DataOutputStream out, Station station) throws IOException {
+        out.writeByte(station.getBand());
+        out.writeShort(station.getFrequency());
+        out.writeByte(station.getSubchannel());
+    }
+}
@@ -0,0 +1,70 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for connection retries.
+ *
+ * The nominal delay starts at the base delay and doubles after every attempt, up to the
+ * maximum delay.  The delay returned is picked at random from the upper half of the nominal
+ * delay, so modules that fail together do not retry in lock step.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class Backoff {
+
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+
+    private int mAttempts = 0;
+
+    /**
+     * @param baseDelayMs   Nominal delay before the first retry
+     * @param maxDelayMs    Upper limit for the nominal delay
+     * @param random        Source of the jitter
+     */
+    public Backoff(long baseDelayMs, long maxDelayMs, Random random) {
+        if (baseDelayMs < 1 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Invalid backoff delays");
+        }
+        mBaseDelay = baseDelayMs;
+        mMaxDelay = maxDelayMs;
+        mRandom = random;
+    }
+
+    public Backoff(long baseDelayMs, long maxDelayMs) {
+        this(baseDelayMs, maxDelayMs, new Random());
+    }
+
+    /**
+     * Returns the delay before the next attempt in milliseconds and counts the attempt
+     */
+    public synchronized long nextDelay() {
+        long nominal = getNominalDelay(mAttempts);
+        mAttempts++;
+
+        long half = nominal / 2;
+        return nominal - half + (long) (mRandom.nextDouble() * (half + 1));
+    }
+
+    /**
+     * Returns the number of delays handed out since the last reset
+     */
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    public synchronized void reset() {
+        mAttempts = 0;
+    }
+
+    private long getNominalDelay(int attempt) {
+        // Stop shifting once past the maximum, so large attempt counts cannot overflow
+        long delay = mBaseDelay;
+        for (int i = 0; i < attempt && delay < mMaxDelay; i++) {
+            delay <<= 1;
+        }
+        return Math.min(delay, mMaxDelay);
+    }
+}
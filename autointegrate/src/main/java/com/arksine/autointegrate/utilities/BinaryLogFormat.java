@@ -0,0 +1,140 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Compact binary log format, an alternative to CSV lines.
+ *
+ * Each file starts with FILE_HEADER, followed by one record per log entry:
+ *
+ *  byte    priority (android.util.Log levels, VERBOSE = 2 to ASSERT = 7)
+ *  long    time in milliseconds since the epoch
+ *  short   tag length, followed by the tag in UTF-8
+ *  int     message length, followed by the message in UTF-8
+ *
+ * All values are big-endian.  LogDecoder, which lives with the host tests, turns these files
+ * back into text on a desktop.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class BinaryLogFormat {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_TAG_LENGTH = Short.MAX_VALUE;
+
+    public static final String FILE_EXTENSION = "bin";
+    public static final byte[] FILE_HEADER = {'A', 'I', 'L', 'O', 'G', 1};
+
+    public static final class Entry {
+        private final int mPriority;
+        private final long mTime;
+        private final String mTag;
+        private final String mMessage;
+
+        Entry(int priority, long time, String tag, String message) {
+            mPriority = priority;
+            mTime = time;
+            mTag = tag;
+            mMessage = message;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public String getTag() {
+            return mTag;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+    }
+
+    private BinaryLogFormat() {}
+
+    /**
+     * Encodes one log entry.  A null tag is stored as an empty tag.
+     */
+    public static byte[] encode(int priority, long time, String tag, String message) {
+        byte[] tagBytes = (tag != null) ? tag.getBytes(UTF_8) : new byte[0];
+        if (tagBytes.length > MAX_TAG_LENGTH) {
+            tagBytes = Arrays.copyOf(tagBytes, MAX_TAG_LENGTH);
+        }
+        byte[] messageBytes = (message != null) ? message.getBytes(UTF_8) : new byte[0];
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 8 + 2 + tagBytes.length + 4
+                + messageBytes.length);
+        record.put((byte) priority);
+        record.putLong(time);
+        record.putShort((short) tagBytes.length);
+        record.put(tagBytes);
+        record.putInt(messageBytes.length);
+        record.put(messageBytes);
+        return record.array();
+    }
+
+    /**
+     * Reads and checks the file header.  Throws IOException if the stream is not a binary log.
+     */
+    public static void readHeader(DataInputStream input) throws IOException {
+        byte[] header = new byte[FILE_HEADER.length];
+        input.readFully(header);
+        if (!Arrays.equals(header, FILE_HEADER)) {
+            throw new IOException("Not a binary log file");
+        }
+    }
+
+    /**
+     * Reads the next entry, returns null at the end of the stream.  A truncated last entry,
+     * such as one cut off when the process died, is treated as the end of the stream.
+     */
+    public static Entry readEntry(DataInputStream input) throws IOException {
+        int priority = input.read();
+        if (priority < 0) {
+            return null;
+        }
+
+        try {
+            long time = input.readLong();
+            byte[] tag = new byte[input.readUnsignedShort()];
+            input.readFully(tag);
+            int length = input.readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt log entry");
+            }
+            byte[] message = readBytes(input, length);
+            return new Entry(priority, time, new String(tag, UTF_8), new String(message, UTF_8));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // Reads in chunks, so a corrupt length fails at the end of the stream instead of
+    // allocating a huge array up front
+    private static byte[] readBytes(InputStream input, int length) throws IOException {
+        byte[] data = new byte[Math.min(length, 8192)];
+        int count = 0;
+        while (count < length) {
+            if (count == data.length) {
+                data = Arrays.copyOf(data, Math.min(length, data.length * 2));
+            }
+            int read = input.read(data, count, data.length - count);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            count += read;
+        }
+        return data;
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.widget.Toast;
 
@@ -36,8 +37,6 @@ import timber.log.Timber;
  */
 public class BluetoothHelper extends SerialHelper {
 
-    private final Object WRITELOCK = new Object();
-
     private ExecutorService EXECUTOR = null;
     private Future mReaderThreadFuture = null;
     private AtomicBoolean mIsWaiting = new AtomicBoolean(false);
@@ -51,12 +50,28 @@ public class BluetoothHelper extends SerialHelper {
 
     private InputStream mSerialIn;
     private OutputStream mSerialOut;
+    private volatile SerialWriter mWriter = null;
 
 
     private SerialHelper.Callbacks mSerialHelperCallbacks;
 
     private final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+    // Reads are handed downstream in pooled buffers, a few are enough as long as the
+    // receiver releases each one before the next read completes
+    private static final int READ_POOL_SIZE = 4;
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final ReadBufferPool mReadPool = new ReadBufferPool(READ_POOL_SIZE, READ_BUFFER_SIZE);
+    private final ReadStats mReadStats = new ReadStats();
+
+    // Writes waiting for the writer thread.  When the queue is full writers block for up to
+    // WRITE_QUEUE_TIMEOUT, then the write is dropped
+    private static final int WRITE_QUEUE_SIZE = 64;
+    private static final long WRITE_QUEUE_TIMEOUT = 1000;   // ms
+    // Adjacent writes are combined up to this size, RFCOMM frames are rarely larger
+    private static final int WRITE_COALESCE_SIZE = 1024;
+
 
     private boolean mIsReceiverRegistered = false;
     private BroadcastReceiver mBtAdapterStatusReceiver = new BroadcastReceiver() {
@@ -102,6 +117,13 @@ public class BluetoothHelper extends SerialHelper {
     public void disconnect() {
 
         mReadThreadRunning.set(false);
+
+        // Closing the writer closes the output stream first, which unblocks a write stuck in
+        // the socket
+        if (mWriter != null) {
+            mWriter.close();
+            mWriter = null;
+        }
         closeItem(mSocket);
         closeItem(mSerialIn);
         closeItem(mSerialOut);
@@ -122,6 +144,10 @@ public class BluetoothHelper extends SerialHelper {
             EXECUTOR = null;
         }
 
+        if (mReadStats.getReadCount() > 0) {
+            Timber.i("Bluetooth reads: %s", mReadStats);
+        }
+
         mBtDevice.set(null);
         mSocket = null;
         mSerialIn = null;
@@ -256,25 +282,23 @@ public class BluetoothHelper extends SerialHelper {
 
     @Override
     public boolean writeBytes(final byte[] data) {
-        if (mSocket == null) return false;
-
-
-        EXECUTOR.execute(new Runnable() {
-            @Override
-            public void run() {
-
-                synchronized (WRITELOCK) {
-                    try {
-                        mSerialOut.write(data);
-                    } catch (IOException e) {
-                        Timber.w("Error writing to device\n", e);
-                        mSerialHelperCallbacks.OnDeviceError();
-                    }
-                }
-            }
-        });
+        SerialWriter.WriteFuture future = write(data);
+        return future != null && !future.isFailed();
+    }
 
-        return true;
+    /**
+     * Queues data to be written to the device.  Writes are sent in the order they are queued,
+     * by a single writer thread.  Blocks while the write queue is full.
+     *
+     * @return a future that completes with true once the data is flushed, or null if no device
+     *         is connected
+     */
+    public SerialWriter.WriteFuture write(final byte[] data) {
+        SerialWriter writer = mWriter;
+        if (writer == null) {
+            return null;
+        }
+        return writer.write(data);
     }
 
     @Override
@@ -297,6 +321,75 @@ public class BluetoothHelper extends SerialHelper {
         // Stub, baud cannot be set for BT devices
     }
 
+    /**
+     * Returns read size and throughput statistics for the current connection
+     */
+    public ReadStats getReadStats() {
+        return mReadStats;
+    }
+
+    private final SerialWriter.ErrorListener mWriteErrorListener = new SerialWriter.ErrorListener() {
+        @Override
+        public void onWriteError(IOException e) {
+            Timber.w(e, "Error writing to device");
+            mSerialHelperCallbacks.OnDeviceError();
+        }
+    };
+
+    /**
+     * Reads from the socket into pooled buffers until the stream ends or the helper is
+     * disconnected.  Callbacks that accept pooled buffers get the buffer itself, others get a
+     * copy of the data.
+     */
+    private final Runnable mReader = new Runnable() {
+        @Override
+        public void run() {
+            final SerialHelper.Callbacks cbs = mSerialHelperCallbacks;
+            final BufferedCallbacks bufferedCbs = (cbs instanceof BufferedCallbacks) ?
+                    (BufferedCallbacks) cbs : null;
+            final InputStream serialIn = mSerialIn;
+
+            while (mReadThreadRunning.get()) {
+                ReadBufferPool.Buffer buffer = mReadPool.acquire();
+                int count;
+                try {
+                    count = serialIn.read(buffer.getData(), 0, buffer.getData().length);
+                } catch (IOException e) {
+                    buffer.release();
+                    // connection was closed before the device was disconnected
+                    if (mReadThreadRunning.get()) {
+                        Timber.w(e);
+                        cbs.OnDeviceError();
+                    }
+                    return;
+                }
+
+                if (count < 0) {
+                    // End of stream, the remote device closed the connection
+                    buffer.release();
+                    if (mReadThreadRunning.get()) {
+                        Timber.i("Bluetooth stream closed by device");
+                        cbs.OnDeviceError();
+                    }
+                    return;
+                } else if (count == 0) {
+                    buffer.release();
+                    continue;
+                }
+
+                mReadStats.record(count, SystemClock.elapsedRealtime());
+                if (bufferedCbs != null) {
+                    buffer.setRange(0, count);
+                    bufferedCbs.OnDataReceived(buffer);
+                } else {
+                    byte[] data = Arrays.copyOfRange(buffer.getData(), 0, count);
+                    buffer.release();
+                    cbs.OnDataReceived(data);
+                }
+            }
+        }
+    };
+
     /**
      * Thread for connecting a device and creating its input and output streams.
      */
@@ -367,27 +460,13 @@ public class BluetoothHelper extends SerialHelper {
             if (mSerialOut != null && mSerialIn != null) {
                 mReadThreadRunning.set(true);
                 mBtDevice.set(btDevice);
-                mReaderThreadFuture = EXECUTOR.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        int available = 0;
-                        byte[] buffer = new byte[256];
-                        while (mReadThreadRunning.get()) {
-                            try {
-                                available = mSerialIn.read(buffer);
-                                mSerialHelperCallbacks.OnDataReceived(Arrays.copyOfRange(buffer, 0, available));
-
-                            } catch (IOException e) {
-                                // connection was closed before the device was disconnected
-                                if (mReadThreadRunning.get()) {
-                                    Timber.w(e);
-                                    mSerialHelperCallbacks.OnDeviceError();
-                                }
-                                return;
-                            }
-                        }
-                    }
-                });
+                mReadStats.reset();
+                mReaderThreadFuture = EXECUTOR.submit(mReader);
+
+                SerialWriter writer = new SerialWriter(mSerialOut, WRITE_QUEUE_SIZE,
+                        WRITE_QUEUE_TIMEOUT, WRITE_COALESCE_SIZE, mWriteErrorListener);
+                writer.start("Bluetooth Writer");
+                mWriter = writer;
             } else {
                 closeItem(mSocket);
                 closeItem(mSerialIn);
@@ -0,0 +1,269 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import timber.log.Timber;
+
+/**
+ * Traces where the time goes between the head unit waking up and the MCU reporting that it
+ * started.
+ *
+ * begin() starts a trace when the device wakes (or the service is started), mark() records
+ * the first time each phase is reached, measured with a monotonic clock.  Each trace is one
+ * record in a BootTraceFile, it is written when the trace begins and rewritten as phases are
+ * reached, so a trace survives the process being killed.  Writes are done on a background
+ * thread, mark() does not block the caller.
+ *
+ * Phases reached more than MAX_TRACE_TIME after the trace began are not part of the boot and
+ * end the trace.
+ */
+public class BootTrace {
+
+    public enum Phase {
+        SERVICE_START("Service started"),
+        ROOT_CHECKED("Root checked"),
+        USB_PERMISSION("USB permission"),
+        SERIAL_OPEN("Serial port open"),
+        START_SENT("START sent"),
+        MCU_STARTED("MCU STARTED"),
+        RADIO_OPENED("Radio opened");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    public static final int MAX_RECORDS = 100;
+    private static final long MAX_TRACE_TIME = 300000;      // milliseconds
+    private static final String TRACE_FILE_NAME = "boot_trace.bin";
+
+    private static BootTraceFile sTraceFile = null;
+    private static ExecutorService sWriteExecutor = null;
+
+    private static boolean sIsActive = false;
+    private static long sBeginTime = 0;         // System.nanoTime()
+    private static long sBeginWallTime = 0;
+    private static int[] sPhaseTimes = null;
+    private static int sSequence = -1;          // Set by the write thread
+
+    private BootTrace() {}
+
+    /**
+     * Sets the directory the trace file is kept in.  Until this is called nothing is traced.
+     */
+    public static synchronized void init(File directory) {
+        if (sTraceFile != null) {
+            return;
+        }
+        sTraceFile = new BootTraceFile(new File(directory, TRACE_FILE_NAME), MAX_RECORDS,
+                Phase.values().length);
+        sWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Boot Trace Writer");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts a new trace, ending the current one
+     */
+    public static synchronized void begin() {
+        if (sTraceFile == null) {
+            return;
+        }
+
+        sIsActive = true;
+        sBeginTime = System.nanoTime();
+        sBeginWallTime = System.currentTimeMillis();
+        sPhaseTimes = new int[Phase.values().length];
+        Arrays.fill(sPhaseTimes, -1);
+
+        final BootTraceFile.Record record = new BootTraceFile.Record(sBeginWallTime,
+                sPhaseTimes.clone());
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int sequence = sTraceFile.append(record);
+                    synchronized (BootTrace.class) {
+                        sSequence = sequence;
+                    }
+                } catch (IOException e) {
+                    Timber.w(e, "Unable to write boot trace");
+                }
+            }
+        });
+    }
+
+    public static synchronized boolean isActive() {
+        return sIsActive;
+    }
+
+    /**
+     * Records that a phase was reached.  Only the first time in each trace is kept.
+     */
+    public static synchronized void mark(Phase phase) {
+        if (!sIsActive || sPhaseTimes[phase.ordinal()] >= 0) {
+            return;
+        }
+
+        long elapsed = (System.nanoTime() - sBeginTime) / 1000000;
+        if (elapsed > MAX_TRACE_TIME) {
+            Timber.v("%s reached after the boot trace ended", phase.getLabel());
+            sIsActive = false;
+            return;
+        }
+
+        sPhaseTimes[phase.ordinal()] = (int) elapsed;
+        Timber.i("Boot trace: %s at %d ms", phase.getLabel(), elapsed);
+
+        final BootTraceFile.Record record = new BootTraceFile.Record(sBeginWallTime,
+                sPhaseTimes.clone());
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int sequence;
+                synchronized (BootTrace.class) {
+                    sequence = sSequence;
+                }
+                if (sequence < 0) {
+                    return;
+                }
+                try {
+                    sTraceFile.update(sequence, record);
+                } catch (IOException e) {
+                    Timber.w(e, "Unable to write boot trace");
+                }
+            }
+        });
+    }
+
+    /**
+     * Ends the current trace, phases marked after this are ignored until the next begin()
+     */
+    public static synchronized void end() {
+        sIsActive = false;
+    }
+
+    /**
+     * Returns the stored traces, oldest first.  Reads the trace file, do not call on the UI
+     * thread.
+     */
+    public static List<BootTraceFile.Record> getRecords() {
+        BootTraceFile traceFile;
+        synchronized (BootTrace.class) {
+            traceFile = sTraceFile;
+        }
+        if (traceFile == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return traceFile.readAll();
+        } catch (IOException e) {
+            Timber.w(e, "Unable to read boot trace");
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Percentiles of one phase over a set of traces, in milliseconds after the boot started
+     */
+    public static final class PhaseSummary {
+        private final Phase mPhase;
+        private final int mCount;
+        private final int mMedian;
+        private final int mP90;
+        private final int mMax;
+
+        PhaseSummary(Phase phase, int[] sortedTimes) {
+            mPhase = phase;
+            mCount = sortedTimes.length;
+            mMedian = percentile(sortedTimes, 0.5);
+            mP90 = percentile(sortedTimes, 0.9);
+            mMax = (mCount > 0) ? sortedTimes[mCount - 1] : -1;
+        }
+
+        public Phase getPhase() {
+            return mPhase;
+        }
+
+        /**
+         * Returns the number of traces that reached the phase
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getMedian() {
+            return mMedian;
+        }
+
+        public int getP90() {
+            return mP90;
+        }
+
+        public int getMax() {
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0) {
+                return String.format(Locale.US, "%s: not reached", mPhase.getLabel());
+            }
+            return String.format(Locale.US, "%s: p50 %d ms, p90 %d ms, max %d ms (%d boots)",
+                    mPhase.getLabel(), mMedian, mP90, mMax, mCount);
+        }
+    }
+
+    /**
+     * Summarizes every phase over the last bootCount traces
+     */
+    public static PhaseSummary[] summarize(List<BootTraceFile.Record> records, int bootCount) {
+        List<BootTraceFile.Record> recent =
+                records.subList(Math.max(0, records.size() - bootCount), records.size());
+
+        Phase[] phases = Phase.values();
+        PhaseSummary[] summaries = new PhaseSummary[phases.length];
+        for (Phase phase : phases) {
+            int[] times = new int[recent.size()];
+            int count = 0;
+            for (BootTraceFile.Record record : recent) {
+                int time = record.getPhaseTime(phase.ordinal());
+                if (time >= 0) {
+                    times[count++] = time;
+                }
+            }
+            times = Arrays.copyOf(times, count);
+            Arrays.sort(times);
+            summaries[phase.ordinal()] = new PhaseSummary(phase, times);
+        }
+        return summaries;
+    }
+
+    // Nearest rank percentile, -1 if there are no samples
+    private static int percentile(int[] sortedTimes, double fraction) {
+        if (sortedTimes.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(fraction * sortedTimes.length);
+        return sortedTimes[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,176 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed size file holding the most recent boot trace records.
+ *
+ * The file is a small header followed by a ring of fixed size records, once the ring is full
+ * the oldest record is overwritten, so the file never grows past its capacity.  Each record is
+ * the wall clock time of the boot and one int per phase, the phase's time in milliseconds
+ * after the boot started or -1 if the phase was not reached.
+ *
+ * A file with a different layout (magic, version, phase count or capacity) is started over.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class BootTraceFile {
+
+    private static final int MAGIC = 0x42545243;    // "BTRC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    public static final class Record {
+        private final long mWallTime;
+        private final int[] mPhaseTimes;
+
+        public Record(long wallTime, int[] phaseTimes) {
+            mWallTime = wallTime;
+            mPhaseTimes = phaseTimes;
+        }
+
+        /**
+         * Returns the wall clock time the boot started, in milliseconds since the epoch
+         */
+        public long getWallTime() {
+            return mWallTime;
+        }
+
+        /**
+         * Returns the time of a phase in milliseconds after the boot started, or -1
+         */
+        public int getPhaseTime(int phase) {
+            return mPhaseTimes[phase];
+        }
+
+        public int getPhaseCount() {
+            return mPhaseTimes.length;
+        }
+    }
+
+    private final File mFile;
+    private final int mCapacity;
+    private final int mPhaseCount;
+    private final int mRecordSize;
+
+    private RandomAccessFile mAccess = null;
+    private int mWriteCount = 0;     // Records written since the file was created
+
+    /**
+     * @param file          File to store the records in
+     * @param capacity      Number of records kept
+     * @param phaseCount    Number of phases in each record
+     */
+    public BootTraceFile(File file, int capacity, int phaseCount) {
+        mFile = file;
+        mCapacity = capacity;
+        mPhaseCount = phaseCount;
+        mRecordSize = 8 + 4 * phaseCount;
+    }
+
+    /**
+     * Adds a record, overwriting the oldest one if the file is full.  Returns the record's
+     * sequence number, which can be used to update it.
+     */
+    public synchronized int append(Record record) throws IOException {
+        open();
+        int sequence = mWriteCount;
+        writeRecord(sequence, record);
+        mWriteCount++;
+        mAccess.seek(12);
+        mAccess.writeInt(mWriteCount);
+        return sequence;
+    }
+
+    /**
+     * Replaces a record added with append().  Does nothing if it has already been overwritten.
+     */
+    public synchronized void update(int sequence, Record record) throws IOException {
+        open();
+        if (sequence >= mWriteCount || mWriteCount - sequence > mCapacity) {
+            return;
+        }
+        writeRecord(sequence, record);
+    }
+
+    /**
+     * Returns the stored records, oldest first
+     */
+    public synchronized List<Record> readAll() throws IOException {
+        open();
+        int count = Math.min(mWriteCount, mCapacity);
+        List<Record> records = new ArrayList<>(count);
+        for (int sequence = mWriteCount - count; sequence < mWriteCount; sequence++) {
+            mAccess.seek(getOffset(sequence));
+            long wallTime = mAccess.readLong();
+            int[] phaseTimes = new int[mPhaseCount];
+            for (int i = 0; i < mPhaseCount; i++) {
+                phaseTimes[i] = mAccess.readInt();
+            }
+            records.add(new Record(wallTime, phaseTimes));
+        }
+        return records;
+    }
+
+    public synchronized void close() {
+        if (mAccess != null) {
+            try {
+                mAccess.close();
+            } catch (IOException e) {
+                // Nothing was buffered, there is nothing to lose
+            }
+            mAccess = null;
+        }
+    }
+
+    private long getOffset(int sequence) {
+        return HEADER_SIZE + (long) (sequence % mCapacity) * mRecordSize;
+    }
+
+    private void writeRecord(int sequence, Record record) throws IOException {
+        if (record.getPhaseCount() != mPhaseCount) {
+            throw new IllegalArgumentException("Record has " + record.getPhaseCount()
+                    + " phases, expected " + mPhaseCount);
+        }
+        mAccess.seek(getOffset(sequence));
+        mAccess.writeLong(record.getWallTime());
+        for (int i = 0; i < mPhaseCount; i++) {
+            mAccess.writeInt(record.getPhaseTime(i));
+        }
+    }
+
+    private void open() throws IOException {
+        if (mAccess != null) {
+            return;
+        }
+
+        mAccess = new RandomAccessFile(mFile, "rw");
+        if (mAccess.length() >= HEADER_SIZE) {
+            int magic = mAccess.readInt();
+            int version = mAccess.readShort();
+            int phaseCount = mAccess.readShort();
+            int capacity = mAccess.readInt();
+            int writeCount = mAccess.readInt();
+            if (magic == MAGIC && version == VERSION && phaseCount == mPhaseCount
+                    && capacity == mCapacity && writeCount >= 0
+                    && mAccess.length() >= HEADER_SIZE
+                            + (long) Math.min(writeCount, mCapacity) * mRecordSize) {
+                mWriteCount = writeCount;
+                return;
+            }
+        }
+
+        // New or unreadable, start over
+        mAccess.setLength(0);
+        mAccess.writeInt(MAGIC);
+        mAccess.writeShort(VERSION);
+        mAccess.writeShort(mPhaseCount);
+        mAccess.writeInt(mCapacity);
+        mAccess.writeInt(0);
+        mWriteCount = 0;
+    }
+}
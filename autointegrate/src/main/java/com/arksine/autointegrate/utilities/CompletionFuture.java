@@ -0,0 +1,299 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Future that is completed by whoever holds it, for operations that finish in a callback
+ * (a device opening, a connection closing) rather than on a thread of their own.
+ *
+ * Callbacks added with addCallback() run once, in the order added, on the thread that
+ * completes the future, or right away on the caller's thread if it is already done.  They run
+ * before get() returns, so a caller that waits sees their effects.  A callback reads the result
+ * with getNow() and getError(), calling get() from one would never return.  orTimeout() fails
+ * the future with a TimeoutException if it isn't done in time, and thenCompose() chains
+ * another step after this one without a thread waiting in between.
+ *
+ * The future can only be completed once.  complete(), fail() and cancel() return false if it
+ * is already done.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class CompletionFuture<V> implements Future<V> {
+
+    private static final long TIMER_KEEP_ALIVE = 5000;     // milliseconds
+
+    public interface Callback<V> {
+        void onComplete(CompletionFuture<V> future);
+    }
+
+    public interface Continuation<V, U> {
+        /**
+         * Called with the previous future once it is done, however it finished.  Returns the
+         * next step.
+         */
+        CompletionFuture<U> then(CompletionFuture<V> previous);
+    }
+
+    private enum State {
+        PENDING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    // Shared by every future with a timeout, the thread exits when idle
+    private static ScheduledExecutorService sTimer = null;
+
+    // Guarded by this
+    private State mState = State.PENDING;
+    private V mValue = null;
+    private Throwable mError = null;
+    private boolean mCallbacksDone = false;
+    private List<Callback<V>> mCallbacks = new ArrayList<>();
+    private ScheduledFuture<?> mTimeout = null;
+
+    /**
+     * Returns a future that has already succeeded with the value
+     */
+    public static <V> CompletionFuture<V> completed(V value) {
+        CompletionFuture<V> future = new CompletionFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    public boolean complete(V value) {
+        return finish(State.SUCCEEDED, value, null);
+    }
+
+    public boolean fail(Throwable error) {
+        return finish(State.FAILED, null, error);
+    }
+
+    /**
+     * Cancels the future.  Whoever started the operation learns of it through a callback,
+     * mayInterruptIfRunning is ignored as there is no thread to interrupt.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(State.CANCELLED, null, new CancellationException());
+    }
+
+    /**
+     * Fails the future with a TimeoutException if it isn't done within the timeout
+     */
+    public CompletionFuture<V> orTimeout(final long timeout, final TimeUnit unit) {
+        ScheduledFuture<?> timer = getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                fail(new TimeoutException("Timed out after " + unit.toMillis(timeout) + " ms"));
+            }
+        }, timeout, unit);
+
+        synchronized (this) {
+            if (mState == State.PENDING) {
+                if (mTimeout != null) {
+                    mTimeout.cancel(false);
+                }
+                mTimeout = timer;
+                return this;
+            }
+        }
+        timer.cancel(false);
+        return this;
+    }
+
+    /**
+     * Runs the callback when the future is done, or right away if it already is
+     */
+    public CompletionFuture<V> addCallback(Callback<V> callback) {
+        synchronized (this) {
+            if (!mCallbacksDone) {
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        callback.onComplete(this);
+        return this;
+    }
+
+    /**
+     * Returns a future for the step that follows this one.  Once this future is done, however
+     * it finished, the continuation is called with it and the returned future completes the
+     * way the continuation's future does.  Cancelling the returned future cancels the next step
+     * if it has started, this future is left alone.
+     */
+    public <U> CompletionFuture<U> thenCompose(final Continuation<V, U> continuation) {
+        final CompletionFuture<U> result = new CompletionFuture<>();
+        addCallback(new Callback<V>() {
+            @Override
+            public void onComplete(CompletionFuture<V> previous) {
+                if (result.isDone()) {
+                    return;
+                }
+
+                final CompletionFuture<U> next;
+                try {
+                    next = continuation.then(previous);
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                    return;
+                }
+
+                result.addCallback(new Callback<U>() {
+                    @Override
+                    public void onComplete(CompletionFuture<U> future) {
+                        if (future.isCancelled()) {
+                            next.cancel(false);
+                        }
+                    }
+                });
+                next.addCallback(new Callback<U>() {
+                    @Override
+                    public void onComplete(CompletionFuture<U> future) {
+                        result.completeFrom(future);
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != State.PENDING;
+    }
+
+    public synchronized boolean isSuccessful() {
+        return mState == State.SUCCEEDED;
+    }
+
+    /**
+     * Returns the value if the future succeeded, otherwise valueIfAbsent.  Does not block.
+     */
+    public synchronized V getNow(V valueIfAbsent) {
+        return (mState == State.SUCCEEDED) ? mValue : valueIfAbsent;
+    }
+
+    /**
+     * Returns why the future failed or was cancelled, or null.  Does not block.
+     */
+    public synchronized Throwable getError() {
+        return mError;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (!mCallbacksDone) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mCallbacksDone) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            wait(remaining);
+        }
+        return getResult();
+    }
+
+    private void completeFrom(CompletionFuture<V> source) {
+        if (source.isSuccessful()) {
+            complete(source.getNow(null));
+        } else if (source.isCancelled()) {
+            cancel(false);
+        } else {
+            fail(source.getError());
+        }
+    }
+
+    // Must hold the lock on this
+    private V getResult() throws ExecutionException {
+        switch (mState) {
+            case SUCCEEDED:
+                return mValue;
+            case CANCELLED:
+                throw (CancellationException) mError;
+            default:
+                throw new ExecutionException(mError);
+        }
+    }
+
+    private boolean finish(State state, V value, Throwable error) {
+        List<Callback<V>> callbacks;
+        synchronized (this) {
+            if (mState != State.PENDING) {
+                return false;
+            }
+            mState = state;
+            mValue = value;
+            mError = error;
+            if (mTimeout != null) {
+                mTimeout.cancel(false);
+                mTimeout = null;
+            }
+            callbacks = mCallbacks;
+            mCallbacks = new ArrayList<>();
+        }
+
+        for (Callback<V> callback : callbacks) {
+            callback.onComplete(this);
+        }
+
+        // Callbacks added while the others ran were queued, run them too
+        while (true) {
+            synchronized (this) {
+                if (mCallbacks.isEmpty()) {
+                    mCallbacksDone = true;
+                    mCallbacks = null;
+                    notifyAll();
+                    return true;
+                }
+                callbacks = mCallbacks;
+                mCallbacks = new ArrayList<>();
+            }
+            for (Callback<V> callback : callbacks) {
+                callback.onComplete(this);
+            }
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (sTimer == null) {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Future Timeout");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            timer.setKeepAliveTime(TIMER_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+            timer.allowCoreThreadTimeOut(true);
+            sTimer = timer;
+        }
+        return sTimer;
+    }
+}
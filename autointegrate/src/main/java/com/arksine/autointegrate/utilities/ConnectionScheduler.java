@@ -0,0 +1,445 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Keeps a set of modules (MCU, radio, ...) connected.
+ *
+ * Each module has its own state machine and its connection attempts run on the attempt
+ * executor, so a module that blocks while connecting does not hold up the others.  After a
+ * failed attempt the module waits for a jittered, exponentially growing delay before the next
+ * one.  Once a module has failed MAX_ATTEMPTS times in a row it stops retrying until it is
+ * woken.
+ *
+ * wake() is meant to be called when hardware shows up (a USB device is attached, a Bluetooth
+ * device connects).  It retries every module that is waiting or has given up right away and
+ * restarts its backoff.  restart() does the same for a single module that was disconnected on
+ * purpose, such as after its settings changed.
+ *
+ * A module that connects through a callback extends AsyncModule instead.  Its attempt hands
+ * back a future and releases the attempt thread, the result is handled when the future
+ * completes.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class ConnectionScheduler {
+
+    public static final int MAX_ATTEMPTS = 10;
+    private static final long BASE_RETRY_DELAY = 500;      // milliseconds
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    public interface Module {
+        String getName();
+
+        /**
+         * Returns true if the module should be connected.  Checked before every attempt.
+         */
+        boolean isEnabled();
+
+        /**
+         * Attempts to connect, may block.  Returns true if the module is connected.
+         */
+        boolean connect();
+
+        boolean isConnected();
+    }
+
+    /**
+     * A module whose connection completes later, in a callback, rather than on the attempt
+     * thread.  The future it returns should have a timeout, the module stays CONNECTING until
+     * it completes.
+     */
+    public static abstract class AsyncModule implements Module {
+        /**
+         * Starts connecting.  The future completes with true if the module connected, with
+         * false, a failure or a cancellation if it didn't.
+         */
+        public abstract CompletionFuture<Boolean> connectAsync();
+
+        /**
+         * Blocks until connectAsync() completes, the scheduler never calls it
+         */
+        @Override
+        public final boolean connect() {
+            try {
+                return Boolean.TRUE.equals(connectAsync().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the attempt thread after a module connects.  Time is measured from
+         * start()
+         */
+        void onModuleConnected(Module module, long msSinceStart);
+
+        /**
+         * Called when a module has used up its attempts
+         */
+        void onModuleFailed(Module module);
+    }
+
+    public enum State {
+        STOPPED,        // Scheduler not running, or module disabled
+        WAITING,        // Attempt scheduled
+        CONNECTING,
+        CONNECTED,
+        FAILED          // Out of attempts, waiting to be woken
+    }
+
+    private final class ModuleState {
+        final Module module;
+        final Backoff backoff;
+
+        State state = State.STOPPED;
+        int failures = 0;
+        boolean restartRequested = false;
+        ScheduledFuture<?> pending = null;
+
+        // Incremented whenever the module is rescheduled or stopped, so an attempt that is
+        // still running when that happens does not overwrite the new state
+        int generation = 0;
+
+        ModuleState(Module module, Backoff backoff) {
+            this.module = module;
+            this.backoff = backoff;
+        }
+
+        // Must hold the lock on this
+        void schedule(long delayMs) {
+            cancelPending();
+            generation++;
+            if (!mIsRunning) {
+                // Lost a race with stop(), the timer may already be shut down
+                state = State.STOPPED;
+                return;
+            }
+            state = State.WAITING;
+            final int scheduledGeneration = generation;
+            pending = mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mAttemptExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            attempt(ModuleState.this, scheduledGeneration);
+                        }
+                    });
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        // Must hold the lock on this
+        void cancelPending() {
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+        }
+    }
+
+    private final Executor mAttemptExecutor;
+    private final ScheduledExecutorService mTimer;
+    private final Listener mListener;
+    private final List<ModuleState> mModules = new ArrayList<>();
+
+    private volatile boolean mIsRunning = false;
+    private volatile long mStartTime = 0;
+
+    /**
+     * @param attemptExecutor   Runs connection attempts.  Must be able to run an attempt for
+     *                          every module at the same time.
+     * @param threadFactory     Creates the thread that times retries
+     * @param listener          May be null
+     */
+    public ConnectionScheduler(Executor attemptExecutor, ThreadFactory threadFactory,
+                               Listener listener) {
+        mAttemptExecutor = attemptExecutor;
+        mTimer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        mListener = listener;
+    }
+
+    /**
+     * Adds a module, all modules must be added before start()
+     */
+    public synchronized void addModule(Module module) {
+        addModule(module, new Backoff(BASE_RETRY_DELAY, MAX_RETRY_DELAY));
+    }
+
+    public synchronized void addModule(Module module, Backoff backoff) {
+        if (mIsRunning) {
+            throw new IllegalStateException("Modules must be added before the scheduler starts");
+        }
+        mModules.add(new ModuleState(module, backoff));
+    }
+
+    /**
+     * Starts connecting every module right away
+     */
+    public void start() {
+        start(true);
+    }
+
+    /**
+     * Starts the scheduler.  If connectModules is false, modules stay stopped until they are
+     * connected with connectNow(), restart() or wake().
+     */
+    public synchronized void start(boolean connectModules) {
+        if (mIsRunning) {
+            return;
+        }
+        mIsRunning = true;
+        mStartTime = System.nanoTime();
+        if (!connectModules) {
+            return;
+        }
+        for (ModuleState ms : mModules) {
+            synchronized (ms) {
+                ms.failures = 0;
+                ms.backoff.reset();
+                ms.schedule(0);
+            }
+        }
+    }
+
+    /**
+     * Makes a connection attempt on the calling thread, blocking until it is done (for an
+     * AsyncModule, until its future completes).  If it fails, the module is retried with
+     * backoff as usual.  Returns true if the module is connected.  Returns false right away
+     * if an attempt is already running.
+     */
+    public boolean connectNow(String name) {
+        ModuleState ms = find(name);
+        if (ms == null) {
+            Timber.w("Unknown module %s", name);
+            return false;
+        }
+
+        int generation;
+        synchronized (ms) {
+            if (!mIsRunning || ms.state == State.CONNECTING) {
+                return false;
+            }
+            ms.cancelPending();
+            ms.failures = 0;
+            ms.backoff.reset();
+            generation = ++ms.generation;
+        }
+
+        CompletionFuture<Void> done = attempt(ms, generation);
+        if (done != null) {
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Timber.w(e);
+            }
+        }
+        synchronized (ms) {
+            return ms.state == State.CONNECTED;
+        }
+    }
+
+    /**
+     * Cancels all scheduled attempts.  Attempts that are already running finish, but their
+     * result is ignored.  The scheduler cannot be started again.
+     */
+    public synchronized void stop() {
+        mIsRunning = false;
+        for (ModuleState ms : mModules) {
+            synchronized (ms) {
+                ms.cancelPending();
+                ms.generation++;
+                ms.state = State.STOPPED;
+            }
+        }
+        mTimer.shutdownNow();
+    }
+
+    /**
+     * Retries every module that is not connected (or connecting) right away
+     */
+    public void wake() {
+        if (!mIsRunning) {
+            return;
+        }
+        for (ModuleState ms : getModuleStates()) {
+            synchronized (ms) {
+                if (ms.state == State.CONNECTING) {
+                    continue;
+                }
+                if (ms.state == State.CONNECTED && ms.module.isConnected()) {
+                    continue;
+                }
+                Timber.v("Waking %s", ms.module.getName());
+                ms.failures = 0;
+                ms.backoff.reset();
+                ms.schedule(0);
+            }
+        }
+    }
+
+    /**
+     * Connects a module again right away, for example after it was disconnected.  If an
+     * attempt is running, the module is connected again once it finishes.
+     */
+    public void restart(String name) {
+        if (!mIsRunning) {
+            return;
+        }
+        ModuleState ms = find(name);
+        if (ms == null) {
+            Timber.w("Unknown module %s", name);
+            return;
+        }
+        synchronized (ms) {
+            ms.failures = 0;
+            ms.backoff.reset();
+            if (ms.state == State.CONNECTING) {
+                // Never run two attempts for the same module at once
+                ms.restartRequested = true;
+            } else {
+                ms.schedule(0);
+            }
+        }
+    }
+
+    public State getState(String name) {
+        ModuleState ms = find(name);
+        if (ms == null) {
+            return null;
+        }
+        synchronized (ms) {
+            return ms.state;
+        }
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    private synchronized ModuleState[] getModuleStates() {
+        return mModules.toArray(new ModuleState[mModules.size()]);
+    }
+
+    private ModuleState find(String name) {
+        for (ModuleState ms : getModuleStates()) {
+            if (ms.module.getName().equals(name)) {
+                return ms;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts an attempt.  Returns a future that completes once its result is handled, or null
+     * if no attempt was made.
+     */
+    private CompletionFuture<Void> attempt(final ModuleState ms, final int generation) {
+        final Module module = ms.module;
+        synchronized (ms) {
+            if (!mIsRunning || ms.generation != generation) {
+                return null;
+            }
+            if (!module.isEnabled()) {
+                Timber.v("%s disabled", module.getName());
+                ms.state = State.STOPPED;
+                return null;
+            }
+            ms.pending = null;
+            if (module.isConnected()) {
+                ms.state = State.CONNECTED;
+                return null;
+            }
+            ms.state = State.CONNECTING;
+            ms.restartRequested = false;
+        }
+
+        // Connect without holding the lock, wake() and restart() must not block on it
+        CompletionFuture<Boolean> result;
+        if (module instanceof AsyncModule) {
+            result = ((AsyncModule) module).connectAsync();
+        } else {
+            result = CompletionFuture.completed(module.connect());
+        }
+
+        final CompletionFuture<Void> done = new CompletionFuture<>();
+        result.addCallback(new CompletionFuture.Callback<Boolean>() {
+            @Override
+            public void onComplete(CompletionFuture<Boolean> future) {
+                Throwable error = future.getError();
+                if (error != null) {
+                    Timber.v("%s connection attempt failed: %s", module.getName(), error);
+                }
+                finishAttempt(ms, generation, Boolean.TRUE.equals(future.getNow(false)));
+                done.complete(null);
+            }
+        });
+        return done;
+    }
+
+    private void finishAttempt(ModuleState ms, int generation, boolean connected) {
+        Module module = ms.module;
+        boolean failed = false;
+        synchronized (ms) {
+            if (!mIsRunning || ms.generation != generation) {
+                // Superseded while connecting, whoever rescheduled owns the state now
+                return;
+            }
+
+            if (ms.restartRequested) {
+                ms.restartRequested = false;
+                ms.schedule(0);
+                return;
+            }
+
+            if (connected) {
+                ms.state = State.CONNECTED;
+                ms.failures = 0;
+                ms.backoff.reset();
+            } else {
+                ms.failures++;
+                if (ms.failures >= MAX_ATTEMPTS) {
+                    ms.state = State.FAILED;
+                    failed = true;
+                } else {
+                    long delay = ms.backoff.nextDelay();
+                    Timber.v("%s connection attempt %d failed, retrying in %d ms",
+                            module.getName(), ms.failures, delay);
+                    ms.schedule(delay);
+                }
+            }
+        }
+
+        if (connected) {
+            long elapsed = (System.nanoTime() - mStartTime) / 1000000;
+            Timber.i("%s connected %d ms after start", module.getName(), elapsed);
+            if (mListener != null) {
+                mListener.onModuleConnected(module, elapsed);
+            }
+        } else if (failed) {
+            Timber.i("Maximum %s connection attempts reached", module.getName());
+            if (mListener != null) {
+                mListener.onModuleFailed(module);
+            }
+        }
+    }
+}
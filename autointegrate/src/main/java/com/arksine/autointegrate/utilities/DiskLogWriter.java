@@ -0,0 +1,178 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Appends log data to a set of rolling files named "name_N.ext".
+ *
+ * The current file is kept open and data is collected in a buffer, which is written to the
+ * file when it fills up or flush() is called.  The folder is scanned once, when the first
+ * file is opened, to find the newest file.  After that the file index and size are tracked
+ * here, when the file reaches its maximum size the next index is opened.
+ *
+ * Not thread safe, it is meant to be used from the disk log thread only.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class DiskLogWriter {
+
+    private final File mFolder;
+    private final String mBaseName;
+    private final String mExtension;
+    private final long mMaxFileSize;
+    private final byte[] mFileHeader;
+    private final ByteBuffer mBuffer;
+
+    private FileChannel mChannel = null;
+    private int mFileIndex = -1;
+    private long mFileSize = 0;
+
+    /**
+     * @param folder        Folder the log files are kept in, created if needed
+     * @param baseName      File name without the index or extension
+     * @param extension     File extension, without the dot
+     * @param maxFileSize   A new file is started once the current one reaches this size
+     * @param bufferSize    Size of the write buffer
+     * @param fileHeader    Written at the start of every new file, may be null
+     */
+    public DiskLogWriter(File folder, String baseName, String extension, long maxFileSize,
+                         int bufferSize, byte[] fileHeader) {
+        mFolder = folder;
+        mBaseName = baseName;
+        mExtension = extension;
+        mMaxFileSize = maxFileSize;
+        mFileHeader = fileHeader;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Buffers data for writing.  Data larger than the buffer is written straight through.
+     */
+    public void write(byte[] data) throws IOException {
+        if (data.length > mBuffer.remaining()) {
+            flush();
+            if (data.length > mBuffer.capacity()) {
+                writeToFile(ByteBuffer.wrap(data));
+                return;
+            }
+        }
+        mBuffer.put(data);
+    }
+
+    /**
+     * Returns the number of bytes waiting in the buffer
+     */
+    public int getBufferedCount() {
+        return mBuffer.position();
+    }
+
+    /**
+     * Writes the buffer to the current file
+     */
+    public void flush() throws IOException {
+        if (mBuffer.position() == 0) {
+            return;
+        }
+        mBuffer.flip();
+        try {
+            writeToFile(mBuffer);
+        } finally {
+            mBuffer.clear();
+        }
+    }
+
+    /**
+     * Flushes and closes the current file.  The writer may be used again, it continues with
+     * the same file.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (mChannel != null) {
+                mChannel.close();
+                mChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the file currently written to, or null if none has been opened
+     */
+    public File getCurrentFile() {
+        return (mFileIndex >= 0) ? getFile(mFileIndex) : null;
+    }
+
+    private File getFile(int index) {
+        return new File(mFolder, String.format(Locale.US, "%s_%d.%s", mBaseName, index,
+                mExtension));
+    }
+
+    private void writeToFile(ByteBuffer data) throws IOException {
+        if (mChannel == null) {
+            open();
+        } else if (mFileSize >= mMaxFileSize) {
+            mChannel.close();
+            mChannel = null;
+            mFileIndex++;
+            open();
+        }
+
+        while (data.hasRemaining()) {
+            mFileSize += mChannel.write(data);
+        }
+    }
+
+    private void open() throws IOException {
+        if (mFileIndex < 0) {
+            mFileIndex = findNewestIndex();
+            if (getFile(mFileIndex).length() >= mMaxFileSize) {
+                mFileIndex++;
+            }
+        }
+
+        if (!mFolder.exists() && !mFolder.mkdirs()) {
+            throw new IOException("Unable to create log folder " + mFolder);
+        }
+
+        FileOutputStream stream = new FileOutputStream(getFile(mFileIndex), true);
+        mChannel = stream.getChannel();
+        mFileSize = mChannel.size();
+
+        if (mFileSize == 0 && mFileHeader != null) {
+            ByteBuffer header = ByteBuffer.wrap(mFileHeader);
+            while (header.hasRemaining()) {
+                mFileSize += mChannel.write(header);
+            }
+        }
+    }
+
+    // Only done once, rolling files afterwards just increments the index
+    private int findNewestIndex() {
+        String[] names = mFolder.list();
+        if (names == null) {
+            return 0;
+        }
+
+        String prefix = mBaseName + "_";
+        String suffix = "." + mExtension;
+        int newest = 0;
+        for (String name : names) {
+            if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+                continue;
+            }
+            String index = name.substring(prefix.length(), name.length() - suffix.length());
+            try {
+                newest = Math.max(newest, Integer.parseInt(index));
+            } catch (NumberFormatException e) {
+                // Some other file that happens to share the prefix
+            }
+        }
+        return newest;
+    }
+}
@@ -13,7 +13,9 @@ import android.hardware.usb.UsbManager;
 import android.support.annotation.NonNull;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.arksine.autointegrate.AutoIntegrate;
 import com.arksine.autointegrate.R;
+import com.arksine.autointegrate.interfaces.ServiceControlInterface;
 
 import java.lang.reflect.Method;
 
@@ -64,6 +66,8 @@ public class HardwareReceiver extends BroadcastReceiver {
                 break;
             case ACTION_USB_ATTACHED:
                 synchronized (this) {
+                    UsbDeviceCache.invalidate();
+
                     // send a broadcast for the Microcontroller settings  to repopulate the
                     // usb device list if a device is connected or disconnected
 
@@ -72,10 +76,13 @@ public class HardwareReceiver extends BroadcastReceiver {
                     LocalBroadcastManager.getInstance(context).sendBroadcast(devChanged);
                     Timber.v("Usb device attached");
 
+                    wakeConnections();
                 }
                 break;
             case ACTION_USB_DETACHED:
                 synchronized (this) {
+                    UsbDeviceCache.invalidate();
+
                     // send a broadcast for the Microcontroller settings  to repopulate the
                     // usb device list if a device is connected or disconnected
                     Intent devChanged = new Intent(ACTION_DEVICE_CHANGED);
@@ -115,6 +122,12 @@ public class HardwareReceiver extends BroadcastReceiver {
                     LocalBroadcastManager.getInstance(context).sendBroadcast(devChanged);
                 }
                 break;
+            case BluetoothDevice.ACTION_ACL_CONNECTED:
+                synchronized (this) {
+                    Timber.v("Bluetooth device connected");
+                    wakeConnections();
+                }
+                break;
             case BluetoothDevice.ACTION_ACL_DISCONNECTED:
                 synchronized (this) {
                     Timber.v("Bluetooth device disconnected");
@@ -124,6 +137,14 @@ public class HardwareReceiver extends BroadcastReceiver {
         }
     }
 
+    // Lets the service retry connections that are waiting for hardware
+    private static void wakeConnections() {
+        ServiceControlInterface serviceControl = AutoIntegrate.getServiceControlInterface();
+        if (serviceControl != null) {
+            serviceControl.onHardwareAttached();
+        }
+    }
+
     public synchronized static void requestUsbPermission(@NonNull UsbDevice device,
                                                          @NonNull UsbCallback usbRequestComplete,
                                                          @NonNull Context context) {
@@ -23,8 +23,8 @@ import com.orhanobut.logger.Logger;
 import com.orhanobut.logger.PrettyFormatStrategy;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 import timber.log.Timber;
 
@@ -38,8 +38,15 @@ import timber.log.Timber;
 public class LogManager {
     private static final String LOG_TAG = "AUTOINTEGRATE";
     private static final boolean LOG_VERBOSE_RELEASE = true;  // TODO: Change to false to limit release logs
+    private static final boolean LOG_BINARY = false;  // Compact binary files, read with LogDecoder
     private static final int MAX_FILE_SIZE = 500 * 1024;
+    private static final int DISK_BUFFER_SIZE = 16 * 1024;
+    private static final long DISK_FLUSH_DELAY = 1000;      // milliseconds
+    private static final int MSG_FLUSH = 0;                 // Log levels start at 2
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+    private static volatile Handler mDiskLogHandler = null;
+    private static DiskLogWriter mDiskLogWriter = null;     // Only used on the disk log thread
     private static boolean mDiskLoggerAdded = false;
     private static boolean mTimberInitialized = false;
     private static String mFolderName = null;
@@ -78,7 +85,7 @@ public class LogManager {
                 Timber.plant(new Timber.DebugTree() {
                     @Override
                     protected void log(int priority, String tag, String message, Throwable t) {
-                        Logger.log(priority, tag, message, t);
+                        logMessage(priority, tag, message, t);
                     }
                 });
 
@@ -87,7 +94,7 @@ public class LogManager {
                 Timber.plant(new Timber.DebugTree() {
                     @Override
                     protected void log(int priority, String tag, String message, Throwable t) {
-                        Logger.log(priority, tag, message, t);
+                        logMessage(priority, tag, message, t);
                     }
                 });
             } else {
@@ -100,7 +107,7 @@ public class LogManager {
                             return;
                         }
 
-                        Logger.log(priority, tag, message, t);
+                        logMessage(priority, tag, message, t);
                     }
                 });
             }
@@ -143,80 +150,72 @@ public class LogManager {
 
     public static void addDiskLogger() {
         if (!mDiskLoggerAdded) {
+            mDiskLogWriter = new DiskLogWriter(new File(mFolderName), mFileName,
+                    LOG_BINARY ? BinaryLogFormat.FILE_EXTENSION : "csv", MAX_FILE_SIZE,
+                    DISK_BUFFER_SIZE, LOG_BINARY ? BinaryLogFormat.FILE_HEADER : null);
+
             HandlerThread diskLogThread = new HandlerThread("AndroidFileLogger." + mFolderName);
             diskLogThread.start();
             Handler diskLogHandler = new Handler(diskLogThread.getLooper(), mDiskWriteHandlerCallback);
-            LogStrategy diskLogStrategy = new DiskLogStrategy(diskLogHandler);
-            FormatStrategy diskFormatStrategy = CsvFormatStrategy.newBuilder()
-                    .logStrategy(diskLogStrategy)
-                    .tag(LOG_TAG)
-                    .build();
-            Logger.addLogAdapter(new DiskLogAdapter(diskFormatStrategy));
+            if (!LOG_BINARY) {
+                LogStrategy diskLogStrategy = new DiskLogStrategy(diskLogHandler);
+                FormatStrategy diskFormatStrategy = CsvFormatStrategy.newBuilder()
+                        .logStrategy(diskLogStrategy)
+                        .tag(LOG_TAG)
+                        .build();
+                Logger.addLogAdapter(new DiskLogAdapter(diskFormatStrategy));
+            }
+            mDiskLogHandler = diskLogHandler;
             mDiskLoggerAdded = true;
         }
     }
 
+    private static void logMessage(int priority, String tag, String message, Throwable t) {
+        Logger.log(priority, tag, message, t);
+
+        // Binary entries skip the Logger's CSV formatting and go straight to the disk log thread.
+        // Timber has already added the stack trace of t to the message.
+        Handler diskLogHandler = mDiskLogHandler;
+        if (LOG_BINARY && diskLogHandler != null) {
+            byte[] entry = BinaryLogFormat.encode(priority, System.currentTimeMillis(), tag,
+                    message);
+            diskLogHandler.obtainMessage(priority, entry).sendToTarget();
+        }
+    }
+
+    /**
+     * Writes log entries on the disk log thread.  Entries are buffered by the DiskLogWriter,
+     * the buffer is written out when it fills, DISK_FLUSH_DELAY after the first entry that was
+     * buffered, or right away for errors so they are on disk if the process dies.
+     *
+     * The message's what is the log level (DiskLogStrategy does the same), obj is a CSV line
+     * or an encoded binary entry.
+     */
     private static final Handler.Callback mDiskWriteHandlerCallback = new Handler.Callback() {
         @Override
         public boolean handleMessage(Message message) {
-            String content = (String) message.obj;
-
-            FileWriter fileWriter = null;
-            File logFile = getLogFile(mFolderName, mFileName);
-
             try {
-                fileWriter = new FileWriter(logFile, true);
-
-                fileWriter.append(content);
+                if (message.what == MSG_FLUSH) {
+                    mDiskLogWriter.flush();
+                    return true;
+                }
 
-                fileWriter.flush();
-                fileWriter.close();
-            } catch (IOException e) {
-                if (fileWriter != null) {
-                    try {
-                        fileWriter.flush();
-                        fileWriter.close();
-                    } catch (IOException e1) { /* fail silently */ }
+                byte[] content = (message.obj instanceof byte[]) ? (byte[]) message.obj
+                        : ((String) message.obj).getBytes(UTF_8);
+                mDiskLogWriter.write(content);
+
+                Handler handler = message.getTarget();
+                if (message.what >= Log.ERROR) {
+                    handler.removeMessages(MSG_FLUSH);
+                    mDiskLogWriter.flush();
+                } else if (mDiskLogWriter.getBufferedCount() > 0
+                        && !handler.hasMessages(MSG_FLUSH)) {
+                    handler.sendEmptyMessageDelayed(MSG_FLUSH, DISK_FLUSH_DELAY);
                 }
+            } catch (IOException e) {
+                /* fail silently, logging here would only come back to this handler */
             }
             return true;
         }
     };
-
-    /**
-     * This code came straight from the Logger library.  The only difference is that the
-     * handler that calls it
-     * @param folderName
-     * @param fileName
-     * @return
-     */
-    private static File getLogFile(String folderName, String fileName) {
-
-        File folder = new File(folderName);
-        if (!folder.exists()) {
-            //TODO: What if folder is not created, what happens then?
-            folder.mkdirs();
-        }
-
-        int newFileCount = 0;
-        File newFile;
-        File existingFile = null;
-
-        newFile = new File(folder, String.format("%s_%s.csv", fileName, newFileCount));
-        while (newFile.exists()) {
-            existingFile = newFile;
-            newFileCount++;
-            newFile = new File(folder, String.format("%s_%s.csv", fileName, newFileCount));
-        }
-
-        if (existingFile != null) {
-            if (existingFile.length() >= MAX_FILE_SIZE) {
-                return newFile;
-            }
-            return existingFile;
-        }
-
-        return newFile;
-    }
 }
-
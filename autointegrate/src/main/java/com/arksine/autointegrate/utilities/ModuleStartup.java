@@ -0,0 +1,284 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Starts a set of modules that depend on each other.
+ *
+ * Every module names the modules it depends on.  A module is started on the executor as soon
+ * as all of its dependencies have started successfully, so modules that do not depend on each
+ * other start in parallel.  If a module fails (its task returns false or throws), the modules
+ * that depend on it are skipped.
+ *
+ * The time each module was started and how long it took are recorded and logged when the
+ * startup is complete.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class ModuleStartup {
+
+    public interface Task {
+        /**
+         * Starts the module, may block.  Returns true if the module started.
+         */
+        boolean start();
+    }
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        READY,
+        FAILED,
+        SKIPPED     // A dependency failed
+    }
+
+    private static final class Node {
+        final String name;
+        final Task task;
+        final String[] dependencies;
+        final List<Node> dependents = new ArrayList<>();
+
+        State state = State.PENDING;
+        int remaining;
+        long startTime = -1;
+        long finishTime = -1;
+
+        Node(String name, Task task, String[] dependencies) {
+            this.name = name;
+            this.task = task;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final LinkedHashMap<String, Node> mNodes = new LinkedHashMap<>();
+    private CountDownLatch mFinished = null;
+    private Executor mExecutor = null;
+    private long mStartTime = 0;
+    private int mFinishedCount = 0;
+
+    /**
+     * Adds a module.  Dependencies may be added after the modules that depend on them, but
+     * every module must be added before start().
+     */
+    public synchronized void add(String name, Task task, String... dependencies) {
+        if (mFinished != null) {
+            throw new IllegalStateException("Startup already started");
+        }
+        if (mNodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate module " + name);
+        }
+        mNodes.put(name, new Node(name, task, dependencies));
+    }
+
+    /**
+     * Starts every module that has no dependencies.  Throws IllegalStateException if a
+     * dependency is missing or the dependencies form a cycle, no module is started in that
+     * case.
+     */
+    public synchronized void start(Executor executor) {
+        if (mFinished != null) {
+            throw new IllegalStateException("Startup already started");
+        }
+
+        for (Node node : mNodes.values()) {
+            for (String dependency : node.dependencies) {
+                if (!mNodes.containsKey(dependency)) {
+                    throw new IllegalStateException(node.name + " depends on unknown module "
+                            + dependency);
+                }
+            }
+        }
+        for (Node node : mNodes.values()) {
+            node.remaining = node.dependencies.length;
+            for (String dependency : node.dependencies) {
+                mNodes.get(dependency).dependents.add(node);
+            }
+        }
+        checkForCycles();
+
+        mExecutor = executor;
+        mFinished = new CountDownLatch(1);
+        mStartTime = System.nanoTime();
+        mFinishedCount = 0;
+
+        if (mNodes.isEmpty()) {
+            mFinished.countDown();
+            return;
+        }
+
+        for (Node node : mNodes.values()) {
+            if (node.remaining == 0) {
+                submit(node);
+            }
+        }
+    }
+
+    /**
+     * Waits until every module has started, failed or been skipped.  Returns false on timeout.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch finished;
+        synchronized (this) {
+            finished = mFinished;
+        }
+        if (finished == null) {
+            throw new IllegalStateException("Startup not started");
+        }
+        return finished.await(timeout, unit);
+    }
+
+    public synchronized State getState(String name) {
+        Node node = mNodes.get(name);
+        return (node != null) ? node.state : null;
+    }
+
+    /**
+     * Returns the time the module was started in milliseconds after start(), or -1 if it has
+     * not been started
+     */
+    public synchronized long getStartTime(String name) {
+        Node node = mNodes.get(name);
+        if (node == null || node.startTime < 0) {
+            return -1;
+        }
+        return (node.startTime - mStartTime) / 1000000;
+    }
+
+    /**
+     * Returns how long the module took to start in milliseconds, or -1 if it has not finished
+     */
+    public synchronized long getRunTime(String name) {
+        Node node = mNodes.get(name);
+        if (node == null || node.finishTime < 0) {
+            return -1;
+        }
+        return (node.finishTime - node.startTime) / 1000000;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Module startup:");
+        for (Node node : mNodes.values()) {
+            builder.append(String.format(Locale.US, "\n  %s %s", node.name, node.state));
+            if (node.startTime >= 0) {
+                builder.append(String.format(Locale.US, ", started at %d ms",
+                        (node.startTime - mStartTime) / 1000000));
+            }
+            if (node.finishTime >= 0) {
+                builder.append(String.format(Locale.US, ", took %d ms",
+                        (node.finishTime - node.startTime) / 1000000));
+            }
+        }
+        return builder.toString();
+    }
+
+    // Kahn's algorithm, every node is visited only if there is no cycle
+    private void checkForCycles() {
+        LinkedHashMap<Node, Integer> remaining = new LinkedHashMap<>();
+        List<Node> ready = new ArrayList<>();
+        for (Node node : mNodes.values()) {
+            remaining.put(node, node.remaining);
+            if (node.remaining == 0) {
+                ready.add(node);
+            }
+        }
+
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Node node = ready.remove(ready.size() - 1);
+            visited++;
+            for (Node dependent : node.dependents) {
+                int count = remaining.get(dependent) - 1;
+                remaining.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (visited != mNodes.size()) {
+            for (Node node : mNodes.values()) {
+                node.dependents.clear();
+            }
+            throw new IllegalStateException("Module dependencies contain a cycle");
+        }
+    }
+
+    // Must hold the lock
+    private void submit(final Node node) {
+        node.state = State.RUNNING;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runNode(node);
+            }
+        });
+    }
+
+    private void runNode(Node node) {
+        synchronized (this) {
+            node.startTime = System.nanoTime();
+        }
+
+        boolean started;
+        try {
+            started = node.task.start();
+        } catch (RuntimeException e) {
+            Timber.e(e, "Error starting %s", node.name);
+            started = false;
+        }
+
+        long finishTime = System.nanoTime();
+        synchronized (this) {
+            node.finishTime = finishTime;
+            node.state = started ? State.READY : State.FAILED;
+            Timber.i("%s %s after %d ms, took %d ms", node.name,
+                    started ? "started" : "failed", (finishTime - mStartTime) / 1000000,
+                    (finishTime - node.startTime) / 1000000);
+
+            for (Node dependent : node.dependents) {
+                if (dependent.state != State.PENDING) {
+                    continue;
+                }
+                if (started) {
+                    dependent.remaining--;
+                    if (dependent.remaining == 0) {
+                        submit(dependent);
+                    }
+                } else {
+                    skip(dependent, node.name);
+                }
+            }
+            onNodeFinished();
+        }
+    }
+
+    // Must hold the lock
+    private void skip(Node node, String failedDependency) {
+        node.state = State.SKIPPED;
+        Timber.w("Skipping %s, %s did not start", node.name, failedDependency);
+        for (Node dependent : node.dependents) {
+            if (dependent.state == State.PENDING) {
+                skip(dependent, node.name);
+            }
+        }
+        onNodeFinished();
+    }
+
+    // Must hold the lock
+    private void onNodeFinished() {
+        mFinishedCount++;
+        if (mFinishedCount == mNodes.size()) {
+            Timber.i("%s", this);
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed size buffers that serial readers read into.  A reader acquires a buffer,
+ * fills it and hands it downstream, whoever holds it last releases it back to the pool.
+ *
+ * When every pooled buffer is in use a new one is allocated rather than blocking the reader.
+ * Such buffers are dropped on release if the pool is already full, so the pool never grows
+ * past its size.  The number of allocations past the initial ones is counted, if it keeps
+ * growing a consumer is holding on to buffers (or forgetting to release them).
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class ReadBufferPool {
+
+    /**
+     * A buffer holding one read.  Valid data runs from getOffset() for getLength() bytes, the
+     * contents must not be used after release() is called.
+     */
+    public static final class Buffer {
+        private final ReadBufferPool mPool;
+        private final byte[] mData;
+        private int mOffset = 0;
+        private int mLength = 0;
+        private final AtomicBoolean mIsReleased = new AtomicBoolean(true);
+
+        private Buffer(ReadBufferPool pool, int size) {
+            mPool = pool;
+            mData = new byte[size];
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getOffset() {
+            return mOffset;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        public void setRange(int offset, int length) {
+            mOffset = offset;
+            mLength = length;
+        }
+
+        /**
+         * Returns the buffer to its pool.  Releasing a buffer more than once has no effect.
+         */
+        public void release() {
+            if (mIsReleased.compareAndSet(false, true)) {
+                mPool.recycle(this);
+            }
+        }
+    }
+
+    private final int mBufferSize;
+    private final ArrayBlockingQueue<Buffer> mFreeBuffers;
+    private final AtomicLong mExtraAllocations = new AtomicLong(0);
+
+    /**
+     * @param poolSize    Number of buffers kept in the pool
+     * @param bufferSize  Size of each buffer in bytes
+     */
+    public ReadBufferPool(int poolSize, int bufferSize) {
+        mBufferSize = bufferSize;
+        mFreeBuffers = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            mFreeBuffers.offer(new Buffer(this, bufferSize));
+        }
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Takes a buffer from the pool, allocating one if the pool is empty
+     */
+    public Buffer acquire() {
+        Buffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            mExtraAllocations.incrementAndGet();
+            buffer = new Buffer(this, mBufferSize);
+        }
+        buffer.mIsReleased.set(false);
+        buffer.setRange(0, 0);
+        return buffer;
+    }
+
+    /**
+     * Returns the number of buffers currently in the pool
+     */
+    public int getFreeCount() {
+        return mFreeBuffers.size();
+    }
+
+    /**
+     * Returns the number of buffers allocated because the pool was empty
+     */
+    public long getExtraAllocations() {
+        return mExtraAllocations.get();
+    }
+
+    private void recycle(Buffer buffer) {
+        // Dropped if the pool is full, this only happens to buffers allocated when it was empty
+        mFreeBuffers.offer(buffer);
+    }
+}
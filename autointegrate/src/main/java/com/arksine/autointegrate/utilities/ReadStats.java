@@ -0,0 +1,87 @@
+package com.arksine.autointegrate.utilities;
+
+import java.util.Locale;
+
+/**
+ * Read size and throughput statistics for a serial reader.  Reads are recorded by the reader
+ * thread, the statistics may be queried from any thread.
+ *
+ * Throughput is measured over consecutive windows of WINDOW_MS, getBytesPerSecond() reports
+ * the last completed window.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class ReadStats {
+
+    private static final long WINDOW_MS = 1000;
+
+    private long mReadCount = 0;
+    private long mByteCount = 0;
+    private int mMinReadSize = Integer.MAX_VALUE;
+    private int mMaxReadSize = 0;
+
+    private long mWindowStart = -1;
+    private long mWindowBytes = 0;
+    private long mBytesPerSecond = 0;
+
+    /**
+     * Records a read of the given size.  Time is in milliseconds from any monotonic clock.
+     */
+    public synchronized void record(int size, long timeMs) {
+        mReadCount++;
+        mByteCount += size;
+        mMinReadSize = Math.min(mMinReadSize, size);
+        mMaxReadSize = Math.max(mMaxReadSize, size);
+
+        if (mWindowStart < 0) {
+            mWindowStart = timeMs;
+        } else if (timeMs - mWindowStart >= WINDOW_MS) {
+            long elapsed = timeMs - mWindowStart;
+            mBytesPerSecond = mWindowBytes * 1000 / elapsed;
+            mWindowStart = timeMs;
+            mWindowBytes = 0;
+        }
+        mWindowBytes += size;
+    }
+
+    public synchronized long getReadCount() {
+        return mReadCount;
+    }
+
+    public synchronized long getByteCount() {
+        return mByteCount;
+    }
+
+    public synchronized int getMinReadSize() {
+        return (mReadCount > 0) ? mMinReadSize : 0;
+    }
+
+    public synchronized int getMaxReadSize() {
+        return mMaxReadSize;
+    }
+
+    public synchronized int getMeanReadSize() {
+        return (mReadCount > 0) ? (int) (mByteCount / mReadCount) : 0;
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    public synchronized void reset() {
+        mReadCount = 0;
+        mByteCount = 0;
+        mMinReadSize = Integer.MAX_VALUE;
+        mMaxReadSize = 0;
+        mWindowStart = -1;
+        mWindowBytes = 0;
+        mBytesPerSecond = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d reads, %d bytes, size min %d mean %d max %d, %d B/s",
+                mReadCount, mByteCount, getMinReadSize(), getMeanReadSize(), mMaxReadSize,
+                mBytesPerSecond);
+    }
+}
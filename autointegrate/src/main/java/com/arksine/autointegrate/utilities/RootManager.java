@@ -37,6 +37,7 @@ public class RootManager {
                 synchronized (ROOTLOCK) {
                     mIsRootAvailable.set(Shell.SU.available());
                     mInitialized.set(true);
+                    BootTrace.mark(BootTrace.Phase.ROOT_CHECKED);
                     Timber.i("Root availability status: %b", mIsRootAvailable);
                     if (mIsWaiting.compareAndSet(true, false)) {
                         ROOTLOCK.notify();
@@ -80,6 +81,7 @@ public class RootManager {
                     }
                 }
 
+                BootTrace.mark(BootTrace.Phase.ROOT_CHECKED);
                 cb.OnRootInitialized(mIsRootAvailable.get());
             }
         });
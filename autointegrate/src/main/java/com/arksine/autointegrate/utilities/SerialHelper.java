@@ -5,6 +5,7 @@ import android.os.HandlerThread;
 import android.os.Process;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Abstract Class for basic serial device functionality
@@ -17,12 +18,32 @@ public abstract class SerialHelper {
         void OnDeviceError();
     }
 
+    /**
+     * Callbacks that accept reads in pooled buffers.  Helpers that read into a
+     * {@link ReadBufferPool} hand the buffer over as is instead of copying it into a new array.
+     * The receiver must release the buffer once it is done with it.
+     */
+    public interface BufferedCallbacks extends Callbacks {
+        void OnDataReceived(ReadBufferPool.Buffer buffer);
+    }
+
     public abstract ArrayList<String> enumerateSerialDevices();
     public abstract boolean connectDevice(String id, Callbacks cbs);
     public abstract void disconnect();
     public abstract String getConnectedId();
     public abstract boolean isDeviceConnected();
     public abstract boolean writeBytes(final byte[] data);
+
+    /**
+     * Writes a range of a buffer to the device.  The caller is free to reuse the buffer as soon
+     * as this returns, so the default implementation copies the range before handing it to
+     * writeBytes.  Helpers that are done with the data when the write call returns may
+     * override this to avoid the copy.
+     */
+    public boolean writeBytes(final byte[] data, int offset, int length) {
+        return writeBytes(Arrays.copyOfRange(data, offset, offset + length));
+    }
+
     public abstract boolean writeString(final String data);
     public abstract void toggleDTR(boolean state);
     public abstract void toggleRTS(boolean state);
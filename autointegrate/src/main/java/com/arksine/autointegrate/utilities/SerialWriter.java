@@ -0,0 +1,278 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import timber.log.Timber;
+
+/**
+ * Writes to an OutputStream from a single thread, in the order the writes were requested.
+ *
+ * Writes are queued in a bounded queue that any thread may add to.  When the queue is full the
+ * caller blocks until the writer catches up, up to a timeout, after which the write fails.  The
+ * writer takes every write that is waiting when it wakes up and copies the small ones into one
+ * buffer, so a burst of commands goes out in one OutputStream.write() and flush().  Writes
+ * larger than the buffer are written from their own array.
+ *
+ * Each write returns a future that completes with true once the data has been flushed, or
+ * false if the write failed or the writer was closed first.  After an IOException the writer
+ * stops, fails everything still queued and reports the error once.  close() closes the stream,
+ * so a write blocked in the stream fails rather than holding up the close.
+ *
+ * This is plain Java, it has no Android dependencies so it can be tested on the host.
+ */
+public class SerialWriter {
+
+    public interface ErrorListener {
+        void onWriteError(IOException e);
+    }
+
+    /**
+     * Completion of a single write.  Completes with true when the write was flushed.
+     */
+    public static final class WriteFuture implements Future<Boolean> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile boolean mResult = false;
+
+        private WriteFuture() {}
+
+        private void complete(boolean result) {
+            if (mDone.getCount() > 0) {
+                mResult = result;
+                mDone.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        /**
+         * Returns true if the write completed and failed
+         */
+        public boolean isFailed() {
+            return isDone() && !mResult;
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            mDone.await();
+            return mResult;
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!mDone.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return mResult;
+        }
+    }
+
+    // Longest close() waits for the writer thread after closing the stream
+    private static final long CLOSE_TIMEOUT = 2000;     // milliseconds
+
+    private static final class WriteRequest {
+        final byte[] data;
+        final WriteFuture future = new WriteFuture();
+
+        WriteRequest(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final OutputStream mOutput;
+    private final ErrorListener mErrorListener;
+    private final ArrayBlockingQueue<WriteRequest> mQueue;
+    private final long mQueueTimeoutMs;
+    private final byte[] mCoalesceBuffer;
+    private final List<WriteRequest> mBatch = new ArrayList<>();
+
+    private volatile boolean mIsRunning = false;
+    private Thread mWriterThread = null;
+
+    /**
+     * @param output          Stream to write to
+     * @param queueCapacity   Maximum number of writes waiting to be written
+     * @param queueTimeoutMs  Time a caller waits for room in a full queue before the write fails
+     * @param coalesceSize    Size of the buffer small writes are combined in
+     * @param listener        Notified when a write fails, may be null
+     */
+    public SerialWriter(OutputStream output, int queueCapacity, long queueTimeoutMs,
+                        int coalesceSize, ErrorListener listener) {
+        mOutput = output;
+        mErrorListener = listener;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mQueueTimeoutMs = queueTimeoutMs;
+        mCoalesceBuffer = new byte[coalesceSize];
+    }
+
+    public synchronized void start(String name) {
+        if (!mIsRunning) {
+            mIsRunning = true;
+            mWriterThread = new Thread(mWriter, name);
+            mWriterThread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread and closes the stream.  Writes that have not been written yet
+     * fail.  A write blocked in the stream can't be interrupted, so the stream is closed before
+     * waiting for the thread, and the wait gives up after CLOSE_TIMEOUT.
+     */
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            mIsRunning = false;
+            writer = mWriterThread;
+            mWriterThread = null;
+        }
+
+        try {
+            mOutput.close();
+        } catch (IOException e) {
+            Timber.w(e);
+        }
+
+        if (writer != null && writer != Thread.currentThread()) {
+            writer.interrupt();
+            try {
+                writer.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writer.isAlive()) {
+                Timber.w("Writer thread did not stop within %d ms", CLOSE_TIMEOUT);
+            }
+        }
+        failQueued();
+    }
+
+    public boolean isRunning() {
+        return mIsRunning;
+    }
+
+    /**
+     * Queues data to be written.  The array must not be modified until the write completes.
+     * Blocks while the queue is full, up to the queue timeout.
+     */
+    public WriteFuture write(byte[] data) {
+        WriteRequest request = new WriteRequest(data);
+        if (!mIsRunning) {
+            request.future.complete(false);
+            return request.future;
+        }
+
+        try {
+            if (!mQueue.offer(request, mQueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                Timber.w("Serial write queue full, dropping %d bytes", data.length);
+                request.future.complete(false);
+            } else if (!mIsRunning) {
+                // Closed while we were waiting, make sure the request doesn't linger
+                failQueued();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.complete(false);
+        }
+        return request.future;
+    }
+
+    /**
+     * Returns the number of writes waiting to be written
+     */
+    public int getQueuedCount() {
+        return mQueue.size();
+    }
+
+    private void failQueued() {
+        WriteRequest request;
+        while ((request = mQueue.poll()) != null) {
+            request.future.complete(false);
+        }
+    }
+
+    private final Runnable mWriter = new Runnable() {
+        @Override
+        public void run() {
+            while (mIsRunning) {
+                WriteRequest first;
+                try {
+                    first = mQueue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                mBatch.clear();
+                mBatch.add(first);
+                mQueue.drainTo(mBatch);
+
+                try {
+                    writeBatch();
+                    for (WriteRequest request : mBatch) {
+                        request.future.complete(true);
+                    }
+                } catch (IOException e) {
+                    for (WriteRequest request : mBatch) {
+                        request.future.complete(false);
+                    }
+
+                    // A write fails when close() closes the stream, that isn't an error
+                    boolean wasRunning = mIsRunning;
+                    mIsRunning = false;
+                    failQueued();
+                    if (wasRunning && mErrorListener != null) {
+                        mErrorListener.onWriteError(e);
+                    }
+                    break;
+                }
+            }
+            mBatch.clear();
+        }
+    };
+
+    // Writes the batch in order, combining adjacent small writes
+    private void writeBatch() throws IOException {
+        int length = 0;
+        for (WriteRequest request : mBatch) {
+            final byte[] data = request.data;
+            if (data.length > mCoalesceBuffer.length - length) {
+                if (length > 0) {
+                    mOutput.write(mCoalesceBuffer, 0, length);
+                    length = 0;
+                }
+                if (data.length > mCoalesceBuffer.length) {
+                    mOutput.write(data);
+                    continue;
+                }
+            }
+            System.arraycopy(data, 0, mCoalesceBuffer, length, data.length);
+            length += data.length;
+        }
+
+        if (length > 0) {
+            mOutput.write(mCoalesceBuffer, 0, length);
+        }
+        mOutput.flush();
+    }
+}
@@ -0,0 +1,192 @@
+package com.arksine.autointegrate.utilities;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Build;
+
+import com.arksine.deviceids.CH34xIds;
+import com.arksine.deviceids.CP210xIds;
+import com.arksine.deviceids.FTDISioIds;
+import com.arksine.deviceids.PL2303Ids;
+import com.arksine.deviceids.XdcVcpIds;
+import com.arksine.usbserialex.UsbSerialDevice;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Process wide cache of USB serial device information.
+ *
+ * Whether a VID:PID is a supported serial chip never changes, so each pair is looked up in the
+ * device id tables once and the result (including unsupported) is kept for the life of the
+ * process.  The list of attached serial devices is kept until a device is attached or
+ * detached, HardwareReceiver invalidates it when it receives those broadcasts.
+ */
+public class UsbDeviceCache {
+
+    // Stored for VID:PID pairs that are not supported serial devices
+    private static final String NOT_SUPPORTED = "";
+
+    /**
+     * MJS HD Radio cable - VID 0x0403 (1027), PID 0x9378 (37752).  It is an FTDI device, but
+     * it is specialized for the radio and is not used for the MCU
+     */
+    private static final int MJS_CABLE_KEY = getKey(1027, 37752);
+
+    private static final HashMap<Integer, String> sClassifications = new HashMap<>();
+
+    // Attached serial devices, by device name, and their list entries.  Null when invalid
+    private static HashMap<String, String> sDeviceEntries = null;
+    private static int sGeneration = 0;
+
+    private UsbDeviceCache() {}
+
+    /**
+     * Returns the type of serial device ("FTDI serial device", etc), or null if the device is
+     * not a supported serial device
+     */
+    public static synchronized String classify(UsbDevice device) {
+        final int key = getKey(device.getVendorId(), device.getProductId());
+        String name = sClassifications.get(key);
+        if (name == null) {
+            name = lookup(device, key);
+            sClassifications.put(key, name);
+        }
+        return (name == NOT_SUPPORTED) ? null : name;
+    }
+
+    /**
+     * Returns the entries for the attached serial devices, formatted for the device list
+     * ("name\nVID:PID[:serial]")
+     */
+    public static synchronized ArrayList<String> getSerialDevices(UsbManager usbManager) {
+        if (sDeviceEntries == null) {
+            sDeviceEntries = enumerate(usbManager);
+        }
+        return new ArrayList<>(sDeviceEntries.values());
+    }
+
+    /**
+     * Drops the cached device list, the next call to getSerialDevices() enumerates again
+     */
+    public static synchronized void invalidate() {
+        sDeviceEntries = null;
+        sGeneration++;
+    }
+
+    /**
+     * Returns a number that changes every time the device list is invalidated
+     */
+    public static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    private static int getKey(int vendorId, int productId) {
+        return (vendorId << 16) | (productId & 0xFFFF);
+    }
+
+    private static HashMap<String, String> enumerate(UsbManager usbManager) {
+        HashMap<String, String> entries = new HashMap<>();
+        HashMap<String, UsbDevice> usbDeviceList = usbManager.getDeviceList();
+
+        for (UsbDevice uDevice : usbDeviceList.values()) {
+            String name = classify(uDevice);
+            if (name == null) {
+                continue;
+            }
+
+            // replace the name with the device driver name if on API 21 or above
+            String id;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                name = uDevice.getProductName();
+                id = uDevice.getVendorId() + ":" + uDevice.getProductId() + ":"
+                        + uDevice.getSerialNumber();
+            } else {
+                id = uDevice.getVendorId() + ":" + uDevice.getProductId();
+            }
+
+            entries.put(uDevice.getDeviceName(), name + "\n" + id);
+        }
+
+        return entries;
+    }
+
+    // Only called the first time a VID:PID is seen
+    private static String lookup(UsbDevice uDevice, int key) {
+        final int vid = uDevice.getVendorId();
+        final int pid = uDevice.getProductId();
+        Timber.d("New USB device %s, VID %#x PID %#x, class %#x/%#x/%#x",
+                uDevice.getDeviceName(), vid, pid, uDevice.getDeviceClass(),
+                uDevice.getDeviceSubclass(), uDevice.getDeviceProtocol());
+
+        String name;
+        if (key == MJS_CABLE_KEY) {
+            Timber.v("MJS Cable found, skipping from list");
+            return NOT_SUPPORTED;
+        } else if (UsbSerialDevice.isCdcDevice(uDevice)) {
+            name = "CDC serial device";
+        } else if (CH34xIds.isDeviceSupported(vid, pid)) {
+            name = "CH34x serial device";
+        } else if (CP210xIds.isDeviceSupported(vid, pid)) {
+            name = "CP210X serial device";
+        } else if (FTDISioIds.isDeviceSupported(vid, pid)) {
+            name = "FTDI serial device";
+        } else if (PL2303Ids.isDeviceSupported(vid, pid)) {
+            name = "PL2303 serial device";
+        } else if (XdcVcpIds.isDeviceSupported(vid, pid)) {
+            name = "Virtual serial device";
+        } else {
+            return NOT_SUPPORTED;
+        }
+
+        Timber.v("USB comm device found: %s", name);
+        return name;
+    }
+
+    /**
+     * Differences between two enumerations
+     */
+    public static class Changes {
+        private final List<String> mAdded;
+        private final List<String> mRemoved;
+
+        Changes(List<String> added, List<String> removed) {
+            mAdded = added;
+            mRemoved = removed;
+        }
+
+        public List<String> getAdded() {
+            return mAdded;
+        }
+
+        public List<String> getRemoved() {
+            return mRemoved;
+        }
+
+        public boolean isEmpty() {
+            return mAdded.isEmpty() && mRemoved.isEmpty();
+        }
+    }
+
+    /**
+     * Compares a device list with a previous one
+     */
+    public static Changes diff(List<String> previous, List<String> current) {
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String entry : current) {
+            if (!previous.contains(entry)) {
+                added.add(entry);
+            }
+        }
+        for (String entry : previous) {
+            if (!current.contains(entry)) {
+                removed.add(entry);
+            }
+        }
+        return new Changes(added, removed);
+    }
+}
@@ -13,16 +13,14 @@ import android.widget.Toast;
 
 import com.arksine.autointegrate.R;
 import com.arksine.deviceids.CH34xIds;
-import com.arksine.deviceids.CP210xIds;
-import com.arksine.deviceids.FTDISioIds;
-import com.arksine.deviceids.PL2303Ids;
-import com.arksine.deviceids.XdcVcpIds;
 import com.arksine.usbserialex.CDCSerialDevice;
 import com.arksine.usbserialex.UsbSerialDevice;
 import com.arksine.usbserialex.UsbSerialInterface;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -48,8 +46,18 @@ public class UsbHelper extends SerialHelper {
 
 
     private UsbSerialSettings mUsbSettings;
+
+    // Result of the last call to enumerateChanges()
+    private List<String> mLastEnumerated = new ArrayList<>();
+    private int mLastGeneration = -1;
     private SerialHelper.Callbacks mSerialHelperCallbacks;
 
+    // The usb serial library copies written data into its own buffer before write() returns,
+    // so exactly sized arrays are kept and reused for range writes instead of allocating a
+    // new array for every write
+    private static final int MAX_POOLED_WRITE_SIZE = 520;
+    private final byte[][] mWriteBuffers = new byte[MAX_POOLED_WRITE_SIZE + 1][];
+
     // Broadcast Reciever to handle disconnections (this is temporary)
     private BroadcastReceiver mDisconnectReceiver = new BroadcastReceiver() {
         @Override
@@ -105,79 +113,25 @@ public class UsbHelper extends SerialHelper {
 
     @Override
     public ArrayList<String> enumerateSerialDevices() {
+        // Cached until a USB device is attached or detached
+        return UsbDeviceCache.getSerialDevices(mUsbManager);
+    }
 
-        ArrayList<String> deviceList = new ArrayList<>(5);
-
-        HashMap<String, UsbDevice> usbDeviceList = mUsbManager.getDeviceList();
-
-        for (UsbDevice uDevice : usbDeviceList.values()) {
-
-
-            Timber.d("Device ID: %d", uDevice.getDeviceId());
-            Timber.d("Device Name: %s", uDevice.getDeviceName());
-            Timber.d("Vendor: ID %#x", uDevice.getVendorId());
-            Timber.d("Product ID: %#x", uDevice.getProductId());
-            Timber.d("Class: %#x", uDevice.getDeviceClass());
-            Timber.d("SubClass: %#x", uDevice.getDeviceSubclass());
-            Timber.d("Protocol: %#x", uDevice.getDeviceProtocol());
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                Timber.d("Manufacturer: %s", uDevice.getManufacturerName());
-                Timber.d("Serial Number: %s", uDevice.getSerialNumber());
-            }
-
-            String name;
-
-            // Check for supported devices
-            if (UsbSerialDevice.isCdcDevice(uDevice)) {
-                name = "CDC serial device";
-            } else if (CH34xIds.isDeviceSupported(uDevice.getVendorId(), uDevice.getProductId())) {
-                name = "CH34x serial device";
-            } else if (CP210xIds.isDeviceSupported(uDevice.getVendorId(), uDevice.getProductId())) {
-                name = "CP210X serial device";
-            } else if (FTDISioIds.isDeviceSupported(uDevice.getVendorId(), uDevice.getProductId())) {
-                name = "FTDI serial device";
-            } else if (PL2303Ids.isDeviceSupported(uDevice.getVendorId(), uDevice.getProductId())) {
-                name = "PL2303 serial device";
-            } else if (XdcVcpIds.isDeviceSupported(uDevice.getVendorId(), uDevice.getProductId())) {
-                name = "Virtual serial device";
-            } else {
-                // not a supported USB Serial device, continue to next
-                continue;
-            }
-
-            Timber.v("USB comm device found: %s", name);
-
-            // replace the name with the device driver name if on API 21 or above
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                name = uDevice.getProductName();
-            }
-
-            /**
-             * Don't add the MJS HD Radio cable to the list if its connected.  Its an FTDI serial
-             * comm device, but its specialized, not for MCU use
-             *
-             * MJS Cable - VID 0x0403 (1027), PID 0x9378 (37752)
-             *
-              */
-            if ((uDevice.getVendorId() == 1027) && (uDevice.getProductId() ==  37752)) {
-                Timber.v("MJS Cable found, skipping from list");
-                continue;
-            }
-
-            String id;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                id = uDevice.getVendorId() + ":" + uDevice.getProductId() + ":"
-                        + uDevice.getSerialNumber();
-            } else {
-                id = uDevice.getVendorId() + ":" + uDevice.getProductId();
-            }
-
-            String entry = name + "\n" +  id;
-            deviceList.add(entry);
+    /**
+     * Returns the devices that were attached or detached since the last call.  The first call
+     * reports every attached device as added.
+     */
+    public UsbDeviceCache.Changes enumerateChanges() {
+        final int generation = UsbDeviceCache.getGeneration();
+        if (generation == mLastGeneration) {
+            return UsbDeviceCache.diff(mLastEnumerated, mLastEnumerated);
         }
 
-        return deviceList;
+        ArrayList<String> current = enumerateSerialDevices();
+        UsbDeviceCache.Changes changes = UsbDeviceCache.diff(mLastEnumerated, current);
+        mLastEnumerated = current;
+        mLastGeneration = generation;
+        return changes;
     }
 
     /**
@@ -294,6 +248,30 @@ public class UsbHelper extends SerialHelper {
         return false;
     }
 
+    @Override
+    public synchronized boolean writeBytes(byte[] data, int offset, int length) {
+        UsbSerialDevice serialPort = mSerialPort.get();
+        if (serialPort == null) {
+            return false;
+        }
+
+        if (offset == 0 && length == data.length) {
+            serialPort.write(data);
+        } else if (length > MAX_POOLED_WRITE_SIZE) {
+            serialPort.write(Arrays.copyOfRange(data, offset, offset + length));
+        } else {
+            byte[] outBuf = mWriteBuffers[length];
+            if (outBuf == null) {
+                outBuf = new byte[length];
+                mWriteBuffers[length] = outBuf;
+            }
+            System.arraycopy(data, offset, outBuf, 0, length);
+            serialPort.write(outBuf);
+        }
+
+        return true;
+    }
+
     @Override
     public boolean writeString(String data) {
         return writeBytes(data.getBytes());
@@ -379,6 +357,7 @@ public class UsbHelper extends SerialHelper {
                 }
             }
 
+            BootTrace.mark(BootTrace.Phase.USB_PERMISSION);
             UsbDeviceConnection mUsbConnection = mUsbManager.openDevice(mUsbDevice.get());
 
             UsbSerialDevice serialPort = UsbSerialDevice.createUsbSerialDevice(mUsbDevice.get(),
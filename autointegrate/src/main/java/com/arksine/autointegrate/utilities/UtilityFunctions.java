@@ -60,6 +60,14 @@ public class UtilityFunctions {
         return true;
     }
 
+    public static boolean canDrawOverlays(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return Settings.canDrawOverlays(context);
+        }
+
+        return hasPermission(context, "android.permission.SYSTEM_ALERT_WINDOW");
+    }
+
     /**
      * Since some functionality relies on system permissions, check if a particular permission is
      * granted
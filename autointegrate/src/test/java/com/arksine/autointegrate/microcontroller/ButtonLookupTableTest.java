@@ -0,0 +1,101 @@
+package com.arksine.autointegrate.microcontroller;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the resistive button lookup table
+ */
+public class ButtonLookupTableTest {
+
+    // Resolves a button's click or hold action name
+    private static final ButtonLookupTable.Resolver<String> RESOLVER =
+            new ButtonLookupTable.Resolver<String>() {
+        @Override
+        public String resolve(ResistiveButton button, boolean isClickAction) {
+            String action = isClickAction ? button.getClickAction() : button.getHoldAction();
+            return action.equals("None") ? null : action;
+        }
+    };
+
+    private static ResistiveButton button(int id, int tolerance, String click, String hold) {
+        return new ResistiveButton(id, tolerance, false, "Action", click, hold, "Action");
+    }
+
+    @Test
+    public void findsButtonWithinTolerance() {
+        List<ResistiveButton> buttons = Arrays.asList(
+                button(500, 10, "Volume Up", "Next"),
+                button(100, 5, "Volume Down", "None"),
+                button(300, 0, "Mute", "Previous"));
+        ButtonLookupTable<String> table = new ButtonLookupTable<>(buttons, RESOLVER);
+
+        assertEquals(0, table.getOverlapCount());
+        assertEquals("Volume Up", table.getClickValue(490));
+        assertEquals("Volume Up", table.getClickValue(510));
+        assertEquals("Next", table.getHoldValue(500));
+        assertEquals("Volume Down", table.getClickValue(95));
+        assertNull(table.getHoldValue(100));
+        assertEquals("Mute", table.getClickValue(300));
+
+        assertNull(table.getClickValue(489));
+        assertNull(table.getClickValue(511));
+        assertNull(table.getClickValue(94));
+        assertNull(table.getClickValue(299));
+        assertNull(table.getClickValue(-1000));
+        assertNull(table.getClickValue(100000));
+    }
+
+    @Test
+    public void firstButtonWinsOverlap() {
+        List<ResistiveButton> buttons = Arrays.asList(
+                button(200, 20, "First", "None"),
+                button(230, 20, "Second", "None"),
+                button(200, 100, "Wide", "None"));
+        ButtonLookupTable<String> table = new ButtonLookupTable<>(buttons, RESOLVER);
+
+        assertEquals(3, table.getOverlapCount());
+        assertEquals("Wide", table.getClickValue(100));
+        assertEquals("First", table.getClickValue(180));
+        assertEquals("First", table.getClickValue(220));
+        assertEquals("Second", table.getClickValue(221));
+        assertEquals("Second", table.getClickValue(250));
+        assertEquals("Wide", table.getClickValue(251));
+        assertEquals("Wide", table.getClickValue(300));
+        assertNull(table.getClickValue(301));
+    }
+
+    @Test
+    public void matchesLinearSearch() {
+        List<ResistiveButton> buttons = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            // Windows of varying size, some of which overlap their neighbours
+            buttons.add(button(40 * i + 7, (i * 13) % 30, "Click " + i, "Hold " + i));
+        }
+        ButtonLookupTable<String> table = new ButtonLookupTable<>(buttons, RESOLVER);
+
+        for (int reading = -50; reading < 1100; reading++) {
+            String expected = null;
+            for (ResistiveButton btn : buttons) {
+                if (reading >= btn.getId() - btn.getTolerance()
+                        && reading <= btn.getId() + btn.getTolerance()) {
+                    expected = btn.getClickAction();
+                    break;
+                }
+            }
+            assertEquals("reading " + reading, expected, table.getClickValue(reading));
+        }
+    }
+
+    @Test
+    public void handlesEmptyList() {
+        ButtonLookupTable<String> table = new ButtonLookupTable<>(null, RESOLVER);
+        assertNull(table.getClickValue(0));
+        assertEquals(0, table.getRangeCount());
+    }
+}
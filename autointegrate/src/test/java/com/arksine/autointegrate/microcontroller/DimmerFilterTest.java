@@ -0,0 +1,52 @@
+package com.arksine.autointegrate.microcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the analog dimmer filter
+ */
+public class DimmerFilterTest {
+
+    @Test
+    public void passesFirstReadingThrough() {
+        DimmerFilter filter = new DimmerFilter(5, 0.5f);
+        assertEquals(600, filter.filter(600));
+    }
+
+    @Test
+    public void medianRejectsSpikes() {
+        DimmerFilter filter = new DimmerFilter(5, 0f);
+        for (int i = 0; i < 5; i++) {
+            filter.filter(500);
+        }
+        assertEquals(500, filter.filter(1000));
+        assertEquals(500, filter.filter(10));
+        assertEquals(500, filter.filter(502));
+        assertEquals(500, filter.filter(498));
+    }
+
+    @Test
+    public void averageConvergesOnStep() {
+        DimmerFilter filter = new DimmerFilter(1, 0.5f);
+        filter.filter(0);
+        assertEquals(50, filter.filter(100));
+        assertEquals(75, filter.filter(100));
+
+        int value = 0;
+        for (int i = 0; i < 20; i++) {
+            value = filter.filter(100);
+        }
+        assertEquals(100, value);
+    }
+
+    @Test
+    public void resetClearsHistory() {
+        DimmerFilter filter = new DimmerFilter(3, 0.9f);
+        filter.filter(100);
+        filter.filter(100);
+        filter.reset();
+        assertEquals(900, filter.filter(900));
+    }
+}
@@ -0,0 +1,48 @@
+package com.arksine.autointegrate.microcontroller;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the latency histogram
+ */
+public class LatencyStatsTest {
+
+    @Test
+    public void emptyStatsReportZero() {
+        LatencyStats stats = new LatencyStats("Test");
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getMeanMicros());
+        assertEquals(0, stats.getPercentileMicros(0.99));
+    }
+
+    @Test
+    public void tracksMeanAndMax() {
+        LatencyStats stats = new LatencyStats("Test");
+        stats.record(10000L);     // 10 us
+        stats.record(30000L);     // 30 us
+        stats.record(-5L);        // clock skew, counted as 0
+
+        assertEquals(3, stats.getCount());
+        assertEquals(13, stats.getMeanMicros());
+        assertEquals(30, stats.getMaxMicros());
+    }
+
+    @Test
+    public void percentileFallsInBucket() {
+        LatencyStats stats = new LatencyStats("Test");
+        for (int i = 0; i < 99; i++) {
+            stats.record(5000L);        // 5 us, bucket 4 - 7
+        }
+        stats.record(1000000L);         // 1 ms
+
+        assertEquals(7, stats.getPercentileMicros(0.5));
+        assertEquals(7, stats.getPercentileMicros(0.99));
+        assertEquals(1000, stats.getPercentileMicros(1.0));
+
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getMaxMicros());
+    }
+}
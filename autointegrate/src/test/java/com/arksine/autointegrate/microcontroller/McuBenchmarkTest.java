@@ -0,0 +1,291 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuOutputCommand;
+import com.arksine.autointegrate.utilities.SerialHelper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * End to end benchmarks of the microcontroller package against the MCU simulator.  Each
+ * benchmark prints its result, compare them between builds to catch regressions.  The
+ * assertions only check that the data made it through, not the timings, so a slow machine
+ * does not fail the build.
+ */
+public class McuBenchmarkTest {
+
+    private final McuSimulator mSimulator = new McuSimulator();
+    private McuEventBus mBus = null;
+
+    // Callbacks that only count, for benchmarks that supply their own decoder listener
+    private static class DecodingCallbacks implements SerialHelper.Callbacks {
+        final McuPacketDecoder decoder;
+        final Semaphore ready = new Semaphore(0);
+
+        DecodingCallbacks(McuPacketDecoder.PacketListener listener) {
+            decoder = new McuPacketDecoder(listener);
+        }
+
+        @Override
+        public void OnDeviceReady(boolean deviceReadyStatus) {
+            ready.release();
+        }
+
+        @Override
+        public void OnDataReceived(byte[] data) {
+            decoder.decode(data);
+        }
+
+        @Override
+        public void OnDeviceError() {
+        }
+    }
+
+    // Counts packets and wakes the benchmark once the expected number arrived
+    private static class CountingListener implements McuPacketDecoder.PacketListener {
+        final AtomicLong packets = new AtomicLong(0);
+        volatile CountDownLatch done = new CountDownLatch(1);
+        volatile long expected = 1;
+
+        void expect(long count) {
+            packets.set(0);
+            expected = count;
+            done = new CountDownLatch(1);
+        }
+
+        private void count() {
+            if (packets.incrementAndGet() == expected) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onShort(McuInputCommand command, int value) {
+            count();
+        }
+
+        @Override
+        public void onInt(McuInputCommand command, int value) {
+            count();
+        }
+
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            count();
+        }
+
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            count();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mBus != null) {
+            mBus.stop();
+        }
+        mSimulator.disconnect();
+    }
+
+    /**
+     * Time from connectDevice to receiving STARTED, the part of MicroControllerCom.connect()
+     * that depends on the device: wait for the helper to report ready, send START and wait for
+     * the MCU to answer.
+     */
+    @Test
+    public void benchmarkConnectHandshake() throws InterruptedException {
+        final int connections = 200;
+        final CountingListener listener = new CountingListener();
+        final DecodingCallbacks cbs = new DecodingCallbacks(listener);
+        final byte[] start = McuFrameEncoder.getFixedFrame(McuOutputCommand.START);
+        final LatencyStats stats = new LatencyStats("Connect");
+
+        for (int i = 0; i < connections; i++) {
+            listener.expect(1);
+            cbs.decoder.reset();
+
+            final long begin = System.nanoTime();
+            assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+            assertTrue(cbs.ready.tryAcquire(1, TimeUnit.SECONDS));
+            mSimulator.writeBytes(start, 0, start.length);
+            assertTrue(listener.done.await(1, TimeUnit.SECONDS));
+            stats.record(System.nanoTime() - begin);
+
+            mSimulator.disconnect();
+        }
+
+        assertEquals(connections, stats.getCount());
+        System.out.println(stats);
+    }
+
+    /**
+     * Decode throughput of mixed button, dimmer and radio traffic delivered in USB sized reads
+     */
+    @Test
+    public void benchmarkDecodeThroughput() throws InterruptedException {
+        final int steps = 100000;
+        final CountingListener listener = new CountingListener();
+        final DecodingCallbacks cbs = new DecodingCallbacks(listener);
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+        assertTrue(cbs.ready.tryAcquire(1, TimeUnit.SECONDS));
+
+        final McuSimulator.Script buttons = McuSimulator.clicks(512);
+        final McuSimulator.Script dimmer = McuSimulator.dimmerSweep(0, 1023, 8);
+        final McuSimulator.Script radio = McuSimulator.radioData(48);
+        McuSimulator.Script mixed = new McuSimulator.Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                buttons.step(simulator, step);
+                dimmer.step(simulator, step);
+                radio.step(simulator, step);
+            }
+        };
+
+        listener.expect(steps * 3);
+        final long begin = System.nanoTime();
+        mSimulator.play(mixed, 0, steps);
+        assertTrue(listener.done.await(30, TimeUnit.SECONDS));
+        final long elapsed = System.nanoTime() - begin;
+
+        assertEquals(0, cbs.decoder.getErrorCount());
+        System.out.println(String.format(Locale.US,
+                "Decode: %d packets, %d bytes in %d reads, %.1f ms (%.0f packets/s, %.2f MB/s)",
+                listener.packets.get(), mSimulator.getBytesDelivered(),
+                mSimulator.getReadsDelivered(), elapsed / 1e6,
+                listener.packets.get() / (elapsed / 1e9),
+                mSimulator.getBytesDelivered() / (elapsed / 1e3)));
+    }
+
+    /**
+     * Latency from the serial read to the end of dispatch, through the decoder and the event
+     * bus, while button events share the link with a stream of radio data
+     */
+    @Test
+    public void benchmarkDispatchLatency() throws InterruptedException {
+        final int clicks = 2000;
+        final LatencyStats stats = new LatencyStats("Dispatch");
+        final CountDownLatch done = new CountDownLatch(clicks);
+
+        mBus = new McuEventBus(256, Thread.MAX_PRIORITY);
+        mBus.addConsumer("Buttons", new McuEventBus.EventHandler() {
+            @Override
+            public void onEvent(McuEventBus.Event event) {
+                stats.record(System.nanoTime() - event.getTimestamp());
+                done.countDown();
+            }
+        }, McuInputCommand.CLICK);
+        mBus.start();
+
+        // Time of the read being decoded, only accessed by the reader thread
+        final long[] readTime = new long[1];
+        final McuPacketDecoder.PacketListener publisher = new McuPacketDecoder.PacketListener() {
+            @Override
+            public void onShort(McuInputCommand command, int value) {
+                mBus.publishShort(command, value, readTime[0]);
+            }
+
+            @Override
+            public void onInt(McuInputCommand command, int value) {
+                mBus.publishShort(command, value, readTime[0]);
+            }
+
+            @Override
+            public void onBool(McuInputCommand command, boolean value) {
+                mBus.publishBool(command, value, readTime[0]);
+            }
+
+            @Override
+            public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+                // radio data is passed through without the bus
+            }
+        };
+        final McuPacketDecoder decoder = new McuPacketDecoder(publisher);
+        final Semaphore ready = new Semaphore(0);
+        SerialHelper.Callbacks cbs = new SerialHelper.Callbacks() {
+            @Override
+            public void OnDeviceReady(boolean deviceReadyStatus) {
+                ready.release();
+            }
+
+            @Override
+            public void OnDataReceived(byte[] data) {
+                // Same as ControllerInputHandler, stamp the read before decoding it
+                readTime[0] = System.nanoTime();
+                decoder.decode(data);
+            }
+
+            @Override
+            public void OnDeviceError() {
+            }
+        };
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+        assertTrue(ready.tryAcquire(1, TimeUnit.SECONDS));
+
+        Thread radio = mSimulator.play(McuSimulator.radioData(200), 4000, clicks * 2);
+        Thread buttons = mSimulator.play(McuSimulator.clicks(512), 2000, clicks);
+        buttons.join();
+        radio.join();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals(clicks, stats.getCount());
+        System.out.println(stats);
+    }
+
+    /**
+     * Throughput of radio packets through the batched write path, parsed by the simulator
+     */
+    @Test
+    public void benchmarkWritePath() throws InterruptedException {
+        final int packets = 200000;
+        final int batchSize = 512;
+        final CountingListener listener = new CountingListener();
+        final DecodingCallbacks cbs = new DecodingCallbacks(listener);
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+        assertTrue(cbs.ready.tryAcquire(1, TimeUnit.SECONDS));
+
+        final byte[] radioPacket = new byte[32];
+        for (int i = 0; i < radioPacket.length; i++) {
+            radioPacket[i] = (byte) (0xF0 + i);
+        }
+
+        // Same batching as the write thread in MicroControllerCom
+        final McuFrameEncoder encoder = new McuFrameEncoder(4096);
+        int writes = 0;
+        final long begin = System.nanoTime();
+        for (int i = 0; i < packets; i++) {
+            if (McuFrameEncoder.getMaxFrameLength(radioPacket.length) > encoder.getRemaining()) {
+                mSimulator.writeBytes(encoder.getBuffer(), 0, encoder.getLength());
+                encoder.reset();
+                writes++;
+            }
+            encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, radioPacket, 0, radioPacket.length);
+            if (encoder.getLength() >= batchSize) {
+                mSimulator.writeBytes(encoder.getBuffer(), 0, encoder.getLength());
+                encoder.reset();
+                writes++;
+            }
+        }
+        if (encoder.getLength() > 0) {
+            mSimulator.writeBytes(encoder.getBuffer(), 0, encoder.getLength());
+            writes++;
+        }
+        final long elapsed = System.nanoTime() - begin;
+
+        assertEquals(packets, mSimulator.getCommandCount(McuOutputCommand.RADIO_SEND_PACKET));
+        assertEquals((long) packets * radioPacket.length, mSimulator.getRadioBytesReceived());
+        assertEquals(0, mSimulator.getChecksumErrors());
+        System.out.println(String.format(Locale.US,
+                "Write: %d packets in %d writes, %.1f ms (%.0f packets/s)",
+                packets, writes, elapsed / 1e6, packets / (elapsed / 1e9)));
+    }
+}
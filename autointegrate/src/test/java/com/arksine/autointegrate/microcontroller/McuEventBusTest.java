@@ -0,0 +1,203 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests and a throughput benchmark for the MCU event bus
+ */
+public class McuEventBusTest {
+
+    private McuEventBus mBus;
+
+    // Records the values of the events it receives
+    private static class RecordingHandler implements McuEventBus.EventHandler {
+        final List<Integer> values = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch;
+
+        RecordingHandler(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onEvent(McuEventBus.Event event) {
+            if (event.getCommand().getDataType() == MCUDefs.DataType.BOOLEAN) {
+                values.add(event.getBool() ? 1 : 0);
+            } else if (event.getCommand() == McuInputCommand.RADIO_DATA) {
+                values.add(event.getLength() > 0 ? event.getData()[0] & 0xFF : -1);
+            } else {
+                values.add(event.getValue());
+            }
+            latch.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mBus != null) {
+            mBus.stop();
+        }
+    }
+
+    @Test
+    public void deliversSubscribedEventsInOrder() throws InterruptedException {
+        mBus = new McuEventBus(16);
+        RecordingHandler buttons = new RecordingHandler(3);
+        RecordingHandler radio = new RecordingHandler(2);
+        mBus.addConsumer("buttons", buttons, McuInputCommand.CLICK, McuInputCommand.HOLD);
+        mBus.addConsumer("radio", radio, McuInputCommand.RADIO_DATA);
+        mBus.start();
+
+        mBus.publishShort(McuInputCommand.CLICK, 100);
+        mBus.publishBytes(McuInputCommand.RADIO_DATA, new byte[] {9, 7, 8}, 1, 2);
+        mBus.publishShort(McuInputCommand.HOLD, 200);
+        mBus.publishBool(McuInputCommand.REVERSE, true);
+        mBus.publishBytes(McuInputCommand.RADIO_DATA, new byte[] {5}, 0, 1);
+        mBus.publishShort(McuInputCommand.CLICK, 300);
+
+        assertTrue(buttons.latch.await(1, TimeUnit.SECONDS));
+        assertTrue(radio.latch.await(1, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(100, 200, 300), buttons.values);
+        assertEquals(Arrays.asList(7, 5), radio.values);
+    }
+
+    @Test
+    public void blockedConsumerDoesNotDelayOthers() throws InterruptedException {
+        mBus = new McuEventBus(64);
+        final CountDownLatch release = new CountDownLatch(1);
+        mBus.addConsumer("radio", new McuEventBus.EventHandler() {
+            @Override
+            public void onEvent(McuEventBus.Event event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, McuInputCommand.RADIO_DATA);
+        RecordingHandler reverse = new RecordingHandler(1);
+        mBus.addConsumer("reverse", reverse, McuInputCommand.REVERSE);
+        mBus.start();
+
+        byte[] data = new byte[32];
+        for (int i = 0; i < 20; i++) {
+            mBus.publishBytes(McuInputCommand.RADIO_DATA, data, 0, data.length);
+        }
+        mBus.publishBool(McuInputCommand.REVERSE, true);
+
+        assertTrue(reverse.latch.await(1, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    public void producerWaitsWhenRingIsFull() throws InterruptedException {
+        mBus = new McuEventBus(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicLong handled = new AtomicLong();
+        mBus.addConsumer("slow", new McuEventBus.EventHandler() {
+            @Override
+            public void onEvent(McuEventBus.Event event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.incrementAndGet();
+            }
+        }, McuInputCommand.CLICK);
+        mBus.start();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    mBus.publishShort(McuInputCommand.CLICK, i);
+                }
+            }
+        });
+        producer.start();
+
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertTrue(mBus.getPublishedCount() <= 5);
+
+        release.countDown();
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(10, mBus.getPublishedCount());
+    }
+
+    @Test
+    public void restartsAfterStop() throws InterruptedException {
+        mBus = new McuEventBus(8);
+        RecordingHandler handler = new RecordingHandler(1);
+        mBus.addConsumer("buttons", handler, McuInputCommand.CLICK);
+        mBus.start();
+        mBus.stop();
+
+        // Published while stopped, skipped
+        mBus.publishShort(McuInputCommand.CLICK, 1);
+
+        mBus.start();
+        mBus.publishShort(McuInputCommand.CLICK, 2);
+        assertTrue(handler.latch.await(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(2), handler.values);
+    }
+
+    @Test
+    public void benchmarkThroughput() throws InterruptedException {
+        final int events = 2000000;
+        mBus = new McuEventBus(1024);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicLong checksum = new AtomicLong();
+
+        McuEventBus.EventHandler counter = new McuEventBus.EventHandler() {
+            long mCount = 0;
+            long mSum = 0;
+
+            @Override
+            public void onEvent(McuEventBus.Event event) {
+                mSum += event.getValue();
+                if (++mCount == events / 2) {
+                    checksum.addAndGet(mSum);
+                    done.countDown();
+                }
+            }
+        };
+        mBus.addConsumer("clicks", counter, McuInputCommand.CLICK);
+        mBus.addConsumer("dimmer", new McuEventBus.EventHandler() {
+            long mCount = 0;
+
+            @Override
+            public void onEvent(McuEventBus.Event event) {
+                if (++mCount == events / 2) {
+                    done.countDown();
+                }
+            }
+        }, McuInputCommand.DIMMER_LEVEL);
+        mBus.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            mBus.publishShort((i & 1) == 0 ? McuInputCommand.CLICK : McuInputCommand.DIMMER_LEVEL, 1);
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(events / 2, checksum.get());
+        System.out.println(String.format("McuEventBus: %d events in %.1f ms (%d ns/event)",
+                events, elapsed / 1e6, elapsed / events));
+    }
+}
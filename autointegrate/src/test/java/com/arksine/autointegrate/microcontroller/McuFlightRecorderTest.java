@@ -0,0 +1,225 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the memory mapped MCU flight recorder and its replay
+ */
+public class McuFlightRecorderTest {
+
+    private static final int CAPACITY = 4096;
+
+    private File mFile;
+    private File mDump;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("mcu_flight", ".bin");
+        mDump = File.createTempFile("mcu_flight_dump", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mDump.delete();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    @Test
+    public void framesAreReadBackInOrder() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 100L, bytes(1, 2, 3), 0, 3);
+        recorder.record(McuFlightRecorder.DIRECTION_OUT, 200L, bytes(9, 4, 5, 6), 1, 3);
+
+        List<McuFlightRecorder.Frame> frames = recorder.read().getFrames();
+        assertEquals(2, frames.size());
+        assertEquals(McuFlightRecorder.DIRECTION_IN, frames.get(0).getDirection());
+        assertEquals(100L, frames.get(0).getTime());
+        assertArrayEquals(bytes(1, 2, 3), frames.get(0).getData());
+        assertEquals(McuFlightRecorder.DIRECTION_OUT, frames.get(1).getDirection());
+        assertEquals(200L, frames.get(1).getTime());
+        assertArrayEquals(bytes(4, 5, 6), frames.get(1).getData());
+    }
+
+    @Test
+    public void oldFramesAreOverwritten() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        byte[] data = new byte[100];
+        for (int i = 0; i < 200; i++) {
+            Arrays.fill(data, (byte) i);
+            recorder.record(McuFlightRecorder.DIRECTION_IN, i, data, 0, data.length);
+        }
+
+        List<McuFlightRecorder.Frame> frames = recorder.read().getFrames();
+        assertTrue(frames.size() > 30);
+        assertTrue(frames.size() <= CAPACITY / 116);
+        for (int i = 0; i < frames.size(); i++) {
+            long expected = 200 - frames.size() + i;
+            assertEquals(expected, frames.get(i).getTime());
+            assertEquals((byte) expected, frames.get(i).getData()[99]);
+        }
+    }
+
+    @Test
+    public void largeDataIsSplit() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        byte[] data = new byte[CAPACITY / 4 + 10];
+        recorder.record(McuFlightRecorder.DIRECTION_OUT, 5L, data, 0, data.length);
+
+        List<McuFlightRecorder.Frame> frames = recorder.read().getFrames();
+        assertEquals(2, frames.size());
+        assertEquals(CAPACITY / 4, frames.get(0).getData().length);
+        assertEquals(10, frames.get(1).getData().length);
+    }
+
+    @Test
+    public void recordingSurvivesReopen() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 1L, bytes(1), 0, 1);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 2L, bytes(2), 0, 1);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 3L, bytes(3), 0, 1);
+
+        // Simulate a crash before the last head update was stored
+        RandomAccessFile access = new RandomAccessFile(mFile, "rw");
+        access.seek(16);
+        access.writeLong(17);
+        access.close();
+
+        assertEquals(3, McuFlightRecorder.readFile(mFile).getFrames().size());
+
+        McuFlightRecorder reopened = new McuFlightRecorder(mFile, CAPACITY);
+        reopened.record(McuFlightRecorder.DIRECTION_OUT, 4L, bytes(4), 0, 1);
+        List<McuFlightRecorder.Frame> frames = reopened.read().getFrames();
+        assertEquals(4, frames.size());
+        assertEquals(1L, frames.get(0).getTime());
+        assertEquals(4L, frames.get(3).getTime());
+    }
+
+    @Test
+    public void differentCapacityStartsOver() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 1L, bytes(1), 0, 1);
+
+        McuFlightRecorder resized = new McuFlightRecorder(mFile, CAPACITY * 2);
+        assertTrue(resized.read().getFrames().isEmpty());
+    }
+
+    @Test
+    public void dumpCanBeRead() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        for (int i = 0; i < 100; i++) {
+            recorder.record(McuFlightRecorder.DIRECTION_IN, i, new byte[50], 0, 50);
+        }
+        recorder.dump(mDump);
+
+        List<McuFlightRecorder.Frame> live = recorder.read().getFrames();
+        List<McuFlightRecorder.Frame> dumped = McuFlightRecorder.readFile(mDump).getFrames();
+        assertEquals(live.size(), dumped.size());
+        assertEquals(live.get(0).getTime(), dumped.get(0).getTime());
+        assertEquals(99L, dumped.get(dumped.size() - 1).getTime());
+    }
+
+    @Test
+    public void concurrentWritersDoNotCorruptFrames() throws Exception {
+        final McuFlightRecorder recorder = new McuFlightRecorder(mFile, 64 * 1024);
+        final int framesPerThread = 500;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            final int direction = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] data = new byte[20];
+                    for (int i = 0; i < framesPerThread; i++) {
+                        Arrays.fill(data, (byte) i);
+                        recorder.record(direction, i, data, 0, data.length);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<McuFlightRecorder.Frame> frames = recorder.read().getFrames();
+        assertEquals(2 * framesPerThread, frames.size());
+        long[] lastTime = {-1, -1};
+        for (McuFlightRecorder.Frame frame : frames) {
+            // Each thread's frames are in order and intact
+            int direction = frame.getDirection();
+            assertEquals(lastTime[direction] + 1, frame.getTime());
+            lastTime[direction] = frame.getTime();
+            for (byte b : frame.getData()) {
+                assertEquals((byte) frame.getTime(), b);
+            }
+        }
+    }
+
+    @Test
+    public void replayReassemblesSplitPackets() throws Exception {
+        McuFlightRecorder recorder = new McuFlightRecorder(mFile, CAPACITY);
+        byte[] click = McuPacketDecoderTest.frame(0x03, McuPacketDecoderTest.shortPayload(512));
+        byte[] reverse = McuPacketDecoderTest.frame(0x08, (byte) 1);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 0L, click, 0, 3);
+        recorder.record(McuFlightRecorder.DIRECTION_OUT, 1L, bytes(0xF1, 2, 1, 0), 0, 4);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 2L, click, 3, click.length - 3);
+        recorder.record(McuFlightRecorder.DIRECTION_IN, 3L, reverse, 0, reverse.length);
+
+        final List<String> packets = new ArrayList<>();
+        McuPacketDecoder decoder = McuFlightReplay.replay(recorder.read(),
+                new McuPacketDecoder.PacketListener() {
+                    @Override
+                    public void onShort(McuInputCommand command, int value) {
+                        packets.add(command + " " + value);
+                    }
+
+                    @Override
+                    public void onInt(McuInputCommand command, int value) {
+                        packets.add(command + " " + value);
+                    }
+
+                    @Override
+                    public void onBool(McuInputCommand command, boolean value) {
+                        packets.add(command + " " + value);
+                    }
+
+                    @Override
+                    public void onBytes(McuInputCommand command, byte[] buffer, int offset,
+                                        int length) {
+                        packets.add(command.toString());
+                    }
+                });
+
+        assertEquals(Arrays.asList("CLICK 512", "REVERSE true"), packets);
+        assertEquals(0, decoder.getErrorCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        McuFlightReplay.print(recorder.read(), new PrintStream(out, true, "UTF-8"));
+        String printed = out.toString("UTF-8");
+        assertTrue(printed.contains("CLICK 512"));
+        assertTrue(printed.contains("4 frames, 2 packets decoded, 0 errors"));
+    }
+}
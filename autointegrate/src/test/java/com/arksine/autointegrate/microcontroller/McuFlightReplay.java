@@ -0,0 +1,140 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Desktop tool that replays a flight recording through the packet decoder, printing each
+ * frame and the packets decoded from it.  It lives with the host tests so it isn't shipped in
+ * the APK, run it from the unit test build:
+ *
+ *  java -cp &lt;test classes&gt;:&lt;classes&gt;:timber.jar
+ *      com.arksine.autointegrate.microcontroller.McuFlightReplay
+ *      mcu_flight_20170101_120000_device_error.bin ...
+ *
+ * Inbound frames are fed to an McuPacketDecoder in order, exactly as the reader thread
+ * received them, so packets split across reads are reassembled the same way.  Outbound
+ * frames are printed as hex.
+ */
+public class McuFlightReplay {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_HEX_BYTES = 32;
+
+    private McuFlightReplay() {}
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: McuFlightReplay <recording>...");
+            System.exit(1);
+        }
+
+        boolean failed = false;
+        for (String fileName : args) {
+            try {
+                McuFlightRecorder.Recording recording =
+                        McuFlightRecorder.readFile(new File(fileName));
+                System.out.println(fileName + ":");
+                print(recording, System.out);
+            } catch (IOException e) {
+                System.err.println(fileName + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Feeds every inbound frame of a recording to a decoder with the given listener.  Returns
+     * the decoder, which holds the packet and error counts.
+     */
+    public static McuPacketDecoder replay(McuFlightRecorder.Recording recording,
+                                          McuPacketDecoder.PacketListener listener) {
+        McuPacketDecoder decoder = new McuPacketDecoder(listener);
+        for (McuFlightRecorder.Frame frame : recording.getFrames()) {
+            if (frame.getDirection() == McuFlightRecorder.DIRECTION_IN) {
+                decoder.decode(frame.getData());
+            }
+        }
+        return decoder;
+    }
+
+    /**
+     * Prints every frame, with its time after the first frame, followed by the packets decoded
+     * from it
+     */
+    public static void print(McuFlightRecorder.Recording recording, final PrintStream out) {
+        List<McuFlightRecorder.Frame> frames = recording.getFrames();
+        if (frames.isEmpty()) {
+            out.println("  No frames recorded");
+            return;
+        }
+
+        long start = frames.get(0).getTime();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        out.println("  First frame at " + dateFormat.format(new Date(recording.toWallTime(start))));
+
+        McuPacketDecoder decoder = new McuPacketDecoder(new McuPacketDecoder.PacketListener() {
+            @Override
+            public void onShort(McuInputCommand command, int value) {
+                out.printf(Locale.US, "%20s %s %d%n", "", command, value);
+            }
+
+            @Override
+            public void onInt(McuInputCommand command, int value) {
+                out.printf(Locale.US, "%20s %s %d%n", "", command, value);
+            }
+
+            @Override
+            public void onBool(McuInputCommand command, boolean value) {
+                out.printf(Locale.US, "%20s %s %b%n", "", command, value);
+            }
+
+            @Override
+            public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+                if (command.getDataType() == MCUDefs.DataType.STRING) {
+                    out.printf(Locale.US, "%20s %s \"%s\"%n", "", command,
+                            new String(buffer, offset, length, UTF_8));
+                } else {
+                    out.printf(Locale.US, "%20s %s %s%n", "", command,
+                            toHex(buffer, offset, length));
+                }
+            }
+        });
+
+        for (McuFlightRecorder.Frame frame : frames) {
+            boolean inbound = frame.getDirection() == McuFlightRecorder.DIRECTION_IN;
+            byte[] data = frame.getData();
+            out.printf(Locale.US, "%14.3f ms %s %4d  %s%n", (frame.getTime() - start) / 1e6,
+                    inbound ? "<-" : "->", data.length, toHex(data, 0, data.length));
+            if (inbound) {
+                decoder.decode(data);
+            }
+        }
+
+        out.printf(Locale.US, "  %d frames, %d packets decoded, %d errors%n", frames.size(),
+                decoder.getPacketCount(), decoder.getErrorCount());
+    }
+
+    private static String toHex(byte[] data, int offset, int length) {
+        StringBuilder hex = new StringBuilder(Math.min(length, MAX_HEX_BYTES) * 3 + 4);
+        for (int i = 0; i < Math.min(length, MAX_HEX_BYTES); i++) {
+            if (i > 0) {
+                hex.append(' ');
+            }
+            hex.append(String.format("%02X", data[offset + i] & 0xFF));
+        }
+        if (length > MAX_HEX_BYTES) {
+            hex.append(" ...");
+        }
+        return hex.toString();
+    }
+}
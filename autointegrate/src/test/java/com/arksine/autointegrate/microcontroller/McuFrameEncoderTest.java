@@ -0,0 +1,113 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuOutputCommand;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the MCU frame encoder.  Frames are checked against the reference
+ * encoder used by {@link McuPacketDecoderTest}.
+ */
+public class McuFrameEncoderTest {
+
+    private static byte[] encoded(McuFrameEncoder encoder, int length) {
+        assertTrue(length > 0);
+        return Arrays.copyOf(encoder.getBuffer(), length);
+    }
+
+    @Test
+    public void fixedFramesMatchReference() {
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.START.getByte()),
+                McuFrameEncoder.getFixedFrame(McuOutputCommand.START));
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.REQUEST_ID.getByte()),
+                McuFrameEncoder.getFixedFrame(McuOutputCommand.REQUEST_ID));
+        assertNull(McuFrameEncoder.getFixedFrame(McuOutputCommand.RADIO_SEND_PACKET));
+    }
+
+    @Test
+    public void booleanFramesMatchReference() {
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.RADIO_SET_DTR.getByte(),
+                (byte) 1), McuFrameEncoder.getBooleanFrame(McuOutputCommand.RADIO_SET_DTR, true));
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.RADIO_SET_RTS.getByte(),
+                (byte) 0), McuFrameEncoder.getBooleanFrame(McuOutputCommand.RADIO_SET_RTS, false));
+    }
+
+    @Test
+    public void encodesPayloadWithOffset() {
+        McuFrameEncoder encoder = new McuFrameEncoder();
+        byte[] data = {0x55, 0x01, (byte) 0xF1, 0x1A, 0x7F, 0x55};
+
+        int length = encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, data, 1, 4);
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.RADIO_SEND_PACKET.getByte(),
+                (byte) 0x01, (byte) 0xF1, (byte) 0x1A, (byte) 0x7F), encoded(encoder, length));
+    }
+
+    @Test
+    public void encodesCustomCommand() {
+        McuFrameEncoder encoder = new McuFrameEncoder();
+
+        int length = encoder.encodeCustom((byte) 0x42, new byte[] {0x10, 0x20}, 0, 2);
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.CUSTOM.getByte(),
+                (byte) 0x42, (byte) 0x10, (byte) 0x20), encoded(encoder, length));
+
+        encoder.reset();
+        length = encoder.encodeCustom((byte) 0x42, null, 0, 0);
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.CUSTOM.getByte(),
+                (byte) 0x42), encoded(encoder, length));
+    }
+
+    @Test
+    public void worstCasePayloadFits() {
+        McuFrameEncoder encoder = new McuFrameEncoder();
+        byte[] data = new byte[McuFrameEncoder.MAX_PAYLOAD_LENGTH];
+        Arrays.fill(data, (byte) 0xF1);
+
+        int length = encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, data, 0, data.length);
+        assertArrayEquals(McuPacketDecoderTest.frame(McuOutputCommand.RADIO_SEND_PACKET.getByte(),
+                data), encoded(encoder, length));
+    }
+
+    @Test
+    public void appendsFramesToBatch() {
+        McuFrameEncoder encoder = new McuFrameEncoder(64);
+        byte[] start = McuFrameEncoder.getFixedFrame(McuOutputCommand.START);
+        byte[] packet = McuPacketDecoderTest.frame(McuOutputCommand.RADIO_SEND_PACKET.getByte(),
+                (byte) 0xA4, (byte) 0xF1);
+
+        assertEquals(start.length, encoder.append(start));
+        assertEquals(packet.length, encoder.encode(McuOutputCommand.RADIO_SEND_PACKET,
+                new byte[] {(byte) 0xA4, (byte) 0xF1}, 0, 2));
+        assertEquals(start.length + packet.length, encoder.getLength());
+
+        byte[] expected = new byte[start.length + packet.length];
+        System.arraycopy(start, 0, expected, 0, start.length);
+        System.arraycopy(packet, 0, expected, start.length, packet.length);
+        assertArrayEquals(expected, encoded(encoder, encoder.getLength()));
+
+        encoder.reset();
+        assertEquals(0, encoder.getLength());
+    }
+
+    @Test
+    public void rejectsFrameWhenBufferIsFull() {
+        McuFrameEncoder encoder = new McuFrameEncoder();
+        byte[] data = new byte[McuFrameEncoder.MAX_PAYLOAD_LENGTH];
+
+        assertTrue(encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, data, 0, 10) > 0);
+        assertEquals(-1, encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, data, 0, data.length));
+        assertTrue(McuFrameEncoder.getMaxFrameLength(data.length) > encoder.getRemaining());
+    }
+
+    @Test
+    public void rejectsOversizedPayload() {
+        McuFrameEncoder encoder = new McuFrameEncoder();
+        byte[] data = new byte[McuFrameEncoder.MAX_PAYLOAD_LENGTH + 1];
+
+        assertEquals(-1, encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, data, 0, data.length));
+        assertEquals(-1, encoder.encodeCustom((byte) 1, data, 0, data.length - 1));
+    }
+}
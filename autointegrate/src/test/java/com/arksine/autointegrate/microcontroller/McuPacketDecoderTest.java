@@ -0,0 +1,237 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the MCU packet decoder.  The allocation tests rely on the HotSpot
+ * extension of ThreadMXBean, which is available on the development machine JVM.
+ */
+public class McuPacketDecoderTest {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 200000;
+
+    // Records the last packet received without allocating
+    private static class RecordingListener implements McuPacketDecoder.PacketListener {
+        McuInputCommand command = McuInputCommand.NONE;
+        int intValue;
+        boolean boolValue;
+        final byte[] bytes = new byte[256];
+        int byteCount;
+        long checksum;
+        int packets;
+
+        @Override
+        public void onShort(McuInputCommand command, int value) {
+            this.command = command;
+            this.intValue = value;
+            checksum += value;
+            packets++;
+        }
+
+        @Override
+        public void onInt(McuInputCommand command, int value) {
+            onShort(command, value);
+        }
+
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            this.command = command;
+            this.boolValue = value;
+            checksum += value ? 1 : 0;
+            packets++;
+        }
+
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            this.command = command;
+            System.arraycopy(buffer, offset, bytes, 0, length);
+            byteCount = length;
+            checksum += length;
+            packets++;
+        }
+    }
+
+    private RecordingListener mListener;
+    private McuPacketDecoder mDecoder;
+
+    @Before
+    public void setUp() {
+        mListener = new RecordingListener();
+        mDecoder = new McuPacketDecoder(mListener);
+    }
+
+    // Builds a frame the same way the MCU firmware does
+    static byte[] frame(int command, byte... payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = payload.length + 1;
+        int checksum = 0xF1 + length + command;
+        out.write(0xF1);
+        writeEscaped(out, length);
+        writeEscaped(out, command);
+        for (byte b : payload) {
+            writeEscaped(out, b & 0xFF);
+            checksum += b & 0xFF;
+        }
+        writeEscaped(out, checksum & 0xFF);
+        return out.toByteArray();
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, int b) {
+        if (b == 0x1A) {
+            out.write(0x1A);
+            out.write(0x1A);
+        } else if (b == 0xF1) {
+            out.write(0x1A);
+            out.write(0x20);
+        } else {
+            out.write(b);
+        }
+    }
+
+    static byte[] shortPayload(int value) {
+        return new byte[] {(byte) value, (byte) (value >> 8)};
+    }
+
+    @Test
+    public void decodesShortCommands() {
+        mDecoder.decode(frame(0x03, shortPayload(1234)));
+        assertEquals(McuInputCommand.CLICK, mListener.command);
+        assertEquals(1234, mListener.intValue);
+
+        mDecoder.decode(frame(0x07, shortPayload(-2)));
+        assertEquals(McuInputCommand.DIMMER_LEVEL, mListener.command);
+        assertEquals(-2, mListener.intValue);
+    }
+
+    @Test
+    public void decodesBooleanCommands() {
+        mDecoder.decode(frame(0x08, (byte) 1));
+        assertEquals(McuInputCommand.REVERSE, mListener.command);
+        assertTrue(mListener.boolValue);
+
+        mDecoder.decode(frame(0x06, (byte) 0));
+        assertEquals(McuInputCommand.DIMMER, mListener.command);
+        assertFalse(mListener.boolValue);
+    }
+
+    @Test
+    public void unescapesPayloadBytes() {
+        byte[] radio = {(byte) 0xF1, 0x1A, 0x20, (byte) 0xA4, 0x1A, (byte) 0xF1};
+        mDecoder.decode(frame(0x0A, radio));
+        assertEquals(McuInputCommand.RADIO_DATA, mListener.command);
+        assertEquals(radio.length, mListener.byteCount);
+        for (int i = 0; i < radio.length; i++) {
+            assertEquals(radio[i], mListener.bytes[i]);
+        }
+    }
+
+    @Test
+    public void decodesPacketsSplitAcrossReads() {
+        byte[] packet = frame(0x01, "STM32-ID".getBytes());
+        for (byte b : packet) {
+            mDecoder.decode(new byte[] {b});
+        }
+        assertEquals(McuInputCommand.STARTED, mListener.command);
+        assertEquals("STM32-ID", new String(mListener.bytes, 0, mListener.byteCount));
+        assertEquals(1, mDecoder.getPacketCount());
+    }
+
+    @Test
+    public void discardsInvalidChecksum() {
+        byte[] packet = frame(0x03, shortPayload(500));
+        packet[packet.length - 1]++;
+        mDecoder.decode(packet);
+        assertEquals(0, mListener.packets);
+        assertEquals(1, mDecoder.getErrorCount());
+
+        // A valid packet after a bad one is still received
+        mDecoder.decode(frame(0x03, shortPayload(500)));
+        assertEquals(1, mListener.packets);
+    }
+
+    @Test
+    public void resynchronizesOnHeader() {
+        byte[] partial = frame(0x03, shortPayload(100));
+        mDecoder.decode(partial, 0, 3);
+        mDecoder.decode(frame(0x05, shortPayload(200)));
+        assertEquals(McuInputCommand.RELEASE, mListener.command);
+        assertEquals(200, mListener.intValue);
+        assertEquals(1, mListener.packets);
+    }
+
+    @Test
+    public void decodesWithoutAllocating() {
+        byte[] stream = buildStream();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mDecoder.decode(stream, 0, stream.length);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDecoder.decode(stream, 0, stream.length);
+        }
+        long allocated = allocatedBytes() - before;
+
+        if (allocated >= 0) {
+            // Allow a small margin for allocation done by the measurement itself
+            assertTrue("Decoder allocated " + allocated + " bytes", allocated < 1024);
+        }
+    }
+
+    @Test
+    public void benchmarkDecodeThroughput() {
+        byte[] stream = buildStream();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            mDecoder.decode(stream, 0, stream.length);
+        }
+
+        long packetsBefore = mDecoder.getPacketCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mDecoder.decode(stream, 0, stream.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        long packets = mDecoder.getPacketCount() - packetsBefore;
+
+        System.out.println(String.format("McuPacketDecoder: %d packets in %.1f ms (%.0f ns/packet)",
+                packets, elapsed / 1e6, (double) elapsed / packets));
+        assertEquals(ITERATIONS * 6L, packets);
+    }
+
+    // A mix of the commands the MCU streams continuously
+    private static byte[] buildStream() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[][] frames = {
+                frame(0x07, shortPayload(812)),
+                frame(0x07, shortPayload(0x1AF1)),
+                frame(0x03, shortPayload(2048)),
+                frame(0x06, (byte) 1),
+                frame(0x08, (byte) 0),
+                frame(0x0A, new byte[] {(byte) 0xA4, 0x08, 0x00, 0x01, (byte) 0xF1, 0x1A, 0x10, 0x42})
+        };
+        for (byte[] f : frames) {
+            out.write(f, 0, f.length);
+        }
+        return out.toByteArray();
+    }
+
+    // Returns -1 if the JVM does not support per thread allocation accounting
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,589 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuOutputCommand;
+import com.arksine.autointegrate.utilities.SerialHelper;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Host side stand in for a Micro Controller running AutoIntegrate-STM32.ino, connected through
+ * the SerialHelper contract.
+ *
+ * Frames written by the host are parsed the same way the sketch parses them and answered the
+ * way the sketch answers them (START with STARTED, REQUEST_ID with IDENT, and so on).  Frames
+ * sent to the host are encoded the way sendPacketToPc encodes them, independently of the app's
+ * own encoder, and delivered from a reader thread in chunks of at most the read size, so a
+ * frame may be split across reads just like it is on a USB serial device.
+ *
+ * Input (button clicks and holds, dimmer, reverse and radio data) can be sent one packet at a
+ * time or played from a Script at a fixed rate.
+ */
+public class McuSimulator extends SerialHelper {
+
+    public static final String DEVICE_ID = "MCU Simulator";
+    // Same default as the sketch
+    public static final String MCU_ID = "TEST1234";
+
+    // Bytes delivered per read, the size of a full speed USB bulk packet
+    public static final int DEFAULT_READ_SIZE = 64;
+
+    private static final int HEADER = 0xF1;
+    private static final int ESCAPE = 0x1A;
+    private static final int ESCAPED_HEADER = 0x20;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Emits the packets for one step of a script
+     */
+    public interface Script {
+        void step(McuSimulator simulator, int step);
+    }
+
+    private final LinkedBlockingQueue<byte[]> mOutgoing = new LinkedBlockingQueue<>();
+    private volatile Callbacks mCallbacks = null;
+    private volatile boolean mConnected = false;
+    private Thread mReaderThread = null;
+
+    private volatile int mReadSize = DEFAULT_READ_SIZE;
+    private volatile long mConnectDelayMs = 0;
+    private volatile long mStartDelayMs = 0;
+    private volatile boolean mRadioConnected = true;
+    private volatile boolean mDtr = false;
+    private volatile boolean mRts = false;
+    private volatile int mBaud = 9600;
+
+    // Host to MCU parser state, guarded by this
+    private final byte[] mInBuffer = new byte[256];
+    private int mBufIndex = 0;
+    private int mPacketLength = 0;
+    private int mChecksum = 0;
+    private boolean mIsLengthByte = false;
+    private boolean mIsValidPacket = false;
+    private boolean mIsEscaped = false;
+
+    private final AtomicLongArray mCommandCounts = new AtomicLongArray(256);
+    private final AtomicLong mFramesReceived = new AtomicLong(0);
+    private final AtomicLong mChecksumErrors = new AtomicLong(0);
+    private final AtomicLong mRadioBytesReceived = new AtomicLong(0);
+    private final AtomicLong mReadsDelivered = new AtomicLong(0);
+    private final AtomicLong mBytesDelivered = new AtomicLong(0);
+
+    /**
+     * Delay before OnDeviceReady is reported after connecting
+     */
+    public void setConnectDelay(long delayMs) {
+        mConnectDelayMs = delayMs;
+    }
+
+    /**
+     * Delay before STARTED is sent in response to START.  The sketch waits one second.
+     */
+    public void setStartDelay(long delayMs) {
+        mStartDelayMs = delayMs;
+    }
+
+    public void setReadSize(int readSize) {
+        mReadSize = Math.max(1, readSize);
+    }
+
+    public void setRadioConnected(boolean radioConnected) {
+        mRadioConnected = radioConnected;
+    }
+
+    @Override
+    public ArrayList<String> enumerateSerialDevices() {
+        ArrayList<String> devices = new ArrayList<>(1);
+        devices.add(DEVICE_ID);
+        return devices;
+    }
+
+    @Override
+    public synchronized boolean connectDevice(String id, Callbacks cbs) {
+        if (!DEVICE_ID.equals(id) || cbs == null || mConnected) {
+            return false;
+        }
+
+        mCallbacks = cbs;
+        mConnected = true;
+        mOutgoing.clear();
+        resetParser();
+
+        // Like the real helpers, readiness is reported from another thread after connectDevice
+        // returns
+        mReaderThread = new Thread(mReader, "MCU Simulator Reader");
+        mReaderThread.start();
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        Thread reader;
+        synchronized (this) {
+            mConnected = false;
+            reader = mReaderThread;
+            mReaderThread = null;
+        }
+
+        if (reader != null && reader != Thread.currentThread()) {
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mOutgoing.clear();
+    }
+
+    /**
+     * Reports a device error to the host, as if the cable was pulled
+     */
+    public void simulateDeviceError() {
+        Callbacks cbs = mCallbacks;
+        disconnect();
+        if (cbs != null) {
+            cbs.OnDeviceError();
+        }
+    }
+
+    @Override
+    public String getConnectedId() {
+        return mConnected ? DEVICE_ID : "";
+    }
+
+    @Override
+    public boolean isDeviceConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public boolean writeBytes(byte[] data) {
+        return writeBytes(data, 0, data.length);
+    }
+
+    // Parsed in place, the sketch is done with the data before the write returns
+    @Override
+    public synchronized boolean writeBytes(byte[] data, int offset, int length) {
+        if (!mConnected) {
+            return false;
+        }
+
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            parseByte(data[i] & 0xFF);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean writeString(String data) {
+        return writeBytes(data.getBytes(ASCII));
+    }
+
+    @Override
+    public void toggleDTR(boolean state) {
+        mDtr = state;
+    }
+
+    @Override
+    public void toggleRTS(boolean state) {
+        mRts = state;
+    }
+
+    @Override
+    public void setBaud(int baud) {
+        mBaud = baud;
+    }
+
+    public int getBaud() {
+        return mBaud;
+    }
+
+    public boolean isRadioDtrOn() {
+        return mDtr;
+    }
+
+    public boolean isRadioRtsOn() {
+        return mRts;
+    }
+
+    // ---- Input sent to the host ----
+
+    public void click(int value) {
+        sendShort(McuInputCommand.CLICK, value);
+    }
+
+    public void hold(int value) {
+        sendShort(McuInputCommand.HOLD, value);
+    }
+
+    public void release(int value) {
+        sendShort(McuInputCommand.RELEASE, value);
+    }
+
+    public void setDimmer(boolean isOn) {
+        sendBool(McuInputCommand.DIMMER, isOn);
+    }
+
+    public void setDimmerLevel(int reading) {
+        sendShort(McuInputCommand.DIMMER_LEVEL, reading);
+    }
+
+    public void setReverse(boolean inReverse) {
+        sendBool(McuInputCommand.REVERSE, inReverse);
+    }
+
+    public void sendRadioData(byte[] data, int offset, int length) {
+        sendPacket(McuInputCommand.RADIO_DATA.getByte(), data, offset, length);
+    }
+
+    public void sendLog(String message) {
+        byte[] data = message.getBytes(ASCII);
+        sendPacket(McuInputCommand.LOG.getByte(), data, 0, data.length);
+    }
+
+    public void sendPacket(int command, byte[] payload, int offset, int length) {
+        mOutgoing.offer(encodeFrame(command, payload, offset, length));
+    }
+
+    /**
+     * Plays a script on a new thread.
+     *
+     * @param ratePerSecond  Steps per second, or 0 to play the steps as fast as possible
+     * @param steps          Number of steps to play
+     * @return the thread playing the script, join it to wait for the script to finish
+     */
+    public Thread play(final Script script, final int ratePerSecond, final int steps) {
+        Thread player = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final long interval = (ratePerSecond > 0) ? 1000000000L / ratePerSecond : 0;
+                final long start = System.nanoTime();
+                for (int i = 0; i < steps && mConnected; i++) {
+                    if (interval > 0) {
+                        long wait = start + i * interval - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    script.step(McuSimulator.this, i);
+                }
+            }
+        }, "MCU Simulator Script");
+        player.start();
+        return player;
+    }
+
+    public static Script clicks(final int value) {
+        return new Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                simulator.click(value);
+            }
+        };
+    }
+
+    // Alternates a hold and its release
+    public static Script holds(final int value) {
+        return new Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                if ((step & 1) == 0) {
+                    simulator.hold(value);
+                } else {
+                    simulator.release(value);
+                }
+            }
+        };
+    }
+
+    // Sweeps the analog dimmer back and forth between low and high
+    public static Script dimmerSweep(final int low, final int high, final int stepSize) {
+        return new Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                final int span = Math.max(1, (high - low) / stepSize);
+                int position = step % (2 * span);
+                if (position > span) {
+                    position = 2 * span - position;
+                }
+                simulator.setDimmerLevel(low + position * stepSize);
+            }
+        };
+    }
+
+    public static Script reverseToggles() {
+        return new Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                simulator.setReverse((step & 1) == 0);
+            }
+        };
+    }
+
+    // Sends radio data packets of the given size, the payload contains both escaped bytes
+    public static Script radioData(final int packetSize) {
+        final byte[] data = new byte[packetSize];
+        for (int i = 0; i < packetSize; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        data[0] = (byte) HEADER;
+        if (packetSize > 1) {
+            data[1] = (byte) ESCAPE;
+        }
+
+        return new Script() {
+            @Override
+            public void step(McuSimulator simulator, int step) {
+                simulator.sendRadioData(data, 0, data.length);
+            }
+        };
+    }
+
+    // ---- Statistics ----
+
+    /**
+     * Returns the number of valid frames received from the host with the given command
+     */
+    public long getCommandCount(McuOutputCommand command) {
+        return mCommandCounts.get(command.getByte() & 0xFF);
+    }
+
+    public long getFramesReceived() {
+        return mFramesReceived.get();
+    }
+
+    public long getChecksumErrors() {
+        return mChecksumErrors.get();
+    }
+
+    public long getRadioBytesReceived() {
+        return mRadioBytesReceived.get();
+    }
+
+    public long getReadsDelivered() {
+        return mReadsDelivered.get();
+    }
+
+    public long getBytesDelivered() {
+        return mBytesDelivered.get();
+    }
+
+    /**
+     * Encodes a frame the way sendPacketToPc does in the sketch
+     */
+    public static byte[] encodeFrame(int command, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[1 + 2 * (length + 3)];
+        int pos = 0;
+        frame[pos++] = (byte) HEADER;
+
+        final int packetLength = length + 1;
+        int checksum = HEADER + packetLength + (command & 0xFF);
+        pos = writeEscaped(frame, pos, packetLength);
+        pos = writeEscaped(frame, pos, command & 0xFF);
+        for (int i = offset; i < offset + length; i++) {
+            int b = payload[i] & 0xFF;
+            checksum += b;
+            pos = writeEscaped(frame, pos, b);
+        }
+        pos = writeEscaped(frame, pos, checksum & 0xFF);
+
+        byte[] out = new byte[pos];
+        System.arraycopy(frame, 0, out, 0, pos);
+        return out;
+    }
+
+    private static int writeEscaped(byte[] frame, int pos, int b) {
+        if (b == ESCAPE) {
+            frame[pos++] = (byte) ESCAPE;
+            frame[pos++] = (byte) ESCAPE;
+        } else if (b == HEADER) {
+            frame[pos++] = (byte) ESCAPE;
+            frame[pos++] = (byte) ESCAPED_HEADER;
+        } else {
+            frame[pos++] = (byte) b;
+        }
+        return pos;
+    }
+
+    private void sendShort(McuInputCommand command, int value) {
+        byte[] data = {(byte) value, (byte) (value >> 8)};
+        sendPacket(command.getByte(), data, 0, data.length);
+    }
+
+    private void sendBool(McuInputCommand command, boolean value) {
+        byte[] data = {(byte) (value ? 1 : 0)};
+        sendPacket(command.getByte(), data, 0, data.length);
+    }
+
+    private void sendString(McuInputCommand command, String value) {
+        byte[] data = value.getBytes(ASCII);
+        sendPacket(command.getByte(), data, 0, data.length);
+    }
+
+    // ---- Host to MCU, mirrors parseIncoming() and executeCommand() in the sketch ----
+
+    private void resetParser() {
+        mBufIndex = 0;
+        mPacketLength = 0;
+        mChecksum = 0;
+        mIsLengthByte = false;
+        mIsValidPacket = false;
+        mIsEscaped = false;
+    }
+
+    private void parseByte(int b) {
+        if (b == HEADER) {
+            mIsValidPacket = true;
+            mIsLengthByte = true;
+            mIsEscaped = false;
+            mChecksum = HEADER;
+            mPacketLength = 0;
+            mBufIndex = 0;
+        } else if (!mIsValidPacket) {
+            // not in a packet
+        } else if (b == ESCAPE && !mIsEscaped) {
+            mIsEscaped = true;
+        } else {
+            if (mIsEscaped) {
+                mIsEscaped = false;
+                if (b == ESCAPED_HEADER) {
+                    b = HEADER;
+                }
+            }
+
+            if (mIsLengthByte) {
+                mIsLengthByte = false;
+                mPacketLength = b;
+                mChecksum += b;
+            } else if (mBufIndex == mPacketLength) {
+                if ((mChecksum & 0xFF) == b) {
+                    executeCommand();
+                } else {
+                    mChecksumErrors.incrementAndGet();
+                }
+                mIsValidPacket = false;
+            } else {
+                mInBuffer[mBufIndex++] = (byte) b;
+                mChecksum += b;
+            }
+        }
+    }
+
+    private void executeCommand() {
+        final int command = mInBuffer[0] & 0xFF;
+        mFramesReceived.incrementAndGet();
+        mCommandCounts.incrementAndGet(command);
+
+        switch (McuOutputCommand.getCommand((byte) command)) {
+            case START:
+                if (mStartDelayMs > 0) {
+                    sendDelayed(McuInputCommand.STARTED, mStartDelayMs);
+                } else {
+                    sendString(McuInputCommand.STARTED, MCU_ID);
+                }
+                break;
+            case REQUEST_ID:
+                sendString(McuInputCommand.IDENT, MCU_ID);
+                break;
+            case RADIO_REQUEST_STATUS:
+                sendBool(McuInputCommand.RADIO_STATUS, mRadioConnected);
+                break;
+            case RADIO_SEND_PACKET:
+                mRadioBytesReceived.addAndGet(mPacketLength - 1);
+                break;
+            case RADIO_SET_DTR:
+                mDtr = (mInBuffer[1] == 0x01);
+                break;
+            case RADIO_SET_RTS:
+                mRts = (mInBuffer[1] == 0x01);
+                break;
+            case STOP:
+            case SET_DIMMER_ANALOG:
+            case SET_DIMMER_DIGITAL:
+            case AUDIO_SOURCE_HD:
+            case AUDIO_SOURCE_AUX:
+            case CUSTOM:
+                break;
+            default:
+                sendLog("Unknown Command Received");
+        }
+    }
+
+    private void sendDelayed(final McuInputCommand command, final long delayMs) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sendString(command, MCU_ID);
+            }
+        }, "MCU Simulator Delay").start();
+    }
+
+    // Delivers queued frames to the host in chunks of up to the read size
+    private final Runnable mReader = new Runnable() {
+        @Override
+        public void run() {
+            final Callbacks cbs = mCallbacks;
+            try {
+                if (mConnectDelayMs > 0) {
+                    Thread.sleep(mConnectDelayMs);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            cbs.OnDeviceReady(true);
+
+            byte[] pending = null;
+            int pendingOffset = 0;
+            while (mConnected) {
+                try {
+                    if (pending == null) {
+                        pending = mOutgoing.poll(50, TimeUnit.MILLISECONDS);
+                        pendingOffset = 0;
+                        if (pending == null) {
+                            continue;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+
+                // Fill a read with everything that is queued, up to the read size
+                final int readSize = mReadSize;
+                byte[] chunk = new byte[readSize];
+                int length = 0;
+                while (pending != null && length < readSize) {
+                    int count = Math.min(readSize - length, pending.length - pendingOffset);
+                    System.arraycopy(pending, pendingOffset, chunk, length, count);
+                    length += count;
+                    pendingOffset += count;
+                    if (pendingOffset == pending.length) {
+                        pending = mOutgoing.poll();
+                        pendingOffset = 0;
+                    }
+                }
+
+                if (length < readSize) {
+                    byte[] trimmed = new byte[length];
+                    System.arraycopy(chunk, 0, trimmed, 0, length);
+                    chunk = trimmed;
+                }
+                mReadsDelivered.incrementAndGet();
+                mBytesDelivered.addAndGet(length);
+                cbs.OnDataReceived(chunk);
+            }
+        }
+    };
+}
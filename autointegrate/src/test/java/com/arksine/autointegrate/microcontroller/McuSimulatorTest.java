@@ -0,0 +1,155 @@
+package com.arksine.autointegrate.microcontroller;
+
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuInputCommand;
+import com.arksine.autointegrate.microcontroller.MCUDefs.McuOutputCommand;
+import com.arksine.autointegrate.utilities.SerialHelper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the MCU simulator, checks that it speaks the same protocol as the app
+ */
+public class McuSimulatorTest {
+
+    private final McuSimulator mSimulator = new McuSimulator();
+
+    // Decodes everything the simulator sends and records it
+    private static class RecordingCallbacks implements SerialHelper.Callbacks,
+            McuPacketDecoder.PacketListener {
+        final McuPacketDecoder decoder = new McuPacketDecoder(this);
+        final List<String> packets = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ready = new CountDownLatch(1);
+        final CountDownLatch done;
+        volatile int maxRead = 0;
+
+        RecordingCallbacks(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void OnDeviceReady(boolean deviceReadyStatus) {
+            ready.countDown();
+        }
+
+        @Override
+        public void OnDataReceived(byte[] data) {
+            maxRead = Math.max(maxRead, data.length);
+            decoder.decode(data);
+        }
+
+        @Override
+        public void OnDeviceError() {
+        }
+
+        @Override
+        public void onShort(McuInputCommand command, int value) {
+            record(command + ":" + value);
+        }
+
+        @Override
+        public void onInt(McuInputCommand command, int value) {
+            record(command + ":" + value);
+        }
+
+        @Override
+        public void onBool(McuInputCommand command, boolean value) {
+            record(command + ":" + value);
+        }
+
+        @Override
+        public void onBytes(McuInputCommand command, byte[] buffer, int offset, int length) {
+            if (command == McuInputCommand.RADIO_DATA) {
+                record(command + ":" + length);
+            } else {
+                record(command + ":" + new String(buffer, offset, length));
+            }
+        }
+
+        private void record(String packet) {
+            packets.add(packet);
+            done.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mSimulator.disconnect();
+    }
+
+    @Test
+    public void answersStartAndRequests() throws InterruptedException {
+        RecordingCallbacks cbs = new RecordingCallbacks(3);
+        assertFalse(mSimulator.connectDevice("Some Other Device", cbs));
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+        assertTrue(cbs.ready.await(1, TimeUnit.SECONDS));
+
+        McuFrameEncoder encoder = new McuFrameEncoder(256);
+        encoder.append(McuFrameEncoder.getFixedFrame(McuOutputCommand.START));
+        encoder.append(McuFrameEncoder.getFixedFrame(McuOutputCommand.REQUEST_ID));
+        encoder.append(McuFrameEncoder.getFixedFrame(McuOutputCommand.RADIO_REQUEST_STATUS));
+        encoder.append(McuFrameEncoder.getBooleanFrame(McuOutputCommand.RADIO_SET_DTR, true));
+        assertTrue(mSimulator.writeBytes(encoder.getBuffer(), 0, encoder.getLength()));
+
+        assertTrue(cbs.done.await(1, TimeUnit.SECONDS));
+        assertEquals("STARTED:" + McuSimulator.MCU_ID, cbs.packets.get(0));
+        assertEquals("IDENT:" + McuSimulator.MCU_ID, cbs.packets.get(1));
+        assertEquals("RADIO_STATUS:true", cbs.packets.get(2));
+        assertTrue(mSimulator.isRadioDtrOn());
+        assertEquals(4, mSimulator.getFramesReceived());
+        assertEquals(1, mSimulator.getCommandCount(McuOutputCommand.START));
+    }
+
+    @Test
+    public void radioPacketsSurviveEscapingAndSplitReads() throws InterruptedException {
+        final int packets = 20;
+        RecordingCallbacks cbs = new RecordingCallbacks(packets);
+        mSimulator.setReadSize(16);
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+
+        McuFrameEncoder encoder = new McuFrameEncoder(1024);
+        byte[] radioPacket = {(byte) 0xA4, 0x08, (byte) 0xF1, 0x1A, 0x00, 0x01};
+        for (int i = 0; i < 4; i++) {
+            encoder.encode(McuOutputCommand.RADIO_SEND_PACKET, radioPacket, 0, radioPacket.length);
+        }
+        mSimulator.writeBytes(encoder.getBuffer(), 0, encoder.getLength());
+        assertEquals(4 * radioPacket.length, mSimulator.getRadioBytesReceived());
+        assertEquals(0, mSimulator.getChecksumErrors());
+
+        mSimulator.play(McuSimulator.radioData(40), 0, packets).join();
+        assertTrue(cbs.done.await(1, TimeUnit.SECONDS));
+        for (String packet : cbs.packets) {
+            assertEquals("RADIO_DATA:40", packet);
+        }
+        assertTrue(cbs.maxRead <= 16);
+        assertEquals(0, cbs.decoder.getErrorCount());
+    }
+
+    @Test
+    public void scriptsEmitExpectedSequence() throws InterruptedException {
+        RecordingCallbacks cbs = new RecordingCallbacks(8);
+        assertTrue(mSimulator.connectDevice(McuSimulator.DEVICE_ID, cbs));
+
+        mSimulator.play(McuSimulator.holds(512), 1000, 2).join();
+        mSimulator.play(McuSimulator.reverseToggles(), 1000, 2).join();
+        mSimulator.play(McuSimulator.dimmerSweep(100, 300, 100), 1000, 4).join();
+
+        assertTrue(cbs.done.await(1, TimeUnit.SECONDS));
+        assertEquals("HOLD:512", cbs.packets.get(0));
+        assertEquals("RELEASE:512", cbs.packets.get(1));
+        assertEquals("REVERSE:true", cbs.packets.get(2));
+        assertEquals("REVERSE:false", cbs.packets.get(3));
+        assertEquals("DIMMER_LEVEL:100", cbs.packets.get(4));
+        assertEquals("DIMMER_LEVEL:200", cbs.packets.get(5));
+        assertEquals("DIMMER_LEVEL:300", cbs.packets.get(6));
+        assertEquals("DIMMER_LEVEL:200", cbs.packets.get(7));
+    }
+}
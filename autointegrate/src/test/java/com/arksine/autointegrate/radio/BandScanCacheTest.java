@@ -0,0 +1,104 @@
+package com.arksine.autointegrate.radio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the band scan cache
+ */
+public class BandScanCacheTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("band_scan", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static BandScanner.ScanResult result(int band, long time, boolean complete) {
+        List<BandScanner.Reading> readings = new ArrayList<>(Arrays.asList(
+                new BandScanner.Reading(1013, 40, false),
+                new BandScanner.Reading(1015, 80, true),
+                new BandScanner.Reading(1017, -1, false)));
+        return new BandScanner.ScanResult(band, time, readings, complete);
+    }
+
+    @Test
+    public void resultsAreKeptPerBand() {
+        BandScanCache cache = new BandScanCache(mFile);
+        assertNull(cache.get(StationCache.BAND_FM));
+
+        cache.put(result(StationCache.BAND_FM, 1234L, true));
+        cache.put(result(StationCache.BAND_AM, 1234L, true));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(StationCache.BAND_FM));
+        assertNotNull(cache.get(StationCache.BAND_AM));
+    }
+
+    @Test
+    public void newScanReplacesOldOnlyWhenComplete() {
+        BandScanCache cache = new BandScanCache(mFile);
+        cache.put(result(StationCache.BAND_FM, 1000L, true));
+        cache.put(result(StationCache.BAND_FM, 2000L, false));
+        assertEquals(1000L, cache.get(StationCache.BAND_FM).getTime());
+
+        cache.put(result(StationCache.BAND_FM, 3000L, true));
+        assertEquals(1, cache.size());
+        assertEquals(3000L, cache.get(StationCache.BAND_FM).getTime());
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws Exception {
+        BandScanCache cache = new BandScanCache(mFile);
+        cache.put(result(StationCache.BAND_FM, 1234L, true));
+        cache.save();
+
+        BandScanCache loaded = new BandScanCache(mFile);
+        loaded.load();
+        assertEquals(1, loaded.size());
+        assertNull(loaded.get(StationCache.BAND_AM));
+        BandScanner.ScanResult result = loaded.get(StationCache.BAND_FM);
+        assertEquals(1234L, result.getTime());
+        assertTrue(result.isComplete());
+        assertEquals(3, result.getReadings().size());
+        assertEquals(1015, result.getReadings().get(1).getFrequency());
+        assertEquals(80, result.getReadings().get(1).getSignal());
+        assertTrue(result.getReadings().get(1).isHdActive());
+        assertEquals(-1, result.getReadings().get(2).getSignal());
+        assertEquals(1015, result.getStrongStations().get(0).getFrequency());
+    }
+
+    @Test
+    public void badFileLoadsEmpty() throws Exception {
+        BandScanCache cache = new BandScanCache(mFile);
+        cache.load();
+        assertEquals(0, cache.size());
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {0x42, 0x53, 0x43, 0x4E, 2, 1});
+        out.close();
+        try {
+            cache.load();
+            fail("Truncated file loaded");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+}
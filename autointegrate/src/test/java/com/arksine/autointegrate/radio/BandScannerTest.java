@@ -0,0 +1,164 @@
+package com.arksine.autointegrate.radio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the band scan engine
+ */
+public class BandScannerTest {
+
+    // Plays a radio that reports readings for the channel it was tuned to
+    private static class FakeRadio implements BandScanner.Tuner {
+        final Map<Integer, int[]> samples = new HashMap<>();
+        final Map<Integer, Boolean> hd = new HashMap<>();
+        final List<Integer> tuned = new ArrayList<>();
+        int[] noise = {1, 2, 1};
+        BandScanner scanner;
+        volatile CountDownLatch blockAt = null;
+        volatile int blockFrequency = -1;
+
+        @Override
+        public void tune(int band, int frequency) {
+            tuned.add(frequency);
+            if (frequency == blockFrequency && blockAt != null) {
+                blockAt.countDown();
+            }
+
+            // A reading from the previous channel arrives before the tune is confirmed
+            scanner.onSignalStrength(999);
+            scanner.onTuned(band, frequency);
+            Boolean hdActive = hd.get(frequency);
+            if (hdActive != null) {
+                scanner.onHdActive(hdActive);
+            }
+            int[] readings = samples.containsKey(frequency) ? samples.get(frequency) : noise;
+            for (int reading : readings) {
+                scanner.onSignalStrength(reading);
+            }
+        }
+    }
+
+    private static BandScanner.ScanResult scan(BandScanner scanner, int band) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<BandScanner.ScanResult> result = new AtomicReference<>();
+        assertTrue(scanner.start(band, new BandScanner.Listener() {
+            @Override
+            public void onScanFinished(BandScanner.ScanResult scanResult) {
+                result.set(scanResult);
+                done.countDown();
+            }
+        }));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void sweepsTheWholeBand() throws Exception {
+        FakeRadio radio = new FakeRadio();
+        BandScanner scanner = new BandScanner(radio, 1000, 3);
+        radio.scanner = scanner;
+
+        BandScanner.ScanResult result = scan(scanner, StationCache.BAND_FM);
+        assertTrue(result.isComplete());
+        assertEquals(101, result.getReadings().size());
+        assertEquals(879, result.getReadings().get(0).getFrequency());
+        assertEquals(1079, result.getReadings().get(100).getFrequency());
+        assertEquals(101, radio.tuned.size());
+
+        result = scan(scanner, StationCache.BAND_AM);
+        assertEquals(118, result.getReadings().size());
+        assertEquals(1700, result.getReadings().get(117).getFrequency());
+    }
+
+    @Test
+    public void settledReadingsAreAveraged() throws Exception {
+        FakeRadio radio = new FakeRadio();
+        radio.samples.put(1015, new int[] {10, 60, 80, 82, 81});
+        BandScanner scanner = new BandScanner(radio, 1000, 3);
+        radio.scanner = scanner;
+
+        long start = System.nanoTime();
+        BandScanner.ScanResult result = scan(scanner, StationCache.BAND_FM);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Every channel settled, none waited for the max dwell
+        assertTrue(elapsed < 1000);
+        assertEquals(81, result.getReadings().get((1015 - 879) / 2).getSignal());
+        assertEquals(1, result.getReadings().get(0).getSignal());
+    }
+
+    @Test
+    public void unsettledChannelGivesUpAfterMaxDwell() throws Exception {
+        FakeRadio radio = new FakeRadio();
+        radio.samples.put(879, new int[] {10});
+        BandScanner scanner = new BandScanner(radio, 50, 3);
+        radio.scanner = scanner;
+
+        BandScanner.ScanResult result = scan(scanner, StationCache.BAND_FM);
+        assertEquals(10, result.getReadings().get(0).getSignal());
+
+        radio.samples.put(879, new int[0]);
+        result = scan(scanner, StationCache.BAND_FM);
+        assertEquals(-1, result.getReadings().get(0).getSignal());
+    }
+
+    @Test
+    public void strongStationsArePeaksAndHd() throws Exception {
+        FakeRadio radio = new FakeRadio();
+        radio.samples.put(1013, new int[] {50, 50, 50});
+        radio.samples.put(1015, new int[] {90, 90, 90});
+        radio.samples.put(1017, new int[] {55, 55, 55});
+        radio.samples.put(951, new int[] {60, 60, 60});
+        radio.samples.put(889, new int[] {20, 20, 20});
+        radio.hd.put(889, true);
+        BandScanner scanner = new BandScanner(radio, 1000, 3);
+        radio.scanner = scanner;
+
+        List<BandScanner.Reading> strong = scan(scanner, StationCache.BAND_FM)
+                .getStrongStations();
+        assertEquals(3, strong.size());
+        assertEquals(1015, strong.get(0).getFrequency());
+        assertEquals(951, strong.get(1).getFrequency());
+        assertEquals(889, strong.get(2).getFrequency());
+        assertTrue(strong.get(2).isHdActive());
+    }
+
+    @Test
+    public void cancelStopsTheSweep() throws Exception {
+        final FakeRadio radio = new FakeRadio();
+        radio.samples.put(901, new int[0]);     // Never settles, holds the scan for max dwell
+        radio.blockFrequency = 901;
+        radio.blockAt = new CountDownLatch(1);
+        final BandScanner scanner = new BandScanner(radio, 5000, 3);
+        radio.scanner = scanner;
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<BandScanner.ScanResult> result = new AtomicReference<>();
+        scanner.start(StationCache.BAND_FM, new BandScanner.Listener() {
+            @Override
+            public void onScanFinished(BandScanner.ScanResult scanResult) {
+                result.set(scanResult);
+                done.countDown();
+            }
+        });
+        assertTrue(radio.blockAt.await(5, TimeUnit.SECONDS));
+        assertTrue(scanner.isScanning());
+        assertFalse(scanner.start(StationCache.BAND_FM, null));
+
+        scanner.cancel();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertFalse(result.get().isComplete());
+        assertEquals(12, result.get().getReadings().size());
+        assertFalse(scanner.isScanning());
+    }
+}
@@ -0,0 +1,236 @@
+package com.arksine.autointegrate.radio;
+
+import com.arksine.autointegrate.radio.RadioEventDispatcher.Event;
+import com.arksine.autointegrate.radio.RadioState.Field;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the coalescing radio event dispatcher
+ */
+public class RadioEventDispatcherTest {
+
+    private static final long INTERVAL = 100;
+
+    // Holds scheduled runs until the test runs them
+    private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+        final List<Runnable> pending = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+            delays.add(0L);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            pending.add(command);
+            delays.add(unit.toMillis(delay));
+            return null;
+        }
+
+        void runAll() {
+            List<Runnable> runs = new ArrayList<>(pending);
+            pending.clear();
+            delays.clear();
+            for (Runnable run : runs) {
+                run.run();
+            }
+        }
+    }
+
+    // Records every delivery as "<listener> <field or event> <value>"
+    private static class TestListeners implements RadioEventDispatcher.Listeners {
+        final List<String> keys = new ArrayList<>();
+        final List<String> delivered = new ArrayList<>();
+        String failing = null;
+
+        @Override
+        public int beginBroadcast() {
+            return keys.size();
+        }
+
+        @Override
+        public Object getKey(int index) {
+            return keys.get(index);
+        }
+
+        @Override
+        public boolean deliver(int index, Field field, Object value) {
+            if (keys.get(index).equals(failing)) {
+                return false;
+            }
+            delivered.add(keys.get(index) + " " + field + " " + value);
+            return true;
+        }
+
+        @Override
+        public boolean deliverEvent(int index, Event event) {
+            delivered.add(keys.get(index) + " " + event);
+            return true;
+        }
+
+        @Override
+        public void finishBroadcast() {
+        }
+
+        List<String> take() {
+            List<String> result = new ArrayList<>(delivered);
+            delivered.clear();
+            return result;
+        }
+    }
+
+    private ManualExecutor mExecutor;
+    private TestListeners mListeners;
+    private RadioEventDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mListeners = new TestListeners();
+        mListeners.keys.add("a");
+        mDispatcher = new RadioEventDispatcher(mListeners, mExecutor, INTERVAL);
+    }
+
+    @Test
+    public void rapidUpdatesAreCoalesced() {
+        for (int i = 0; i < 50; i++) {
+            mDispatcher.update(Field.SIGNAL_STRENGTH, i);
+        }
+        mDispatcher.update(Field.VOLUME, 30);
+
+        assertEquals(1, mExecutor.pending.size());
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a SIGNAL_STRENGTH 49", "a VOLUME 30"), mListeners.take());
+    }
+
+    @Test
+    public void dispatchesAreRateLimited() {
+        mDispatcher.update(Field.SIGNAL_STRENGTH, 1);
+        mExecutor.runAll();
+
+        mDispatcher.update(Field.SIGNAL_STRENGTH, 2);
+        long delay = mExecutor.delays.get(0);
+        assertTrue(delay > INTERVAL / 2 && delay <= INTERVAL);
+    }
+
+    @Test
+    public void unchangedValuesAreDropped() {
+        mDispatcher.update(Field.RDS_RADIO_TEXT, "Now Playing");
+        mExecutor.runAll();
+        mListeners.take();
+
+        mDispatcher.update(Field.RDS_RADIO_TEXT, "Now Playing");
+        assertTrue(mExecutor.pending.isEmpty());
+    }
+
+    @Test
+    public void newListenerGetsCurrentState() {
+        mDispatcher.update(Field.VOLUME, 20);
+        mDispatcher.update(Field.BASS, 5);
+        mExecutor.runAll();
+        mListeners.take();
+
+        mListeners.keys.add("b");
+        mDispatcher.update(Field.VOLUME, 21);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a VOLUME 21", "b VOLUME 21", "b BASS 5"),
+                mListeners.take());
+    }
+
+    @Test
+    public void failedListenerIsRetried() {
+        mListeners.keys.add("b");
+        mDispatcher.update(Field.VOLUME, 20);
+        mExecutor.runAll();
+        mListeners.take();
+
+        mListeners.failing = "b";
+        mDispatcher.update(Field.TREBLE, 3);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a TREBLE 3"), mListeners.take());
+
+        mListeners.failing = null;
+        mDispatcher.update(Field.BASS, 4);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a BASS 4", "b BASS 4", "b TREBLE 3"), mListeners.take());
+    }
+
+    @Test
+    public void eventsFollowPendingStateInOrder() {
+        mDispatcher.update(Field.MUTE, true);
+        mDispatcher.post(Event.POWER_OFF);
+        mDispatcher.post(Event.CLOSED);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a MUTE true", "a POWER_OFF", "a CLOSED"), mListeners.take());
+    }
+
+    @Test
+    public void tuneReplacesSeek() {
+        mDispatcher.update(Field.SEEK, "101.1");
+        mDispatcher.update(Field.SEEK, "101.3");
+        mDispatcher.update(Field.TUNE, "101.5");
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a TUNE 101.5"), mListeners.take());
+
+        mDispatcher.update(Field.TUNE, "101.7");
+        mDispatcher.update(Field.SEEK, "101.9");
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a SEEK 101.9"), mListeners.take());
+    }
+
+    @Test
+    public void clearForgetsState() {
+        mDispatcher.update(Field.HD_CALLSIGN, "WXYZ");
+        mDispatcher.post(Event.CLOSED);
+        mDispatcher.clear();
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a CLOSED"), mListeners.take());
+        assertNull(mDispatcher.getState().getValue(Field.HD_CALLSIGN));
+
+        mListeners.keys.add("b");
+        mDispatcher.update(Field.VOLUME, 10);
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a VOLUME 10", "b VOLUME 10"), mListeners.take());
+    }
+
+    @Test
+    public void syncedListenerGetsOnlyNewerFields() {
+        mDispatcher.update(Field.VOLUME, 20);
+        mDispatcher.update(Field.BASS, 5);
+        mExecutor.runAll();
+        mListeners.take();
+
+        // "b" painted from this snapshot before registering
+        RadioState painted = mDispatcher.getState();
+        mDispatcher.update(Field.TREBLE, 7);
+        mListeners.keys.add("b");
+        mDispatcher.sync("b", painted.getVersion());
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("a TREBLE 7", "b TREBLE 7"), mListeners.take());
+    }
+
+    @Test
+    public void powerIsKeptInState() {
+        mDispatcher.post(Event.POWER_ON);
+        assertTrue(mDispatcher.getState().isPoweredOn());
+        mDispatcher.post(Event.POWER_OFF);
+        assertFalse(mDispatcher.getState().isPoweredOn());
+    }
+}
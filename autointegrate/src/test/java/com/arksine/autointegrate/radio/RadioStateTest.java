@@ -0,0 +1,80 @@
+package com.arksine.autointegrate.radio;
+
+import com.arksine.autointegrate.radio.RadioState.Field;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the immutable radio state snapshot
+ */
+public class RadioStateTest {
+
+    @Test
+    public void changesReturnNewSnapshots() {
+        RadioState first = RadioState.EMPTY.with(Field.VOLUME, 20);
+        RadioState second = first.with(Field.VOLUME, 25);
+
+        assertNull(RadioState.EMPTY.getValue(Field.VOLUME));
+        assertEquals(20, first.getInt(Field.VOLUME, -1));
+        assertEquals(25, second.getInt(Field.VOLUME, -1));
+        assertTrue(second.getVersion() > first.getVersion());
+    }
+
+    @Test
+    public void equalValueKeepsSnapshot() {
+        RadioState state = RadioState.EMPTY.with(Field.HD_CALLSIGN, "WXYZ");
+        assertSame(state, state.with(Field.HD_CALLSIGN, "WXYZ"));
+        assertSame(state, state.withPower(false));
+    }
+
+    @Test
+    public void typedGettersFallBackToDefaults() {
+        RadioState state = RadioState.EMPTY.with(Field.MUTE, true)
+                .with(Field.RDS_GENRE, "Jazz");
+        assertTrue(state.getBoolean(Field.MUTE, false));
+        assertFalse(state.getBoolean(Field.HD_ACTIVE, false));
+        assertEquals("Jazz", state.getString(Field.RDS_GENRE));
+        assertNull(state.getString(Field.RDS_RADIO_TEXT));
+        assertEquals(-1, state.getInt(Field.RDS_GENRE, -1));
+    }
+
+    @Test
+    public void changedSinceListsNewerFields() {
+        RadioState state = RadioState.EMPTY.with(Field.VOLUME, 20).with(Field.BASS, 3);
+        long version = state.getVersion();
+        state = state.with(Field.TREBLE, 4).with(Field.VOLUME, 21);
+
+        assertEquals(Field.TREBLE.bit() | Field.VOLUME.bit(), state.getChangedSince(version));
+        assertEquals(Field.TREBLE.bit() | Field.VOLUME.bit() | Field.BASS.bit(),
+                state.getValueMask());
+    }
+
+    @Test
+    public void tuneClearsStationFields() {
+        RadioState state = RadioState.EMPTY.with(Field.SEEK, "101.1")
+                .with(Field.HD_CALLSIGN, "WXYZ").with(Field.VOLUME, 20);
+        assertTrue(state.hasValue(Field.SEEK));
+
+        state = state.with(Field.TUNE, "101.5");
+        assertFalse(state.hasValue(Field.SEEK));
+        assertFalse(state.hasValue(Field.HD_CALLSIGN));
+        assertEquals(20, state.getInt(Field.VOLUME, -1));
+        assertEquals("101.5", state.getValue(Field.TUNE));
+
+        // The same callsign from the new station is a change
+        assertNotSame(state, state.with(Field.HD_CALLSIGN, "WXYZ"));
+    }
+
+    @Test
+    public void clearedDropsValuesAndPower() {
+        RadioState state = RadioState.EMPTY.withPower(true).with(Field.VOLUME, 20);
+        RadioState cleared = state.cleared();
+
+        assertTrue(state.isPoweredOn());
+        assertFalse(cleared.isPoweredOn());
+        assertEquals(0, cleared.getValueMask());
+        assertTrue(cleared.getVersion() > state.getVersion());
+    }
+}
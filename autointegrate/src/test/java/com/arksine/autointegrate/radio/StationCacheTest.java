@@ -0,0 +1,164 @@
+package com.arksine.autointegrate.radio;
+
+import com.arksine.autointegrate.radio.RadioState.Field;
+import com.arksine.autointegrate.radio.StationCache.Station;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the station metadata cache and presets
+ */
+public class StationCacheTest {
+
+    private static final Station WXYZ = new Station(StationCache.BAND_FM, 1015, 0);
+    private static final Station WXYZ_HD2 = new Station(StationCache.BAND_FM, 1015, 2);
+    private static final Station KABC = new Station(StationCache.BAND_AM, 790, 0);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("station_cache", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void valuesAreKeptPerStation() {
+        StationCache cache = new StationCache(mFile, 8);
+        assertTrue(cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ"));
+        assertTrue(cache.update(WXYZ, Field.HD_SUBCHANNEL_COUNT, 3));
+        assertTrue(cache.update(WXYZ_HD2, Field.RDS_GENRE, "Jazz"));
+
+        StationCache.Info info = cache.get(new Station(StationCache.BAND_FM, 1015, 0));
+        assertEquals("WXYZ", info.getCallsign());
+        assertEquals(3, info.getSubchannelCount());
+        assertNull(info.getGenre());
+        assertEquals(3, info.getValue(Field.HD_SUBCHANNEL_COUNT));
+        assertEquals("Jazz", cache.get(WXYZ_HD2).getGenre());
+        assertEquals(-1, cache.get(WXYZ_HD2).getSubchannelCount());
+        assertNull(cache.get(WXYZ_HD2).getValue(Field.HD_SUBCHANNEL_COUNT));
+        assertNull(cache.get(KABC));
+    }
+
+    @Test
+    public void otherFieldsAndRepeatsAreIgnored() {
+        StationCache cache = new StationCache(mFile, 8);
+        assertFalse(cache.update(WXYZ, Field.VOLUME, 20));
+        assertFalse(cache.update(WXYZ, Field.HD_CALLSIGN, null));
+        assertEquals(0, cache.size());
+
+        assertTrue(cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ"));
+        assertFalse(cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        StationCache cache = new StationCache(mFile, 2);
+        cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ");
+        cache.update(KABC, Field.HD_CALLSIGN, "KABC");
+        cache.get(WXYZ);
+        cache.update(WXYZ_HD2, Field.HD_CALLSIGN, "WXYZ");
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(WXYZ));
+        assertNull(cache.get(KABC));
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws Exception {
+        StationCache cache = new StationCache(mFile, 8);
+        cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ");
+        cache.update(WXYZ, Field.HD_STATION_NAME, "Smooth \u00e9t\u00e9 FM");
+        cache.update(KABC, Field.RDS_GENRE, "Talk");
+        cache.update(KABC, Field.HD_SUBCHANNEL_COUNT, 2);
+        cache.setPreset(0, WXYZ);
+        cache.setPreset(4, KABC);
+        assertTrue(cache.isDirty());
+        cache.save();
+        assertFalse(cache.isDirty());
+
+        StationCache loaded = new StationCache(mFile, 8);
+        loaded.load();
+        assertEquals(2, loaded.size());
+        assertEquals("WXYZ", loaded.get(WXYZ).getCallsign());
+        assertEquals("Smooth \u00e9t\u00e9 FM", loaded.get(WXYZ).getStationName());
+        assertNull(loaded.get(WXYZ).getGenre());
+        assertEquals("Talk", loaded.get(KABC).getGenre());
+        assertEquals(2, loaded.get(KABC).getSubchannelCount());
+        assertEquals(WXYZ, loaded.getPreset(0));
+        assertEquals(KABC, loaded.getPreset(4));
+        assertNull(loaded.getPreset(1));
+        assertEquals(StationCache.MAX_PRESETS, loaded.getPresets().size());
+        assertFalse(loaded.isDirty());
+    }
+
+    @Test
+    public void loadKeepsRecencyOrder() throws Exception {
+        StationCache cache = new StationCache(mFile, 2);
+        cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ");
+        cache.update(KABC, Field.HD_CALLSIGN, "KABC");
+        cache.get(WXYZ);
+        cache.save();
+
+        StationCache loaded = new StationCache(mFile, 2);
+        loaded.load();
+        loaded.update(WXYZ_HD2, Field.HD_CALLSIGN, "WXYZ");
+        assertNotNull(loaded.get(WXYZ));
+        assertNull(loaded.get(KABC));
+    }
+
+    @Test
+    public void missingFileLoadsEmpty() throws Exception {
+        StationCache cache = new StationCache(mFile, 8);
+        cache.load();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void badFileLoadsEmpty() throws Exception {
+        StationCache cache = new StationCache(mFile, 8);
+        cache.update(WXYZ, Field.HD_CALLSIGN, "WXYZ");
+        cache.setPreset(0, WXYZ);
+        cache.save();
+
+        // Cut the file short
+        long length = mFile.length();
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.getChannel().truncate(length - 2);
+        out.close();
+
+        StationCache loaded = new StationCache(mFile, 8);
+        try {
+            loaded.load();
+            fail("Truncated file loaded");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, loaded.size());
+        assertNull(loaded.getPreset(0));
+
+        out = new FileOutputStream(mFile);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        try {
+            loaded.load();
+            fail("Garbage loaded");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, loaded.size());
+    }
+}
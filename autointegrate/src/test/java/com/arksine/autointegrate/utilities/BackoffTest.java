@@ -0,0 +1,64 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the connection retry backoff
+ */
+public class BackoffTest {
+
+    @Test
+    public void delayDoublesWithinJitterRange() {
+        Backoff backoff = new Backoff(100, 100000, new Random(1));
+        long nominal = 100;
+        for (int i = 0; i < 8; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue("attempt " + i + " delay " + delay, delay >= nominal / 2 && delay <= nominal);
+            nominal *= 2;
+        }
+        assertEquals(8, backoff.getAttempts());
+    }
+
+    @Test
+    public void delayIsCappedAtMaximum() {
+        Backoff backoff = new Backoff(100, 1000, new Random(2));
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay <= 1000);
+        }
+        assertTrue(backoff.nextDelay() >= 500);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        Backoff backoff = new Backoff(100, 100000, new Random(3));
+        for (int i = 0; i < 10; i++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelay() <= 100);
+    }
+
+    @Test
+    public void jitterSpreadsDelays() {
+        Backoff first = new Backoff(1000, 1000, new Random(4));
+        Backoff second = new Backoff(1000, 1000, new Random(5));
+        boolean differs = false;
+        for (int i = 0; i < 10; i++) {
+            if (first.nextDelay() != second.nextDelay()) {
+                differs = true;
+            }
+        }
+        assertTrue(differs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidDelays() {
+        new Backoff(1000, 100);
+    }
+}
@@ -0,0 +1,102 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the binary log format and its decoder
+ */
+public class BinaryLogFormatTest {
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = Files.createTempDirectory("binary_log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    private static DataInputStream stream(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void entriesRoundTrip() throws Exception {
+        DataInputStream input = stream(BinaryLogFormat.FILE_HEADER,
+                BinaryLogFormat.encode(4, 123456789L, "MicroControllerCom", "Connected \u00b5C"),
+                BinaryLogFormat.encode(6, 123456790L, null, "Failed"));
+        BinaryLogFormat.readHeader(input);
+
+        BinaryLogFormat.Entry entry = BinaryLogFormat.readEntry(input);
+        assertEquals(4, entry.getPriority());
+        assertEquals(123456789L, entry.getTime());
+        assertEquals("MicroControllerCom", entry.getTag());
+        assertEquals("Connected \u00b5C", entry.getMessage());
+
+        entry = BinaryLogFormat.readEntry(input);
+        assertEquals(6, entry.getPriority());
+        assertEquals("", entry.getTag());
+        assertEquals("Failed", entry.getMessage());
+
+        assertNull(BinaryLogFormat.readEntry(input));
+    }
+
+    @Test
+    public void truncatedEntryEndsStream() throws Exception {
+        byte[] entry = BinaryLogFormat.encode(3, 1L, "Tag", "A message that gets cut off");
+        DataInputStream input = stream(BinaryLogFormat.encode(3, 0L, "Tag", "Whole"),
+                Arrays.copyOf(entry, entry.length - 5));
+
+        assertEquals("Whole", BinaryLogFormat.readEntry(input).getMessage());
+        assertNull(BinaryLogFormat.readEntry(input));
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongHeaderIsRejected() throws Exception {
+        BinaryLogFormat.readHeader(stream("time,level,tag\n".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void decoderPrintsWrittenLog() throws Exception {
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", BinaryLogFormat.FILE_EXTENSION,
+                1000, 64, BinaryLogFormat.FILE_HEADER);
+        writer.write(BinaryLogFormat.encode(5, 0L, "RadioCom", "No response"));
+        writer.write(BinaryLogFormat.encode(2, 1000L, "ServiceThread", "Done"));
+        writer.close();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream print = new PrintStream(out, true, "UTF-8");
+        int count = LogDecoder.decode(writer.getCurrentFile().getPath(), print);
+        assertEquals(2, count);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertTrue(lines[0].endsWith(" W/RadioCom: No response"));
+        assertTrue(lines[1].endsWith(" V/ServiceThread: Done"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the boot trace ring file
+ */
+public class BootTraceFileTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("boot_trace", ".bin");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static BootTraceFile.Record record(long wallTime, int... phases) {
+        return new BootTraceFile.Record(wallTime, phases);
+    }
+
+    @Test
+    public void recordsSurviveReopen() throws Exception {
+        BootTraceFile traceFile = new BootTraceFile(mFile, 4, 3);
+        traceFile.append(record(1000, 10, 20, -1));
+        int sequence = traceFile.append(record(2000, 15, -1, -1));
+        traceFile.update(sequence, record(2000, 15, 25, 35));
+        traceFile.close();
+
+        List<BootTraceFile.Record> records = new BootTraceFile(mFile, 4, 3).readAll();
+        assertEquals(2, records.size());
+        assertEquals(1000, records.get(0).getWallTime());
+        assertEquals(-1, records.get(0).getPhaseTime(2));
+        assertEquals(2000, records.get(1).getWallTime());
+        assertEquals(35, records.get(1).getPhaseTime(2));
+    }
+
+    @Test
+    public void oldestRecordsAreOverwritten() throws Exception {
+        BootTraceFile traceFile = new BootTraceFile(mFile, 3, 1);
+        int first = traceFile.append(record(0, 0));
+        for (int i = 1; i < 8; i++) {
+            traceFile.append(record(i, i));
+        }
+
+        List<BootTraceFile.Record> records = traceFile.readAll();
+        assertEquals(3, records.size());
+        assertEquals(5, records.get(0).getWallTime());
+        assertEquals(7, records.get(2).getWallTime());
+
+        // The file does not grow past its capacity
+        assertEquals(16 + 3 * 12, mFile.length());
+
+        // Updating an overwritten record does nothing
+        traceFile.update(first, record(100, 100));
+        assertEquals(5, traceFile.readAll().get(0).getWallTime());
+        traceFile.close();
+    }
+
+    @Test
+    public void differentLayoutStartsOver() throws Exception {
+        BootTraceFile traceFile = new BootTraceFile(mFile, 4, 3);
+        traceFile.append(record(1000, 1, 2, 3));
+        traceFile.close();
+
+        // A new phase was added
+        traceFile = new BootTraceFile(mFile, 4, 4);
+        assertTrue(traceFile.readAll().isEmpty());
+        traceFile.append(record(2000, 1, 2, 3, 4));
+        assertEquals(1, traceFile.readAll().size());
+        traceFile.close();
+    }
+
+    @Test
+    public void garbageFileStartsOver() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17});
+        out.close();
+
+        BootTraceFile traceFile = new BootTraceFile(mFile, 4, 2);
+        assertTrue(traceFile.readAll().isEmpty());
+        traceFile.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongPhaseCountIsRejected() throws Exception {
+        BootTraceFile traceFile = new BootTraceFile(mFile, 4, 2);
+        try {
+            traceFile.append(record(0, 1, 2, 3));
+        } finally {
+            traceFile.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the boot trace summary
+ */
+public class BootTraceTest {
+
+    private static final int PHASE_COUNT = BootTrace.Phase.values().length;
+
+    private static BootTraceFile.Record boot(int serviceStart, int mcuStarted) {
+        int[] phases = new int[PHASE_COUNT];
+        Arrays.fill(phases, -1);
+        phases[BootTrace.Phase.SERVICE_START.ordinal()] = serviceStart;
+        phases[BootTrace.Phase.MCU_STARTED.ordinal()] = mcuStarted;
+        return new BootTraceFile.Record(0, phases);
+    }
+
+    @Test
+    public void percentilesOverRecentBoots() {
+        List<BootTraceFile.Record> records = new ArrayList<>();
+        // Old boots that fall outside the window
+        for (int i = 0; i < 5; i++) {
+            records.add(boot(100000, 100000));
+        }
+        for (int i = 1; i <= 10; i++) {
+            records.add(boot(i * 10, (i % 2 == 0) ? i * 100 : -1));
+        }
+
+        BootTrace.PhaseSummary[] summaries = BootTrace.summarize(records, 10);
+        assertEquals(PHASE_COUNT, summaries.length);
+
+        BootTrace.PhaseSummary service = summaries[BootTrace.Phase.SERVICE_START.ordinal()];
+        assertEquals(10, service.getCount());
+        assertEquals(50, service.getMedian());
+        assertEquals(90, service.getP90());
+        assertEquals(100, service.getMax());
+
+        // Only the boots that reached the phase count
+        BootTrace.PhaseSummary started = summaries[BootTrace.Phase.MCU_STARTED.ordinal()];
+        assertEquals(5, started.getCount());
+        assertEquals(600, started.getMedian());
+        assertEquals(1000, started.getMax());
+
+        BootTrace.PhaseSummary radio = summaries[BootTrace.Phase.RADIO_OPENED.ordinal()];
+        assertEquals(0, radio.getCount());
+        assertEquals(-1, radio.getMedian());
+    }
+
+    @Test
+    public void fewerBootsThanRequested() {
+        List<BootTraceFile.Record> records = new ArrayList<>();
+        records.add(boot(40, 900));
+
+        BootTrace.PhaseSummary[] summaries = BootTrace.summarize(records, 50);
+        BootTrace.PhaseSummary started = summaries[BootTrace.Phase.MCU_STARTED.ordinal()];
+        assertEquals(1, started.getCount());
+        assertEquals(900, started.getMedian());
+        assertEquals(900, started.getP90());
+
+        assertEquals(0, BootTrace.summarize(new ArrayList<BootTraceFile.Record>(), 10)[0]
+                .getCount());
+    }
+}
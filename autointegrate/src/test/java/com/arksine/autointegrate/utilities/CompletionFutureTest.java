@@ -0,0 +1,175 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the callback completed future
+ */
+public class CompletionFutureTest {
+
+    private static <V> CompletionFuture.Callback<V> record(final List<String> log,
+                                                           final String name) {
+        return new CompletionFuture.Callback<V>() {
+            @Override
+            public void onComplete(CompletionFuture<V> future) {
+                log.add(name + " " + future.getNow(null));
+            }
+        };
+    }
+
+    @Test
+    public void callbacksRunOnceInOrder() throws Exception {
+        List<String> log = new ArrayList<>();
+        CompletionFuture<String> future = new CompletionFuture<>();
+        future.addCallback(CompletionFutureTest.<String>record(log, "a"));
+        future.addCallback(CompletionFutureTest.<String>record(log, "b"));
+        assertTrue(log.isEmpty());
+
+        assertTrue(future.complete("open"));
+        assertFalse(future.complete("again"));
+        assertFalse(future.cancel(false));
+        future.addCallback(CompletionFutureTest.<String>record(log, "c"));
+
+        assertEquals(Arrays.asList("a open", "b open", "c open"), log);
+        assertEquals("open", future.get());
+        assertTrue(future.isSuccessful());
+    }
+
+    @Test
+    public void callbacksRunBeforeGetReturns() throws Exception {
+        final CompletionFuture<Boolean> future = new CompletionFuture<>();
+        final CountDownLatch inCallback = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> log = new ArrayList<>();
+        future.addCallback(new CompletionFuture.Callback<Boolean>() {
+            @Override
+            public void onComplete(CompletionFuture<Boolean> f) {
+                inCallback.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                synchronized (log) {
+                    log.add("callback");
+                }
+            }
+        });
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.complete(true);
+            }
+        }).start();
+        assertTrue(inCallback.await(2, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        try {
+            future.get(20, TimeUnit.MILLISECONDS);
+            fail("get() returned while a callback was running");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        release.countDown();
+        assertTrue(future.get(2, TimeUnit.SECONDS));
+        synchronized (log) {
+            assertEquals(Arrays.asList("callback"), log);
+        }
+    }
+
+    @Test
+    public void failureAndCancellation() throws Exception {
+        CompletionFuture<Void> failed = new CompletionFuture<>();
+        IllegalStateException error = new IllegalStateException("no radio");
+        assertTrue(failed.fail(error));
+        assertSame(error, failed.getError());
+        try {
+            failed.get();
+            fail("Failed future returned");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+
+        CompletionFuture<Void> cancelled = new CompletionFuture<>();
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(cancelled.getError() instanceof CancellationException);
+        try {
+            cancelled.get();
+            fail("Cancelled future returned");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void timeoutFailsPendingFuture() throws Exception {
+        CompletionFuture<Boolean> slow = new CompletionFuture<Boolean>()
+                .orTimeout(20, TimeUnit.MILLISECONDS);
+        try {
+            slow.get(2, TimeUnit.SECONDS);
+            fail("Timed out future returned");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        CompletionFuture<Boolean> fast = new CompletionFuture<Boolean>()
+                .orTimeout(20, TimeUnit.MILLISECONDS);
+        fast.complete(true);
+        Thread.sleep(60);
+        assertTrue(fast.isSuccessful());
+    }
+
+    @Test
+    public void thenComposeChainsSteps() throws Exception {
+        final CompletionFuture<Void> closed = new CompletionFuture<>();
+        final CompletionFuture<Boolean> opened = new CompletionFuture<>();
+        final List<String> log = new ArrayList<>();
+        CompletionFuture<Boolean> reopened = closed.thenCompose(
+                new CompletionFuture.Continuation<Void, Boolean>() {
+                    @Override
+                    public CompletionFuture<Boolean> then(CompletionFuture<Void> previous) {
+                        log.add("closed " + previous.isSuccessful());
+                        return opened;
+                    }
+                });
+
+        assertTrue(log.isEmpty());
+        closed.fail(new TimeoutException());
+        assertEquals(Arrays.asList("closed false"), log);
+        assertFalse(reopened.isDone());
+
+        opened.complete(true);
+        assertTrue(reopened.get());
+    }
+
+    @Test
+    public void cancellingComposedFutureCancelsNextStep() {
+        CompletionFuture<Void> first = new CompletionFuture<>();
+        final CompletionFuture<Boolean> second = new CompletionFuture<>();
+        CompletionFuture<Boolean> result = first.thenCompose(
+                new CompletionFuture.Continuation<Void, Boolean>() {
+                    @Override
+                    public CompletionFuture<Boolean> then(CompletionFuture<Void> previous) {
+                        return second;
+                    }
+                });
+
+        first.complete(null);
+        result.cancel(false);
+        assertTrue(second.isCancelled());
+        assertTrue(first.isSuccessful());
+    }
+}
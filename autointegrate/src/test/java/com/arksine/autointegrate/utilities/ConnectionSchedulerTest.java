@@ -0,0 +1,322 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the module connection scheduler
+ */
+public class ConnectionSchedulerTest {
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "Scheduler Test");
+        }
+    };
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private ConnectionScheduler mScheduler = null;
+
+    // Fails until told to succeed, can be made to block while connecting
+    private static class TestModule implements ConnectionScheduler.Module {
+        final String name;
+        final AtomicInteger attempts = new AtomicInteger(0);
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        volatile int maxConcurrent = 0;
+        volatile boolean succeed = false;
+        volatile boolean enabled = true;
+        volatile boolean connected = false;
+        volatile CountDownLatch gate = null;
+        final CountDownLatch connectedLatch = new CountDownLatch(1);
+
+        TestModule(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        @Override
+        public boolean connect() {
+            attempts.incrementAndGet();
+            maxConcurrent = Math.max(maxConcurrent, concurrent.incrementAndGet());
+            try {
+                CountDownLatch latch = gate;
+                if (latch != null) {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+                connected = succeed;
+                if (connected) {
+                    connectedLatch.countDown();
+                }
+                return connected;
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+    }
+
+    private static Backoff fastBackoff() {
+        return new Backoff(5, 20, new Random(1));
+    }
+
+    private void waitForState(String name, ConnectionScheduler.State state) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mScheduler.getState(name) != state) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(name + " never reached " + state + ", is " + mScheduler.getState(name));
+            }
+            Thread.sleep(2);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mScheduler != null) {
+            mScheduler.stop();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void blockedModuleDoesNotDelayOthers() throws Exception {
+        TestModule slow = new TestModule("slow");
+        slow.gate = new CountDownLatch(1);
+        TestModule fast = new TestModule("fast");
+        fast.succeed = true;
+
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(slow, fastBackoff());
+        mScheduler.addModule(fast, fastBackoff());
+        mScheduler.start();
+
+        assertTrue(fast.connectedLatch.await(2, TimeUnit.SECONDS));
+        assertEquals(ConnectionScheduler.State.CONNECTING, mScheduler.getState("slow"));
+        slow.gate.countDown();
+    }
+
+    @Test
+    public void retriesUntilConnected() throws Exception {
+        final TestModule module = new TestModule("mcu");
+        final AtomicInteger connectedCalls = new AtomicInteger(0);
+
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY,
+                new ConnectionScheduler.Listener() {
+                    @Override
+                    public void onModuleConnected(ConnectionScheduler.Module m, long ms) {
+                        connectedCalls.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onModuleFailed(ConnectionScheduler.Module m) {}
+                });
+        mScheduler.addModule(module, fastBackoff());
+        mScheduler.start();
+
+        while (module.attempts.get() < 3) {
+            Thread.sleep(2);
+        }
+        module.succeed = true;
+        assertTrue(module.connectedLatch.await(2, TimeUnit.SECONDS));
+        waitForState("mcu", ConnectionScheduler.State.CONNECTED);
+        assertEquals(1, connectedCalls.get());
+    }
+
+    @Test
+    public void givesUpAfterMaximumAttemptsAndWakes() throws Exception {
+        TestModule module = new TestModule("radio");
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(module, fastBackoff());
+        mScheduler.start();
+
+        waitForState("radio", ConnectionScheduler.State.FAILED);
+        assertEquals(ConnectionScheduler.MAX_ATTEMPTS, module.attempts.get());
+
+        Thread.sleep(50);
+        assertEquals(ConnectionScheduler.MAX_ATTEMPTS, module.attempts.get());
+
+        // Hardware showed up
+        module.succeed = true;
+        mScheduler.wake();
+        waitForState("radio", ConnectionScheduler.State.CONNECTED);
+        assertEquals(ConnectionScheduler.MAX_ATTEMPTS + 1, module.attempts.get());
+    }
+
+    @Test
+    public void disabledModuleIsNotConnected() throws Exception {
+        TestModule module = new TestModule("mcu");
+        module.enabled = false;
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(module, fastBackoff());
+        mScheduler.start();
+
+        Thread.sleep(50);
+        assertEquals(ConnectionScheduler.State.STOPPED, mScheduler.getState("mcu"));
+        assertEquals(0, module.attempts.get());
+    }
+
+    @Test
+    public void restartWhileConnectingDoesNotOverlap() throws Exception {
+        TestModule module = new TestModule("mcu");
+        module.succeed = true;
+        module.gate = new CountDownLatch(1);
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(module, fastBackoff());
+        mScheduler.start();
+
+        waitForState("mcu", ConnectionScheduler.State.CONNECTING);
+        mScheduler.restart("mcu");
+        mScheduler.wake();
+        module.gate.countDown();
+
+        // The restart runs after the first attempt, it finds the module connected
+        waitForState("mcu", ConnectionScheduler.State.CONNECTED);
+        Thread.sleep(50);
+        assertEquals(1, module.maxConcurrent);
+        assertEquals(1, module.attempts.get());
+
+        module.connected = false;
+        mScheduler.restart("mcu");
+        waitForState("mcu", ConnectionScheduler.State.CONNECTED);
+        assertEquals(2, module.attempts.get());
+    }
+
+    @Test
+    public void stopCancelsRetries() throws Exception {
+        TestModule module = new TestModule("mcu");
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(module, new Backoff(50, 50, new Random(1)));
+        mScheduler.start();
+
+        waitForState("mcu", ConnectionScheduler.State.WAITING);
+        mScheduler.stop();
+        int attempts = module.attempts.get();
+        Thread.sleep(150);
+        assertEquals(attempts, module.attempts.get());
+        assertEquals(ConnectionScheduler.State.STOPPED, mScheduler.getState("mcu"));
+        mScheduler.wake();
+        mScheduler.restart("mcu");
+        assertFalse(mScheduler.isRunning());
+    }
+
+    // Connects when the test completes its future
+    private static class TestAsyncModule extends ConnectionScheduler.AsyncModule {
+        final String name;
+        final List<CompletionFuture<Boolean>> attempts = new CopyOnWriteArrayList<>();
+        volatile boolean connected = false;
+
+        TestAsyncModule(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public CompletionFuture<Boolean> connectAsync() {
+            CompletionFuture<Boolean> attempt = new CompletionFuture<>();
+            attempt.addCallback(new CompletionFuture.Callback<Boolean>() {
+                @Override
+                public void onComplete(CompletionFuture<Boolean> future) {
+                    connected = future.getNow(false);
+                }
+            });
+            attempts.add(attempt);
+            return attempt;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+    }
+
+    @Test
+    public void asyncModuleDoesNotHoldAttemptThread() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            TestAsyncModule radio = new TestAsyncModule("radio");
+            TestModule mcu = new TestModule("mcu");
+            mcu.succeed = true;
+
+            mScheduler = new ConnectionScheduler(single, THREAD_FACTORY, null);
+            mScheduler.addModule(radio, fastBackoff());
+            mScheduler.addModule(mcu, fastBackoff());
+            mScheduler.start();
+
+            // The radio is still connecting, the only attempt thread is free for the MCU
+            waitForState("radio", ConnectionScheduler.State.CONNECTING);
+            assertTrue(mcu.connectedLatch.await(2, TimeUnit.SECONDS));
+            assertEquals(ConnectionScheduler.State.CONNECTING, mScheduler.getState("radio"));
+
+            // A timed out attempt is retried
+            radio.attempts.get(0).fail(new TimeoutException());
+            while (radio.attempts.size() < 2) {
+                Thread.sleep(2);
+            }
+            radio.attempts.get(1).complete(true);
+            waitForState("radio", ConnectionScheduler.State.CONNECTED);
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void connectNowRunsOnCaller() throws Exception {
+        TestModule module = new TestModule("radio");
+        mScheduler = new ConnectionScheduler(mExecutor, THREAD_FACTORY, null);
+        mScheduler.addModule(module, new Backoff(50, 50, new Random(1)));
+        mScheduler.start(false);
+
+        Thread.sleep(20);
+        assertEquals(0, module.attempts.get());
+        assertEquals(ConnectionScheduler.State.STOPPED, mScheduler.getState("radio"));
+
+        // A failed attempt falls back to retrying with backoff
+        assertFalse(mScheduler.connectNow("radio"));
+        assertEquals(1, module.attempts.get());
+        assertEquals(ConnectionScheduler.State.WAITING, mScheduler.getState("radio"));
+
+        module.succeed = true;
+        waitForState("radio", ConnectionScheduler.State.CONNECTED);
+        assertTrue(mScheduler.connectNow("radio"));
+        assertEquals(2, module.attempts.get());
+    }
+}
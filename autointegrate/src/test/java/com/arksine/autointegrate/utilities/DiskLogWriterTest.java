@@ -0,0 +1,131 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the buffered, rolling disk log writer
+ */
+public class DiskLogWriterTest {
+
+    private File mFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = Files.createTempDirectory("disk_log").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    private File logFile(int index) {
+        return new File(mFolder, "log_" + index + ".csv");
+    }
+
+    private static void writeFile(File file, int size) throws Exception {
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(new byte[size]);
+        stream.close();
+    }
+
+    @Test
+    public void writesAreBufferedUntilFlush() throws Exception {
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 1000, 64, null);
+        writer.write("hello\n".getBytes("UTF-8"));
+        assertEquals(6, writer.getBufferedCount());
+        assertFalse(logFile(0).exists());
+
+        writer.flush();
+        assertEquals(0, writer.getBufferedCount());
+        assertEquals(6, logFile(0).length());
+        writer.close();
+    }
+
+    @Test
+    public void fullBufferIsWrittenOut() throws Exception {
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 1000, 16, null);
+        writer.write(new byte[10]);
+        writer.write(new byte[10]);
+        assertEquals(10, logFile(0).length());
+        assertEquals(10, writer.getBufferedCount());
+
+        // Larger than the buffer goes straight to the file
+        writer.write(new byte[40]);
+        assertEquals(60, logFile(0).length());
+        assertEquals(0, writer.getBufferedCount());
+        writer.close();
+    }
+
+    @Test
+    public void rollsToNextFileAtMaxSize() throws Exception {
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 100, 64, null);
+        for (int i = 0; i < 5; i++) {
+            writer.write(new byte[60]);
+            writer.flush();
+        }
+        writer.close();
+
+        assertEquals(120, logFile(0).length());
+        assertEquals(120, logFile(1).length());
+        assertEquals(60, logFile(2).length());
+        assertEquals(logFile(2), writer.getCurrentFile());
+    }
+
+    @Test
+    public void continuesNewestExistingFile() throws Exception {
+        writeFile(logFile(0), 200);
+        writeFile(logFile(3), 10);
+        writeFile(new File(mFolder, "log_old.csv"), 10);
+
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 100, 64, null);
+        writer.write(new byte[5]);
+        writer.close();
+        assertEquals(logFile(3), writer.getCurrentFile());
+        assertEquals(15, logFile(3).length());
+    }
+
+    @Test
+    public void fullExistingFileStartsNextIndex() throws Exception {
+        writeFile(logFile(2), 100);
+
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 100, 64, null);
+        writer.write(new byte[5]);
+        writer.close();
+        assertEquals(logFile(3), writer.getCurrentFile());
+        assertEquals(5, logFile(3).length());
+    }
+
+    @Test
+    public void headerWrittenToEachNewFile() throws Exception {
+        byte[] header = {1, 2, 3, 4};
+        DiskLogWriter writer = new DiskLogWriter(mFolder, "log", "csv", 50, 64, header);
+        writer.write(new byte[50]);
+        writer.flush();
+        writer.write(new byte[10]);
+        writer.close();
+
+        assertEquals(54, logFile(0).length());
+        assertEquals(14, logFile(1).length());
+
+        // Appending to an existing file does not repeat the header
+        writer = new DiskLogWriter(mFolder, "log", "csv", 50, 64, header);
+        writer.write(new byte[10]);
+        writer.close();
+        assertEquals(24, logFile(1).length());
+    }
+}
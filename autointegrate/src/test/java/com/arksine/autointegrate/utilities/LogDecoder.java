@@ -0,0 +1,74 @@
+package com.arksine.autointegrate.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Desktop tool that prints binary log files as text, one line per entry.  It lives with the
+ * host tests so it isn't shipped in the APK, run it from the unit test build:
+ *
+ *  java -cp &lt;test classes&gt;:&lt;classes&gt; com.arksine.autointegrate.utilities.LogDecoder
+ *      autointegrate_0.bin ...
+ *
+ * This is plain Java, it has no Android dependencies.
+ */
+public class LogDecoder {
+
+    private static final String PRIORITIES = "??VDIWEA";
+
+    private LogDecoder() {}
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: LogDecoder <log file>...");
+            System.exit(1);
+        }
+
+        boolean failed = false;
+        for (String fileName : args) {
+            try {
+                decode(fileName, System.out);
+            } catch (IOException e) {
+                System.err.println(fileName + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Prints every entry in a binary log file.  Returns the number of entries.
+     */
+    public static int decode(String fileName, PrintStream out) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        int count = 0;
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileName)));
+        try {
+            BinaryLogFormat.readHeader(input);
+            BinaryLogFormat.Entry entry;
+            while ((entry = BinaryLogFormat.readEntry(input)) != null) {
+                out.println(format(entry, dateFormat));
+                count++;
+            }
+        } finally {
+            input.close();
+        }
+        return count;
+    }
+
+    static String format(BinaryLogFormat.Entry entry, SimpleDateFormat dateFormat) {
+        int priority = entry.getPriority();
+        char level = (priority < PRIORITIES.length()) ? PRIORITIES.charAt(priority) : '?';
+        return String.format(Locale.US, "%s %c/%s: %s",
+                dateFormat.format(new Date(entry.getTime())), level, entry.getTag(),
+                entry.getMessage());
+    }
+}
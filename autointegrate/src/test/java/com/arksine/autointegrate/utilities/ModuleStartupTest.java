@@ -0,0 +1,134 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the module startup graph
+ */
+public class ModuleStartupTest {
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    private ModuleStartup.Task task(final String name, final boolean result) {
+        return new ModuleStartup.Task() {
+            @Override
+            public boolean start() {
+                mOrder.add(name);
+                return result;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void dependenciesStartFirst() throws Exception {
+        ModuleStartup startup = new ModuleStartup();
+        // Added before its dependency on purpose
+        startup.add("power", task("power", true), "root");
+        startup.add("root", task("root", true));
+        startup.add("radio", task("radio", true), "mcu");
+        startup.add("mcu", task("mcu", true));
+        startup.start(mExecutor);
+
+        assertTrue(startup.await(2, TimeUnit.SECONDS));
+        assertTrue(mOrder.indexOf("root") < mOrder.indexOf("power"));
+        assertTrue(mOrder.indexOf("mcu") < mOrder.indexOf("radio"));
+        assertEquals(ModuleStartup.State.READY, startup.getState("radio"));
+        assertTrue(startup.getStartTime("radio") >= 0);
+        assertTrue(startup.getRunTime("radio") >= 0);
+    }
+
+    @Test
+    public void independentModulesStartInParallel() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        ModuleStartup.Task waitForOther = new ModuleStartup.Task() {
+            @Override
+            public boolean start() {
+                bothRunning.countDown();
+                try {
+                    return bothRunning.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        };
+
+        ModuleStartup startup = new ModuleStartup();
+        startup.add("mcu", waitForOther);
+        startup.add("radio", waitForOther);
+        startup.start(mExecutor);
+
+        assertTrue(startup.await(3, TimeUnit.SECONDS));
+        assertEquals(ModuleStartup.State.READY, startup.getState("mcu"));
+        assertEquals(ModuleStartup.State.READY, startup.getState("radio"));
+    }
+
+    @Test
+    public void failureSkipsDependents() throws Exception {
+        ModuleStartup startup = new ModuleStartup();
+        startup.add("mcu", task("mcu", false));
+        startup.add("radio", task("radio", true), "mcu");
+        startup.add("display", task("display", true), "radio");
+        startup.add("root", new ModuleStartup.Task() {
+            @Override
+            public boolean start() {
+                throw new RuntimeException("no su");
+            }
+        });
+        startup.start(mExecutor);
+
+        assertTrue(startup.await(2, TimeUnit.SECONDS));
+        assertEquals(ModuleStartup.State.FAILED, startup.getState("mcu"));
+        assertEquals(ModuleStartup.State.SKIPPED, startup.getState("radio"));
+        assertEquals(ModuleStartup.State.SKIPPED, startup.getState("display"));
+        assertEquals(ModuleStartup.State.FAILED, startup.getState("root"));
+        assertFalse(mOrder.contains("radio"));
+        assertEquals(-1, startup.getStartTime("radio"));
+    }
+
+    @Test
+    public void cycleIsRejected() {
+        ModuleStartup startup = new ModuleStartup();
+        startup.add("a", task("a", true), "c");
+        startup.add("b", task("b", true), "a");
+        startup.add("c", task("c", true), "b");
+        startup.add("d", task("d", true));
+        try {
+            startup.start(mExecutor);
+            fail("Cycle not detected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(mOrder.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownDependencyIsRejected() {
+        ModuleStartup startup = new ModuleStartup();
+        startup.add("radio", task("radio", true), "mcu");
+        startup.start(mExecutor);
+    }
+
+    @Test
+    public void emptyStartupFinishes() throws Exception {
+        ModuleStartup startup = new ModuleStartup();
+        startup.start(mExecutor);
+        assertTrue(startup.await(0, TimeUnit.MILLISECONDS));
+    }
+}
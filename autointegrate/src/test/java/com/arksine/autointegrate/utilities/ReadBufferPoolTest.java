@@ -0,0 +1,46 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the serial read buffer pool
+ */
+public class ReadBufferPoolTest {
+
+    @Test
+    public void reusesReleasedBuffers() {
+        ReadBufferPool pool = new ReadBufferPool(2, 64);
+        ReadBufferPool.Buffer first = pool.acquire();
+        first.setRange(0, 10);
+        assertEquals(1, pool.getFreeCount());
+
+        first.release();
+        assertEquals(2, pool.getFreeCount());
+
+        // Released twice, still only returned once
+        first.release();
+        assertEquals(2, pool.getFreeCount());
+
+        ReadBufferPool.Buffer again = pool.acquire();
+        ReadBufferPool.Buffer other = pool.acquire();
+        assertTrue(again == first || other == first);
+        assertEquals(0, again.getLength());
+        assertEquals(64, again.getData().length);
+        assertEquals(0, pool.getExtraAllocations());
+    }
+
+    @Test
+    public void allocatesWhenEmptyWithoutGrowing() {
+        ReadBufferPool pool = new ReadBufferPool(1, 16);
+        ReadBufferPool.Buffer first = pool.acquire();
+        ReadBufferPool.Buffer extra = pool.acquire();
+        assertNotSame(first, extra);
+        assertEquals(1, pool.getExtraAllocations());
+
+        first.release();
+        extra.release();
+        assertEquals(1, pool.getFreeCount());
+    }
+}
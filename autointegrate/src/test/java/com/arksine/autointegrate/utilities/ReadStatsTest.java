@@ -0,0 +1,44 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for serial read statistics
+ */
+public class ReadStatsTest {
+
+    @Test
+    public void tracksReadSizes() {
+        ReadStats stats = new ReadStats();
+        assertEquals(0, stats.getMinReadSize());
+
+        stats.record(10, 0);
+        stats.record(30, 10);
+        stats.record(20, 20);
+
+        assertEquals(3, stats.getReadCount());
+        assertEquals(60, stats.getByteCount());
+        assertEquals(10, stats.getMinReadSize());
+        assertEquals(20, stats.getMeanReadSize());
+        assertEquals(30, stats.getMaxReadSize());
+    }
+
+    @Test
+    public void measuresThroughputPerWindow() {
+        ReadStats stats = new ReadStats();
+        for (int t = 0; t < 1000; t += 100) {
+            stats.record(50, t);
+        }
+        // The first window is not complete yet
+        assertEquals(0, stats.getBytesPerSecond());
+
+        stats.record(50, 1000);
+        assertEquals(500, stats.getBytesPerSecond());
+
+        stats.reset();
+        assertEquals(0, stats.getReadCount());
+        assertEquals(0, stats.getBytesPerSecond());
+    }
+}
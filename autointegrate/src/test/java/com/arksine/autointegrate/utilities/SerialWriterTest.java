@@ -0,0 +1,223 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the single threaded serial writer
+ */
+public class SerialWriterTest {
+
+    private SerialWriter mWriter = null;
+
+    // Records the data and counts the write calls.  Can be made to block or fail.
+    private static class TestStream extends OutputStream {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final AtomicInteger writes = new AtomicInteger(0);
+        final AtomicInteger flushes = new AtomicInteger(0);
+        volatile CountDownLatch gate = null;
+        volatile boolean fail = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (fail) {
+                throw new IOException("write failed");
+            }
+            writes.incrementAndGet();
+            synchronized (data) {
+                data.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mWriter != null) {
+            mWriter.close();
+        }
+    }
+
+    @Test
+    public void coalescesQueuedWritesInOrder() throws Exception {
+        TestStream stream = new TestStream();
+        stream.gate = new CountDownLatch(1);
+        mWriter = new SerialWriter(stream, 16, 1000, 8, null);
+        mWriter.start("Test Writer");
+
+        // The first write blocks in the stream while the rest queue up behind it
+        SerialWriter.WriteFuture first = mWriter.write(new byte[] {0});
+        while (mWriter.getQueuedCount() > 0) {
+            Thread.sleep(1);
+        }
+        mWriter.write(new byte[] {1, 2});
+        mWriter.write(new byte[] {3, 4, 5});
+        mWriter.write(new byte[] {6, 7, 8, 9, 10, 11, 12, 13, 14, 15});   // larger than the buffer
+        SerialWriter.WriteFuture last = mWriter.write(new byte[] {16});
+        stream.gate.countDown();
+
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        assertTrue(last.get(1, TimeUnit.SECONDS));
+        byte[] expected = new byte[17];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        assertArrayEquals(expected, stream.data.toByteArray());
+        // {0}, then {1..5} combined, {6..15} on its own, {16}
+        assertEquals(4, stream.writes.get());
+        assertEquals(2, stream.flushes.get());
+    }
+
+    @Test
+    public void blocksThenFailsWhenQueueIsFull() throws Exception {
+        TestStream stream = new TestStream();
+        stream.gate = new CountDownLatch(1);
+        mWriter = new SerialWriter(stream, 1, 50, 64, null);
+        mWriter.start("Test Writer");
+
+        SerialWriter.WriteFuture first = mWriter.write(new byte[] {1});
+        while (mWriter.getQueuedCount() > 0) {
+            Thread.sleep(1);
+        }
+        SerialWriter.WriteFuture queued = mWriter.write(new byte[] {2});
+
+        long start = System.nanoTime();
+        SerialWriter.WriteFuture dropped = mWriter.write(new byte[] {3});
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue(dropped.isFailed());
+
+        stream.gate.countDown();
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        assertTrue(queued.get(1, TimeUnit.SECONDS));
+        assertArrayEquals(new byte[] {1, 2}, stream.data.toByteArray());
+    }
+
+    @Test
+    public void failsPendingWritesOnError() throws Exception {
+        TestStream stream = new TestStream();
+        stream.fail = true;
+        final CountDownLatch errors = new CountDownLatch(1);
+        mWriter = new SerialWriter(stream, 16, 1000, 64, new SerialWriter.ErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                errors.countDown();
+            }
+        });
+        mWriter.start("Test Writer");
+
+        SerialWriter.WriteFuture future = mWriter.write(new byte[] {1});
+        assertFalse(future.get(1, TimeUnit.SECONDS));
+        assertTrue(errors.await(1, TimeUnit.SECONDS));
+        assertFalse(mWriter.isRunning());
+        assertTrue(mWriter.write(new byte[] {2}).isFailed());
+    }
+
+    @Test
+    public void closeUnblocksStuckWrite() throws Exception {
+        // Like a socket stream, a write only returns once the stream is closed
+        final CountDownLatch writing = new CountDownLatch(1);
+        final AtomicInteger errors = new AtomicInteger(0);
+        OutputStream stuck = new OutputStream() {
+            private volatile boolean mClosed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                writing.countDown();
+                while (!mClosed) {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        // Ignored, as a blocked socket write would
+                    }
+                }
+                throw new IOException("stream closed");
+            }
+
+            @Override
+            public void close() {
+                mClosed = true;
+            }
+        };
+        mWriter = new SerialWriter(stuck, 16, 1000, 64, new SerialWriter.ErrorListener() {
+            @Override
+            public void onWriteError(IOException e) {
+                errors.incrementAndGet();
+            }
+        });
+        mWriter.start("Test Writer");
+
+        SerialWriter.WriteFuture future = mWriter.write(new byte[] {1});
+        assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        mWriter.close();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertFalse(future.get(1, TimeUnit.SECONDS));
+        assertEquals(0, errors.get());
+    }
+
+    @Test
+    public void writerStopsAfterReadSideFails() throws Exception {
+        // Like a dropped Bluetooth link: the remote end goes away, the reader sees the end of
+        // the stream and the helper is disconnected while the writer is idle
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket socket = new Socket(server.getInetAddress(), server.getLocalPort());
+        Socket remote = server.accept();
+        server.close();
+
+        mWriter = new SerialWriter(socket.getOutputStream(), 16, 1000, 64, null);
+        mWriter.start("Dropped Writer");
+        assertTrue(mWriter.write(new byte[] {1}).get(1, TimeUnit.SECONDS));
+        Thread writer = findThread("Dropped Writer");
+        assertNotNull(writer);
+
+        remote.close();
+        InputStream in = socket.getInputStream();
+        assertEquals(-1, in.read());
+        assertTrue(writer.isAlive());
+
+        mWriter.close();
+        socket.close();
+        writer.join(1000);
+        assertFalse(writer.isAlive());
+    }
+
+    private static Thread findThread(String name) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName())) {
+                return thread;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,69 @@
+package com.arksine.autointegrate.utilities;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host side tests for the device list diff reported by UsbHelper.enumerateChanges()
+ */
+public class UsbDeviceCacheTest {
+
+    // Entries as they appear in the device list, "name\nVID:PID:serial"
+    private static final String FTDI = "FT232R USB UART\n1027:24577:A50285BI";
+    private static final String CH340 = "USB Serial\n6790:29987:null";
+    private static final String CP2102 = "CP2102 USB to UART\n4292:60000:0001";
+
+    private static List<String> devices(String... entries) {
+        return new ArrayList<>(Arrays.asList(entries));
+    }
+
+    @Test
+    public void firstEnumerationReportsEverythingAdded() {
+        UsbDeviceCache.Changes changes = UsbDeviceCache.diff(
+                Collections.<String>emptyList(), devices(FTDI, CH340));
+
+        assertFalse(changes.isEmpty());
+        assertEquals(devices(FTDI, CH340), changes.getAdded());
+        assertTrue(changes.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void reportsAttachedAndDetachedDevices() {
+        UsbDeviceCache.Changes changes = UsbDeviceCache.diff(devices(FTDI, CH340),
+                devices(CH340, CP2102));
+
+        assertEquals(devices(CP2102), changes.getAdded());
+        assertEquals(devices(FTDI), changes.getRemoved());
+    }
+
+    @Test
+    public void orderDoesNotMatter() {
+        UsbDeviceCache.Changes changes = UsbDeviceCache.diff(devices(FTDI, CH340, CP2102),
+                devices(CP2102, FTDI, CH340));
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void sameDeviceWithNewSerialIsReplaced() {
+        String replacement = "FT232R USB UART\n1027:24577:A6008isP";
+        UsbDeviceCache.Changes changes = UsbDeviceCache.diff(devices(FTDI),
+                devices(replacement));
+
+        assertEquals(devices(replacement), changes.getAdded());
+        assertEquals(devices(FTDI), changes.getRemoved());
+    }
+
+    @Test
+    public void invalidateChangesGeneration() {
+        int generation = UsbDeviceCache.getGeneration();
+        UsbDeviceCache.invalidate();
+        assertEquals(generation + 1, UsbDeviceCache.getGeneration());
+    }
+}